@@ -24,6 +24,8 @@ import java.util.Objects;
 import javax.annotation.Nonnull;
 import com.google.common.collect.Range;
 import io.github.mzmine.util.MemoryMapStorage;
+import io.github.mzmine.util.scans.ChromatogramIndex;
+import io.github.mzmine.util.scans.FragmentScanIndex;
 import javafx.beans.property.ObjectProperty;
 import javafx.collections.ObservableList;
 import javafx.scene.paint.Color;
@@ -142,6 +144,18 @@ public interface RawDataFile {
   @Nonnull
   MemoryMapStorage getMemoryMapStorage();
 
+  /**
+   * Index of the scan data to calculate chromatograms of arbitrary m/z ranges
+   */
+  @Nonnull
+  ChromatogramIndex getChromatogramIndex();
+
+  /**
+   * Index of the fragment scans by precursor m/z to find the MS/MS scans of a feature
+   */
+  @Nonnull
+  FragmentScanIndex getFragmentScanIndex();
+
   void addScan(Scan newScan) throws IOException;
 
   void setRTRange(int msLevel, Range<Float> rtRange);
@@ -55,6 +55,23 @@ public class EfficientDataAccess {
     return new ScanDataAccess(dataFile, type, selection);
   }
 
+  /**
+   * The intended use of this memory access is to loop over all selected scans in a range of scan
+   * indices of a {@link RawDataFile} and access data points via {@link
+   * ScanDataAccess#getMzValue(int)} and {@link ScanDataAccess#getIntensityValue(int)}. Use one
+   * instance per thread to process disjoint ranges in parallel.
+   *
+   * @param dataFile       target data file to loop over all scans or mass lists
+   * @param type           processed or raw data
+   * @param selection      scan selection (null for all scans)
+   * @param fromScanInFile first scan index in the data file (inclusive)
+   * @param toScanInFile   last scan index in the data file (exclusive)
+   */
+  public static ScanDataAccess of(RawDataFile dataFile, ScanDataType type,
+      ScanSelection selection, int fromScanInFile, int toScanInFile) {
+    return new ScanDataAccess(dataFile, type, selection, fromScanInFile, toScanInFile);
+  }
+
   /**
    * Access the chromatographic data of features in a feature list sorted by scan ID (usually sorted
    * by retention time)
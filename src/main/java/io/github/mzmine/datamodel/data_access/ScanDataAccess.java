@@ -63,16 +63,33 @@ public class ScanDataAccess implements MassSpectrum {
    */
   protected ScanDataAccess(RawDataFile dataFile,
       ScanDataType type, ScanSelection selection) {
+    this(dataFile, type, selection, 0, dataFile.getNumOfScans());
+  }
+
+  /**
+   * The intended use of this memory access is to loop over all scans in a range of scan indices
+   * and access data points via {@link #getMzValue(int)} and {@link #getIntensityValue(int)}.
+   * Multiple instances on disjoint ranges can be used to process a data file in parallel.
+   *
+   * @param dataFile       target data file to loop over all scans or mass lists
+   * @param type           processed or raw data
+   * @param selection      processed or raw data
+   * @param fromScanInFile first scan index in the data file (inclusive)
+   * @param toScanInFile   last scan index in the data file (exclusive)
+   */
+  protected ScanDataAccess(RawDataFile dataFile, ScanDataType type, ScanSelection selection,
+      int fromScanInFile, int toScanInFile) {
     this.dataFile = dataFile;
     this.type = type;
     this.selection = selection;
+    this.currentScanInDataFile = fromScanInFile - 1;
     // count matching scans
     if (selection == null) {
-      totalScans = dataFile.getScans().size();
+      totalScans = toScanInFile - fromScanInFile;
     } else {
       int size = 0;
-      for (Scan s : dataFile.getScans()) {
-        if (selection.matches(s)) {
+      for (int i = fromScanInFile; i < toScanInFile; i++) {
+        if (selection.matches(dataFile.getScan(i))) {
           size++;
         }
       }
@@ -4,7 +4,9 @@ import io.github.mzmine.datamodel.featuredata.IonSeries;
 import io.github.mzmine.util.DataPointUtils;
 import io.github.mzmine.util.MemoryMapStorage;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -141,4 +143,53 @@ public class StorageUtils {
     }
     return buffer;
   }
+
+  /**
+   * Stores the given array into a float buffer.
+   *
+   * @param storage The storage to be used. If null, the values will be wrapped using {@link
+   *                FloatBuffer#wrap(float[])}.
+   * @param values  The values to be stored.
+   * @return The float buffer the values were stored in.
+   */
+  @Nonnull
+  public static FloatBuffer storeValuesToFloatBuffer(@Nullable final MemoryMapStorage storage,
+      @Nonnull final float[] values) {
+
+    FloatBuffer buffer;
+    if (storage != null) {
+      try {
+        buffer = storage.storeData(values);
+      } catch (IOException e) {
+        e.printStackTrace();
+        buffer = FloatBuffer.wrap(values);
+      }
+    } else {
+      buffer = FloatBuffer.wrap(values);
+    }
+    return buffer;
+  }
+
+  /**
+   * Stores the first length bytes of the given array into a byte buffer.
+   *
+   * @param storage The storage to be used. If null, the values will be copied into a new array of
+   *                the exact length and wrapped using {@link ByteBuffer#wrap(byte[])}.
+   * @param values  The values to be stored.
+   * @param length  The number of bytes to store.
+   * @return The byte buffer the values were stored in.
+   */
+  @Nonnull
+  public static ByteBuffer storeValuesToByteBuffer(@Nullable final MemoryMapStorage storage,
+      @Nonnull final byte[] values, final int length) {
+
+    if (storage != null) {
+      try {
+        return storage.storeData(values, 0, length);
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    return ByteBuffer.wrap(Arrays.copyOf(values, length));
+  }
 }
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.datamodel.features;
+
+import com.google.common.collect.BoundType;
+import com.google.common.collect.Range;
+import io.github.mzmine.util.IndexSort;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * An immutable snapshot of feature list rows sorted by their average m/z. Range queries are a
+ * binary search on m/z followed by a linear scan of the matching m/z window, in which the retention
+ * time and mobility are checked on primitive arrays. Queries do not create any objects.
+ * <p>
+ * The index does not observe the rows it was created from. {@link ModularFeatureList#getRowIndex()}
+ * returns an index that is kept in sync with the rows of a feature list.
+ * <p>
+ * Bounds are inclusive. Rows without an m/z or retention time (NaN) are only found if the
+ * respective range is unbounded. Rows without a mobility are never filtered by mobility.
+ */
+public class FeatureListRowIndex {
+
+  private final FeatureListRow[] rows;
+  // position of the rows in the list the index was created from
+  private final int[] positions;
+  private final double[] mzs;
+  private final float[] rts;
+  private final float[] mobilities;
+  // indices of the rows sorted by retention time, created on first use
+  private volatile int[] rtOrder;
+
+  /**
+   * Creates an index of the given rows. Query results report the position of a row in this list.
+   *
+   * @param rows the rows to index
+   */
+  public FeatureListRowIndex(@Nonnull List<? extends FeatureListRow> rows) {
+    final int n = rows.size();
+    final double[] unsortedMzs = new double[n];
+    for (int i = 0; i < n; i++) {
+      unsortedMzs[i] = rows.get(i).getAverageMZ();
+    }
+    positions = IndexSort.sort(unsortedMzs, true);
+
+    this.rows = new FeatureListRow[n];
+    mzs = new double[n];
+    rts = new float[n];
+    mobilities = new float[n];
+    for (int i = 0; i < n; i++) {
+      final FeatureListRow row = rows.get(positions[i]);
+      this.rows[i] = row;
+      mzs[i] = unsortedMzs[positions[i]];
+      rts[i] = row.getAverageRT();
+      mobilities[i] = row.getAverageMobility();
+    }
+  }
+
+  public int size() {
+    return rows.length;
+  }
+
+  /**
+   * Passes all rows inside the given ranges to the consumer, in ascending order of m/z.
+   */
+  public void forEachRow(double mzLower, double mzUpper, float rtLower, float rtUpper,
+      float mobilityLower, float mobilityUpper, @Nonnull Consumer<? super FeatureListRow> action) {
+    for (int i = firstIndex(mzLower); i < rows.length && isMzBelowUpper(mzs[i], mzUpper); i++) {
+      if (isInside(i, rtLower, rtUpper, mobilityLower, mobilityUpper)) {
+        action.accept(rows[i]);
+      }
+    }
+  }
+
+  /**
+   * Passes the position (in the list this index was created from) of all rows inside the given
+   * ranges to the consumer, in ascending order of m/z.
+   */
+  public void forEachPosition(double mzLower, double mzUpper, float rtLower, float rtUpper,
+      float mobilityLower, float mobilityUpper, @Nonnull IntConsumer action) {
+    for (int i = firstIndex(mzLower); i < rows.length && isMzBelowUpper(mzs[i], mzUpper); i++) {
+      if (isInside(i, rtLower, rtUpper, mobilityLower, mobilityUpper)) {
+        action.accept(positions[i]);
+      }
+    }
+  }
+
+  /**
+   * Passes the position (in the list this index was created from) of all rows inside the given
+   * ranges to the consumer, in ascending order of retention time. Use this instead of {@link
+   * #forEachPosition(double, double, float, float, float, float, IntConsumer)} if the retention time
+   * range is much narrower than the m/z range. The order of the rows by retention time is created
+   * on the first call.
+   */
+  public void forEachPositionByRT(double mzLower, double mzUpper, float rtLower, float rtUpper,
+      float mobilityLower, float mobilityUpper, @Nonnull IntConsumer action) {
+    final int[] order = getRtOrder();
+    for (int r = firstRtIndex(order, rtLower);
+        r < order.length && (rtUpper == Float.POSITIVE_INFINITY || rts[order[r]] <= rtUpper); r++) {
+      final int i = order[r];
+      final double mz = mzs[i];
+      if ((mzLower == Double.NEGATIVE_INFINITY || mz >= mzLower) && isMzBelowUpper(mz, mzUpper)
+          && isInside(i, rtLower, rtUpper, mobilityLower, mobilityUpper)) {
+        action.accept(positions[i]);
+      }
+    }
+  }
+
+  /**
+   * Passes all rows inside the given ranges to the consumer, in ascending order of m/z.
+   *
+   * @param mobilityRange the mobility range or null to not filter by mobility
+   */
+  public void forEachRow(@Nonnull Range<Double> mzRange, @Nonnull Range<Float> rtRange,
+      @Nullable Range<Float> mobilityRange, @Nonnull Consumer<? super FeatureListRow> action) {
+    forEachRow(lower(mzRange), upper(mzRange), lowerFloat(rtRange), upperFloat(rtRange),
+        lowerFloat(mobilityRange), upperFloat(mobilityRange), action);
+  }
+
+  /**
+   * Passes the position (in the list this index was created from) of all rows inside the given
+   * ranges to the consumer, in ascending order of m/z.
+   *
+   * @param mobilityRange the mobility range or null to not filter by mobility
+   */
+  public void forEachPosition(@Nonnull Range<Double> mzRange, @Nonnull Range<Float> rtRange,
+      @Nullable Range<Float> mobilityRange, @Nonnull IntConsumer action) {
+    forEachPosition(lower(mzRange), upper(mzRange), lowerFloat(rtRange), upperFloat(rtRange),
+        lowerFloat(mobilityRange), upperFloat(mobilityRange), action);
+  }
+
+  /**
+   * Returns all rows inside the given ranges in the order of the list this index was created from.
+   *
+   * @param mobilityRange the mobility range or null to not filter by mobility
+   */
+  @Nonnull
+  public FeatureListRow[] getRowsInListOrder(@Nonnull Range<Double> mzRange,
+      @Nonnull Range<Float> rtRange, @Nullable Range<Float> mobilityRange) {
+    final float rtLower = lowerFloat(rtRange);
+    final float rtUpper = upperFloat(rtRange);
+    final float mobilityLower = lowerFloat(mobilityRange);
+    final float mobilityUpper = upperFloat(mobilityRange);
+    final double mzUpper = upper(mzRange);
+    // position in the upper and index in the lower bits, sorted by position
+    long[] found = new long[16];
+    int numFound = 0;
+    for (int i = firstIndex(lower(mzRange)); i < rows.length && isMzBelowUpper(mzs[i], mzUpper);
+        i++) {
+      if (isInside(i, rtLower, rtUpper, mobilityLower, mobilityUpper)) {
+        if (numFound == found.length) {
+          found = Arrays.copyOf(found, numFound * 2);
+        }
+        found[numFound++] = ((long) positions[i] << 32) | i;
+      }
+    }
+    Arrays.sort(found, 0, numFound);
+
+    final FeatureListRow[] result = new FeatureListRow[numFound];
+    for (int f = 0; f < numFound; f++) {
+      result[f] = rows[(int) found[f]];
+    }
+    return result;
+  }
+
+  private boolean isInside(int i, float rtLower, float rtUpper, float mobilityLower,
+      float mobilityUpper) {
+    final float rt = rts[i];
+    if (!(rtLower == Float.NEGATIVE_INFINITY || rt >= rtLower)
+        || !(rtUpper == Float.POSITIVE_INFINITY || rt <= rtUpper)) {
+      return false;
+    }
+    final float mobility = mobilities[i];
+    return Float.isNaN(mobility) || (mobility >= mobilityLower && mobility <= mobilityUpper);
+  }
+
+  private static boolean isMzBelowUpper(double mz, double mzUpper) {
+    return mzUpper == Double.POSITIVE_INFINITY || mz <= mzUpper;
+  }
+
+  /**
+   * @return the first index with an m/z greater or equal to the given value
+   */
+  private int firstIndex(double mzLower) {
+    if (mzLower == Double.NEGATIVE_INFINITY) {
+      return 0;
+    }
+    int low = 0;
+    int high = mzs.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      // NaN values are sorted to the end and are never smaller than the lower bound
+      if (mzs[mid] < mzLower) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private int[] getRtOrder() {
+    int[] order = rtOrder;
+    if (order == null) {
+      final double[] values = new double[rts.length];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = rts[i];
+      }
+      // creating it twice in parallel does no harm
+      order = IndexSort.sort(values, true);
+      rtOrder = order;
+    }
+    return order;
+  }
+
+  /**
+   * @return the first index in the order by retention time with a retention time greater or equal
+   * to the given value
+   */
+  private int firstRtIndex(int[] order, float rtLower) {
+    if (rtLower == Float.NEGATIVE_INFINITY) {
+      return 0;
+    }
+    int low = 0;
+    int high = order.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      // NaN values are sorted to the end and are never smaller than the lower bound
+      if (rts[order[mid]] < rtLower) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private static double lower(@Nonnull Range<Double> range) {
+    if (!range.hasLowerBound()) {
+      return Double.NEGATIVE_INFINITY;
+    }
+    final double lower = range.lowerEndpoint();
+    return range.lowerBoundType() == BoundType.CLOSED ? lower : Math.nextUp(lower);
+  }
+
+  private static double upper(@Nonnull Range<Double> range) {
+    if (!range.hasUpperBound()) {
+      return Double.POSITIVE_INFINITY;
+    }
+    final double upper = range.upperEndpoint();
+    return range.upperBoundType() == BoundType.CLOSED ? upper : Math.nextDown(upper);
+  }
+
+  private static float lowerFloat(@Nullable Range<Float> range) {
+    if (range == null || !range.hasLowerBound()) {
+      return Float.NEGATIVE_INFINITY;
+    }
+    final float lower = range.lowerEndpoint();
+    return range.lowerBoundType() == BoundType.CLOSED ? lower : Math.nextUp(lower);
+  }
+
+  private static float upperFloat(@Nullable Range<Float> range) {
+    if (range == null || !range.hasUpperBound()) {
+      return Float.POSITIVE_INFINITY;
+    }
+    final float upper = range.upperEndpoint();
+    return range.upperBoundType() == BoundType.CLOSED ? upper : Math.nextDown(upper);
+  }
+}
@@ -6,6 +6,9 @@ import io.github.mzmine.datamodel.Scan;
 import io.github.mzmine.datamodel.features.types.DataType;
 import io.github.mzmine.datamodel.features.types.ManualAnnotationType;
 import io.github.mzmine.datamodel.features.types.numbers.IDType;
+import io.github.mzmine.datamodel.features.types.numbers.MZType;
+import io.github.mzmine.datamodel.features.types.numbers.MobilityType;
+import io.github.mzmine.datamodel.features.types.numbers.RTType;
 import io.github.mzmine.util.MemoryMapStorage;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -17,9 +20,16 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import javafx.beans.InvalidationListener;
+import javafx.beans.property.Property;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
+import javafx.collections.MapChangeListener;
 import javafx.collections.ObservableList;
 import javafx.collections.ObservableMap;
 import javax.annotation.Nonnull;
@@ -59,6 +69,14 @@ public class ModularFeatureList implements FeatureList {
   private Range<Double> mzRange;
   private Range<Float> rtRange;
 
+  /**
+   * Index of the rows by m/z, retention time and mobility. Created on demand and reset whenever
+   * rows are added or removed or the m/z, retention time or mobility of a row changes.
+   */
+  private final AtomicReference<FeatureListRowIndex> rowIndex = new AtomicReference<>();
+  private final AtomicInteger rowIndexVersion = new AtomicInteger(0);
+  private final InvalidationListener rowIndexInvalidator = observable -> invalidateRowIndex();
+
   /*public ModularFeatureList(String name) {
     this(name, List.of());
   }*/
@@ -79,11 +97,21 @@ public class ModularFeatureList implements FeatureList {
     this.name = name;
     this.dataFiles = FXCollections.observableList(dataFiles);
     featureListRows = FXCollections.observableArrayList();
+    featureListRows.addListener((ListChangeListener<FeatureListRow>) change -> {
+      while (change.next()) {
+        change.getRemoved().forEach(this::unobserveRowIndexValues);
+      }
+      invalidateRowIndex();
+    });
     descriptionOfAppliedTasks = FXCollections.observableArrayList();
     dateCreated = DATA_FORMAT.format(new Date());
     selectedScans = FXCollections.observableMap(new HashMap<>());
     this.memoryMapStorage = storage;
 
+    // rows get new properties for new types
+    rowTypes.addListener(
+        (MapChangeListener<Class<? extends DataType>, DataType>) change -> invalidateRowIndex());
+
     // only a few standard types
     addRowType(new IDType());
     addRowType(new ManualAnnotationType());
@@ -284,10 +312,76 @@ public class ModularFeatureList implements FeatureList {
   @Override
   public ObservableList<FeatureListRow> getRowsInsideScanAndMZRange(Range<Float> rtRange,
       Range<Double> mzRange) {
-    // TODO handle if mz or rt is not present
-    return modularStream().filter(
-        row -> rtRange.contains(row.getAverageRT()) && mzRange.contains(row.getAverageMZ()))
-        .collect(Collectors.toCollection(FXCollections::observableArrayList));
+    return FXCollections.observableArrayList(
+        getRowIndex().getRowsInListOrder(mzRange, rtRange, null));
+  }
+
+  /**
+   * Passes all rows inside the given ranges to the consumer, in ascending order of m/z and not in
+   * the order of this list like {@link #getRowsInsideScanAndMZRange(Range, Range)}. Does not
+   * create a new list and uses the row index of this feature list.
+   *
+   * @param mobilityRange the mobility range or null. Rows without a mobility are always included.
+   * @see #getRowIndex()
+   */
+  public void forEachRowInside(@Nonnull Range<Double> mzRange, @Nonnull Range<Float> rtRange,
+      @Nullable Range<Float> mobilityRange, @Nonnull Consumer<? super FeatureListRow> action) {
+    getRowIndex().forEachRow(mzRange, rtRange, mobilityRange, action);
+  }
+
+  /**
+   * The index is created on the first call and is reused until rows are added or removed or the
+   * m/z, retention time or mobility of a row changes.
+   *
+   * @return an index of all rows of this feature list by m/z, retention time and mobility.
+   */
+  @Nonnull
+  public FeatureListRowIndex getRowIndex() {
+    FeatureListRowIndex index = rowIndex.get();
+    if (index != null) {
+      return index;
+    }
+
+    final int version = rowIndexVersion.get();
+    // observe before reading the values, so no change is missed
+    featureListRows.forEach(this::observeRowIndexValues);
+    index = new FeatureListRowIndex(featureListRows);
+    // only keep the index if nothing changed in the meantime
+    if (rowIndex.compareAndSet(null, index) && rowIndexVersion.get() != version) {
+      rowIndex.compareAndSet(index, null);
+    }
+    return index;
+  }
+
+  private void invalidateRowIndex() {
+    rowIndexVersion.incrementAndGet();
+    rowIndex.set(null);
+  }
+
+  private void observeRowIndexValues(FeatureListRow row) {
+    if (row instanceof ModularFeatureListRow) {
+      ModularFeatureListRow modularRow = (ModularFeatureListRow) row;
+      for (Property<?> property : new Property<?>[]{modularRow.get(MZType.class),
+          modularRow.get(RTType.class), modularRow.get(MobilityType.class)}) {
+        if (property != null) {
+          // avoid registering the listener multiple times
+          property.removeListener(rowIndexInvalidator);
+          property.addListener(rowIndexInvalidator);
+        }
+      }
+    }
+  }
+
+  private void unobserveRowIndexValues(FeatureListRow row) {
+    if (row instanceof ModularFeatureListRow) {
+      ModularFeatureListRow modularRow = (ModularFeatureListRow) row;
+      for (Property<?> property : new Property<?>[]{modularRow.get(MZType.class),
+          modularRow.get(RTType.class), modularRow.get(MobilityType.class)}) {
+        if (property != null) {
+          property.removeListener(rowIndexInvalidator);
+        }
+      }
+    }
   }
 
   @Override
@@ -44,7 +44,7 @@ public abstract class DoubleType extends NumberType<Property<Double>>
   public String getFormattedString(@Nonnull Property<Double> value) {
     if (value.getValue() == null)
       return "";
-    return getFormatter().format(value.getValue().doubleValue());
+    return getThreadFormatter().format(value.getValue().doubleValue());
   }
 
 
@@ -43,7 +43,7 @@ public abstract class FloatType extends NumberType<Property<Float>> implements B
   public String getFormattedString(@Nonnull Property<Float> value) {
     if (value.getValue() == null)
       return "";
-    return getFormatter().format(value.getValue().floatValue());
+    return getThreadFormatter().format(value.getValue().floatValue());
   }
 
   @Override
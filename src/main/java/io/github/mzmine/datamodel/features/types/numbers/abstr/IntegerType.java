@@ -50,7 +50,7 @@ public abstract class IntegerType extends NumberType<Property<Integer>>
   public String getFormattedString(@Nonnull Property<Integer> value) {
     if (value.getValue() == null)
       return "";
-    return getFormatter().format(value.getValue().intValue());
+    return getThreadFormatter().format(value.getValue().intValue());
   }
 
   @Override
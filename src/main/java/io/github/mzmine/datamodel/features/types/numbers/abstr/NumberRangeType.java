@@ -51,8 +51,8 @@ public abstract class NumberRangeType<T extends Comparable<?>>
   @Nonnull
   public String getFormattedString(@Nonnull ObjectProperty<Range<T>> value) {
     return value.getValue() == null ? ""
-        : getFormatter().format(value.getValue().lowerEndpoint()) + "-"
-            + getFormatter().format(value.getValue().upperEndpoint());
+        : getThreadFormatter().format(value.getValue().lowerEndpoint()) + "-"
+            + getThreadFormatter().format(value.getValue().upperEndpoint());
   }
 
   /**
@@ -65,8 +65,8 @@ public abstract class NumberRangeType<T extends Comparable<?>>
   public String getFormattedString(@Nullable Object value) {
     if (value instanceof Range) {
       Range r = (Range) value;
-      return getFormatter().format(r.lowerEndpoint()) + "-"
-          + getFormatter().format(r.upperEndpoint());
+      return getThreadFormatter().format(r.lowerEndpoint()) + "-"
+          + getThreadFormatter().format(r.upperEndpoint());
     } else
       return "";
   }
@@ -124,9 +124,9 @@ public abstract class NumberRangeType<T extends Comparable<?>>
       return "";
     switch (subcolumn) {
       case 0:
-        return getFormatter().format(((Range) value).lowerEndpoint());
+        return getThreadFormatter().format(((Range) value).lowerEndpoint());
       case 1:
-        return getFormatter().format(((Range) value).upperEndpoint());
+        return getThreadFormatter().format(((Range) value).upperEndpoint());
     }
     return "";
   }
@@ -19,6 +19,8 @@
 package io.github.mzmine.datamodel.features.types.numbers.abstr;
 
 import java.text.NumberFormat;
+import java.util.Map;
+import java.util.WeakHashMap;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import io.github.mzmine.datamodel.features.types.DataType;
@@ -31,8 +33,31 @@ public abstract class NumberType<T extends Property<?>> extends DataType<T> {
     DEFAULT_FORMAT = defaultFormat;
   }
 
+  // copies of the shared formatters for every thread, NumberFormat is not thread safe
+  private static final ThreadLocal<Map<NumberFormat, NumberFormat>> threadFormatters =
+      ThreadLocal.withInitial(WeakHashMap::new);
+
   public abstract NumberFormat getFormatter();
 
+  /**
+   * The formatters of the preferences are shared by all types, but NumberFormat must not be used
+   * by multiple threads at once. Values are therefore formatted with a copy of {@link
+   * #getFormatter()} that is only used by the current thread.
+   *
+   * @return a copy of {@link #getFormatter()} for the current thread
+   */
+  protected NumberFormat getThreadFormatter() {
+    final NumberFormat formatter = getFormatter();
+    final Map<NumberFormat, NumberFormat> formatters = threadFormatters.get();
+    NumberFormat copy = formatters.get(formatter);
+    // the shared formatter might have been changed since it was copied
+    if (copy == null || !copy.equals(formatter)) {
+      copy = (NumberFormat) formatter.clone();
+      formatters.put(formatter, copy);
+    }
+    return copy;
+  }
+
   /**
    * A formatted string representation of the value
    * 
@@ -43,11 +68,11 @@ public abstract class NumberType<T extends Property<?>> extends DataType<T> {
   public String getFormattedString(@Nullable Object value) {
     if (value != null) {
       if (value instanceof Double || value instanceof Float)
-        return getFormatter().format(((Number) value).doubleValue());
+        return getThreadFormatter().format(((Number) value).doubleValue());
       else if (value instanceof Integer || value instanceof Long)
-        return getFormatter().format(((Number) value).longValue());
+        return getThreadFormatter().format(((Number) value).longValue());
       else
-        return getFormatter().format(value);
+        return getThreadFormatter().format(value);
     } else
       return "";
   }
@@ -18,24 +18,54 @@
 
 package io.github.mzmine.datamodel.impl;
 
+import com.google.common.collect.Range;
 import io.github.mzmine.datamodel.featuredata.impl.StorageUtils;
+import io.github.mzmine.modules.io.import_mzml_msdk.msdk.util.MSNumpress;
+import io.github.mzmine.util.LazyDoubleBuffer;
 import io.github.mzmine.util.MemoryMapStorage;
+import java.nio.ByteBuffer;
 import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
 import java.util.logging.Logger;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 /**
- * An implementation of MassSpectrum that stores the data points in a MemoryMapStorage.
+ * An implementation of MassSpectrum that stores the data points in a MemoryMapStorage. Depending on
+ * the {@link SpectrumCodec#getDefaultCodec()} at the time the data points are set, the values are
+ * stored in full precision or encoded and decoded on demand.
  */
 public abstract class AbstractStorableSpectrum extends AbstractMassSpectrum {
 
   private static final Logger logger = Logger.getLogger(AbstractStorableSpectrum.class.getName());
   private static final DoubleBuffer EMPTY_BUFFER = DoubleBuffer.wrap(new double[0]);
 
+  /**
+   * Number of encoded spectra per thread, whose values are kept decoded for random access.
+   */
+  private static final int DECODED_CACHE_SIZE = 8;
+
+  /**
+   * Values decoded by the last random accesses to encoded spectra on this thread, the most recently
+   * used first. Loops over {@link #getMzValue(int)} therefore only decode the spectrum once, even if
+   * they alternate between a few spectra, e.g. while merging or aligning scans.
+   */
+  private static final ThreadLocal<DecodedValues[]> lastDecoded =
+      ThreadLocal.withInitial(() -> new DecodedValues[DECODED_CACHE_SIZE]);
+
   protected DoubleBuffer mzValues;
   protected DoubleBuffer intensityValues;
 
+  private SpectrumCodec codec = SpectrumCodec.FULL;
+  private int numDataPoints = 0;
+  // encoded values, only used if the codec is not FULL
+  private ByteBuffer encodedMzValues;
+  private ByteBuffer encodedIntensityValues;
+  private FloatBuffer floatIntensityValues;
+  // values of a memory mapped file, only used if the data points are not stored in this session
+  private LazyDoubleBuffer lazyMzValues;
+  private LazyDoubleBuffer lazyIntensityValues;
+
   /**
    * Note: mz and intensity values for a scan shall only be set once and are enforced to be
    * immutable thereafter. These values shall ideally be set during instantiation of the given
@@ -64,8 +94,9 @@ public abstract class AbstractStorableSpectrum extends AbstractMassSpectrum {
 
     assert mzValues.length == intensityValues.length;
     // values shall not be reset, but can be set at a later stage
-    assert this.mzValues == null;
-    assert this.intensityValues == null;
+    assert this.mzValues == null && encodedMzValues == null;
+    assert this.intensityValues == null && encodedIntensityValues == null
+        && floatIntensityValues == null;
 
     for (int i = 0; i < mzValues.length - 1; i++) {
       if (mzValues[i] > mzValues[i + 1]) {
@@ -73,25 +104,106 @@ public abstract class AbstractStorableSpectrum extends AbstractMassSpectrum {
       }
     }
 
-    this.mzValues = StorageUtils.storeValuesToDoubleBuffer(storage, mzValues);
-    this.intensityValues = StorageUtils.storeValuesToDoubleBuffer(storage, intensityValues);
+    numDataPoints = mzValues.length;
+    codec = numDataPoints == 0 ? SpectrumCodec.FULL : SpectrumCodec.getDefaultCodec();
+
+    switch (codec) {
+      case FLOAT_INTENSITIES -> {
+        this.mzValues = StorageUtils.storeValuesToDoubleBuffer(storage, mzValues);
+        final float[] floatIntensities = new float[numDataPoints];
+        for (int i = 0; i < numDataPoints; i++) {
+          floatIntensities[i] = (float) intensityValues[i];
+        }
+        floatIntensityValues = StorageUtils.storeValuesToFloatBuffer(storage, floatIntensities);
+      }
+      case NUMPRESS -> {
+        final byte[] encoded = new byte[8 + numDataPoints * 5];
+        int length = MSNumpress.encodeLinear(mzValues, numDataPoints, encoded,
+            MSNumpress.optimalLinearFixedPoint(mzValues, numDataPoints));
+        encodedMzValues = StorageUtils.storeValuesToByteBuffer(storage, encoded, length);
+
+        length = MSNumpress.encodeSlof(intensityValues, numDataPoints, encoded,
+            MSNumpress.optimalSlofFixedPoint(intensityValues, numDataPoints));
+        encodedIntensityValues = StorageUtils.storeValuesToByteBuffer(storage, encoded, length);
+      }
+      default -> {
+        this.mzValues = StorageUtils.storeValuesToDoubleBuffer(storage, mzValues);
+        this.intensityValues = StorageUtils.storeValuesToDoubleBuffer(storage, intensityValues);
+      }
+    }
     updateMzRangeAndTICValues();
   }
 
+  /**
+   * Uses values of a memory mapped file as data points, e.g. of a project file. The values are
+   * only mapped when they are accessed, so the summary of the data points has to be given.
+   *
+   * @param mzRange         m/z range of the data points or null if there are no data points
+   * @param basePeakIndex   index of the most intense data point or null if there are no data
+   *                        points
+   * @param totalIonCurrent sum of all intensities
+   */
+  protected synchronized void setDataPoints(@Nonnull LazyDoubleBuffer mzValues,
+      @Nonnull LazyDoubleBuffer intensityValues, @Nullable Range<Double> mzRange,
+      @Nullable Integer basePeakIndex, double totalIonCurrent) {
+
+    assert mzValues.capacity() == intensityValues.capacity();
+    // values shall not be reset, but can be set at a later stage
+    assert this.mzValues == null && encodedMzValues == null && lazyMzValues == null;
+    assert this.intensityValues == null && encodedIntensityValues == null
+        && floatIntensityValues == null && lazyIntensityValues == null;
+
+    numDataPoints = mzValues.capacity();
+    codec = SpectrumCodec.FULL;
+    lazyMzValues = mzValues;
+    lazyIntensityValues = intensityValues;
+    this.mzRange = mzRange;
+    this.basePeakIndex = basePeakIndex;
+    this.totalIonCurrent = totalIonCurrent;
+  }
+
+  /**
+   * @return The codec the data points of this spectrum are stored with.
+   */
+  public SpectrumCodec getCodec() {
+    return codec;
+  }
+
+  @Override
+  public int getNumberOfDataPoints() {
+    return numDataPoints;
+  }
+
   DoubleBuffer getMzValues() {
-    if (mzValues == null) {
-      return EMPTY_BUFFER;
-    } else {
+    if (mzValues != null) {
       return mzValues;
+    } else if (lazyMzValues != null) {
+      return lazyMzValues.get();
+    } else if (encodedMzValues == null) {
+      return EMPTY_BUFFER;
+    }
+
+    final DecodedValues decoded = getDecodedValues();
+    if (decoded.mzs == null) {
+      decoded.mzs = getMzValues(new double[numDataPoints]);
     }
+    return DoubleBuffer.wrap(decoded.mzs, 0, numDataPoints).slice();
   }
 
   DoubleBuffer getIntensityValues() {
-    if (intensityValues == null) {
-      return EMPTY_BUFFER;
-    } else {
+    if (intensityValues != null) {
       return intensityValues;
+    } else if (lazyIntensityValues != null) {
+      return lazyIntensityValues.get();
+    } else if (encodedIntensityValues == null && floatIntensityValues == null) {
+      return EMPTY_BUFFER;
+    }
+
+    final DecodedValues decoded = getDecodedValues();
+    if (decoded.intensities == null) {
+      decoded.intensities = getIntensityValues(new double[numDataPoints]);
     }
+    return DoubleBuffer.wrap(decoded.intensities, 0, numDataPoints).slice();
   }
 
   @Override
@@ -99,7 +211,11 @@ public abstract class AbstractStorableSpectrum extends AbstractMassSpectrum {
     if (dst.length < getNumberOfDataPoints()) {
       dst = new double[getNumberOfDataPoints()];
     }
-    mzValues.get(0, dst, 0, getNumberOfDataPoints());
+    if (codec == SpectrumCodec.NUMPRESS) {
+      MSNumpress.decodeLinear(toByteArray(encodedMzValues), encodedMzValues.capacity(), dst);
+    } else if (mzValues != null || lazyMzValues != null) {
+      getMzValues().get(0, dst, 0, getNumberOfDataPoints());
+    }
     return dst;
   }
 
@@ -108,8 +224,65 @@ public abstract class AbstractStorableSpectrum extends AbstractMassSpectrum {
     if (dst.length < getNumberOfDataPoints()) {
       dst = new double[getNumberOfDataPoints()];
     }
-    intensityValues.get(0, dst, 0, getNumberOfDataPoints());
+    switch (codec) {
+      case FLOAT_INTENSITIES -> {
+        for (int i = 0; i < numDataPoints; i++) {
+          dst[i] = floatIntensityValues.get(i);
+        }
+      }
+      case NUMPRESS -> MSNumpress.decodeSlof(toByteArray(encodedIntensityValues),
+          encodedIntensityValues.capacity(), dst);
+      default -> {
+        if (intensityValues != null || lazyIntensityValues != null) {
+          getIntensityValues().get(0, dst, 0, getNumberOfDataPoints());
+        }
+      }
+    }
     return dst;
   }
-}
 
+  /**
+   * @return The decoded values of this spectrum in the cache of the current thread. The least
+   * recently used spectrum is dropped from the cache, if this spectrum is not cached yet.
+   */
+  @Nonnull
+  private DecodedValues getDecodedValues() {
+    final DecodedValues[] cache = lastDecoded.get();
+    int index = 0;
+    while (index < cache.length - 1 && cache[index] != null && cache[index].spectrum != this) {
+      index++;
+    }
+    DecodedValues decoded = cache[index];
+    if (decoded == null || decoded.spectrum != this) {
+      // new arrays are created, so buffers wrapping the values of the dropped spectrum stay valid
+      decoded = new DecodedValues(this);
+    }
+    System.arraycopy(cache, 0, cache, 1, index);
+    cache[0] = decoded;
+    return decoded;
+  }
+
+  private static byte[] toByteArray(@Nonnull ByteBuffer buffer) {
+    if (buffer.hasArray() && buffer.arrayOffset() == 0
+        && buffer.array().length == buffer.capacity()) {
+      return buffer.array();
+    }
+    final byte[] bytes = new byte[buffer.capacity()];
+    buffer.get(0, bytes);
+    return bytes;
+  }
+
+  /**
+   * Decoded values of a single spectrum.
+   */
+  private static final class DecodedValues {
+
+    private final AbstractStorableSpectrum spectrum;
+    private double[] mzs;
+    private double[] intensities;
+
+    private DecodedValues(@Nonnull AbstractStorableSpectrum spectrum) {
+      this.spectrum = spectrum;
+    }
+  }
+}
@@ -28,6 +28,7 @@ import io.github.mzmine.datamodel.MobilityType;
 import io.github.mzmine.datamodel.PolarityType;
 import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.datamodel.featuredata.impl.StorageUtils;
+import io.github.mzmine.util.LazyDoubleBuffer;
 import java.nio.DoubleBuffer;
 import java.util.ArrayList;
 import java.util.Comparator;
@@ -56,6 +57,10 @@ public class SimpleFrame extends SimpleScan implements Frame {
   private DoubleBuffer mobilityBuffer;
   private DoubleBuffer mobilityScanIntensityBuffer;
   private DoubleBuffer mobilityScanMzBuffer;
+  // values of a memory mapped file, only used if the frame was not created in this session
+  private LazyDoubleBuffer lazyMobilityBuffer;
+  private LazyDoubleBuffer lazyMobilityScanIntensityBuffer;
+  private LazyDoubleBuffer lazyMobilityScanMzBuffer;
 
   public SimpleFrame(@Nonnull RawDataFile dataFile, int scanNumber, int msLevel,
       float retentionTime, double precursorMZ, int precursorCharge, @Nullable double[] mzValues,
@@ -72,6 +77,27 @@ public class SimpleFrame extends SimpleScan implements Frame {
     this.precursorInfos = Objects.requireNonNullElse(precursorInfos, new HashSet<>());
   }
 
+  /**
+   * Constructor for creating a frame with data points of a memory mapped file, e.g. a project file.
+   * The data points are only mapped when they are accessed, so the m/z range, base peak index and
+   * TIC of the data points have to be given.
+   */
+  public SimpleFrame(@Nonnull RawDataFile dataFile, int scanNumber, int msLevel,
+      float retentionTime, double precursorMZ, int precursorCharge,
+      @Nonnull LazyDoubleBuffer mzValues, @Nonnull LazyDoubleBuffer intensityValues,
+      @Nullable Range<Double> dataPointMZRange, @Nullable Integer basePeakIndex,
+      double totalIonCurrent, MassSpectrumType spectrumType, PolarityType polarity,
+      String scanDefinition, Range<Double> scanMZRange, MobilityType mobilityType,
+      @Nullable Set<ImsMsMsInfo> precursorInfos) {
+    super(dataFile, scanNumber, msLevel, retentionTime, precursorMZ, precursorCharge, mzValues,
+        intensityValues, dataPointMZRange, basePeakIndex, totalIonCurrent, spectrumType, polarity,
+        scanDefinition, scanMZRange);
+
+    this.mobilityType = mobilityType;
+    mobilityRange = Range.singleton(0.d);
+    this.precursorInfos = Objects.requireNonNullElse(precursorInfos, new HashSet<>());
+  }
+
   public void setDataPoints(double[] newMzValues, double[] newIntensityValues) {
     super.setDataPoints(getDataFile().getMemoryMapStorage(), newMzValues, newIntensityValues);
   }
@@ -121,7 +147,8 @@ public class SimpleFrame extends SimpleScan implements Frame {
    * @param originalMobilityScans The mobility scans to store.
    */
   public void setMobilityScans(List<BuildingMobilityScan> originalMobilityScans) {
-    if (mobilityScanIntensityBuffer != null || mobilityScanMzBuffer != null) {
+    if (mobilityScanIntensityBuffer != null || mobilityScanMzBuffer != null
+        || lazyMobilityScanMzBuffer != null) {
       throw new IllegalStateException("Mobility scans can only be set to a frame once.");
     }
 
@@ -178,9 +205,39 @@ public class SimpleFrame extends SimpleScan implements Frame {
     }
   }
 
+  /**
+   * Sets mobility scans with data points of a memory mapped file, e.g. a project file. The data
+   * points of all mobility scans are stored one after another and only mapped when they are
+   * accessed. Can only be called once, before the frame is used.
+   *
+   * @param mzValues            m/z values of all mobility scans
+   * @param intensityValues     intensity values of all mobility scans
+   * @param mobilityScanNumbers the mobility scan numbers
+   * @param numDataPoints       the number of data points of every mobility scan
+   * @param basePeakIndices     the base peak index of every mobility scan, -1 if there is none
+   */
+  public void setMobilityScans(@Nonnull LazyDoubleBuffer mzValues,
+      @Nonnull LazyDoubleBuffer intensityValues, @Nonnull int[] mobilityScanNumbers,
+      @Nonnull int[] numDataPoints, @Nonnull int[] basePeakIndices) {
+    if (mobilityScanIntensityBuffer != null || mobilityScanMzBuffer != null
+        || lazyMobilityScanMzBuffer != null) {
+      throw new IllegalStateException("Mobility scans can only be set to a frame once.");
+    }
+    assert mzValues.capacity() == intensityValues.capacity();
+
+    lazyMobilityScanMzBuffer = mzValues;
+    lazyMobilityScanIntensityBuffer = intensityValues;
+    int offset = 0;
+    for (int i = 0; i < mobilityScanNumbers.length; i++) {
+      mobilitySubScans.add(new SimpleMobilityScan(mobilityScanNumbers[i], this, offset,
+          numDataPoints[i], basePeakIndices[i]));
+      offset += numDataPoints[i];
+    }
+  }
+
   @Override
   public double getMobilityForMobilityScanNumber(int mobilityScanIndex) {
-    return mobilityBuffer.get(mobilityScanIndex);
+    return getMobilityBuffer().get(mobilityScanIndex);
   }
 
   @Override
@@ -188,14 +245,14 @@ public class SimpleFrame extends SimpleScan implements Frame {
     // correct the index with an offset in case there is one.
     int index = mobilitySubScans.indexOf(scan) - mobilitySubScans.get(0).getMobilityScanNumber();
     if (index >= 0) {
-      return mobilityBuffer.get(index);
+      return getMobilityBuffer().get(index);
     }
     throw new IllegalArgumentException("Mobility scan does not belong to this frame.");
   }
 
   @Override
   public DoubleBuffer getMobilities() {
-    return mobilityBuffer;
+    return getMobilityBuffer();
   }
 
   @Nonnull
@@ -230,28 +287,53 @@ public class SimpleFrame extends SimpleScan implements Frame {
     return mobilityBuffer;
   }
 
+  /**
+   * Sets mobilities of a memory mapped file, e.g. a project file. They are only mapped when they
+   * are accessed, so the mobility range has to be given.
+   */
+  public void setMobilities(@Nonnull LazyDoubleBuffer mobilities,
+      @Nonnull Range<Double> mobilityRange) {
+    lazyMobilityBuffer = mobilities;
+    this.mobilityRange = mobilityRange;
+  }
+
+  private DoubleBuffer getMobilityBuffer() {
+    return mobilityBuffer != null || lazyMobilityBuffer == null ? mobilityBuffer
+        : lazyMobilityBuffer.get();
+  }
+
+  private DoubleBuffer getMobilityScanMzBuffer() {
+    return lazyMobilityScanMzBuffer == null ? mobilityScanMzBuffer
+        : lazyMobilityScanMzBuffer.get();
+  }
+
+  private DoubleBuffer getMobilityScanIntensityBuffer() {
+    return lazyMobilityScanIntensityBuffer == null ? mobilityScanIntensityBuffer
+        : lazyMobilityScanIntensityBuffer.get();
+  }
+
   public void setPrecursorInfos(@Nullable Set<ImsMsMsInfo> precursorInfos) {
     this.precursorInfos = precursorInfos;
   }
 
   void getMobilityScanMzValues(SimpleMobilityScan scan, double[] dst) {
     assert scan.getNumberOfDataPoints() <= dst.length;
-    mobilityScanMzBuffer.get(scan.getStorageOffset(), dst, 0, scan.getNumberOfDataPoints());
+    getMobilityScanMzBuffer().get(scan.getStorageOffset(), dst, 0, scan.getNumberOfDataPoints());
   }
 
   void getMobilityScanIntensityValues(SimpleMobilityScan scan, double[] dst) {
     assert scan.getNumberOfDataPoints() <= dst.length;
-    mobilityScanIntensityBuffer.get(scan.getStorageOffset(), dst, 0, scan.getNumberOfDataPoints());
+    getMobilityScanIntensityBuffer().get(scan.getStorageOffset(), dst, 0, scan.getNumberOfDataPoints());
   }
 
   double getMobilityScanMzValue(SimpleMobilityScan scan, int index) {
     assert index < scan.getNumberOfDataPoints();
-    return mobilityScanMzBuffer.get(scan.getStorageOffset() + index);
+    return getMobilityScanMzBuffer().get(scan.getStorageOffset() + index);
   }
 
   double getMobilityScanIntensityValue(SimpleMobilityScan scan, int index) {
     assert index < scan.getNumberOfDataPoints();
-    return mobilityScanIntensityBuffer.get(scan.getStorageOffset() + index);
+    return getMobilityScanIntensityBuffer().get(scan.getStorageOffset() + index);
   }
 
 }
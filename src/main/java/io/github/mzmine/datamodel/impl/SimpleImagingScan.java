@@ -24,6 +24,7 @@ import io.github.mzmine.datamodel.MassSpectrumType;
 import io.github.mzmine.datamodel.PolarityType;
 import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.modules.io.import_imzml.Coordinates;
+import io.github.mzmine.util.LazyDoubleBuffer;
 
 
 public class SimpleImagingScan extends SimpleScan implements ImagingScan {
@@ -39,6 +40,21 @@ public class SimpleImagingScan extends SimpleScan implements ImagingScan {
     this.setCoordinates(coordinates);
   }
 
+  /**
+   * Constructor for creating a scan with data points of a memory mapped file, e.g. a project file.
+   * The data points are only mapped when they are accessed.
+   */
+  public SimpleImagingScan(RawDataFile dataFile, int scanNumber, int msLevel, float retentionTime,
+      double precursorMZ, int precursorCharge, LazyDoubleBuffer mzValues,
+      LazyDoubleBuffer intensityValues, Range<Double> dataPointMZRange, Integer basePeakIndex,
+      double totalIonCurrent, MassSpectrumType spectrumType, PolarityType polarity,
+      String scanDefinition, Range<Double> scanMZRange, Coordinates coordinates) {
+    super(dataFile, scanNumber, msLevel, retentionTime, precursorMZ, precursorCharge, mzValues,
+        intensityValues, dataPointMZRange, basePeakIndex, totalIonCurrent, spectrumType, polarity,
+        scanDefinition, scanMZRange);
+    this.setCoordinates(coordinates);
+  }
+
   /**
    *
    * @return the xyz coordinates. null if no coordinates were specified
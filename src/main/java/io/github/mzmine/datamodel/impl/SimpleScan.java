@@ -24,8 +24,10 @@ import io.github.mzmine.datamodel.MassSpectrumType;
 import io.github.mzmine.datamodel.PolarityType;
 import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.util.LazyDoubleBuffer;
 import io.github.mzmine.util.scans.ScanUtils;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
  * Simple implementation of the Scan interface.
@@ -81,6 +83,22 @@ public class SimpleScan extends AbstractStorableSpectrum implements Scan {
   }
 
 
+  /**
+   * Constructor for creating a scan with data points of a memory mapped file, e.g. a project file.
+   * The data points are only mapped when they are accessed, so the m/z range, base peak index and
+   * TIC of the data points have to be given.
+   */
+  public SimpleScan(@Nonnull RawDataFile dataFile, int scanNumber, int msLevel, float retentionTime,
+      double precursorMZ, int precursorCharge, @Nonnull LazyDoubleBuffer mzValues,
+      @Nonnull LazyDoubleBuffer intensityValues, @Nullable Range<Double> dataPointMZRange,
+      @Nullable Integer basePeakIndex, double totalIonCurrent, MassSpectrumType spectrumType,
+      PolarityType polarity, String scanDefinition, Range<Double> scanMZRange) {
+
+    this(dataFile, scanNumber, msLevel, retentionTime, precursorMZ, precursorCharge,
+        (double[]) null, (double[]) null, spectrumType, polarity, scanDefinition, scanMZRange);
+    setDataPoints(mzValues, intensityValues, dataPointMZRange, basePeakIndex, totalIonCurrent);
+  }
+
   /**
    * @see io.github.mzmine.datamodel.Scan#getScanNumber()
    */
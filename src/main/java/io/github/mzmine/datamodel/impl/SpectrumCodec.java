@@ -0,0 +1,60 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.datamodel.impl;
+
+/**
+ * Defines how the m/z and intensity values of an {@link AbstractStorableSpectrum} are stored.
+ * Encoded values are decoded on demand by {@link AbstractStorableSpectrum#getMzValues(double[])}
+ * and {@link AbstractStorableSpectrum#getIntensityValues(double[])}.
+ * <p>
+ * The storage sizes per data point are 16 bytes (FULL), 12 bytes (FLOAT_INTENSITIES) and
+ * approximately 4-7 bytes (NUMPRESS). NUMPRESS stores m/z values as linear prediction residuals of
+ * a fixed point representation (accurate to ~0.002 ppm) and intensities as logarithmic 16 bit
+ * values (relative error below 0.1 %).
+ */
+public enum SpectrumCodec {
+
+  FULL("Full precision (64 bit)"), //
+  FLOAT_INTENSITIES("64 bit m/z, 32 bit intensity"), //
+  NUMPRESS("Numpress linear m/z, numpress slof intensity");
+
+  /**
+   * The codec used for newly created spectra.
+   */
+  private static SpectrumCodec defaultCodec = FULL;
+
+  private final String representativeString;
+
+  SpectrumCodec(String representativeString) {
+    this.representativeString = representativeString;
+  }
+
+  public static SpectrumCodec getDefaultCodec() {
+    return defaultCodec;
+  }
+
+  public static void setDefaultCodec(SpectrumCodec codec) {
+    defaultCodec = codec != null ? codec : FULL;
+  }
+
+  @Override
+  public String toString() {
+    return representativeString;
+  }
+}
@@ -24,11 +24,11 @@ import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.util.MemoryMapStorage;
 import java.io.IOException;
 import java.nio.DoubleBuffer;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -104,12 +104,10 @@ public class FrameMassList extends SimpleMassList {
       @Nonnull ParameterSet massDetectorParameters) {
 
     // mobility scan -> [0][] = mzs, [1][] = intensities
-    final List<double[][]> mobilityScanPeaks = new ArrayList<>();
-
-    for (MobilityScan mobilityScan : mobilityScans) {
-      double[][] mzIntensity = massDetector.getMassValues(mobilityScan, massDetectorParameters);
-      mobilityScanPeaks.add(mzIntensity);
-    }
+    // detect in parallel, the collected list keeps the order of the mobility scans
+    final List<double[][]> mobilityScanPeaks = mobilityScans.parallelStream()
+        .map(mobilityScan -> massDetector.getMassValues(mobilityScan, massDetectorParameters))
+        .collect(Collectors.toList());
 
     final int[] offsets = generateOffsets(mobilityScanPeaks);
     final int numDp =
@@ -18,22 +18,50 @@
 
 package io.github.mzmine.datamodel.impl.masslist;
 
+import com.google.common.collect.Range;
 import io.github.mzmine.datamodel.DataPoint;
 import io.github.mzmine.datamodel.MassList;
 import io.github.mzmine.datamodel.impl.AbstractStorableSpectrum;
 import io.github.mzmine.datamodel.impl.SimpleDataPoint;
 import io.github.mzmine.util.DataPointUtils;
+import io.github.mzmine.util.LazyDoubleBuffer;
 import io.github.mzmine.util.MemoryMapStorage;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
  * This class represent detected masses (ions) in one mass spectrum
  */
 public class SimpleMassList extends AbstractStorableSpectrum implements MassList {
 
+  private final MemoryMapStorage storage;
+
   public SimpleMassList(@Nonnull MemoryMapStorage storage, @Nonnull double[] mzValues,
       @Nonnull double[] intensityValues) {
     super(storage, mzValues, intensityValues);
+    this.storage = storage;
+  }
+
+  /**
+   * Creates a mass list with data points of a memory mapped file, e.g. a project file. The data
+   * points are only mapped when they are accessed, so the m/z range, base peak index and TIC of the
+   * data points have to be given.
+   */
+  public SimpleMassList(@Nonnull LazyDoubleBuffer mzValues,
+      @Nonnull LazyDoubleBuffer intensityValues, @Nullable Range<Double> mzRange,
+      @Nullable Integer basePeakIndex, double totalIonCurrent) {
+    super(null, null, null);
+    this.storage = null;
+    setDataPoints(mzValues, intensityValues, mzRange, basePeakIndex, totalIonCurrent);
+  }
+
+  /**
+   * @return The storage the data points of this mass list are stored in. May be null if the data
+   * points are stored in ram.
+   */
+  @Nullable
+  public MemoryMapStorage getMemoryMapStorage() {
+    return storage;
   }
 
   /**
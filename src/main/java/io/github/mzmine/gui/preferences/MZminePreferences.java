@@ -18,6 +18,7 @@
 
 package io.github.mzmine.gui.preferences;
 
+import io.github.mzmine.datamodel.impl.SpectrumCodec;
 import io.github.mzmine.gui.chartbasics.chartthemes.ChartThemeParameters;
 import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.parameters.Parameter;
@@ -26,7 +27,9 @@ import io.github.mzmine.parameters.impl.SimpleParameterSet;
 import io.github.mzmine.parameters.parametertypes.BooleanParameter;
 import io.github.mzmine.parameters.parametertypes.ComboParameter;
 import io.github.mzmine.parameters.parametertypes.HiddenParameter;
+import io.github.mzmine.parameters.parametertypes.IntegerParameter;
 import io.github.mzmine.parameters.parametertypes.OptOutParameter;
+import io.github.mzmine.parameters.parametertypes.OptionalParameter;
 import io.github.mzmine.parameters.parametertypes.ParameterSetParameter;
 import io.github.mzmine.parameters.parametertypes.WindowSettingsParameter;
 import io.github.mzmine.parameters.parametertypes.colorpalette.ColorPaletteParameter;
@@ -36,6 +39,7 @@ import io.github.mzmine.parameters.parametertypes.filenames.FileSelectionType;
 import io.github.mzmine.parameters.parametertypes.paintscale.PaintScalePaletteParameter;
 import io.github.mzmine.parameters.parametertypes.submodules.OptionalModuleParameter;
 import io.github.mzmine.util.ExitCode;
+import io.github.mzmine.util.MemoryMapStorage;
 import java.text.DecimalFormat;
 import java.util.Map;
 import javafx.collections.FXCollections;
@@ -117,13 +121,25 @@ public class MZminePreferences extends SimpleParameterSet {
           + " will be stored. Requires a restart of MZmine to take effect",
           System.getProperty("java.io.tmpdir"));
 
+  public static final OptionalParameter<IntegerParameter> tempStorageBudget =
+      new OptionalParameter<>(new IntegerParameter("Temporary storage budget (GB)",
+          "Maximum disk space in GB used for temporary files of raw data files, mass lists and "
+              + "feature lists. Processing threads wait for space to be released when the budget "
+              + "is exhausted and store their data in ram thereafter.", 100, 1, null), false);
+
+  public static final ComboParameter<SpectrumCodec> spectrumCodec = new ComboParameter<>(
+      "Spectrum storage codec", "Defines how m/z and intensity values of scans and mass lists "
+      + "are stored. Encoded values require less memory and disk space, but are decoded on every "
+      + "access. Only applies to newly imported or processed data.",
+      FXCollections.observableArrayList(SpectrumCodec.values()), SpectrumCodec.FULL);
+
   public MZminePreferences() {
     super(
         new Parameter[]{mzFormat, rtFormat, mobilityFormat, ccsFormat, intensityFormat, ppmFormat,
             unitFormat,
             numOfThreads, proxySettings, rExecPath, sendStatistics, windowSetttings, sendErrorEMail,
             defaultColorPalette, defaultPaintScale, chartParam, darkMode, imsModuleWarnings,
-            tempDirectory});
+            tempDirectory, tempStorageBudget, spectrumCodec});
   }
 
   @Override
@@ -136,6 +152,8 @@ public class MZminePreferences extends SimpleParameterSet {
       // Update proxy settings
       updateSystemProxySettings();
 
+      updateStorageSettings();
+
       // Repaint windows to update number formats
       // MZmineCore.getDesktop().getMainWindow().repaint();
 
@@ -163,6 +181,19 @@ public class MZminePreferences extends SimpleParameterSet {
   public void loadValuesFromXML(Element xmlElement) {
     super.loadValuesFromXML(xmlElement);
     updateSystemProxySettings();
+    updateStorageSettings();
+  }
+
+  private void updateStorageSettings() {
+    final Boolean budgetEnabled = getParameter(tempStorageBudget).getValue();
+    final Integer budgetGB = getParameter(tempStorageBudget).getEmbeddedParameter().getValue();
+    if (budgetEnabled != null && budgetEnabled && budgetGB != null) {
+      MemoryMapStorage.setDiskBudget(budgetGB * 1_000_000_000L);
+    } else {
+      MemoryMapStorage.setDiskBudget(Long.MAX_VALUE);
+    }
+
+    SpectrumCodec.setDefaultCodec(getParameter(spectrumCodec).getValue());
   }
 
   private void updateSystemProxySettings() {
@@ -318,22 +318,8 @@ public class HierarAlignerGCTask extends AbstractTask {
     //
 
     // TriangularMatrix distances = null;
-    DistanceMatrix distancesGNF_Tri = null;
     DistanceMatrix distancesGNF_Tri_Bkp = null;
-
-    int nbPeaks = 0;
-    for (int i = 0; i < newIds.length; ++i) {
-      FeatureList peakList = peakLists[newIds[i]];
-      nbPeaks += peakList.getNumberOfRows();
-    }
-
-    // If 'Hybrid' or no distance matrix: no need for a matrix
-    if (CLUSTERER_TYPE == ClustererType.HYBRID || !saveRAMratherThanCPU_1) {
-      // distances = new double[nbPeaks][nbPeaks];
-
-      int nRowCount = nbPeaks;
-      distancesGNF_Tri = new DistanceMatrixTriangular1D2D(nRowCount);
-    }
+    SparseDistanceMatrix sparseDistances = null;
 
     full_rows_list = new ArrayList<>();
 
@@ -362,26 +348,16 @@ public class HierarAlignerGCTask extends AbstractTask {
     // If 'Hybrid' or no distance matrix: no need for a matrix
     if (CLUSTERER_TYPE == ClustererType.HYBRID || !saveRAMratherThanCPU_1) {
 
-      for (int x = 0; x < nbPeaks; ++x) {
-
-        for (int y = x; y < nbPeaks; ++y) {
-
-          float dist = (float) distProvider.getRankedDistance(x, y, mzTolerance.getMzTolerance(),
-              rtTolerance.getTolerance(), minScore);
-
-          // if (CLUSTERER_TYPE == ClustererType.CLASSIC_OLD)
-          // distances.set(x, y , dist);
-          // else
-          distancesGNF_Tri.setValue(x, y, dist);
-
-        }
-
-        processedRows++;
-        if (DEBUG)
-          logger.info(
-              "Treating lists: " + (Math.round(100 * processedRows / (double) nbPeaks)) + " %");
-
+      // Only rows within half of the tolerances can get a distance other
+      // than the fixed ones, so only those pairs are computed
+      sparseDistances = SparseDistanceMatrix.compute(full_rows_list, distProvider,
+          mzTolerance.getMzTolerance(), rtTolerance.getTolerance(), minScore,
+          getMemoryMapStorage(), this, rows -> processedRows += rows);
+      if (sparseDistances == null) {
+        return;
       }
+      if (DEBUG)
+        logger.info("Stored distances: " + sparseDistances.getNumberOfStoredDistances());
     }
     if (DEBUG)
       printMemoryUsage(logger, run_time, prevTotal, prevFree, "DISTANCES COMPUTED");
@@ -429,37 +405,30 @@ public class HierarAlignerGCTask extends AbstractTask {
 
     } else if (CLUSTERER_TYPE == ClustererType.CACHED) { // Pure Hierar!
 
-      // TODO: ...!
-      if (DEBUG_2)
-        logger.info(distancesGNF_Tri.toString());
-
       if (saveRAMratherThanCPU_2) { // Requires: distances values will be
                                     // recomputed on demand during
                                     // "getValidatedClusters_3()"
         distancesGNF_Tri_Bkp = null; // No duplicate backup storage!
-      } else { // Otherwise, backing up the distance matrix (matrix being
-               // deeply changed during "clusterDM()", then no more
-               // exploitable)
-        distancesGNF_Tri_Bkp = new DistanceMatrixTriangular1D2D(distancesGNF_Tri);
+      } else { // Otherwise, keeping the sparse distances
+        distancesGNF_Tri_Bkp = sparseDistances;
         if (DEBUG)
           printMemoryUsage(logger, run_time, prevTotal, prevFree, "GNF CLUSTERER BACKUP MATRIX");
       }
 
       if (DEBUG)
         logger.info("Clustering...");
-      if (distancesGNF_Tri != null)
-        arNodes = org.gnf.clustering.sequentialcache.SequentialCacheClustering
-            .clusterDM(distancesGNF_Tri, linkageStartegyType, null, nRowCount);
-
-      distancesGNF_Tri = null;
-      System.gc();
+      // Only clusters connected by stored distances are compared, the
+      // missing pairs have the fixed distances of the sparse matrix
+      if (sparseDistances != null) {
+        arNodes = SparseLinkageClustering.cluster(sparseDistances, linkageStartegyType, this);
+        if (arNodes == null) {
+          return;
+        }
+      }
 
       if (DEBUG)
         printMemoryUsage(logger, run_time, prevTotal, prevFree, "GNF CLUSTERER DONE");
 
-      if (DEBUG_2)
-        logger.info(distancesGNF_Tri.toString());
-
       if (DEBUG_2)
         for (int i = 0; i < arNodes.length; i++) {
           logger.info("Node " + i + ": " + arNodes[i]);
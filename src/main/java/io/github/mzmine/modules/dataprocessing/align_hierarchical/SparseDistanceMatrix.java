@@ -0,0 +1,394 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package io.github.mzmine.modules.dataprocessing.align_hierarchical;
+
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.features.FeatureListRow;
+import io.github.mzmine.taskcontrol.AbstractTask;
+import io.github.mzmine.util.MemoryMapStorage;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.gnf.clustering.DistanceMatrix;
+
+/**
+ * Read-only distance matrix of the rows to align, that only stores the distances of candidate
+ * pairs. All other distances are the fixed values of {@link
+ * RowVsRowDistanceProvider#getRankedDistance(int, int, double, double, double)}: 0 for a row and
+ * itself, 1000 for rows of the same raw data file and 100 for rows that are at least half of the
+ * m/z or RT tolerance apart.
+ * <p>
+ * The candidate pairs are found by sweeping over the rows sorted by RT and their distances are
+ * computed in blocks of rows on all cores. Every distance is stored once, with the row that comes
+ * first by RT. Each block keeps its distances in compressed sparse row arrays, which are moved to
+ * the memory map storage as soon as the block is done once the matrix is large. So the distances
+ * of all blocks are never in memory at the same time.
+ */
+public class SparseDistanceMatrix implements DistanceMatrix {
+
+  private static final Logger logger = Logger.getLogger(SparseDistanceMatrix.class.getName());
+
+  public static final float SAME_ROW_DISTANCE = 0f;
+  public static final float SAME_FILE_DISTANCE = 1000f;
+  public static final float NO_CANDIDATE_DISTANCE = 100f;
+
+  // rows (sorted by RT) per parallel task and per block of stored distances
+  private static final int BLOCK_SIZE = 256;
+  // number of stored distances from which on the blocks are memory mapped
+  private static final int MAPPING_THRESHOLD = 1 << 20;
+
+  /**
+   * Distance of a candidate pair of rows.
+   */
+  @FunctionalInterface
+  interface PairDistance {
+
+    float getDistance(int i, int j);
+  }
+
+  private final int dimension;
+  private final int[] fileIndices;
+  // position of the rows in the RT order
+  private final int[] positions;
+  // the stored distances of the row at position p are at positionOffsets[p] until
+  // positionOffsets[p + 1], sorted by column
+  private final int[] positionOffsets;
+  // the distances of the positions b * BLOCK_SIZE until (b + 1) * BLOCK_SIZE
+  private final IntBuffer[] blockColumns;
+  private final FloatBuffer[] blockValues;
+
+  private SparseDistanceMatrix(int[] fileIndices, int[] positions, int[] positionOffsets,
+      IntBuffer[] blockColumns, FloatBuffer[] blockValues) {
+    this.dimension = fileIndices.length;
+    this.fileIndices = fileIndices;
+    this.positions = positions;
+    this.positionOffsets = positionOffsets;
+    this.blockColumns = blockColumns;
+    this.blockValues = blockValues;
+  }
+
+  /**
+   * Computes the distances of all pairs of rows of different raw data files, whose best features
+   * are less than half of the m/z and RT tolerance apart.
+   *
+   * @param storage  the storage of large matrices or null to keep them in memory
+   * @param task     canceling this task stops the computation
+   * @param progress called with the number of rows that have been compared to all their candidates
+   * @return the matrix or null, if the task was canceled
+   */
+  @Nullable
+  public static SparseDistanceMatrix compute(@Nonnull List<FeatureListRow> rows,
+      @Nonnull RowVsRowDistanceProvider distProvider, double mzMaxDiff, double rtMaxDiff,
+      double minScore, @Nullable MemoryMapStorage storage, @Nonnull AbstractTask task,
+      @Nonnull IntConsumer progress) {
+
+    final int numRows = rows.size();
+    final int[] fileIndices = new int[numRows];
+    final float[] rts = new float[numRows];
+    final double[] mzs = new double[numRows];
+    final Map<RawDataFile, Integer> files = new IdentityHashMap<>();
+    for (int i = 0; i < numRows; i++) {
+      final FeatureListRow row = rows.get(i);
+      fileIndices[i] = files.computeIfAbsent(row.getRawDataFiles().get(0), f -> files.size());
+      rts[i] = row.getBestFeature().getRT();
+      mzs[i] = row.getBestFeature().getMZ();
+    }
+
+    return compute(fileIndices, rts, mzs,
+        (i, j) -> (float) distProvider.getRankedDistance(i, j, mzMaxDiff, rtMaxDiff, minScore),
+        mzMaxDiff, rtMaxDiff, storage, MAPPING_THRESHOLD, task::isCanceled, progress);
+  }
+
+  /**
+   * @param distance         the distance of a candidate pair, {@link #NO_CANDIDATE_DISTANCE} if
+   *                         it shall not be stored
+   * @param mappingThreshold number of stored distances from which on the blocks are moved to the
+   *                         storage
+   * @see #compute(List, RowVsRowDistanceProvider, double, double, double, MemoryMapStorage,
+   * AbstractTask, IntConsumer)
+   */
+  @Nullable
+  static SparseDistanceMatrix compute(@Nonnull int[] fileIndices, @Nonnull float[] rts,
+      @Nonnull double[] mzs, @Nonnull PairDistance distance, double mzMaxDiff, double rtMaxDiff,
+      @Nullable MemoryMapStorage storage, int mappingThreshold,
+      @Nonnull BooleanSupplier isCanceled, @Nonnull IntConsumer progress) {
+
+    final int numRows = fileIndices.length;
+    final int[] order = sortByRT(rts);
+    final AtomicLong storedDistances = new AtomicLong();
+
+    final List<Future<Block>> tasks = new ArrayList<>();
+    for (int blockStart = 0; blockStart < numRows; blockStart += BLOCK_SIZE) {
+      final int start = blockStart;
+      final int end = Math.min(numRows, blockStart + BLOCK_SIZE);
+      tasks.add(ForkJoinPool.commonPool().submit(() -> {
+        final int[] counts = new int[end - start];
+        // column and value packed, so the distances of a row can be sorted by column
+        long[] packed = new long[64];
+        int size = 0;
+        for (int p = start; p < end && !isCanceled.getAsBoolean(); p++) {
+          final int i = order[p];
+          // same conditions as in RowVsRowDistanceProvider.getRankedDistance
+          for (int q = p + 1; q < numRows && rts[order[q]] - rts[i] < rtMaxDiff / 2.0; q++) {
+            final int j = order[q];
+            if (fileIndices[i] == fileIndices[j] || Math.abs(mzs[i] - mzs[j]) >= mzMaxDiff / 2.0) {
+              continue;
+            }
+            final float dist = distance.getDistance(i, j);
+            if (dist != NO_CANDIDATE_DISTANCE) {
+              if (size == packed.length) {
+                packed = Arrays.copyOf(packed, size * 2);
+              }
+              packed[size++] = ((long) j << 32) | (Float.floatToRawIntBits(dist) & 0xffffffffL);
+              counts[p - start]++;
+            }
+          }
+        }
+        return createBlock(packed, size, counts, storage, mappingThreshold, storedDistances);
+      }));
+    }
+
+    final Block[] blocks = new Block[tasks.size()];
+    try {
+      for (int b = 0; b < tasks.size(); b++) {
+        blocks[b] = tasks.get(b).get();
+        progress.accept(Math.min(numRows, (b + 1) * BLOCK_SIZE) - b * BLOCK_SIZE);
+      }
+    } catch (InterruptedException | ExecutionException e) {
+      throw new IllegalStateException("Cannot compute the distances of the rows", e);
+    }
+    if (isCanceled.getAsBoolean()) {
+      return null;
+    }
+
+    if (storedDistances.get() > Integer.MAX_VALUE - 8) {
+      throw new IllegalStateException("Too many candidate pairs (" + storedDistances.get()
+          + "), please reduce the tolerances");
+    }
+    final int[] positionOffsets = new int[numRows + 1];
+    final IntBuffer[] blockColumns = new IntBuffer[blocks.length];
+    final FloatBuffer[] blockValues = new FloatBuffer[blocks.length];
+    for (int b = 0; b < blocks.length; b++) {
+      final int start = b * BLOCK_SIZE;
+      for (int p = 0; p < blocks[b].counts.length; p++) {
+        positionOffsets[start + p + 1] = positionOffsets[start + p] + blocks[b].counts[p];
+      }
+      blockColumns[b] = blocks[b].columns;
+      blockValues[b] = blocks[b].values;
+    }
+    final int[] positions = new int[numRows];
+    for (int p = 0; p < numRows; p++) {
+      positions[order[p]] = p;
+    }
+
+    logger.finest(
+        () -> "Stored " + positionOffsets[numRows] + " distances of " + numRows + " rows");
+    return new SparseDistanceMatrix(fileIndices, positions, positionOffsets, blockColumns,
+        blockValues);
+  }
+
+  /**
+   * Sorts the distances of every row of the block by column and moves them to the storage, once
+   * the distances of all blocks exceed the mapping threshold.
+   */
+  private static Block createBlock(long[] packed, int size, int[] counts,
+      @Nullable MemoryMapStorage storage, int mappingThreshold, AtomicLong storedDistances) {
+    int offset = 0;
+    for (int count : counts) {
+      Arrays.sort(packed, offset, offset + count);
+      offset += count;
+    }
+    final int[] columns = new int[size];
+    final float[] values = new float[size];
+    for (int k = 0; k < size; k++) {
+      columns[k] = (int) (packed[k] >>> 32);
+      values[k] = Float.intBitsToFloat((int) packed[k]);
+    }
+
+    final long total = storedDistances.addAndGet(size);
+    if (storage != null && size > 0 && total >= mappingThreshold) {
+      try {
+        return new Block(counts, storage.storeData(columns), storage.storeData(values));
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Cannot store the distances, keeping them in memory", e);
+      }
+    }
+    return new Block(counts, IntBuffer.wrap(columns), FloatBuffer.wrap(values));
+  }
+
+  /**
+   * @return the row indices sorted by ascending RT
+   */
+  private static int[] sortByRT(float[] rts) {
+    // flip the bits of negative values, so the keys sort like the floats
+    final long[] packed = new long[rts.length];
+    for (int i = 0; i < rts.length; i++) {
+      final int bits = Float.floatToIntBits(rts[i]);
+      packed[i] = ((long) (bits ^ ((bits >> 31) & 0x7fffffff)) << 32) | i;
+    }
+    Arrays.sort(packed);
+    final int[] order = new int[rts.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = (int) packed[i];
+    }
+    return order;
+  }
+
+  /**
+   * @return the number of stored distances
+   */
+  public int getNumberOfStoredDistances() {
+    return positionOffsets[dimension];
+  }
+
+  /**
+   * @return the index of the raw data file of the row
+   */
+  int getFileIndex(int row) {
+    return fileIndices[row];
+  }
+
+  /**
+   * @return the index of the first stored distance of the row. Every distance is only stored with
+   * one of its rows, the other row is its column.
+   */
+  int getStoredStart(int row) {
+    return positionOffsets[positions[row]];
+  }
+
+  /**
+   * @return the index after the last stored distance of the row
+   */
+  int getStoredEnd(int row) {
+    return positionOffsets[positions[row] + 1];
+  }
+
+  /**
+   * @return the other row of a stored distance
+   */
+  int getStoredColumn(int index) {
+    final int block = findBlock(index);
+    return blockColumns[block].get(index - positionOffsets[block * BLOCK_SIZE]);
+  }
+
+  float getStoredValue(int index) {
+    final int block = findBlock(index);
+    return blockValues[block].get(index - positionOffsets[block * BLOCK_SIZE]);
+  }
+
+  /**
+   * @return the block of a stored distance
+   */
+  private int findBlock(int index) {
+    int low = 0;
+    int high = blockColumns.length - 1;
+    while (low < high) {
+      final int mid = (low + high + 1) >>> 1;
+      if (positionOffsets[mid * BLOCK_SIZE] <= index) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  private float fixedDistance(int i, int j) {
+    if (i == j) {
+      return SAME_ROW_DISTANCE;
+    }
+    return fileIndices[i] == fileIndices[j] ? SAME_FILE_DISTANCE : NO_CANDIDATE_DISTANCE;
+  }
+
+  @Override
+  public int getRowCount() {
+    return dimension;
+  }
+
+  @Override
+  public int getColCount() {
+    return dimension;
+  }
+
+  @Override
+  public float getValue(int nRow, int nCol) {
+    if (nRow == nCol) {
+      return SAME_ROW_DISTANCE;
+    }
+    // the distance is stored with the row that comes first by RT
+    final boolean rowFirst = positions[nRow] < positions[nCol];
+    final int position = rowFirst ? positions[nRow] : positions[nCol];
+    final int column = rowFirst ? nCol : nRow;
+    final int block = position / BLOCK_SIZE;
+    final int blockStart = positionOffsets[block * BLOCK_SIZE];
+    final IntBuffer columns = blockColumns[block];
+    int low = positionOffsets[position] - blockStart;
+    int high = positionOffsets[position + 1] - blockStart - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final int midColumn = columns.get(mid);
+      if (midColumn < column) {
+        low = mid + 1;
+      } else if (midColumn > column) {
+        high = mid - 1;
+      } else {
+        return blockValues[block].get(mid);
+      }
+    }
+    return fixedDistance(nRow, nCol);
+  }
+
+  @Override
+  public void setValue(int nRow, int nCol, float fVal) {
+    throw new UnsupportedOperationException("The sparse distance matrix is read-only");
+  }
+
+  /**
+   * The stored distances of a block of rows.
+   */
+  private static class Block {
+
+    // number of distances of every row of the block
+    private final int[] counts;
+    private final IntBuffer columns;
+    private final FloatBuffer values;
+
+    private Block(int[] counts, IntBuffer columns, FloatBuffer values) {
+      this.counts = counts;
+      this.columns = columns;
+      this.values = values;
+    }
+  }
+}
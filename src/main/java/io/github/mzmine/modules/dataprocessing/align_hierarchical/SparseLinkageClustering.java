@@ -0,0 +1,345 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.align_hierarchical;
+
+import io.github.mzmine.taskcontrol.AbstractTask;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.gnf.clustering.LinkageMode;
+import org.gnf.clustering.Node;
+
+/**
+ * Agglomerative clustering of the rows of a {@link SparseDistanceMatrix}. Only clusters that are
+ * connected by stored distances are compared. The pairs without a stored distance have the fixed
+ * distances of the matrix, which are part of the linkage distance of two clusters, e.g. the average
+ * linkage of two clusters with one stored and one missing distance is the mean of the stored and
+ * the fixed distance.
+ * <p>
+ * Clusters that are not connected are at least {@link SparseDistanceMatrix#NO_CANDIDATE_DISTANCE}
+ * apart, so all merges below this distance are the same as on the dense matrix. Connected clusters
+ * at or above this distance are merged afterwards in the order of their distance and the remaining
+ * clusters are joined in the order of their first row.
+ * <p>
+ * The nodes have the format of the GNF clusterer: node k is the k-th merge and its children are row
+ * indices or -(node + 1) for other nodes.
+ */
+public class SparseLinkageClustering {
+
+  private final SparseDistanceMatrix distances;
+  private final LinkageMode linkage;
+  private final Node[] nodes;
+  private int numNodes;
+  // all clusters in the order of their creation
+  private final List<Cluster> clusters = new ArrayList<>();
+
+  private SparseLinkageClustering(SparseDistanceMatrix distances, LinkageMode linkage) {
+    this.distances = distances;
+    this.linkage = linkage;
+    this.nodes = new Node[Math.max(0, distances.getRowCount() - 1)];
+  }
+
+  /**
+   * @param task canceling this task stops the clustering
+   * @return the nodes of all merges or null, if the task was canceled
+   */
+  @Nullable
+  public static Node[] cluster(@Nonnull SparseDistanceMatrix distances,
+      @Nonnull LinkageMode linkage, @Nonnull AbstractTask task) {
+    return new SparseLinkageClustering(distances, linkage).cluster(task);
+  }
+
+  private Node[] cluster(AbstractTask task) {
+    final int numRows = distances.getRowCount();
+
+    final Cluster[] rows = new Cluster[numRows];
+    for (int i = 0; i < numRows; i++) {
+      rows[i] = newCluster(i, i, 1);
+      rows[i].files = new int[]{distances.getFileIndex(i)};
+      rows[i].fileCounts = new int[]{1};
+    }
+
+    final PriorityQueue<Candidate> queue = new PriorityQueue<>();
+    for (int i = 0; i < numRows; i++) {
+      for (int k = distances.getStoredStart(i); k < distances.getStoredEnd(i); k++) {
+        final Cluster column = rows[distances.getStoredColumn(k)];
+        final Link link = new Link(distances.getStoredValue(k));
+        rows[i].links.put(column, link);
+        column.links.put(rows[i], link);
+        queue.add(new Candidate(rows[i], column, linkageDistance(rows[i], column, link)));
+      }
+    }
+
+    while (!queue.isEmpty()) {
+      if (task.isCanceled()) {
+        return null;
+      }
+      final Candidate candidate = queue.poll();
+      if (candidate.first.merged || candidate.second.merged) {
+        continue;
+      }
+      final Cluster merged = merge(candidate.first, candidate.second, candidate.distance);
+      for (Map.Entry<Cluster, Link> entry : merged.links.entrySet()) {
+        queue.add(new Candidate(merged, entry.getKey(),
+            linkageDistance(merged, entry.getKey(), entry.getValue())));
+      }
+    }
+
+    // the remaining clusters are not connected by any stored distance
+    final List<Cluster> remaining = new ArrayList<>();
+    for (Cluster cluster : clusters) {
+      if (!cluster.merged) {
+        remaining.add(cluster);
+      }
+    }
+    remaining.sort(Comparator.comparingInt(c -> c.firstRow));
+    Cluster joined = remaining.isEmpty() ? null : remaining.get(0);
+    for (int i = 1; i < remaining.size(); i++) {
+      if (task.isCanceled()) {
+        return null;
+      }
+      final Cluster next = remaining.get(i);
+      joined = merge(joined, next, linkageDistance(joined, next, joined.links.get(next)));
+    }
+
+    return nodes;
+  }
+
+  /**
+   * Adds the node of the merge and combines the links of both clusters.
+   */
+  private Cluster merge(Cluster first, Cluster second, double distance) {
+    final Node node = new Node();
+    node.m_nLeft = first.node;
+    node.m_nRight = second.node;
+    node.m_fDistance = (float) distance;
+    nodes[numNodes] = node;
+
+    final Cluster merged = newCluster(-(numNodes + 1), Math.min(first.firstRow, second.firstRow),
+        first.size + second.size);
+    numNodes++;
+    mergeFiles(first, second, merged);
+
+    // the links of the merged clusters are not used anymore, so they are reused
+    for (Map.Entry<Cluster, Link> entry : first.links.entrySet()) {
+      if (entry.getKey() != second) {
+        merged.links.put(entry.getKey(), entry.getValue());
+      }
+    }
+    for (Map.Entry<Cluster, Link> entry : second.links.entrySet()) {
+      if (entry.getKey() != first) {
+        final Link link = merged.links.get(entry.getKey());
+        if (link == null) {
+          merged.links.put(entry.getKey(), entry.getValue());
+        } else {
+          link.add(entry.getValue());
+        }
+      }
+    }
+    for (Map.Entry<Cluster, Link> entry : merged.links.entrySet()) {
+      final Map<Cluster, Link> links = entry.getKey().links;
+      links.remove(first);
+      links.remove(second);
+      links.put(merged, entry.getValue());
+    }
+
+    first.merged = true;
+    second.merged = true;
+    first.links.clear();
+    second.links.clear();
+    return merged;
+  }
+
+  private Cluster newCluster(int node, int firstRow, int size) {
+    final Cluster cluster = new Cluster(clusters.size(), node, firstRow, size);
+    clusters.add(cluster);
+    return cluster;
+  }
+
+  /**
+   * @param link the stored distances between both clusters or null, if there are none
+   * @return the linkage distance of both clusters, including the fixed distances of the pairs
+   * without a stored distance
+   */
+  private double linkageDistance(Cluster first, Cluster second, @Nullable Link link) {
+    final long pairs = (long) first.size * second.size;
+    final long sameFilePairs = sameFilePairs(first, second);
+    final int stored = link == null ? 0 : link.count;
+    final long noCandidatePairs = pairs - sameFilePairs - stored;
+
+    switch (linkage) {
+      case MIN: {
+        double distance = stored > 0 ? link.min : Double.POSITIVE_INFINITY;
+        if (noCandidatePairs > 0) {
+          distance = Math.min(distance, SparseDistanceMatrix.NO_CANDIDATE_DISTANCE);
+        }
+        if (sameFilePairs > 0) {
+          distance = Math.min(distance, SparseDistanceMatrix.SAME_FILE_DISTANCE);
+        }
+        return distance;
+      }
+      case MAX: {
+        double distance = stored > 0 ? link.max : Double.NEGATIVE_INFINITY;
+        if (noCandidatePairs > 0) {
+          distance = Math.max(distance, SparseDistanceMatrix.NO_CANDIDATE_DISTANCE);
+        }
+        if (sameFilePairs > 0) {
+          distance = Math.max(distance, SparseDistanceMatrix.SAME_FILE_DISTANCE);
+        }
+        return distance;
+      }
+      case AVG: {
+        final double sum = (stored > 0 ? link.sum : 0d)
+            + noCandidatePairs * (double) SparseDistanceMatrix.NO_CANDIDATE_DISTANCE
+            + sameFilePairs * (double) SparseDistanceMatrix.SAME_FILE_DISTANCE;
+        return sum / pairs;
+      }
+      default:
+        throw new IllegalArgumentException("Unsupported linkage " + linkage);
+    }
+  }
+
+  /**
+   * @return the number of pairs of rows of both clusters, that belong to the same raw data file
+   */
+  private static long sameFilePairs(Cluster first, Cluster second) {
+    long pairs = 0;
+    int i = 0;
+    int j = 0;
+    while (i < first.files.length && j < second.files.length) {
+      if (first.files[i] < second.files[j]) {
+        i++;
+      } else if (first.files[i] > second.files[j]) {
+        j++;
+      } else {
+        pairs += (long) first.fileCounts[i++] * second.fileCounts[j++];
+      }
+    }
+    return pairs;
+  }
+
+  private static void mergeFiles(Cluster first, Cluster second, Cluster merged) {
+    final int[] files = new int[first.files.length + second.files.length];
+    final int[] counts = new int[files.length];
+    int n = 0;
+    int i = 0;
+    int j = 0;
+    while (i < first.files.length || j < second.files.length) {
+      if (j == second.files.length
+          || (i < first.files.length && first.files[i] < second.files[j])) {
+        files[n] = first.files[i];
+        counts[n++] = first.fileCounts[i++];
+      } else if (i == first.files.length || first.files[i] > second.files[j]) {
+        files[n] = second.files[j];
+        counts[n++] = second.fileCounts[j++];
+      } else {
+        files[n] = first.files[i];
+        counts[n++] = first.fileCounts[i++] + second.fileCounts[j++];
+      }
+    }
+    merged.files = n == files.length ? files : Arrays.copyOf(files, n);
+    merged.fileCounts = n == counts.length ? counts : Arrays.copyOf(counts, n);
+  }
+
+  /**
+   * A row or a merge of rows.
+   */
+  private static class Cluster {
+
+    private final int id;
+    // row index or -(node + 1)
+    private final int node;
+    private final int firstRow;
+    private final int size;
+    // sorted raw data file indices of the rows and the number of rows of each file
+    private int[] files;
+    private int[] fileCounts;
+    // stored distances to the connected clusters
+    private final Map<Cluster, Link> links = new HashMap<>();
+    private boolean merged;
+
+    private Cluster(int id, int node, int firstRow, int size) {
+      this.id = id;
+      this.node = node;
+      this.firstRow = firstRow;
+      this.size = size;
+    }
+  }
+
+  /**
+   * Summary of the stored distances between two clusters.
+   */
+  private static class Link {
+
+    private int count;
+    private double sum;
+    private float min;
+    private float max;
+
+    private Link(float distance) {
+      count = 1;
+      sum = distance;
+      min = distance;
+      max = distance;
+    }
+
+    private void add(Link other) {
+      count += other.count;
+      sum += other.sum;
+      min = Math.min(min, other.min);
+      max = Math.max(max, other.max);
+    }
+  }
+
+  /**
+   * Two connected clusters, ordered by their linkage distance and then by their ids, so the result
+   * does not depend on the order of the queue.
+   */
+  private static class Candidate implements Comparable<Candidate> {
+
+    private final Cluster first;
+    private final Cluster second;
+    private final double distance;
+
+    private Candidate(Cluster first, Cluster second, double distance) {
+      // the older cluster is the left child
+      this.first = first.id < second.id ? first : second;
+      this.second = first.id < second.id ? second : first;
+      this.distance = distance;
+    }
+
+    @Override
+    public int compareTo(Candidate other) {
+      int result = Double.compare(distance, other.distance);
+      if (result == 0) {
+        result = Integer.compare(first.id, other.first.id);
+      }
+      if (result == 0) {
+        result = Integer.compare(second.id, other.second.id);
+      }
+      return result;
+    }
+  }
+}
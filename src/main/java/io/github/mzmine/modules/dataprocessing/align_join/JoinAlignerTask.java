@@ -25,6 +25,7 @@ import io.github.mzmine.datamodel.MZmineProject;
 import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.datamodel.features.FeatureList;
 import io.github.mzmine.datamodel.features.FeatureListRow;
+import io.github.mzmine.datamodel.features.FeatureListRowIndex;
 import io.github.mzmine.datamodel.features.ModularFeature;
 import io.github.mzmine.datamodel.features.ModularFeatureList;
 import io.github.mzmine.datamodel.features.ModularFeatureListRow;
@@ -42,10 +43,14 @@ import io.github.mzmine.util.MemoryMapStorage;
 import io.github.mzmine.util.RangeUtils;
 import io.github.mzmine.util.scans.similarity.SpectralSimilarity;
 import io.github.mzmine.util.scans.similarity.SpectralSimilarityFunction;
-import java.util.Hashtable;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import javax.annotation.Nullable;
 
@@ -55,9 +60,18 @@ public class JoinAlignerTask extends AbstractTask {
   private Logger logger = Logger.getLogger(this.getClass().getName());
   private ModularFeatureList[] featureLists;
   private ModularFeatureList alignedFeatureList;
+  // snapshot of the aligned feature list while scoring
+  private FeatureListRowIndex alignedRowIndex;
+  private FeatureListRow[] alignedRows;
+
+  /**
+   * Minimum number of rows per chunk of the parallel scoring.
+   */
+  private static final int MIN_ROWS_PER_CHUNK = 200;
 
   // Processed rows counter
-  private int processedRows, totalRows;
+  private final AtomicInteger processedRows = new AtomicInteger(0);
+  private int totalRows;
 
   private String featureListName;
   private MZTolerance mzTolerance;
@@ -139,7 +153,7 @@ public class JoinAlignerTask extends AbstractTask {
     if (totalRows == 0) {
       return 0f;
     }
-    return (double) processedRows / (double) totalRows;
+    return (double) processedRows.get() / (double) totalRows;
   }
 
   /**
@@ -197,150 +211,43 @@ public class JoinAlignerTask extends AbstractTask {
       featureList.getRawDataFiles().forEach(
           file -> alignedFeatureList.setSelectedScans(file, featureList.getSeletedScans(file)));
 
-      // Create a sorted set of scores matching
-      TreeSet<RowVsRowScore> scoreSet = new TreeSet<RowVsRowScore>();
-
       FeatureListRow[] allRows = featureList.getRows().toArray(FeatureListRow[]::new);
 
-      // Calculate scores for all possible alignments of this row
-      for (FeatureListRow row : allRows) {
-
-        if (isCanceled()) {
-          return;
-        }
-
-        // Calculate limits for a row with which the row can be aligned
-        Range<Double> mzRange = mzTolerance.getToleranceRange(row.getAverageMZ());
-        Range<Float> rtRange = rtTolerance.getToleranceRange(row.getAverageRT());
-
-        Range<Float> mobilityRange = compareMobility && !Float.isNaN(row.getAverageMobility()) ?
-            mobilityTolerance.getToleranceRange(row.getAverageMobility()) : Range.singleton(0f);
-
-        // Get all rows of the aligned peaklist within parameter limits
-        List<FeatureListRow> candidateRows = alignedFeatureList
-            .getRowsInsideScanAndMZRange(rtRange, mzRange);
-
-        // Calculate scores and store them
-        for (FeatureListRow candidate : candidateRows) {
-
-          if (compareMobility && !Float.isNaN(candidate.getAverageMobility()) &&
-              !mobilityRange.contains(candidate.getAverageMobility())) {
-            continue;
-          }
-
-          if (sameChargeRequired) {
-            if (!FeatureUtils.compareChargeState(row, candidate)) {
-              continue;
-            }
-          }
-
-          if (sameIDRequired) {
-            if (!FeatureUtils.compareIdentities(row, candidate)) {
-              continue;
-            }
-          }
-
-          if (compareIsotopePattern) {
-            IsotopePattern ip1 = row.getBestIsotopePattern();
-            IsotopePattern ip2 = candidate.getBestIsotopePattern();
-
-            if ((ip1 != null) && (ip2 != null)) {
-              ParameterSet isotopeParams =
-                  parameters.getParameter(JoinAlignerParameters.compareIsotopePattern)
-                      .getEmbeddedParameters();
-
-              if (!IsotopePatternScoreCalculator.checkMatch(ip1, ip2, isotopeParams)) {
-                continue;
-              }
-            }
-          }
-
-          // compare the similarity of spectra mass lists on MS1 or
-          // MS2 level
-          if (compareSpectraSimilarity) {
-            DataPoint[] rowDPs = null;
-            DataPoint[] candidateDPs = null;
-            SpectralSimilarity sim = null;
-
-            // get data points of mass list of the representative
-            // scans
-            if (msLevel == 1) {
-              rowDPs =
-                  row.getBestFeature().getRepresentativeScan().getMassList()
-                      .getDataPoints();
-              candidateDPs = candidate.getBestFeature().getRepresentativeScan()
-                  .getMassList()
-                  .getDataPoints();
-            }
-
-            // get data points of mass list of the best
-            // fragmentation scans
-            if (msLevel == 2) {
-              if (row.getBestFragmentation() != null && candidate.getBestFragmentation() != null) {
-                rowDPs = row.getBestFragmentation().getMassList().getDataPoints();
-                candidateDPs =
-                    candidate.getBestFragmentation().getMassList().getDataPoints();
-              } else {
-                continue;
-              }
-            }
-
-            // compare mass list data points of selected scans
-            if (rowDPs != null && candidateDPs != null) {
-
-              // calculate similarity using SimilarityFunction
-              sim = createSimilarity(rowDPs, candidateDPs);
-
-              // check if similarity is null. Similarity is not
-              // null if similarity score is >= the
-              // user set threshold
-              if (sim == null) {
-                continue;
-              }
-            }
-          }
-
-          RowVsRowScore score = null;
-          if (!compareMobility) {
-            score = new RowVsRowScore(row, candidate, RangeUtils.rangeLength(mzRange) / 2.0,
-                mzWeight,
-                RangeUtils.rangeLength(rtRange) / 2.0, rtWeight);
-          } else {
-            score = new RowVsRowScore(row, candidate, RangeUtils.rangeLength(mzRange) / 2.0,
-                mzWeight,
-                RangeUtils.rangeLength(rtRange) / 2.0, rtWeight,
-                RangeUtils.rangeLength(mobilityRange), mobilityWeight);
-          }
-          scoreSet.add(score);
-        }
-        processedRows++;
+      // Calculate scores for all possible alignments of the rows in parallel
+      final long startTime = System.nanoTime();
+      final RowVsRowScores scores = scoreRows(allRows);
+      if (scores == null) {
+        return;
       }
+      final double seconds = (System.nanoTime() - startTime) / 1E9;
+      logger.info(String.format(
+          "Scored %d rows of %s against %d aligned rows in %.1f s (%.0f rows/s)", allRows.length,
+          featureList.getName(), alignedRows.length, seconds,
+          allRows.length / Math.max(seconds, 1E-9)));
 
-      // Create a table of mappings for best scores
-      Hashtable<FeatureListRow, FeatureListRow> alignmentMapping =
-          new Hashtable<FeatureListRow, FeatureListRow>();
+      // Create a table of mappings for best scores. Row indices to aligned rows.
+      final FeatureListRow[] alignmentMapping = new FeatureListRow[allRows.length];
+      final boolean[] alignedRowFilled = new boolean[alignedRows.length];
 
       // Iterate scores by descending order
-      for (RowVsRowScore score : scoreSet) {
-
-        // Check if the row is already mapped
-        if (alignmentMapping.containsKey(score.getPeakListRow())) {
-          continue;
-        }
+      for (int index : scores.sortByScore()) {
+        final int row = scores.getRow(index);
+        final int alignedRow = scores.getAlignedRow(index);
 
-        // Check if the aligned row is already filled
-        if (alignmentMapping.containsValue(score.getAlignedRow())) {
+        // Check if the row is already mapped or the aligned row is already filled
+        if (alignmentMapping[row] != null || alignedRowFilled[alignedRow]) {
           continue;
         }
 
-        alignmentMapping.put(score.getPeakListRow(), score.getAlignedRow());
-
+        alignmentMapping[row] = alignedRows[alignedRow];
+        alignedRowFilled[alignedRow] = true;
       }
 
       // Align all rows using mapping
-      for (FeatureListRow row : allRows) {
+      for (int i = 0; i < allRows.length; i++) {
+        FeatureListRow row = allRows[i];
 
-        FeatureListRow targetRow = alignmentMapping.get(row);
+        FeatureListRow targetRow = alignmentMapping[i];
 
         // If we have no mapping for this row, add a new one
         if (targetRow == null) {
@@ -356,7 +263,7 @@ public class JoinAlignerTask extends AbstractTask {
           targetRow.addFeature(file, new ModularFeature(alignedFeatureList, row.getFeature(file)));
         }
 
-        processedRows++;
+        processedRows.incrementAndGet();
       }
     } // Next feature list
 
@@ -375,6 +282,167 @@ public class JoinAlignerTask extends AbstractTask {
 
   }
 
+  /**
+   * Calculates the scores of all rows against the rows of the aligned feature list. The rows are
+   * split into chunks that are scored on the common fork-join pool, each into its own buffer. The
+   * buffers are merged in the order of the rows, so the result does not depend on the number of
+   * threads.
+   *
+   * @return the scores or null if the task was canceled
+   */
+  @Nullable
+  private RowVsRowScores scoreRows(FeatureListRow[] allRows) {
+    // the aligned feature list is not modified while scoring
+    alignedRowIndex = alignedFeatureList.getRowIndex();
+    alignedRows = alignedFeatureList.getRows().toArray(FeatureListRow[]::new);
+
+    final int parallelism = Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+    final int chunkSize = Math.max(MIN_ROWS_PER_CHUNK,
+        (int) Math.ceil(allRows.length / (double) (parallelism * 4)));
+
+    final List<RowVsRowScores> chunkScores = new ArrayList<>();
+    final List<ForkJoinTask<?>> tasks = new ArrayList<>();
+    for (int start = 0; start < allRows.length; start += chunkSize) {
+      final int from = start;
+      final int to = Math.min(start + chunkSize, allRows.length);
+      final RowVsRowScores scores = new RowVsRowScores();
+      chunkScores.add(scores);
+      tasks.add(ForkJoinPool.commonPool().submit(() -> {
+        final IntArrayList candidates = new IntArrayList();
+        for (int i = from; i < to && !isCanceled(); i++) {
+          scoreRow(allRows[i], i, candidates, scores);
+          processedRows.incrementAndGet();
+        }
+      }));
+    }
+
+    for (ForkJoinTask<?> task : tasks) {
+      task.join();
+    }
+    return isCanceled() ? null : RowVsRowScores.merge(chunkScores);
+  }
+
+  /**
+   * Calculates the scores for all possible alignments of a row.
+   *
+   * @param rowIndex   the index of the row, stored with the scores
+   * @param candidates a buffer for the candidate rows
+   * @param scores     the scores are added to this buffer
+   */
+  private void scoreRow(FeatureListRow row, int rowIndex, IntArrayList candidates,
+      RowVsRowScores scores) {
+    // Calculate limits for a row with which the row can be aligned
+    Range<Double> mzRange = mzTolerance.getToleranceRange(row.getAverageMZ());
+    Range<Float> rtRange = rtTolerance.getToleranceRange(row.getAverageRT());
+
+    Range<Float> mobilityRange = compareMobility && !Float.isNaN(row.getAverageMobility()) ?
+        mobilityTolerance.getToleranceRange(row.getAverageMobility()) : Range.singleton(0f);
+
+    // Get all rows of the aligned peaklist within parameter limits
+    candidates.clear();
+    alignedRowIndex.forEachPosition(mzRange, rtRange,
+        compareMobility && !Float.isNaN(row.getAverageMobility()) ? mobilityRange : null,
+        candidates::add);
+    // score the candidates in the order of the aligned feature list
+    IntArrays.quickSort(candidates.elements(), 0, candidates.size());
+
+    // Calculate scores and store them
+    for (int c = 0; c < candidates.size(); c++) {
+      final int alignedIndex = candidates.getInt(c);
+      final FeatureListRow candidate = alignedRows[alignedIndex];
+
+      if (compareMobility && !Float.isNaN(candidate.getAverageMobility()) &&
+          !mobilityRange.contains(candidate.getAverageMobility())) {
+        continue;
+      }
+
+      if (sameChargeRequired) {
+        if (!FeatureUtils.compareChargeState(row, candidate)) {
+          continue;
+        }
+      }
+
+      if (sameIDRequired) {
+        if (!FeatureUtils.compareIdentities(row, candidate)) {
+          continue;
+        }
+      }
+
+      if (compareIsotopePattern) {
+        IsotopePattern ip1 = row.getBestIsotopePattern();
+        IsotopePattern ip2 = candidate.getBestIsotopePattern();
+
+        if ((ip1 != null) && (ip2 != null)) {
+          ParameterSet isotopeParams =
+              parameters.getParameter(JoinAlignerParameters.compareIsotopePattern)
+                  .getEmbeddedParameters();
+
+          if (!IsotopePatternScoreCalculator.checkMatch(ip1, ip2, isotopeParams)) {
+            continue;
+          }
+        }
+      }
+
+      // compare the similarity of spectra mass lists on MS1 or
+      // MS2 level
+      if (compareSpectraSimilarity) {
+        DataPoint[] rowDPs = null;
+        DataPoint[] candidateDPs = null;
+        SpectralSimilarity sim = null;
+
+        // get data points of mass list of the representative
+        // scans
+        if (msLevel == 1) {
+          rowDPs =
+              row.getBestFeature().getRepresentativeScan().getMassList()
+                  .getDataPoints();
+          candidateDPs = candidate.getBestFeature().getRepresentativeScan()
+              .getMassList()
+              .getDataPoints();
+        }
+
+        // get data points of mass list of the best
+        // fragmentation scans
+        if (msLevel == 2) {
+          if (row.getBestFragmentation() != null && candidate.getBestFragmentation() != null) {
+            rowDPs = row.getBestFragmentation().getMassList().getDataPoints();
+            candidateDPs =
+                candidate.getBestFragmentation().getMassList().getDataPoints();
+          } else {
+            continue;
+          }
+        }
+
+        // compare mass list data points of selected scans
+        if (rowDPs != null && candidateDPs != null) {
+
+          // calculate similarity using SimilarityFunction
+          sim = createSimilarity(rowDPs, candidateDPs);
+
+          // check if similarity is null. Similarity is not
+          // null if similarity score is >= the
+          // user set threshold
+          if (sim == null) {
+            continue;
+          }
+        }
+      }
+
+      final double score;
+      if (!compareMobility) {
+        score = RowVsRowScores.calculateScore(row, candidate,
+            RangeUtils.rangeLength(mzRange) / 2.0, mzWeight,
+            RangeUtils.rangeLength(rtRange) / 2.0, rtWeight);
+      } else {
+        score = RowVsRowScores.calculateScore(row, candidate,
+            RangeUtils.rangeLength(mzRange) / 2.0, mzWeight,
+            RangeUtils.rangeLength(rtRange) / 2.0, rtWeight,
+            RangeUtils.rangeLength(mobilityRange), mobilityWeight);
+      }
+      scores.add(rowIndex, alignedIndex, score);
+    }
+  }
+
   /**
    * Uses the similarity function and filter to create similarity.
    *
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.align_join;
+
+import io.github.mzmine.datamodel.features.FeatureListRow;
+import io.github.mzmine.util.IndexSort;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Scores between the rows of a feature list and the rows of the aligned feature list, stored in
+ * primitive arrays. Rows are referenced by their index in the arrays of rows the scores were
+ * calculated for. Every scoring thread fills its own instance, the instances are merged afterwards.
+ */
+class RowVsRowScores {
+
+  private int[] rows = new int[16];
+  private int[] alignedRows = new int[16];
+  private double[] scores = new double[16];
+  private int size = 0;
+
+  /**
+   * Calculates the score between a feature list row and an aligned feature list row. The higher
+   * the score, the better the match.
+   */
+  static double calculateScore(FeatureListRow peakListRow, FeatureListRow alignedRow,
+      double mzMaxDiff, double mzWeight, double rtMaxDiff, double rtWeight) {
+    // Calculate differences between m/z and RT values
+    double mzDiff = Math.abs(peakListRow.getAverageMZ() - alignedRow.getAverageMZ());
+
+    double rtDiff = Math.abs(peakListRow.getAverageRT() - alignedRow.getAverageRT());
+
+    return ((1 - mzDiff / mzMaxDiff) * mzWeight) + ((1 - rtDiff / rtMaxDiff) * rtWeight);
+  }
+
+  /**
+   * Calculates the score between a feature list row and an aligned feature list row including the
+   * mobility. The mobility is only considered if both rows have a mobility. The higher the score,
+   * the better the match.
+   */
+  static double calculateScore(FeatureListRow peakListRow, FeatureListRow alignedRow,
+      double mzMaxDiff, double mzWeight, double rtMaxDiff, double rtWeight,
+      double mobilityMaxDiff, double mobilityWeight) {
+    final double score = calculateScore(peakListRow, alignedRow, mzMaxDiff, mzWeight, rtMaxDiff,
+        rtWeight);
+
+    float row1Mobility = peakListRow.getAverageMobility();
+    float row2Mobility = alignedRow.getAverageMobility();
+    if (Float.isNaN(row1Mobility) || Float.isNaN(row2Mobility)) {
+      return score;
+    }
+    double mobilityDiff = Math.abs(row1Mobility - row2Mobility);
+    return score + ((1 - mobilityDiff / mobilityMaxDiff) * mobilityWeight);
+  }
+
+  void add(int row, int alignedRow, double score) {
+    if (size == scores.length) {
+      rows = Arrays.copyOf(rows, size * 2);
+      alignedRows = Arrays.copyOf(alignedRows, size * 2);
+      scores = Arrays.copyOf(scores, size * 2);
+    }
+    rows[size] = row;
+    alignedRows[size] = alignedRow;
+    scores[size] = score;
+    size++;
+  }
+
+  /**
+   * Merges the scores of all parts in the given order.
+   */
+  static RowVsRowScores merge(List<RowVsRowScores> parts) {
+    final int total = parts.stream().mapToInt(RowVsRowScores::size).sum();
+    final RowVsRowScores merged = new RowVsRowScores();
+    merged.rows = new int[Math.max(total, 1)];
+    merged.alignedRows = new int[Math.max(total, 1)];
+    merged.scores = new double[Math.max(total, 1)];
+    for (RowVsRowScores part : parts) {
+      System.arraycopy(part.rows, 0, merged.rows, merged.size, part.size);
+      System.arraycopy(part.alignedRows, 0, merged.alignedRows, merged.size, part.size);
+      System.arraycopy(part.scores, 0, merged.scores, merged.size, part.size);
+      merged.size += part.size;
+    }
+    return merged;
+  }
+
+  /**
+   * Sorts by descending score. Equal scores are sorted by descending insertion order, so the order
+   * does not depend on the number of threads that calculated the scores.
+   *
+   * @return the indices of the scores, best score first
+   */
+  int[] sortByScore() {
+    return IndexSort.sort(size, (a, b) -> {
+      final int result = Double.compare(scores[b], scores[a]);
+      return result != 0 ? result : Integer.compare(b, a);
+    });
+  }
+
+  int size() {
+    return size;
+  }
+
+  int getRow(int index) {
+    return rows[index];
+  }
+
+  int getAlignedRow(int index) {
+    return alignedRows[index];
+  }
+
+  double getScore(int index) {
+    return scores[index];
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.featdet_adapchromatogrambuilder;
+
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.util.DisjointRangeIndex;
+import io.github.mzmine.util.IndexSort;
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleConsumer;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Assigns all centroids of a data file to ADAP chromatogram m/z bins. This is the allocation-free
+ * core of the {@link ModularADAPChromatogramBuilderTask}: The data points are given as parallel
+ * primitive arrays, sorted by a primitive index sort (descending intensity) and assigned to
+ * disjoint m/z ranges kept in a {@link DisjointRangeIndex}. Data point objects are only created
+ * by the caller for the points that end up in a chromatogram.
+ */
+public class ADAPChromatogramBinner {
+
+  private final MZTolerance mzTolerance;
+  private final double minIntensityForStartChrom;
+
+  /**
+   * @param mzTolerance               m/z tolerance that defines the width of a new bin
+   * @param minIntensityForStartChrom minimum intensity of a data point to start a new bin
+   */
+  public ADAPChromatogramBinner(@Nonnull MZTolerance mzTolerance,
+      double minIntensityForStartChrom) {
+    this.mzTolerance = mzTolerance;
+    this.minIntensityForStartChrom = minIntensityForStartChrom;
+  }
+
+  /**
+   * Assigns the data points to chromatograms. The data points are processed by descending
+   * intensity (ties by descending m/z and ascending index).
+   *
+   * @param mzs         m/z values of all data points
+   * @param intensities intensities of all data points
+   * @param numPoints   the number of data points
+   * @param canceled    checked regularly, the binning stops if true is returned. May be null.
+   * @param progress    receives the progress from 0 to 1. May be null.
+   * @return the indices of the data points of every chromatogram in the order they have to be added
+   * to the chromatogram. The chromatograms are sorted by their m/z range. null if canceled.
+   */
+  @Nullable
+  public int[][] bin(@Nonnull double[] mzs, @Nonnull double[] intensities, int numPoints,
+      @Nullable BooleanSupplier canceled, @Nullable DoubleConsumer progress) {
+
+    // sort data points by intensity
+    final int[] order = IndexSort.sort(numPoints, (a, b) -> {
+      int result = Double.compare(intensities[b], intensities[a]);
+      return result != 0 ? result : Double.compare(mzs[b], mzs[a]);
+    });
+
+    final DisjointRangeIndex ranges = new DisjointRangeIndex();
+    final int[] chromOfPoint = new int[numPoints];
+    Arrays.fill(chromOfPoint, -1);
+
+    for (int i = 0; i < numPoints; i++) {
+      if ((i & 0xFFFF) == 0) {
+        if (canceled != null && canceled.getAsBoolean()) {
+          return null;
+        }
+        if (progress != null) {
+          progress.accept(i / (double) numPoints);
+        }
+      }
+
+      final int point = order[i];
+      final double mz = mzs[point];
+      final double intensity = intensities[point];
+      if (Double.isNaN(mz) || Double.isNaN(intensity)) {
+        continue;
+      }
+
+      final int containing = ranges.find(mz);
+      if (containing != -1) {
+        chromOfPoint[point] = containing;
+        continue;
+      }
+
+      // skip it entirely if the intensity is not high enough
+      if (intensity < minIntensityForStartChrom) {
+        continue;
+      }
+
+      // look +- mz tolerance to see if there is a range near by. If there is, use the proper
+      // boundary of that range for the new range to ensure that none of the ranges overlap.
+      chromOfPoint[point] = ranges.addAround(mz, mzTolerance.getMzToleranceForMass(mz));
+    }
+
+    // group the points by chromatogram, keep the processing order within each chromatogram
+    final int[] numPointsOfChrom = new int[ranges.size()];
+    for (int point = 0; point < numPoints; point++) {
+      if (chromOfPoint[point] != -1) {
+        numPointsOfChrom[chromOfPoint[point]]++;
+      }
+    }
+    final int[][] pointsOfChrom = new int[ranges.size()][];
+    for (int chrom = 0; chrom < pointsOfChrom.length; chrom++) {
+      pointsOfChrom[chrom] = new int[numPointsOfChrom[chrom]];
+    }
+    Arrays.fill(numPointsOfChrom, 0);
+    for (int i = 0; i < numPoints; i++) {
+      final int point = order[i];
+      final int chrom = chromOfPoint[point];
+      if (chrom != -1) {
+        pointsOfChrom[chrom][numPointsOfChrom[chrom]++] = point;
+      }
+    }
+
+    // sort chromatograms by their m/z range
+    final int[] sortedChroms = ranges.getIdsInAscendingOrder();
+    final int[][] result = new int[sortedChroms.length][];
+    for (int i = 0; i < sortedChroms.length; i++) {
+      result[i] = pointsOfChrom[sortedChroms[i]];
+    }
+    if (progress != null) {
+      progress.accept(1d);
+    }
+    return result;
+  }
+}
@@ -21,13 +21,13 @@ package io.github.mzmine.modules.dataprocessing.featdet_imagebuilder;
 
 
 import com.google.common.collect.Range;
-import com.google.common.collect.RangeSet;
-import com.google.common.collect.TreeRangeSet;
 import io.github.mzmine.datamodel.ImagingRawDataFile;
 import io.github.mzmine.datamodel.ImagingScan;
 import io.github.mzmine.datamodel.MZmineProject;
+import io.github.mzmine.datamodel.MassList;
 import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.datamodel.featuredata.impl.SimpleIonTimeSeries;
 import io.github.mzmine.datamodel.features.ModularFeature;
 import io.github.mzmine.datamodel.features.ModularFeatureList;
 import io.github.mzmine.datamodel.features.ModularFeatureListRow;
@@ -40,28 +40,49 @@ import io.github.mzmine.parameters.parametertypes.selectors.ScanSelection;
 import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.DisjointRangeIndex;
 import io.github.mzmine.util.FeatureConvertors;
+import io.github.mzmine.util.IndexSort;
+import io.github.mzmine.util.IndexSort.IndexComparator;
 import io.github.mzmine.util.MemoryMapStorage;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedHashSet;
-import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.Nullable;
 
-/*
+/**
+ * Builds images of m/z ranges from imaging scans without holding all data points in memory.
+ * <p>
+ * The scans are split into tiles of consecutive pixels. The data points of every tile are sorted by
+ * intensity and by m/z in parallel and written to a temporary storage. The tiles sorted by
+ * intensity are merged to assign the data points to disjoint m/z bins in ascending order of
+ * intensity. Then the tiles sorted by m/z are merged, which streams the data points bin by bin, and
+ * the images of the bins with enough signals are built in the same pass. The images are written to
+ * the storage of the feature list.
+ *
  * @author Ansgar Korf (ansgar.korf@uni-muenster.de)
  */
 public class ImageBuilderTask extends AbstractTask {
 
+  // a tile contains at least one scan
+  private static final int MAX_POINTS_PER_TILE = 1 << 20;
+
   private static Logger logger = Logger.getLogger(ImageBuilderTask.class.getName());
 
-  private RangeSet<Double> rangeSet = TreeRangeSet.create();
-  private HashMap<Range<Double>, IImage> rangeToImageMap = new HashMap<>();
+  private final DisjointRangeIndex ranges = new DisjointRangeIndex();
+  // m/z of the data point that created the bin and number of data points, by bin
+  private double[] binMzs;
+  private long[] numPointsOfBin;
 
   private final MZmineProject project;
   private final ImagingRawDataFile rawDataFile;
@@ -71,8 +92,10 @@ public class ImageBuilderTask extends AbstractTask {
   private final ScanSelection scanSelection;
   private final ImagingParameters imagingParameters;
   private final PaintScale paintScaleParameter;
-  private double pixelWidth;
-  private double pixelHeight;
+  private List<ImagingScan> scans;
+  private ModularFeatureList featureList;
+  // index of the first scan, by tile
+  private int[] tileStarts;
   private double progress = 0.0;
   private String taskDescription = "";
   private final ParameterSet parameterSet;
@@ -113,256 +136,440 @@ public class ImageBuilderTask extends AbstractTask {
       return;
     }
     progress = 0.0;
-    calculatePixelSize();
-    Set<ImageDataPoint> imageDataPoints = extractAllDataPointsFromScans();
-    createImageTargetSet(imageDataPoints);
-    SortedSet<IImage> images = finishImages();
-    buildModularFeatureList(images);
+
+    // the sorted tiles are only needed to create the bins and the images
+    final MemoryMapStorage tempStorage = MemoryMapStorage.create();
+    tempStorage.retain();
+    final ModularFeature[] features;
+    try {
+      if (!createTiles()) {
+        return;
+      }
+      final SortedTile[] tiles = sortTiles(tempStorage);
+      if (tiles == null || !binDataPoints(tiles)) {
+        return;
+      }
+      features = buildImages(tiles);
+      if (features == null) {
+        return;
+      }
+    } finally {
+      tempStorage.release();
+    }
+    buildModularFeatureList(features);
     progress = 1.0;
     setStatus(TaskStatus.FINISHED);
   }
 
-  private void calculatePixelSize() {
-    pixelWidth = imagingParameters.getLateralWidth() / imagingParameters.getMaxNumberOfPixelX();
-    pixelHeight = imagingParameters.getLateralHeight() / imagingParameters.getMaxNumberOfPixelY();
+  /**
+   * Collects the imaging scans in scan number order and splits them into tiles.
+   *
+   * @return false if the task was canceled or a mass list is missing
+   */
+  private boolean createTiles() {
+    scans = new ArrayList<>();
+    for (Scan scan : scanSelection.getMatchingScans(rawDataFile)) {
+      if (scan instanceof ImagingScan && scanSelection.matches(scan)) {
+        scans.add((ImagingScan) scan);
+      }
+    }
+    scans.sort(Comparator.comparingInt(Scan::getScanNumber));
+
+    final List<Integer> starts = new ArrayList<>();
+    int pointsInTile = 0;
+    for (int i = 0; i < scans.size(); i++) {
+      final MassList massList = scans.get(i).getMassList();
+      if (massList == null) {
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage("Scan #" + scans.get(i).getScanNumber()
+            + " does not have a mass list. Run mass detection ");
+        return false;
+      }
+      final int numDp = massList.getNumberOfDataPoints();
+      if (i == 0 || pointsInTile + numDp > MAX_POINTS_PER_TILE) {
+        starts.add(i);
+        pointsInTile = 0;
+      }
+      pointsInTile += numDp;
+    }
+    starts.add(scans.size());
+    tileStarts = starts.stream().mapToInt(Integer::intValue).toArray();
+    logger.info("Split " + scans.size() + " scans into " + (tileStarts.length - 1) + " tiles");
+    return !isCanceled();
   }
 
-  // Extract all data point sorted by intensity
-  private Set<ImageDataPoint> extractAllDataPointsFromScans() {
+  /**
+   * Sorts the data points of every tile by intensity and by m/z in parallel and writes them to the
+   * temporary storage.
+   *
+   * @return the sorted tiles or null if the task was canceled or the storage failed
+   */
+  private SortedTile[] sortTiles(MemoryMapStorage tempStorage) {
     logger.info("Start data point extraction");
     taskDescription = "Get data points from scans";
-    int processedScans = 1;
-    SortedSet<ImageDataPoint> allDataPoints = new TreeSet<>(new Comparator<ImageDataPoint>() {
-      @Override
-      public int compare(ImageDataPoint o1, ImageDataPoint o2) {
-        if (o1.getIntensity() > o2.getIntensity()) {
-          return 1;
-        } else {
-          return -1;
+    final int numTiles = tileStarts.length - 1;
+    final SortedTile[] tiles = new SortedTile[numTiles];
+    final int[] sortedTiles = new int[1];
+
+    final List<ForkJoinTask<?>> tasks = new ArrayList<>();
+    for (int t = 0; t < numTiles; t++) {
+      final int tile = t;
+      tasks.add(ForkJoinPool.commonPool().submit(() -> {
+        if (isCanceled()) {
+          return null;
         }
-      }
+        tiles[tile] = sortTile(tile, tempStorage);
+        synchronized (sortedTiles) {
+          sortedTiles[0]++;
+          progress = sortedTiles[0] / (double) numTiles / 4;
+        }
+        return null;
+      }));
+    }
+    if (!joinAll(tasks)) {
+      return null;
+    }
+    return isCanceled() ? null : tiles;
+  }
+
+  private SortedTile sortTile(int tile, MemoryMapStorage tempStorage) throws IOException {
+    final TilePoints points = readTile(tile);
+    final int numPoints = points.size;
+    final double[] intensities = points.intensities;
+    // ascending intensity, equal intensities in descending index order
+    final int[] order = IndexSort.sort(numPoints, (a, b) -> {
+      final int result = Double.compare(intensities[a], intensities[b]);
+      return result != 0 ? result : Integer.compare(b, a);
     });
-    Scan[] scans = scanSelection.getMatchingScans(rawDataFile);
-    for (Scan scan : scans) {
-      if (!(scan instanceof ImagingScan) || !scanSelection.matches(scan)) {
-        continue;
-      }
-      if (scan.getMassList() == null) {
-        setStatus(TaskStatus.ERROR);
-        setErrorMessage("Scan #" + scan.getScanNumber() + " does not have a mass list. Run mass detection ");
-      } else {
-        Arrays.stream(scan.getMassList().getDataPoints())
-            .forEach(dp -> allDataPoints.add(new ImageDataPoint(dp.getMZ(), dp.getIntensity(),
-                (ImagingScan) scan, ((ImagingScan) scan).getCoordinates().getX() * pixelWidth,
-                ((ImagingScan) scan).getCoordinates().getY() * pixelHeight, 1, pixelHeight,
-                pixelWidth, paintScaleParameter)));
-      }
-      progress = (processedScans / (double) scans.length) / 4;
-      processedScans++;
+
+    final double[] sortedMzs = new double[numPoints];
+    final double[] sortedIntensities = new double[numPoints];
+    for (int i = 0; i < numPoints; i++) {
+      sortedMzs[i] = points.mzs[order[i]];
+      sortedIntensities[i] = intensities[order[i]];
+    }
+    final DoubleBuffer mzs = tempStorage.storeData(sortedMzs);
+    final DoubleBuffer intensitiesByIntensity = tempStorage.storeData(sortedIntensities);
+
+    // ascending m/z, equal m/z in scan order
+    final int[] mzOrder = IndexSort.sort(points.mzs, true);
+    final int[] sortedScans = new int[numPoints];
+    for (int i = 0; i < numPoints; i++) {
+      sortedMzs[i] = points.mzs[mzOrder[i]];
+      sortedIntensities[i] = intensities[mzOrder[i]];
+      sortedScans[i] = points.scans[mzOrder[i]];
+    }
+    return new SortedTile(mzs, intensitiesByIntensity, tempStorage.storeData(sortedMzs),
+        tempStorage.storeData(sortedIntensities), tempStorage.storeData(sortedScans), numPoints);
+  }
+
+  /**
+   * @return the data points of all scans of the tile in scan order
+   */
+  private TilePoints readTile(int tile) {
+    int numPoints = 0;
+    for (int s = tileStarts[tile]; s < tileStarts[tile + 1]; s++) {
+      numPoints += scans.get(s).getMassList().getNumberOfDataPoints();
     }
-    logger.info("Extracted " + allDataPoints.size() + " ims data points");
-    return allDataPoints;
+    final TilePoints points = new TilePoints(numPoints);
+    points.size = numPoints;
+    double[] buffer = new double[0];
+    int point = 0;
+    for (int s = tileStarts[tile]; s < tileStarts[tile + 1]; s++) {
+      final MassList massList = scans.get(s).getMassList();
+      final int numDp = massList.getNumberOfDataPoints();
+      buffer = massList.getMzValues(buffer);
+      System.arraycopy(buffer, 0, points.mzs, point, numDp);
+      buffer = massList.getIntensityValues(buffer);
+      System.arraycopy(buffer, 0, points.intensities, point, numDp);
+      Arrays.fill(points.scans, point, point + numDp, s);
+      point += numDp;
+    }
+    return points;
   }
 
-  private void createImageTargetSet(Set<ImageDataPoint> imageDataPoints) {
+  /**
+   * Merges the sorted tiles and assigns their data points to disjoint m/z bins. The data points of
+   * all tiles are processed in ascending order of intensity, data points of equal intensity in
+   * descending scan order.
+   *
+   * @return false if the task was canceled
+   */
+  private boolean binDataPoints(SortedTile[] tiles) {
     logger.info("Start m/z ranges calculation");
     taskDescription = "Calculate m/z ranges";
-    int processedDataPoint = 1;
-    for (ImageDataPoint imageDataPoint : imageDataPoints) {
-      if (isCanceled()) {
-        return;
+    long numPoints = 0;
+    for (SortedTile tile : tiles) {
+      numPoints += tile.size;
+    }
+
+    // heap of the tiles by the intensity of their next data point
+    final int[] positions = new int[tiles.length];
+    // equal intensities in descending scan order
+    final IndexComparator before = (a, b) -> {
+      final int result = Double.compare(tiles[a].intensities.get(positions[a]),
+          tiles[b].intensities.get(positions[b]));
+      return result != 0 ? result : Integer.compare(b, a);
+    };
+    final int[] heap = new int[tiles.length];
+    int heapSize = initHeap(heap, tiles, before);
+
+    binMzs = new double[64];
+    numPointsOfBin = new long[64];
+    long processed = 0;
+    while (heapSize > 0) {
+      if ((processed++ & 0xFFFF) == 0) {
+        if (isCanceled()) {
+          return false;
+        }
+        progress = 0.25 + processed / (double) numPoints / 4;
       }
-      Range<Double> containsDataPointRange = rangeSet.rangeContaining(imageDataPoint.getMZ());
-      Range<Double> toleranceRange = mzTolerance.getToleranceRange(imageDataPoint.getMZ());
-      if (containsDataPointRange == null) {
-        // look +- mz tolerance to see if ther is a range near by.
-        // If there is use the proper boundry of that range for the
-        // new range to insure than NON OF THE RANGES OVERLAP.
-        Range<Double> plusRange = rangeSet.rangeContaining(toleranceRange.upperEndpoint());
-        Range<Double> minusRange = rangeSet.rangeContaining(toleranceRange.lowerEndpoint());
-        Double toBeLowerBound;
-        Double toBeUpperBound;
-
-        // If both of the above ranges are null then we make the new range spaning the full
-        // mz tolerance range.
-        // If one or both are not null we need to properly modify the range of the new
-        // chromatogram so that none of the points are overlapping.
-        if ((plusRange == null) && (minusRange == null)) {
-          toBeLowerBound = toleranceRange.lowerEndpoint();
-          toBeUpperBound = toleranceRange.upperEndpoint();
-        } else if ((plusRange == null) && (minusRange != null)) {
-          // the upper end point of the minus range will be the lower
-          // range of the new one
-          toBeLowerBound = minusRange.upperEndpoint();
-          toBeUpperBound = toleranceRange.upperEndpoint();
-
-        } else if ((minusRange == null) && (plusRange != null)) {
-          toBeLowerBound = toleranceRange.lowerEndpoint();
-          toBeUpperBound = plusRange.lowerEndpoint();
-        } else if ((minusRange != null) && (plusRange != null)) {
-          toBeLowerBound = minusRange.upperEndpoint();
-          toBeUpperBound = plusRange.lowerEndpoint();
-        } else {
-          toBeLowerBound = 0.0;
-          toBeUpperBound = 0.0;
+
+      final int tile = heap[0];
+      final int position = positions[tile];
+      final double mz = tiles[tile].mzs.get(position);
+      final double intensity = tiles[tile].intensities.get(position);
+      if (++positions[tile] == tiles[tile].size) {
+        heap[0] = heap[--heapSize];
+      }
+      siftDown(heap, heapSize, 0, before);
+      if (Double.isNaN(mz) || Double.isNaN(intensity)) {
+        continue;
+      }
+
+      int bin = ranges.find(mz);
+      if (bin == -1) {
+        final int numBins = ranges.size();
+        bin = ranges.addAround(mz, mzTolerance.getMzToleranceForMass(mz));
+        if (bin == numBins) {
+          // the m/z of an image is the m/z of the data point that created it
+          if (bin == binMzs.length) {
+            binMzs = Arrays.copyOf(binMzs, bin * 2);
+            numPointsOfBin = Arrays.copyOf(numPointsOfBin, bin * 2);
+          }
+          binMzs[bin] = mz;
         }
+      }
+      numPointsOfBin[bin]++;
+    }
+    logger.info("Binned " + numPoints + " image data points into " + ranges.size() + " m/z ranges");
+    return true;
+  }
 
-        if (toBeLowerBound < toBeUpperBound) {
-          Range<Double> newRange = Range.open(toBeLowerBound, toBeUpperBound);
-          IImage newImage = new Image(imageDataPoint.getMZ(), imagingParameters,
-              paintScaleParameter, imageDataPoint.getIntensity(), newRange);
-          LinkedHashSet<ImageDataPoint> dataPointsSetForImage = new LinkedHashSet<ImageDataPoint>();
-          dataPointsSetForImage.add(imageDataPoint);
-          newImage.setDataPoints(dataPointsSetForImage);
-          rangeToImageMap.put(newRange, newImage);
-          rangeSet.add(newRange);
-        } else if (toBeLowerBound.equals(toBeUpperBound) && plusRange != null) {
-          IImage currentImage = rangeToImageMap.get(plusRange);
-          currentImage.getDataPoints().add(imageDataPoint);
-        } else
-          throw new IllegalStateException(String.format("Incorrect range [%f, %f] for m/z %f",
-              toBeLowerBound, toBeUpperBound, imageDataPoint.getMZ()));
-
-      } else {
-        // In this case we do not need to update the rangeSet
-
-        IImage currentImage = rangeToImageMap.get(containsDataPointRange);
-        currentImage.getDataPoints().add(imageDataPoint);
-
-        // update the entry in the map
-        rangeToImageMap.put(containsDataPointRange, currentImage);
+  /**
+   * Adds all tiles with data points to the heap.
+   *
+   * @return the size of the heap
+   */
+  private static int initHeap(int[] heap, SortedTile[] tiles, IndexComparator before) {
+    int heapSize = 0;
+    for (int t = 0; t < tiles.length; t++) {
+      if (tiles[t].size > 0) {
+        heap[heapSize++] = t;
       }
-      double progressStep = (processedDataPoint / imageDataPoints.size()) / 4;
-      progress += progressStep;
     }
+    for (int i = heapSize / 2 - 1; i >= 0; i--) {
+      siftDown(heap, heapSize, i, before);
+    }
+    return heapSize;
   }
 
-  private SortedSet<IImage> finishImages() {
-    Set<Range<Double>> ranges = rangeSet.asRanges();
-    Iterator<Range<Double>> rangeIterator = ranges.iterator();
-    SortedSet<IImage> images = new TreeSet<>(new Comparator<IImage>() {
-      @Override
-      public int compare(IImage o1, IImage o2) {
-        if (o1.getMz() > o2.getMz()) {
-          return 1;
-        } else {
-          return -1;
-        }
+  /**
+   * @param before compares the next data points of two tiles, negative if the first tile is
+   *               processed before the second one
+   */
+  private static void siftDown(int[] heap, int heapSize, int i, IndexComparator before) {
+    final int tile = heap[i];
+    while (2 * i + 1 < heapSize) {
+      int child = 2 * i + 1;
+      if (child + 1 < heapSize && before.compare(heap[child + 1], heap[child]) < 0) {
+        child++;
       }
-    });
-    double progressStep = (!ranges.isEmpty()) ? 0.75 / ranges.size() : 0.0;
-    while (rangeIterator.hasNext()) {
-      if (isCanceled()) {
+      if (before.compare(heap[child], tile) >= 0) {
         break;
       }
-      progress += progressStep;
-      Range<Double> currentRangeKey = rangeIterator.next();
-      IImage image = rangeToImageMap.get(currentRangeKey);
-      if (image.getDataPoints().size() >= minTotalSignals) {
-        logger.info("Build ion trace for m/z range " + image.getMzRange());
-        finishImage(image);
-        images.add(image);
-      }
+      heap[i] = heap[child];
+      i = child;
     }
-    return images;
+    heap[i] = tile;
   }
 
-  private IImage finishImage(IImage image) {
-    Range<Double> rawDataPointsIntensityRange = null;
-    Range<Double> rawDataPointsMZRange = null;
-    LinkedHashSet<Scan> scanNumbers = new LinkedHashSet<>();
-    SortedSet<ImageDataPoint> sortedRetentionTimeMobilityDataPoints =
-        new TreeSet<>(new Comparator<ImageDataPoint>() {
-          @Override
-          public int compare(ImageDataPoint o1, ImageDataPoint o2) {
-            if (o1.getScanNumber().getScanNumber() > o2.getScanNumber().getScanNumber()) {
-              return 1;
-            } else {
-              return -1;
-            }
-          }
-        });
-    sortedRetentionTimeMobilityDataPoints.addAll(image.getDataPoints());
-    // Update raw data point ranges, height, and representative scan
-    double maximumIntensity = Double.MIN_VALUE;
-    for (ImageDataPoint imageDataPoint : sortedRetentionTimeMobilityDataPoints) {
-      scanNumbers.add(imageDataPoint.getScanNumber());
-
-      // set ranges
-      if (rawDataPointsIntensityRange == null && rawDataPointsMZRange == null) {
-        rawDataPointsIntensityRange = Range.singleton(imageDataPoint.getIntensity());
-        rawDataPointsMZRange = Range.singleton(imageDataPoint.getMZ());
-      } else {
-        rawDataPointsIntensityRange =
-            rawDataPointsIntensityRange.span(Range.singleton(imageDataPoint.getIntensity()));
-        rawDataPointsMZRange = rawDataPointsMZRange.span(Range.singleton(imageDataPoint.getMZ()));
+  /**
+   * Builds the images of all bins with enough data points. The tiles sorted by m/z are merged, so
+   * the data points arrive bin by bin and only the data points of one image are held in memory.
+   *
+   * @return the features of the images sorted by m/z or null if the task was canceled
+   */
+  private ModularFeature[] buildImages(SortedTile[] tiles) {
+    taskDescription = "Build images";
+    final int numBins = ranges.size();
+    final int[] imageBins = Arrays.stream(ranges.getIdsInAscendingOrder())
+        .filter(bin -> numPointsOfBin[bin] >= minTotalSignals).toArray();
+    final int[] imageOfBin = new int[numBins];
+    Arrays.fill(imageOfBin, -1);
+    for (int i = 0; i < imageBins.length; i++) {
+      imageOfBin[imageBins[i]] = i;
+    }
+    logger.info("Building " + imageBins.length + " of " + numBins + " images");
+
+    featureList =
+        new ModularFeatureList(rawDataFile + " " + suffix, getMemoryMapStorage(), rawDataFile);
+    final ModularFeature[] features = new ModularFeature[imageBins.length];
+    long numPoints = 0;
+    for (SortedTile tile : tiles) {
+      numPoints += tile.size;
+    }
+
+    // heap of the tiles by the m/z of their next data point, equal m/z in scan order
+    final int[] positions = new int[tiles.length];
+    final IndexComparator before = (a, b) -> {
+      final int result = Double.compare(tiles[a].mzOrderMzs.get(positions[a]),
+          tiles[b].mzOrderMzs.get(positions[b]));
+      return result != 0 ? result : Integer.compare(a, b);
+    };
+    final int[] heap = new int[tiles.length];
+    int heapSize = initHeap(heap, tiles, before);
+
+    final TilePoints imagePoints = new TilePoints(16);
+    int currentImage = -1;
+    long processed = 0;
+    while (heapSize > 0) {
+      if ((processed++ & 0xFFFF) == 0) {
+        if (isCanceled()) {
+          return null;
+        }
+        progress = 0.5 + processed / (double) numPoints / 2;
       }
 
-      // set maxima
-      if (maximumIntensity < imageDataPoint.getIntensity()) {
-        maximumIntensity = imageDataPoint.getIntensity();
+      final int tile = heap[0];
+      final int position = positions[tile];
+      final double mz = tiles[tile].mzOrderMzs.get(position);
+      final double intensity = tiles[tile].mzOrderIntensities.get(position);
+      final int scan = tiles[tile].mzOrderScans.get(position);
+      if (++positions[tile] == tiles[tile].size) {
+        heap[0] = heap[--heapSize];
+      }
+      siftDown(heap, heapSize, 0, before);
+
+      // the ranges do not change anymore, so this is the bin the data point was assigned to
+      final int bin = Double.isNaN(mz) ? -1 : ranges.findIncludingLowerBound(mz);
+      final int image = bin == -1 ? -1 : imageOfBin[bin];
+      if (image == -1) {
+        continue;
+      }
+      // the bins are disjoint, so all data points of an image are consecutive
+      if (image != currentImage) {
+        if (currentImage != -1) {
+          features[currentImage] = finishImage(binMzs[imageBins[currentImage]], imagePoints);
+        }
+        currentImage = image;
+        imagePoints.size = 0;
+      }
+      imagePoints.add(scan, mz, intensity);
+    }
+    if (currentImage != -1) {
+      features[currentImage] = finishImage(binMzs[imageBins[currentImage]], imagePoints);
+    }
+
+    // images are sorted by m/z
+    final int[] order = IndexSort.sort(features.length,
+        (a, b) -> Double.compare(binMzs[imageBins[a]], binMzs[imageBins[b]]));
+    final ModularFeature[] sorted = new ModularFeature[features.length];
+    for (int i = 0; i < order.length; i++) {
+      sorted[i] = features[order[i]];
+    }
+    return sorted;
+  }
+
+  /**
+   * Sorts the data points of an image by scan and creates the image. If a scan contains multiple
+   * data points of the image, the most intense one is used. The image data is written to the
+   * storage of the feature list.
+   *
+   * @return the feature of the image
+   */
+  private ModularFeature finishImage(double mz, TilePoints points) {
+    // stable, data points of the same scan stay in m/z order
+    final int[] order = IndexSort.sort(points.size,
+        (a, b) -> Integer.compare(points.scans[a], points.scans[b]));
+    final double[] imageMzs = new double[points.size];
+    final double[] imageIntensities = new double[points.size];
+    final List<Scan> imageScans = new ArrayList<>(points.size);
+    int numPixels = 0;
+    int previousScan = -1;
+    for (final int p : order) {
+      final int scan = points.scans[p];
+      if (numPixels > 0 && scan == previousScan) {
+        if (points.intensities[p] > imageIntensities[numPixels - 1]) {
+          imageMzs[numPixels - 1] = points.mzs[p];
+          imageIntensities[numPixels - 1] = points.intensities[p];
+        }
+        continue;
       }
+      imageMzs[numPixels] = points.mzs[p];
+      imageIntensities[numPixels] = points.intensities[p];
+      imageScans.add(scans.get(scan));
+      previousScan = scan;
+      numPixels++;
+    }
 
+    double minMz = Double.POSITIVE_INFINITY;
+    double maxMz = Double.NEGATIVE_INFINITY;
+    double minIntensity = Double.POSITIVE_INFINITY;
+    double maxIntensity = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < numPixels; i++) {
+      minMz = Math.min(minMz, imageMzs[i]);
+      maxMz = Math.max(maxMz, imageMzs[i]);
+      minIntensity = Math.min(minIntensity, imageIntensities[i]);
+      maxIntensity = Math.max(maxIntensity, imageIntensities[i]);
     }
 
-    // TODO think about representative scan
-    image.setScanNumbers(scanNumbers);
-    image.setMzRange(rawDataPointsMZRange);
-    image.setIntensityRange(rawDataPointsIntensityRange);
-    image.setMaximumIntensity(maximumIntensity);
-    // logger.info("Ion Trace results:\n" + "Scan numbers: " + ionTrace.getScanNumbers() + "\n" + //
-    // "Mobility range: " + ionTrace.getMobilityRange() + "\n" + //
-    // "m/z range: " + ionTrace.getMzRange() + "\n" + //
-    // "rt range: " + ionTrace.getRetentionTimeRange() + "\n" + //
-    // "intensity range: " + ionTrace.getIntensityRange() + "\n" + //
-    // "Max intensity : " + ionTrace.getMaximumIntensity() + "\n" + //
-    // "Retention time : " + ionTrace.getRetentionTime() + "\n" + //
-    // "Mobility : " + ionTrace.getMobility()//
-    // );
-    // TODO calc area
-    // Update area
-    // double area = 0;
-    // for (int i = 1; i < allScanNumbers.length; i++) {
-    // // For area calculation, we use retention time in seconds
-    // double previousRT = dataFile.getScan(allScanNumbers[i - 1]).getRetentionTime() * 60d;
-    // double currentRT = dataFile.getScan(allScanNumbers[i]).getRetentionTime() * 60d;
-    // double previousHeight = dataPointsMap.get(allScanNumbers[i - 1]).getIntensity();
-    // double currentHeight = dataPointsMap.get(allScanNumbers[i]).getIntensity();
-    // area += (currentRT - previousRT) * (currentHeight + previousHeight) / 2;
-    // }
-
-    // TODO
-    // Update fragment scan
-    // fragmentScan =
-    // ScanUtils.findBestFragmentScan(dataFile, dataFile.getDataRTRange(1), rawDataPointsMZRange);
-
-    // allMS2FragmentScanNumbers = ScanUtils.findAllMS2FragmentScans(dataFile,
-    // dataFile.getDataRTRange(1), rawDataPointsMZRange);
-
-    // if (fragmentScan > 0) {
-    // Scan fragmentScanObject = dataFile.getScan(fragmentScan);
-    // int precursorCharge = fragmentScanObject.getPrecursorCharge();
-    // if (precursorCharge > 0)
-    // this.charge = precursorCharge;
-    // }
-
-    return image;
+    final SimpleIonTimeSeries data = new SimpleIonTimeSeries(featureList.getMemoryMapStorage(),
+        Arrays.copyOf(imageMzs, numPixels), Arrays.copyOf(imageIntensities, numPixels),
+        imageScans);
+
+    final IImage image = new Image(mz, imagingParameters, paintScaleParameter, maxIntensity,
+        Range.closed(minMz, maxMz));
+    image.setIntensityRange(Range.closed(minIntensity, maxIntensity));
+    image.setScanNumbers(new LinkedHashSet<>(imageScans));
+    image.setFeatureList(featureList);
+    return FeatureConvertors.ImageToModularFeature(image, rawDataFile, data);
   }
 
+  /**
+   * Waits for the tasks to finish.
+   *
+   * @return false if a task failed
+   */
+  private boolean joinAll(List<ForkJoinTask<?>> tasks) {
+    try {
+      for (ForkJoinTask<?> task : tasks) {
+        task.get();
+      }
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      setStatus(TaskStatus.CANCELED);
+      return false;
+    } catch (ExecutionException e) {
+      logger.log(Level.WARNING, e.getCause().getMessage(), e.getCause());
+      setStatus(TaskStatus.ERROR);
+      setErrorMessage(e.getCause() instanceof IOException ?
+          "Cannot store data points in temporary files. " + e.getCause().getMessage()
+          : e.getCause().toString());
+      return false;
+    }
+  }
 
-  private void buildModularFeatureList(SortedSet<IImage> images) {
+  private void buildModularFeatureList(ModularFeature[] features) {
     taskDescription = "Build feature list";
-    ModularFeatureList featureList =
-        new ModularFeatureList(rawDataFile + " " + suffix, getMemoryMapStorage(), rawDataFile);
     // featureList.addRowType(new FeatureShapeIonMobilityRetentionTimeType());
     // featureList.addRowType(new FeatureShapeIonMobilityRetentionTimeHeatMapType());
     // featureList.addRowType(new FeatureShapeMobilogramType());
     // featureList.addRowType(new MobilityType());
     featureList.addRowType(new ImageType());
     int featureId = 1;
-    for (IImage image : images) {
-      image.setFeatureList(featureList);
-      ModularFeature modular = FeatureConvertors.ImageToModularFeature(image, rawDataFile);
+    for (ModularFeature modular : features) {
       ModularFeatureListRow newRow =
           new ModularFeatureListRow(featureList, featureId, rawDataFile, modular);
       newRow.set(ImageType.class, newRow.getFeaturesProperty());
@@ -380,4 +587,57 @@ public class ImageBuilderTask extends AbstractTask {
     project.addFeatureList(featureList);
   }
 
+  /**
+   * The data points of a tile sorted by ascending intensity and sorted by ascending m/z in the
+   * temporary storage.
+   */
+  private static class SortedTile {
+
+    private final DoubleBuffer mzs;
+    private final DoubleBuffer intensities;
+    private final DoubleBuffer mzOrderMzs;
+    private final DoubleBuffer mzOrderIntensities;
+    private final IntBuffer mzOrderScans;
+    private final int size;
+
+    private SortedTile(DoubleBuffer mzs, DoubleBuffer intensities, DoubleBuffer mzOrderMzs,
+        DoubleBuffer mzOrderIntensities, IntBuffer mzOrderScans, int size) {
+      this.mzs = mzs;
+      this.intensities = intensities;
+      this.mzOrderMzs = mzOrderMzs;
+      this.mzOrderIntensities = mzOrderIntensities;
+      this.mzOrderScans = mzOrderScans;
+      this.size = size;
+    }
+  }
+
+  /**
+   * Data points with their scan index in growable arrays.
+   */
+  private static class TilePoints {
+
+    private int[] scans;
+    private double[] mzs;
+    private double[] intensities;
+    private int size;
+
+    private TilePoints(int capacity) {
+      scans = new int[capacity];
+      mzs = new double[capacity];
+      intensities = new double[capacity];
+    }
+
+    private void add(int scan, double mz, double intensity) {
+      if (size == mzs.length) {
+        final int capacity = Math.max(16, size * 2);
+        scans = Arrays.copyOf(scans, capacity);
+        mzs = Arrays.copyOf(mzs, capacity);
+        intensities = Arrays.copyOf(intensities, capacity);
+      }
+      scans[size] = scan;
+      mzs[size] = mz;
+      intensities[size] = intensity;
+      size++;
+    }
+  }
 }
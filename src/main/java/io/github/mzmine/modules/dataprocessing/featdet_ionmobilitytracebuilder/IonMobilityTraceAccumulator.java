@@ -0,0 +1,303 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.featdet_ionmobilitytracebuilder;
+
+import com.google.common.collect.Range;
+import com.google.common.math.Quantiles;
+import io.github.mzmine.datamodel.Frame;
+import io.github.mzmine.datamodel.MobilityScan;
+import io.github.mzmine.datamodel.MobilityType;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.featuredata.IonMobilitySeries;
+import io.github.mzmine.datamodel.featuredata.IonMobilogramTimeSeries;
+import io.github.mzmine.datamodel.featuredata.impl.SimpleIonMobilitySeries;
+import io.github.mzmine.datamodel.featuredata.impl.SimpleIonMobilogramTimeSeries;
+import io.github.mzmine.datamodel.features.ModularFeature;
+import io.github.mzmine.datamodel.features.ModularFeatureList;
+import io.github.mzmine.util.FeatureConvertors;
+import io.github.mzmine.util.MemoryMapStorage;
+import it.unimi.dsi.fastutil.doubles.DoubleOpenHashSet;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Collects the mobilograms of a single ion mobility trace while the frames are processed in
+ * retention time order. The mobilograms are kept in a temporary storage until the trace is
+ * finished, only the ranges and the maximum of the trace are kept on the heap.
+ */
+class IonMobilityTraceAccumulator {
+
+  private final double mz;
+  private final MemoryMapStorage tempStorage;
+
+  private final List<IonMobilitySeries> mobilograms = new ArrayList<>();
+  // indices of the frames of the mobilograms in the list of all frames
+  private final IntArrayList frameIndices = new IntArrayList();
+
+  private MobilityType mobilityType;
+  private int offset;
+  // in tims, each subscan number in different frames has the same mobility
+  private Int2IntOpenHashMap mobilityScanNumberCounts;
+  private DoubleOpenHashSet mobilities;
+
+  private double minMz = Double.POSITIVE_INFINITY;
+  private double maxMz = Double.NEGATIVE_INFINITY;
+  private double minIntensity = Double.POSITIVE_INFINITY;
+  private double maxIntensity = Double.NEGATIVE_INFINITY;
+  private double minMobility = Double.POSITIVE_INFINITY;
+  private double maxMobility = Double.NEGATIVE_INFINITY;
+  private float minRt = Float.POSITIVE_INFINITY;
+  private float maxRt = Float.NEGATIVE_INFINITY;
+
+  private double height = Double.MIN_VALUE;
+  private float rt = 0f;
+  private double mobility = 0d;
+
+  /**
+   * @param mz          the m/z of the trace, also used for the zeros
+   * @param tempStorage the storage for the mobilograms until the trace is finished. May be null if
+   *                    the mobilograms shall be kept in ram.
+   */
+  IonMobilityTraceAccumulator(double mz, @Nullable MemoryMapStorage tempStorage) {
+    this.mz = mz;
+    this.tempStorage = tempStorage;
+  }
+
+  /**
+   * Adds the mobilogram of a frame. Frames must be added in ascending order. Only the most intense
+   * signal of every mobility scan is kept and gaps of more than allowedGap mobility scans are
+   * bordered by zeros.
+   *
+   * @param frameIndex  index of the frame in the list of all frames
+   * @param scanIndices index of the mobility scan in the frame, by point
+   * @param points      the points of this trace in ascending mobility scan order are
+   *                    points[from] to points[to - 1]
+   */
+  void addFrame(@Nonnull Frame frame, int frameIndex, @Nonnull int[] scanIndices,
+      @Nonnull double[] mzs, @Nonnull double[] intensities, @Nonnull int[] points, int from,
+      int to, int allowedGap) {
+    final List<MobilityScan> mobilityScans = frame.getMobilityScans();
+    final int numScans = mobilityScans.size();
+    if (mobilityType == null) {
+      mobilityType = frame.getMobilityType();
+      offset = mobilityScans.get(0).getMobilityScanNumber();
+      if (mobilityType == MobilityType.TIMS) {
+        mobilityScanNumberCounts = new Int2IntOpenHashMap();
+      } else {
+        mobilities = new DoubleOpenHashSet();
+      }
+    }
+
+    // every signal may be preceded by two zeros, plus a zero at the end
+    final int maxValues = 3 * (to - from) + 1;
+    final double[] seriesMzs = new double[maxValues];
+    final double[] seriesIntensities = new double[maxValues];
+    final boolean[] isZero = new boolean[maxValues];
+    final List<MobilityScan> seriesScans = new ArrayList<>(maxValues);
+
+    int lastScanIndex = 0;
+    for (int i = from; i < to; i++) {
+      final int point = points[i];
+      final int scanIndex = scanIndices[point];
+      final MobilityScan scan = mobilityScans.get(scanIndex);
+      if (mobilityType == MobilityType.TIMS) {
+        mobilityScanNumberCounts.addTo(scan.getMobilityScanNumber(), 1);
+      } else {
+        mobilities.add(scan.getMobility());
+      }
+
+      final int n = seriesScans.size();
+      if (n > 0 && seriesScans.get(n - 1) == scan) {
+        // only keep the most intense signal of a mobility scan
+        if (intensities[point] > seriesIntensities[n - 1]) {
+          seriesMzs[n - 1] = mzs[point];
+          seriesIntensities[n - 1] = intensities[point];
+        }
+        continue;
+      }
+
+      if (scanIndex - lastScanIndex > (allowedGap + 1)) {
+        if (lastScanIndex + 1 < numScans && lastScanIndex != 0) {
+          addZero(seriesMzs, isZero, seriesScans, mobilityScans.get(lastScanIndex + 1));
+        }
+        if (scanIndex - 1 >= 0) {
+          addZero(seriesMzs, isZero, seriesScans, mobilityScans.get(scanIndex - 1));
+        }
+      }
+      seriesMzs[seriesScans.size()] = mzs[point];
+      seriesIntensities[seriesScans.size()] = intensities[point];
+      seriesScans.add(scan);
+      lastScanIndex = scanIndex;
+    }
+    if (lastScanIndex + 1 < numScans) {
+      addZero(seriesMzs, isZero, seriesScans, mobilityScans.get(lastScanIndex + 1));
+    }
+
+    // ranges and maximum of the signals without zeros
+    final int numValues = seriesScans.size();
+    for (int i = 0; i < numValues; i++) {
+      if (isZero[i]) {
+        continue;
+      }
+      final MobilityScan scan = seriesScans.get(i);
+      final double intensity = seriesIntensities[i];
+      minMz = Math.min(minMz, seriesMzs[i]);
+      maxMz = Math.max(maxMz, seriesMzs[i]);
+      minIntensity = Math.min(minIntensity, intensity);
+      maxIntensity = Math.max(maxIntensity, intensity);
+      minMobility = Math.min(minMobility, scan.getMobility());
+      maxMobility = Math.max(maxMobility, scan.getMobility());
+      minRt = Math.min(minRt, scan.getRetentionTime());
+      maxRt = Math.max(maxRt, scan.getRetentionTime());
+      if (height < intensity) {
+        height = intensity;
+        rt = scan.getRetentionTime();
+        mobility = scan.getMobility();
+      }
+    }
+
+    mobilograms.add(new SimpleIonMobilitySeries(tempStorage, Arrays.copyOf(seriesMzs, numValues),
+        Arrays.copyOf(seriesIntensities, numValues), seriesScans));
+    frameIndices.add(frameIndex);
+  }
+
+  private void addZero(double[] seriesMzs, boolean[] isZero, List<MobilityScan> seriesScans,
+      MobilityScan scan) {
+    final int n = seriesScans.size();
+    if (n > 0 && seriesScans.get(n - 1) == scan) {
+      return;
+    }
+    // the intensity array is initialised with 0
+    seriesMzs[n] = mz;
+    isZero[n] = true;
+    seriesScans.add(scan);
+  }
+
+  /**
+   * Borders gaps of more than allowedGap frames with zero mobilograms and creates the feature. The
+   * data of the feature is stored in the storage of the feature list.
+   *
+   * @param frames all frames, the frame indices of this trace refer to this list
+   */
+  @Nonnull
+  ModularFeature finish(@Nonnull List<Frame> frames, int allowedGap,
+      @Nonnull ModularFeatureList featureList, @Nonnull RawDataFile rawDataFile) {
+    final int numFrames = frames.size();
+    final int timsMobilityScanNumber =
+        mobilityType == MobilityType.TIMS ? findMostFrequentMobilityScanNumber() : -1;
+    final double medianMobility = mobilityType != MobilityType.TIMS ? findMedianMobility() : -1d;
+
+    final List<IonMobilitySeries> withZeros = new ArrayList<>(mobilograms.size() + 2);
+    int lastFrameIndex = 0;
+    int lastAddedIndex = -1;
+    for (int i = 0; i < frameIndices.size(); i++) {
+      final int frameIndex = frameIndices.getInt(i);
+      if (frameIndex - lastFrameIndex > (allowedGap + 1)) {
+        if (lastFrameIndex + 1 < numFrames && lastFrameIndex != 0) {
+          withZeros.add(createZeroMobilogram(frames.get(lastFrameIndex + 1),
+              timsMobilityScanNumber, medianMobility));
+          lastAddedIndex = lastFrameIndex + 1;
+        }
+        if (frameIndex - 1 >= 0 && frameIndex - 1 != lastAddedIndex) {
+          withZeros.add(createZeroMobilogram(frames.get(frameIndex - 1), timsMobilityScanNumber,
+              medianMobility));
+        }
+      }
+      withZeros.add(mobilograms.get(i));
+      lastFrameIndex = frameIndex;
+      lastAddedIndex = frameIndex;
+    }
+    if (lastFrameIndex + 1 < numFrames) {
+      withZeros.add(createZeroMobilogram(frames.get(lastFrameIndex + 1), timsMobilityScanNumber,
+          medianMobility));
+    }
+
+    final IonMobilogramTimeSeries series = new SimpleIonMobilogramTimeSeries(
+        featureList.getMemoryMapStorage(), withZeros);
+    final IonMobilityTrace trace = new IonMobilityTrace(mz, rt, mobility, height,
+        Range.closed(minRt, maxRt), Range.closed(minMobility, maxMobility),
+        Range.closed(minMz, maxMz), Range.closed(minIntensity, maxIntensity), null, null, null,
+        mobilityType, null, featureList);
+    return FeatureConvertors.IonMobilityIonTraceToModularFeature(trace, rawDataFile, series);
+  }
+
+  private IonMobilitySeries createZeroMobilogram(Frame frame, int timsMobilityScanNumber,
+      double medianMobility) {
+    final MobilityScan scan;
+    if (mobilityType == MobilityType.TIMS) {
+      // mobilityScanNumber - offset <- i know this is dirty, but it should be fine
+      scan = frame.getMobilityScan(timsMobilityScanNumber - offset);
+    } else {
+      scan = findMobilityScanWithClosestMobility(medianMobility, frame.getMobilityScans());
+    }
+    return new SimpleIonMobilitySeries(tempStorage, new double[]{mz}, new double[]{0d},
+        List.of(scan));
+  }
+
+  /**
+   * In Bruker PASEF, every frame in a segment has the same ion mobility range & association of scan
+   * number <-> mobility
+   *
+   * @return the most frequent mobility scan number, the lowest scan number if there are multiple
+   */
+  private int findMostFrequentMobilityScanNumber() {
+    int mostFrequent = -1;
+    int maxCount = 0;
+    for (Int2IntMap.Entry entry : mobilityScanNumberCounts.int2IntEntrySet()) {
+      if (entry.getIntValue() > maxCount || (entry.getIntValue() == maxCount
+          && entry.getIntKey() < mostFrequent)) {
+        mostFrequent = entry.getIntKey();
+        maxCount = entry.getIntValue();
+      }
+    }
+    return mostFrequent;
+  }
+
+  /**
+   * In DTIMS (at least agilent) the observed mobility window can change, therefore we can't just
+   * take the most frequent scan number
+   *
+   * @return the median of the distinct mobilities of the trace
+   */
+  private double findMedianMobility() {
+    return Quantiles.median().compute(mobilities.toDoubleArray());
+  }
+
+  private static MobilityScan findMobilityScanWithClosestMobility(double mobility,
+      List<MobilityScan> mobilityScans) {
+    double delta = Double.MAX_VALUE;
+    for (int i = 0; i < mobilityScans.size(); i++) {
+      MobilityScan scan = mobilityScans.get(i);
+      double currentDelta = Math.abs(scan.getMobility() - mobility);
+      if (currentDelta < delta) {
+        delta = currentDelta;
+      }
+      if (currentDelta > delta) {
+        return mobilityScans.get(i - 1);
+      }
+    }
+    return mobilityScans.get(mobilityScans.size() - 1);
+  }
+}
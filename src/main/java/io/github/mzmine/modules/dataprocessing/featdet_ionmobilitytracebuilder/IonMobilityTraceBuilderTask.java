@@ -18,15 +18,10 @@
 
 package io.github.mzmine.modules.dataprocessing.featdet_ionmobilitytracebuilder;
 
-import com.google.common.collect.Range;
-import com.google.common.collect.RangeSet;
-import com.google.common.collect.TreeRangeSet;
-import com.google.common.math.Quantiles;
 import io.github.mzmine.datamodel.Frame;
 import io.github.mzmine.datamodel.MZmineProject;
 import io.github.mzmine.datamodel.MassList;
 import io.github.mzmine.datamodel.MobilityScan;
-import io.github.mzmine.datamodel.MobilityType;
 import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.datamodel.features.ModularFeature;
 import io.github.mzmine.datamodel.features.ModularFeatureList;
@@ -38,27 +33,22 @@ import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.DataTypeUtils;
-import io.github.mzmine.util.FeatureConvertorIonMobility;
-import io.github.mzmine.util.FeatureConvertors;
+import io.github.mzmine.util.DisjointRangeIndex;
+import io.github.mzmine.util.IndexSort;
 import io.github.mzmine.util.MemoryMapStorage;
-import java.util.Collection;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.SortedMap;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 /**
- * Worker task to build ion mobility traces
+ * Worker task to build ion mobility traces. The data points of every frame are sorted by intensity
+ * and kept in the temporary storage. They are binned by m/z in a merge of the sorted frames, and
+ * the mobilograms of the traces are built frame by frame in retention time order. The heap memory
+ * only depends on the size of a frame and the number of frames and bins, not on the total number of
+ * data points.
  */
 public class IonMobilityTraceBuilderTask extends AbstractTask {
 
@@ -74,8 +64,15 @@ public class IonMobilityTraceBuilderTask extends AbstractTask {
   private final int minDataPointsRt;
   private final int minTotalSignals;
   private final ScanSelection scanSelection;
-  private RangeSet<Double> rangeSet = TreeRangeSet.create();
-  private HashMap<Range<Double>, IIonMobilityTrace> rangeToIonTraceMap = new HashMap<>();
+  private final DisjointRangeIndex ranges = new DisjointRangeIndex();
+  // m/z of the data point that created the bin, by bin
+  private double[] binMzs;
+  // data points in the temporary storage by frame, sorted by ascending intensity and descending
+  // index within the frame
+  private DoubleBuffer[] sortedMzs;
+  private DoubleBuffer[] sortedIntensities;
+  private long numPoints;
+  private ModularFeatureList featureList;
   private double progress = 0.0;
   private String taskDescription = "";
   private final ParameterSet parameters;
@@ -142,480 +139,362 @@ public class IonMobilityTraceBuilderTask extends AbstractTask {
       return;
     }
     progress = 0.0;
-    Set<RetentionTimeMobilityDataPoint> rtMobilityDataPoints = extractAllDataPointsFromFrames();
-    createIonMobilityTraceTargetSet(rtMobilityDataPoints);
-    SortedSet<IIonMobilityTrace> ionMobilityTraces = finishIonMobilityTraces();
-    buildModularFeatureList(ionMobilityTraces);
+
+    // temporary data is only needed until the feature list is built
+    final MemoryMapStorage tempStorage = MemoryMapStorage.create();
+    tempStorage.retain();
+    try {
+      if (!extractAllDataPointsFromFrames(tempStorage)) {
+        return;
+      }
+      if (!binDataPoints()) {
+        return;
+      }
+      final ModularFeature[] features = buildIonMobilityTraces(tempStorage);
+      if (features == null) {
+        return;
+      }
+      buildModularFeatureList(features);
+    } finally {
+      tempStorage.release();
+      sortedMzs = null;
+      sortedIntensities = null;
+    }
     progress = 1.0;
     setStatus(TaskStatus.FINISHED);
   }
 
-  // Extract all retention time and mobility resolved data point sorted by intensity
-  private Set<RetentionTimeMobilityDataPoint> extractAllDataPointsFromFrames() {
+  /**
+   * Extracts the data points of all frames. The data points of every frame are sorted by ascending
+   * intensity and descending index (in the order of mobility scans and signals) and stored in the
+   * temporary storage.
+   *
+   * @return false if the task was canceled, a mass list is missing or the data cannot be stored
+   */
+  private boolean extractAllDataPointsFromFrames(MemoryMapStorage tempStorage) {
     logger.info("Start data point extraction");
     taskDescription = "Get data points from frames";
-    int processedFrame = 1;
-    SortedSet<RetentionTimeMobilityDataPoint> allDataPoints =
-        new TreeSet<>(new Comparator<RetentionTimeMobilityDataPoint>() {
-          @Override
-          public int compare(RetentionTimeMobilityDataPoint o1, RetentionTimeMobilityDataPoint o2) {
-            if (o1.getIntensity() > o2.getIntensity()) {
-              return 1;
-            } else {
-              return -1;
-            }
-          }
-        });
-    for (Frame frame : frames) {
-      if (!scanSelection.matches(frame)) {
-        continue;
-      }
-
-      double[] mzBuffer = new double[0];
-      double[] intensityBuffer = new double[0];
-      int numDp = 0;
 
+    for (Frame frame : frames) {
       for (MobilityScan scan : frame.getMobilityScans()) {
         if (scan.getMassList() == null) {
           setStatus(TaskStatus.ERROR);
           setErrorMessage(
               "Scan #" + scan.getMobilityScanNumber()
                   + " does not have a mass list. Run mass detection ");
-        } else {
-          MassList ml = scan.getMassList();
-          mzBuffer = ml.getMzValues(mzBuffer);
-          intensityBuffer = ml.getIntensityValues(intensityBuffer);
-          numDp = scan.getMassList().getNumberOfDataPoints();
-          for (int i = 0; i < numDp; i++) {
-            allDataPoints
-                .add(new RetentionTimeMobilityDataPoint(scan, mzBuffer[i], intensityBuffer[i]));
-          }
+          return false;
         }
       }
-      progress = (processedFrame / (double) frames.size()) / 4;
-      processedFrame++;
     }
-    logger.info("Extracted " + allDataPoints.size() + " ims data points");
-    return allDataPoints;
-  }
 
-  private void createIonMobilityTraceTargetSet(
-      Set<RetentionTimeMobilityDataPoint> rtMobilityDataPoints) {
-    logger.info("Start m/z ranges calculation");
-    taskDescription = "Calculate m/z ranges";
-    int processedDataPoint = 1;
-    for (RetentionTimeMobilityDataPoint rtMobilityDataPoint : rtMobilityDataPoints) {
+    sortedMzs = new DoubleBuffer[frames.size()];
+    sortedIntensities = new DoubleBuffer[frames.size()];
+    numPoints = 0;
+    double[] mzBuffer = new double[0];
+    double[] intensityBuffer = new double[0];
+    double[] frameMzs = new double[0];
+    double[] frameIntensities = new double[0];
+    double[] sortBuffer = new double[0];
+    for (int f = 0; f < frames.size(); f++) {
       if (isCanceled()) {
-        return;
+        return false;
       }
-      Range<Double> containsDataPointRange = rangeSet.rangeContaining(rtMobilityDataPoint.getMZ());
-      Range<Double> toleranceRange = mzTolerance.getToleranceRange(rtMobilityDataPoint.getMZ());
-      if (containsDataPointRange == null) {
-        // look +- mz tolerance to see if ther is a range near by.
-        // If there is use the proper boundry of that range for the
-        // new range to insure than NON OF THE RANGES OVERLAP.
-        Range<Double> plusRange = rangeSet.rangeContaining(toleranceRange.upperEndpoint());
-        Range<Double> minusRange = rangeSet.rangeContaining(toleranceRange.lowerEndpoint());
-        Double toBeLowerBound;
-        Double toBeUpperBound;
-
-        // If both of the above ranges are null then we make the new range spaning the full
-        // mz tolerance range.
-        // If one or both are not null we need to properly modify the range of the new
-        // chromatogram so that none of the points are overlapping.
-        if ((plusRange == null) && (minusRange == null)) {
-          toBeLowerBound = toleranceRange.lowerEndpoint();
-          toBeUpperBound = toleranceRange.upperEndpoint();
-        } else if ((plusRange == null) && (minusRange != null)) {
-          // the upper end point of the minus range will be the lower
-          // range of the new one
-          toBeLowerBound = minusRange.upperEndpoint();
-          toBeUpperBound = toleranceRange.upperEndpoint();
-
-        } else if ((minusRange == null) && (plusRange != null)) {
-          toBeLowerBound = toleranceRange.lowerEndpoint();
-          toBeUpperBound = plusRange.lowerEndpoint();
-        } else if ((minusRange != null) && (plusRange != null)) {
-          toBeLowerBound = minusRange.upperEndpoint();
-          toBeUpperBound = plusRange.lowerEndpoint();
-        } else {
-          toBeLowerBound = 0.0;
-          toBeUpperBound = 0.0;
-        }
-
-        if (toBeLowerBound < toBeUpperBound) {
-          Range<Double> newRange = Range.open(toBeLowerBound, toBeUpperBound);
-          IIonMobilityTrace newIonMobilityIonTrace = new IonMobilityTrace(
-              rtMobilityDataPoint.getMZ(), rtMobilityDataPoint.getRetentionTime(),
-              rtMobilityDataPoint.getMobility(), rtMobilityDataPoint.getIntensity(), newRange);
-          Set<RetentionTimeMobilityDataPoint> dataPointsSetForTrace = new HashSet<>();
-          dataPointsSetForTrace.add(rtMobilityDataPoint);
-          newIonMobilityIonTrace.setDataPoints(dataPointsSetForTrace);
-          rangeToIonTraceMap.put(newRange, newIonMobilityIonTrace);
-          rangeSet.add(newRange);
-        } else if (toBeLowerBound.equals(toBeUpperBound) && plusRange != null) {
-          IIonMobilityTrace currentIonMobilityIonTrace = rangeToIonTraceMap.get(plusRange);
-          currentIonMobilityIonTrace.getDataPoints().add(rtMobilityDataPoint);
-        } else {
-          throw new IllegalStateException(String.format("Incorrect range [%f, %f] for m/z %f",
-              toBeLowerBound, toBeUpperBound, rtMobilityDataPoint.getMZ()));
+      int numFramePoints = 0;
+      for (MobilityScan scan : frames.get(f).getMobilityScans()) {
+        final MassList ml = scan.getMassList();
+        final int numDp = ml.getNumberOfDataPoints();
+        if (frameMzs.length < numFramePoints + numDp) {
+          frameMzs = Arrays.copyOf(frameMzs, (numFramePoints + numDp) * 2);
+          frameIntensities = Arrays.copyOf(frameIntensities, frameMzs.length);
+          sortBuffer = new double[frameMzs.length];
         }
-
-      } else {
-        // In this case we do not need to update the rangeSet
-
-        IIonMobilityTrace currentIonMobilityIonTrace =
-            rangeToIonTraceMap.get(containsDataPointRange);
-        currentIonMobilityIonTrace.getDataPoints().add(rtMobilityDataPoint);
-
-        // update the entry in the map
-        rangeToIonTraceMap.put(containsDataPointRange, currentIonMobilityIonTrace);
+        mzBuffer = ml.getMzValues(mzBuffer);
+        intensityBuffer = ml.getIntensityValues(intensityBuffer);
+        System.arraycopy(mzBuffer, 0, frameMzs, numFramePoints, numDp);
+        System.arraycopy(intensityBuffer, 0, frameIntensities, numFramePoints, numDp);
+        numFramePoints += numDp;
       }
-      double progressStep = (processedDataPoint / rtMobilityDataPoints.size()) / 4;
-      progress += progressStep;
-    }
-  }
 
-  private SortedSet<IIonMobilityTrace> finishIonMobilityTraces() {
-    Set<Range<Double>> ranges = rangeSet.asRanges();
-    Iterator<Range<Double>> rangeIterator = ranges.iterator();
-    SortedSet<IIonMobilityTrace> ionMobilityTraces =
-        new TreeSet<>(new Comparator<IIonMobilityTrace>() {
-          @Override
-          public int compare(IIonMobilityTrace o1, IIonMobilityTrace o2) {
-            if (o1.getMz() > o2.getMz()) {
-              return 1;
-            } else {
-              return -1;
-            }
-          }
-        });
-    double progressStep = (!ranges.isEmpty()) ? 0.75 / ranges.size() : 0.0;
-    while (rangeIterator.hasNext()) {
-      if (isCanceled()) {
-        break;
-      }
-      progress += progressStep;
-      Range<Double> currentRangeKey = rangeIterator.next();
-      IIonMobilityTrace ionTrace = rangeToIonTraceMap.get(currentRangeKey);
-      if (ionTrace.getDataPoints().size() >= minTotalSignals) {
-        ionTrace = finishIonTrace(ionTrace);
-        if (ionTrace != null) {
-          ionMobilityTraces.add(ionTrace);
+      final double[] intensities = frameIntensities;
+      final int[] order = IndexSort.sort(numFramePoints, (a, b) -> {
+        final int result = Double.compare(intensities[a], intensities[b]);
+        return result != 0 ? result : Integer.compare(b, a);
+      });
+      try {
+        for (int i = 0; i < numFramePoints; i++) {
+          sortBuffer[i] = frameMzs[order[i]];
+        }
+        sortedMzs[f] = tempStorage.storeData(sortBuffer, 0, numFramePoints);
+        for (int i = 0; i < numFramePoints; i++) {
+          sortBuffer[i] = frameIntensities[order[i]];
         }
+        sortedIntensities[f] = tempStorage.storeData(sortBuffer, 0, numFramePoints);
+      } catch (IOException e) {
+        logger.log(Level.WARNING, e.getMessage(), e);
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage("Cannot store data points in temporary files. " + e.getMessage());
+        return false;
       }
+      numPoints += numFramePoints;
+      progress = (f + 1) / (double) frames.size() / 4;
     }
-    return ionMobilityTraces;
+    logger.info("Extracted " + numPoints + " ims data points");
+    return true;
   }
 
-  private IIonMobilityTrace finishIonTrace(IIonMobilityTrace ionTrace) {
-    Range<Double> rawDataPointsIntensityRange = null;
-    Range<Double> rawDataPointsMZRange = null;
-    Range<Double> rawDataPointsMobilityRange = null;
-    Range<Float> rawDataPointsRtRange = null;
-    LinkedHashSet<MobilityScan> scanNumbers = new LinkedHashSet<>();
-
-    Float rt = 0.0f;
-    double mobility = 0.0f;
-    // sortedRetentionTimeMobilityDataPoints.addAll(ionTrace.getDataPoints());
-    // Update raw data point ranges, height, rt and representative scan
-    SortedMap<Frame, SortedSet<RetentionTimeMobilityDataPoint>> groupedDps = FeatureConvertorIonMobility
-        .groupDataPointsByFrameId(ionTrace.getDataPoints());
-    double maximumIntensity = Double.MIN_VALUE;
-
-    if (!checkConsecutiveFrames(groupedDps, frames)) {
-      return null;
-    }
-
-    // fill borders of peaks with 0s
-    Set<RetentionTimeMobilityDataPoint> frameFillers = addZerosForFrames(frames,
-        (SortedSet<Frame>) groupedDps.keySet(), ionTrace.getMz(),
-        ionTrace.getDataPoints(), allowedMissingFrames, 1);
-    Set<RetentionTimeMobilityDataPoint> mobilityScanFillers = new HashSet<>();
-
-    findMedianMobility(ionTrace.getDataPoints());
-
-    for (var sortedRetentionTimeMobilityDataPoints : groupedDps.entrySet()) {
-      mobilityScanFillers.addAll(
-          addZerosForMobilityScans(sortedRetentionTimeMobilityDataPoints.getKey(),
-              sortedRetentionTimeMobilityDataPoints.getValue(),
-              ionTrace.getMz(), allowedMissingMobilityScans, 1));
-      for (var retentionTimeMobilityDataPoint : sortedRetentionTimeMobilityDataPoints.getValue()) {
-        scanNumbers.add(retentionTimeMobilityDataPoint.getMobilityScan());
-        // set ranges
-        if (rawDataPointsIntensityRange == null && rawDataPointsMZRange == null
-            && rawDataPointsMobilityRange == null && rawDataPointsRtRange == null) {
-          rawDataPointsIntensityRange =
-              Range.singleton(retentionTimeMobilityDataPoint.getIntensity());
-          rawDataPointsMZRange = Range.singleton(retentionTimeMobilityDataPoint.getMZ());
-          rawDataPointsMobilityRange = Range
-              .singleton(retentionTimeMobilityDataPoint.getMobility());
-          rawDataPointsRtRange = Range.singleton(retentionTimeMobilityDataPoint.getRetentionTime());
-        } else {
-          rawDataPointsIntensityRange = rawDataPointsIntensityRange
-              .span(Range.singleton(retentionTimeMobilityDataPoint.getIntensity()));
-          rawDataPointsMZRange =
-              rawDataPointsMZRange.span(Range.singleton(retentionTimeMobilityDataPoint.getMZ()));
-          rawDataPointsMobilityRange = rawDataPointsMobilityRange
-              .span(Range.singleton(retentionTimeMobilityDataPoint.getMobility()));
-          rawDataPointsRtRange = rawDataPointsRtRange
-              .span(Range.singleton(retentionTimeMobilityDataPoint.getRetentionTime()));
-        }
+  /**
+   * Assigns the data points to disjoint m/z bins. The data points are processed in ascending order
+   * of intensity, data points of equal intensity in descending index order (frames, mobility scans,
+   * signals). This order is produced by merging the sorted frames with a heap of frame indices.
+   * <p>
+   * The bins are never changed after they were created, so the bin of a data point is found again
+   * by {@link DisjointRangeIndex#findIncludingLowerBound(double)} and is not stored.
+   *
+   * @return false if canceled
+   */
+  private boolean binDataPoints() {
+    logger.info("Start m/z ranges calculation");
+    taskDescription = "Calculate m/z ranges";
 
-        // set maxima
-        if (maximumIntensity < retentionTimeMobilityDataPoint.getIntensity()) {
-          maximumIntensity = retentionTimeMobilityDataPoint.getIntensity();
-          rt = retentionTimeMobilityDataPoint.getRetentionTime();
-          mobility = retentionTimeMobilityDataPoint.getMobility();
-        }
+    // heap of the frames that have data points left, ordered by their next data point
+    final int numFrames = frames.size();
+    final int[] next = new int[numFrames];
+    final int[] heap = new int[numFrames];
+    int heapSize = 0;
+    for (int f = 0; f < numFrames; f++) {
+      if (sortedIntensities[f].limit() > 0) {
+        heap[heapSize++] = f;
       }
     }
+    for (int i = heapSize / 2 - 1; i >= 0; i--) {
+      siftDown(heap, heapSize, i, next);
+    }
 
-    ionTrace.getDataPoints().addAll(frameFillers);
-    ionTrace.getDataPoints().addAll(mobilityScanFillers);
-
-    // TODO think about representative scan
-    ionTrace.setScanNumbers(scanNumbers);
-    ionTrace.setMobilityRange(rawDataPointsMobilityRange);
-    ionTrace.setMzRange(rawDataPointsMZRange);
-    ionTrace.setRetentionTimeRange(rawDataPointsRtRange);
-    ionTrace.setIntensityRange(rawDataPointsIntensityRange);
-    ionTrace.setMaximumIntensity(maximumIntensity);
-    ionTrace.setRetentionTime(rt);
-    ionTrace.setMobility(mobility);
-    // logger.info("Ion Trace results:\n" + "Scan numbers: " + ionTrace.getScanNumbers() + "\n" + //
-    // "Mobility range: " + ionTrace.getMobilityRange() + "\n" + //
-    // "m/z range: " + ionTrace.getMzRange() + "\n" + //
-    // "rt range: " + ionTrace.getRetentionTimeRange() + "\n" + //
-    // "intensity range: " + ionTrace.getIntensityRange() + "\n" + //
-    // "Max intensity : " + ionTrace.getMaximumIntensity() + "\n" + //
-    // "Retention time : " + ionTrace.getRetentionTime() + "\n" + //
-    // "Mobility : " + ionTrace.getMobility()//
-    // );
-    // TODO calc area
-    // Update area
-    // double area = 0;
-    // for (int i = 1; i < allScanNumbers.length; i++) {
-    // // For area calculation, we use retention time in seconds
-    // double previousRT = dataFile.getScan(allScanNumbers[i - 1]).getRetentionTime() * 60d;
-    // double currentRT = dataFile.getScan(allScanNumbers[i]).getRetentionTime() * 60d;
-    // double previousHeight = dataPointsMap.get(allScanNumbers[i - 1]).getIntensity();
-    // double currentHeight = dataPointsMap.get(allScanNumbers[i]).getIntensity();
-    // area += (currentRT - previousRT) * (currentHeight + previousHeight) / 2;
-    // }
-
-    // TODO
-    // Update fragment scan
-    // fragmentScan =
-    // ScanUtils.findBestFragmentScan(dataFile, dataFile.getDataRTRange(1), rawDataPointsMZRange);
-
-    // allMS2FragmentScanNumbers = ScanUtils.findAllMS2FragmentScans(dataFile,
-    // dataFile.getDataRTRange(1), rawDataPointsMZRange);
-
-    // if (fragmentScan > 0) {
-    // Scan fragmentScanObject = dataFile.getScan(fragmentScan);
-    // int precursorCharge = fragmentScanObject.getPrecursorCharge();
-    // if (precursorCharge > 0)
-    // this.charge = precursorCharge;
-    // }
-
-    return ionTrace;
-  }
-
-  private boolean checkConsecutiveFrames(SortedMap<Frame, ?> groupedDps, List<Frame> frames) {
-    // check for consecutive frames
-    int consecutive = 0;
-
-    Iterator<Frame> frameIterator = groupedDps.keySet().iterator();
-    Frame frame = frameIterator.next();
-    int index = frames.indexOf(frame);
-    boolean found = false;
-    for (int i = index + 1; i < frames.size() && frameIterator.hasNext(); i++) {
-      // now go forward
-      frame = frameIterator.next();
-      if (frame == frames.get(i)) {
-        consecutive++;
-        if (consecutive >= minDataPointsRt) {
-          found = true;
-          break;
+    binMzs = new double[64];
+    for (long i = 0; heapSize > 0; i++) {
+      if ((i & 0xFFFF) == 0) {
+        if (isCanceled()) {
+          return false;
         }
-      } else {
-        i = frames.indexOf(frame);
-        consecutive = 0;
+        progress = 0.25 + i / (double) numPoints / 4;
       }
-    }
-    return found;
-  }
-
-  private Set<RetentionTimeMobilityDataPoint> addZerosForMobilityScans(Frame frame,
-      SortedSet<RetentionTimeMobilityDataPoint> dataPoints, double mz, int allowedGap, int zeros) {
 
-    int allScansIndex = 0;
-    int lastScanIndex = 0;
-    final int numScans = frame.getNumberOfMobilityScans();
-
-    List<MobilityScan> mobilityScans = frame.getMobilityScans();
-    Set<RetentionTimeMobilityDataPoint> dataPointsToAdd = new HashSet<>();
+      final int frame = heap[0];
+      final int index = next[frame]++;
+      if (next[frame] == sortedIntensities[frame].limit()) {
+        heap[0] = heap[--heapSize];
+      }
+      siftDown(heap, heapSize, 0, next);
 
-    for (RetentionTimeMobilityDataPoint dataPoint : dataPoints) {
-      MobilityScan nextScan = dataPoint.getMobilityScan();
-      while (allScansIndex < numScans && mobilityScans.get(allScansIndex) != nextScan) {
-        allScansIndex++;
+      final double mz = sortedMzs[frame].get(index);
+      if (Double.isNaN(mz) || Double.isNaN(sortedIntensities[frame].get(index))) {
+        continue;
       }
-      if (allScansIndex - lastScanIndex > (allowedGap + 1)) {
-        for (int i = 1; i <= zeros; i++) {
-          if (lastScanIndex + i < numScans && lastScanIndex != 0) {
-            dataPointsToAdd.add(
-                new RetentionTimeMobilityDataPoint(mobilityScans.get(lastScanIndex + i), mz, 0d));
-          }
-          if (allScansIndex - i >= 0) {
-            dataPointsToAdd.add(
-                new RetentionTimeMobilityDataPoint(mobilityScans.get(allScansIndex - i), mz, 0d));
+      if (ranges.find(mz) == -1) {
+        final int numBins = ranges.size();
+        final int bin = ranges.addAround(mz, mzTolerance.getMzToleranceForMass(mz));
+        if (bin == numBins) {
+          // the m/z of a trace is the m/z of the data point that created it
+          if (bin == binMzs.length) {
+            binMzs = Arrays.copyOf(binMzs, bin * 2);
           }
+          binMzs[bin] = mz;
         }
       }
-      lastScanIndex = allScansIndex;
-    }
-    if (lastScanIndex + 1 < numScans) {
-      dataPointsToAdd.add(
-          new RetentionTimeMobilityDataPoint(mobilityScans.get(lastScanIndex + 1), mz, 0d));
     }
-    return dataPointsToAdd;
+    return true;
   }
 
-  public Set<RetentionTimeMobilityDataPoint> addZerosForFrames(List<Frame> allFrames,
-      SortedSet<Frame> currentFrames, double mz, Set<RetentionTimeMobilityDataPoint> currentDps,
-      int allowedGap, int zeros) {
-    final int numFrames = frames.size();
-    final int offset = currentFrames.first().getMobilityScans().get(0).getMobilityScanNumber();
-    final MobilityType mobilityType = currentFrames.first().getMobilityType();
-    int allFramesIndex = 0;
-    int lastFrameIndex = 0;
-
-    int timsMobilityScanNumber = -1;
-    double medianMobility = -1d;
-    // in tims, each subscan number in different frames has the same mobility
-    if (mobilityType == MobilityType.TIMS) {
-      timsMobilityScanNumber = findMostFrequentMobilityScanNumber(currentDps);
-    } else {
-      medianMobility = findMedianMobility(currentDps);
-    }
-
-    Set<RetentionTimeMobilityDataPoint> dataPointsToAdd = new HashSet<>();
-    for (Frame nextFrame : currentFrames) {
-      while (allFramesIndex < numFrames && allFrames.get(allFramesIndex) != nextFrame) {
-        allFramesIndex++;
+  /**
+   * Restores the heap order below the given position. A frame comes first if its next data point
+   * has a lower intensity or, for equal intensities, if it is the later frame.
+   */
+  private void siftDown(int[] heap, int heapSize, int position, int[] next) {
+    final int frame = heap[position];
+    while (true) {
+      int child = 2 * position + 1;
+      if (child >= heapSize) {
+        break;
       }
-      if (allFramesIndex - lastFrameIndex > (allowedGap + 1)) {
-        for (int i = 1; i <= zeros; i++) {
-          if (lastFrameIndex + i < numFrames && lastFrameIndex != 0) {
-            Frame firstEmptyFrame = allFrames.get(lastFrameIndex + i); // the next frame
-            MobilityScan mostFrequentScan = null;
-            // in tims, each subscan number in different frames has the same mobility
-            if (mobilityType == MobilityType.TIMS) {
-              mostFrequentScan = firstEmptyFrame
-                  .getMobilityScan(timsMobilityScanNumber - offset);
-            } else {
-              mostFrequentScan = findMobilityScanWithClosestMobility(medianMobility,
-                  firstEmptyFrame.getMobilityScans());
-            }
-            dataPointsToAdd.add(new RetentionTimeMobilityDataPoint(mostFrequentScan, mz, 0d));
-            // mobilityScanNumber - offset <- i know this is dirty, but it should be fine
-          }
-          if (allFramesIndex - i >= 0) {
-            Frame lastEmptyFrame = allFrames.get(allFramesIndex - i);
-            MobilityScan mostFrequentScan = null;
-            if (mobilityType == MobilityType.TIMS) {
-              mostFrequentScan = lastEmptyFrame
-                  .getMobilityScan(timsMobilityScanNumber - offset);
-            } else {
-              mostFrequentScan = findMobilityScanWithClosestMobility(medianMobility,
-                  lastEmptyFrame.getMobilityScans());
-            }
-            dataPointsToAdd.add(new RetentionTimeMobilityDataPoint(mostFrequentScan, mz, 0d));
-          }
-        }
+      if (child + 1 < heapSize && comesFirst(heap[child + 1], heap[child], next)) {
+        child++;
       }
-      lastFrameIndex = allFramesIndex;
-    }
-    if (lastFrameIndex + 1 < numFrames) {
-      Frame firstEmptyFrame = allFrames.get(lastFrameIndex + 1); // the next frame
-      MobilityScan mostFrequentScan = null;
-      if (mobilityType == MobilityType.TIMS) {
-        mostFrequentScan = firstEmptyFrame
-            .getMobilityScan(timsMobilityScanNumber - offset);
-      } else {
-        mostFrequentScan = findMobilityScanWithClosestMobility(medianMobility,
-            firstEmptyFrame.getMobilityScans());
+      if (!comesFirst(heap[child], frame, next)) {
+        break;
       }
-      dataPointsToAdd.add(new RetentionTimeMobilityDataPoint(
-          mostFrequentScan, mz, 0d));
+      heap[position] = heap[child];
+      position = child;
     }
-    return dataPointsToAdd;
+    heap[position] = frame;
+  }
+
+  private boolean comesFirst(int frameA, int frameB, int[] next) {
+    final int result = Double.compare(sortedIntensities[frameA].get(next[frameA]),
+        sortedIntensities[frameB].get(next[frameB]));
+    return result != 0 ? result < 0 : frameA > frameB;
   }
 
   /**
-   * In Bruker PASEF, every frame in a segment has the same ion mobility range & association of scan
-   * number <-> mobility
-   *
-   * @param dps
-   * @return
+   * @return the bin of the data point or -1 if the data point was not binned
    */
-  private int findMostFrequentMobilityScanNumber(Collection<RetentionTimeMobilityDataPoint> dps) {
-    Map<Integer, Long> count = dps.stream().collect(Collectors
-        .groupingBy(dp -> dp.getMobilityScan().getMobilityScanNumber(), Collectors.counting()));
-    Entry<Integer, Long> mostFrequent = count.entrySet().stream().max(
-        Comparator.comparingLong(Entry::getValue)).get();
-    return mostFrequent.getKey();
+  private int findBin(double mz, double intensity) {
+    if (Double.isNaN(mz) || Double.isNaN(intensity)) {
+      return -1;
+    }
+    return ranges.findIncludingLowerBound(mz);
   }
 
   /**
-   * In DTIMS (at least agilent) the observed mobility window can change, therefore we can't just
-   * take the most frequent scan number
+   * Selects the bins with enough data points in enough consecutive frames and builds their traces.
+   * The frames are processed in retention time order, a trace is finished as soon as its last frame
+   * was processed.
    *
-   * @param dps
-   * @return
+   * @return the features sorted by the m/z of the traces. null if canceled.
    */
-  private double findMedianMobility(Collection<RetentionTimeMobilityDataPoint> dps) {
-    return Quantiles.median().compute(
-        dps.stream().map(RetentionTimeMobilityDataPoint::getMobility).collect(Collectors.toSet()));
-  }
+  private ModularFeature[] buildIonMobilityTraces(MemoryMapStorage tempStorage) {
+    taskDescription = "Build ion mobility traces";
+    final int numBins = ranges.size();
+    final int[] numPointsOfBin = new int[numBins];
+    final int[] lastFrameOfBin = new int[numBins];
+    final int[] consecutive = new int[numBins];
+    final boolean[] hasConsecutiveFrames = new boolean[numBins];
+    Arrays.fill(lastFrameOfBin, -2);
+    for (int f = 0; f < frames.size(); f++) {
+      final DoubleBuffer mzs = sortedMzs[f];
+      final DoubleBuffer intensities = sortedIntensities[f];
+      for (int i = 0; i < mzs.limit(); i++) {
+        final int bin = findBin(mzs.get(i), intensities.get(i));
+        if (bin == -1) {
+          continue;
+        }
+        numPointsOfBin[bin]++;
+        if (lastFrameOfBin[bin] == f) {
+          continue;
+        }
+        // check for consecutive frames
+        if (lastFrameOfBin[bin] == f - 1) {
+          consecutive[bin]++;
+          if (consecutive[bin] >= minDataPointsRt) {
+            hasConsecutiveFrames[bin] = true;
+          }
+        } else {
+          consecutive[bin] = 0;
+        }
+        lastFrameOfBin[bin] = f;
+      }
+    }
+
+    // traces are sorted by m/z
+    final int[] traceBins = Arrays.stream(ranges.getIdsInAscendingOrder())
+        .filter(bin -> numPointsOfBin[bin] >= minTotalSignals && hasConsecutiveFrames[bin])
+        .toArray();
+    final int numTraces = traceBins.length;
+    final int[] tracesByMz = IndexSort.sort(numTraces,
+        (a, b) -> Double.compare(binMzs[traceBins[a]], binMzs[traceBins[b]]));
+    final int[] traceOfBin = new int[numBins];
+    Arrays.fill(traceOfBin, -1);
+    for (int i = 0; i < numTraces; i++) {
+      traceOfBin[traceBins[tracesByMz[i]]] = i;
+    }
+    // traces in the order they are finished
+    final int[] lastFrameOfTrace = new int[numTraces];
+    for (int bin = 0; bin < numBins; bin++) {
+      if (traceOfBin[bin] != -1) {
+        lastFrameOfTrace[traceOfBin[bin]] = lastFrameOfBin[bin];
+      }
+    }
+    final int[] tracesByLastFrame = IndexSort.sort(numTraces,
+        (a, b) -> Integer.compare(lastFrameOfTrace[a], lastFrameOfTrace[b]));
+    logger.info("Building " + numTraces + " of " + numBins + " ion mobility traces");
 
-  private MobilityScan findMobilityScanWithClosestMobility(double mobility,
-      List<MobilityScan> mobilityScans) {
-    double delta = Double.MAX_VALUE;
-    for (int i = 0; i < mobilityScans.size(); i++) {
-      MobilityScan scan = mobilityScans.get(i);
-      double currentDelta = Math.abs(scan.getMobility() - mobility);
-      if (currentDelta < delta) {
-        delta = currentDelta;
+    final ModularFeatureList featureList =
+        new ModularFeatureList(rawDataFile + " " + suffix, getMemoryMapStorage(), rawDataFile);
+    this.featureList = featureList;
+    final IonMobilityTraceAccumulator[] traces = new IonMobilityTraceAccumulator[numTraces];
+    final ModularFeature[] features = new ModularFeature[numTraces];
+    int nextFinished = 0;
+
+    // data points of the current frame that belong to a trace
+    int[] traceOfPoint = new int[1024];
+    int[] scanOfPoint = new int[1024];
+    double[] mzs = new double[1024];
+    double[] frameIntensities = new double[1024];
+    double[] mzBuffer = new double[0];
+    double[] intensityBuffer = new double[0];
+
+    for (int f = 0; f < frames.size(); f++) {
+      if (isCanceled()) {
+        return null;
+      }
+      final Frame frame = frames.get(f);
+      int numFramePoints = 0;
+      final List<MobilityScan> mobilityScans = frame.getMobilityScans();
+      for (int scanIndex = 0; scanIndex < mobilityScans.size(); scanIndex++) {
+        final MassList ml = mobilityScans.get(scanIndex).getMassList();
+        final int numDp = ml.getNumberOfDataPoints();
+        if (traceOfPoint.length < numFramePoints + numDp) {
+          final int capacity = (numFramePoints + numDp) * 2;
+          traceOfPoint = Arrays.copyOf(traceOfPoint, capacity);
+          scanOfPoint = Arrays.copyOf(scanOfPoint, capacity);
+          mzs = Arrays.copyOf(mzs, capacity);
+          frameIntensities = Arrays.copyOf(frameIntensities, capacity);
+        }
+        mzBuffer = ml.getMzValues(mzBuffer);
+        intensityBuffer = ml.getIntensityValues(intensityBuffer);
+        for (int i = 0; i < numDp; i++) {
+          final int bin = findBin(mzBuffer[i], intensityBuffer[i]);
+          if (bin == -1 || traceOfBin[bin] == -1) {
+            continue;
+          }
+          traceOfPoint[numFramePoints] = traceOfBin[bin];
+          scanOfPoint[numFramePoints] = scanIndex;
+          mzs[numFramePoints] = mzBuffer[i];
+          frameIntensities[numFramePoints] = intensityBuffer[i];
+          numFramePoints++;
+        }
       }
-      if (currentDelta > delta) {
-        /*logger.info(String.format("Original mobility: %f\t closest mobility: %f", mobility,
-            mobilityScans.get(i - 1).getMobility()));*/
-        return mobilityScans.get(i - 1);
+
+      // group the points by trace, the mobility scan order is kept
+      final int[] framePointTraces = traceOfPoint;
+      final int[] byTrace = IndexSort.sort(numFramePoints,
+          (a, b) -> Integer.compare(framePointTraces[a], framePointTraces[b]));
+      for (int from = 0, to; from < numFramePoints; from = to) {
+        final int trace = traceOfPoint[byTrace[from]];
+        to = from + 1;
+        while (to < numFramePoints && traceOfPoint[byTrace[to]] == trace) {
+          to++;
+        }
+        if (traces[trace] == null) {
+          traces[trace] = new IonMobilityTraceAccumulator(binMzs[traceBins[tracesByMz[trace]]],
+              tempStorage);
+        }
+        traces[trace].addFrame(frame, f, scanOfPoint, mzs, frameIntensities, byTrace, from, to,
+            allowedMissingMobilityScans);
       }
+
+      // finish all traces that end in this frame
+      while (nextFinished < numTraces && lastFrameOfTrace[tracesByLastFrame[nextFinished]] == f) {
+        final int trace = tracesByLastFrame[nextFinished++];
+        features[trace] = traces[trace]
+            .finish(frames, allowedMissingFrames, featureList, rawDataFile);
+        traces[trace] = null;
+      }
+      progress = 0.5 + (f + 1) / (double) frames.size() / 2;
     }
-    return mobilityScans.get(mobilityScans.size() - 1);
+    return features;
   }
 
-  private void buildModularFeatureList(SortedSet<IIonMobilityTrace> ionMobilityTraces) {
+  private void buildModularFeatureList(ModularFeature[] features) {
     taskDescription = "Build feature list";
-    ModularFeatureList featureList =
-        new ModularFeatureList(rawDataFile + " " + suffix, getMemoryMapStorage(), rawDataFile);
     // ensure that the default columns are available
     DataTypeUtils.addDefaultChromatographicTypeColumns(featureList);
     DataTypeUtils.addDefaultIonMobilityTypeColumns(featureList);
     featureList.setSelectedScans(rawDataFile, frames);
 
     int featureId = 1;
-    for (IIonMobilityTrace ionTrace : ionMobilityTraces) {
-      ionTrace.setFeatureList(featureList);
-      ModularFeature modular =
-          FeatureConvertors.IonMobilityIonTraceToModularFeature(ionTrace, rawDataFile);
+    for (ModularFeature modular : features) {
       ModularFeatureListRow newRow =
           new ModularFeatureListRow(featureList, featureId, rawDataFile, modular);
-//      newRow.set(MobilityType.class, ionTrace.getMobility());
       featureList.addRow(newRow);
       featureId++;
     }
@@ -35,6 +35,9 @@ import io.github.mzmine.util.MemoryMapStorage;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import ucar.ma2.ArrayDouble;
 import ucar.ma2.DataType;
@@ -47,11 +50,18 @@ import ucar.nc2.Variable;
 
 public class MassDetectionTask extends AbstractTask {
 
+  /**
+   * Minimum number of scans per chunk of the parallel mass detection.
+   */
+  private static final int MIN_SCANS_PER_CHUNK = 16;
+
   private final Logger logger = Logger.getLogger(this.getClass().getName());
   private final RawDataFile dataFile;
   private final ScanSelection scanSelection;
   // scan counter
-  private int processedScans = 0, totalScans = 0;
+  private final AtomicInteger processedScans = new AtomicInteger(0);
+  private final AtomicInteger processedChunks = new AtomicInteger(0);
+  private int totalScans = 0, totalChunks = 0;
   // Mass detector
   private MZmineProcessingStep<MassDetector> massDetector;
   // for outputting file
@@ -86,6 +96,10 @@ public class MassDetectionTask extends AbstractTask {
    */
   @Override
   public String getTaskDescription() {
+    if (totalChunks > 1) {
+      return "Detecting masses in " + dataFile + " (" + processedChunks.get() + "/" + totalChunks
+          + " chunks)";
+    }
     return "Detecting masses in " + dataFile;
   }
 
@@ -97,7 +111,7 @@ public class MassDetectionTask extends AbstractTask {
     if (totalScans == 0) {
       return 0;
     } else {
-      return (double) processedScans / totalScans;
+      return (double) processedScans.get() / totalScans;
     }
   }
 
@@ -132,37 +146,31 @@ public class MassDetectionTask extends AbstractTask {
 
       logger.info("Started mass detector on " + dataFile);
 
-      // uses only a single array for each (mz and intensity) to loop over all scans
-      ScanDataAccess data = EfficientDataAccess.of(dataFile,
-          EfficientDataAccess.ScanDataType.RAW, scanSelection);
-      totalScans = data.getNumberOfScans();
-
-      // all scans
-      while(data.hasNextScan()) {
+      if (!saveToCDF) {
+        // the netCDF export relies on the scan order, all other results are independent of the
+        // processing order
+        detectMassesInParallel();
         if (isCanceled()) {
           return;
         }
+      } else {
+        // uses only a single array for each (mz and intensity) to loop over all scans
+        ScanDataAccess data = EfficientDataAccess.of(dataFile,
+            EfficientDataAccess.ScanDataType.RAW, scanSelection);
+        totalScans = data.getNumberOfScans();
+
+        // all scans
+        while (data.hasNextScan()) {
+          if (isCanceled()) {
+            return;
+          }
 
-        Scan scan = data.nextScan();
-
-        MassDetector detector = massDetector.getModule();
-        // run mass detection on data object
-        // [mzs, intensities]
-        double[][] mzPeaks = detector.getMassValues(data, massDetector.getParameterSet());
-
-        if (scan instanceof Frame) {
-          // for ion mobility, detect subscans, too
-          FrameMassList frameMassList = new FrameMassList(getMemoryMapStorage(), mzPeaks[0], mzPeaks[1]);
-          Frame frame = (Frame) scan;
-          frameMassList.generateAndAddMobilityScanMassLists(frame.getMobilityScans(),
-              getMemoryMapStorage(), detector, massDetector.getParameterSet());
-          frame.addMassList(frameMassList);
-        } else {
-          SimpleMassList newMassList = new SimpleMassList(getMemoryMapStorage(), mzPeaks[0], mzPeaks[1]);
-          scan.addMassList(newMassList);
-        }
+          Scan scan = data.nextScan();
+
+          // run mass detection on data object
+          // [mzs, intensities]
+          double[][] mzPeaks = detectMasses(scan, data);
 
-        if (this.saveToCDF) {
           curTotalIntensity = 0;
           double[] mzs = mzPeaks[0];
           double[] intensities = mzPeaks[1];
@@ -179,9 +187,9 @@ public class MassDetectionTask extends AbstractTask {
           totalIntensity.add(curTotalIntensity);
 
           lastPointCount = mzPeaks.length + lastPointCount;
-        }
 
-        processedScans++;
+          processedScans.incrementAndGet();
+        }
       }
 
       if (this.saveToCDF) {
@@ -297,4 +305,90 @@ public class MassDetectionTask extends AbstractTask {
     logger.info("Finished mass detector on " + dataFile);
 
   }
+
+  /**
+   * Splits the scans of the data file into chunks of consecutive scans and detects the masses of
+   * each chunk on the common fork-join pool. Every chunk creates its own {@link ScanDataAccess} when
+   * it starts, so only the running chunks hold data buffers. The mass lists are added to their
+   * scans, so the result does not depend on the processing order.
+   */
+  private void detectMassesInParallel() {
+    final int numScans = dataFile.getNumOfScans();
+    final int parallelism = Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+    final int scansPerChunk = Math
+        .max(MIN_SCANS_PER_CHUNK, (int) Math.ceil(numScans / (double) (parallelism * 4)));
+
+    // count the matching scans first for the progress, without allocating any buffers
+    final List<int[]> chunks = new ArrayList<>();
+    for (int from = 0; from < numScans; from += scansPerChunk) {
+      final int to = Math.min(from + scansPerChunk, numScans);
+      int matching = 0;
+      for (int i = from; i < to; i++) {
+        if (scanSelection == null || scanSelection.matches(dataFile.getScan(i))) {
+          matching++;
+        }
+      }
+      if (matching > 0) {
+        chunks.add(new int[] {from, to});
+        totalScans += matching;
+      }
+    }
+    totalChunks = chunks.size();
+    logger.finest(() -> "Detecting masses in " + totalScans + " scans of " + dataFile + " in "
+        + totalChunks + " chunks");
+
+    final List<ForkJoinTask<?>> tasks = new ArrayList<>();
+    for (int[] range : chunks) {
+      tasks.add(ForkJoinPool.commonPool().submit(() -> {
+        if (isCanceled()) {
+          return null;
+        }
+        final ScanDataAccess chunk = EfficientDataAccess.of(dataFile,
+            EfficientDataAccess.ScanDataType.RAW, scanSelection, range[0], range[1]);
+        while (chunk.hasNextScan()) {
+          if (isCanceled()) {
+            return null;
+          }
+          final Scan scan = chunk.nextScan();
+          detectMasses(scan, chunk);
+          processedScans.incrementAndGet();
+        }
+        processedChunks.incrementAndGet();
+        return null;
+      }));
+    }
+
+    for (ForkJoinTask<?> task : tasks) {
+      task.join();
+    }
+  }
+
+  /**
+   * Detects the masses in the current scan of the data access and adds the mass list to the scan.
+   *
+   * @param scan the current scan of data
+   * @param data the data access, set to the scan
+   * @return the detected masses [mzs, intensities]
+   */
+  private double[][] detectMasses(Scan scan, ScanDataAccess data) {
+    final MassDetector detector = massDetector.getModule();
+    // run mass detection on data object
+    // [mzs, intensities]
+    final double[][] mzPeaks = detector.getMassValues(data, massDetector.getParameterSet());
+
+    if (scan instanceof Frame) {
+      // for ion mobility, detect subscans, too
+      FrameMassList frameMassList = new FrameMassList(getMemoryMapStorage(), mzPeaks[0],
+          mzPeaks[1]);
+      Frame frame = (Frame) scan;
+      frameMassList.generateAndAddMobilityScanMassLists(frame.getMobilityScans(),
+          getMemoryMapStorage(), detector, massDetector.getParameterSet());
+      frame.addMassList(frameMassList);
+    } else {
+      SimpleMassList newMassList = new SimpleMassList(getMemoryMapStorage(), mzPeaks[0],
+          mzPeaks[1]);
+      scan.addMassList(newMassList);
+    }
+    return mzPeaks;
+  }
 }
@@ -29,6 +29,7 @@ import java.awt.Window;
 import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.correctors.AsymmetryCorrector;
 import io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.correctors.LocMinLoessCorrector;
+import io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.correctors.MedianCorrector;
 import io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.correctors.PeakDetectionCorrector;
 import io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.correctors.RollingBallCorrector;
 import io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.correctors.RubberBandCorrector;
@@ -89,8 +90,9 @@ public class BaselineCorrectionParameters extends SimpleParameterSet {
                                     // http://cran.r-project.org/web/packages/baseline/baseline.pdf)
       new RubberBandCorrector(), // (Package R "hyperSpec" -
                                  // http://cran.r-project.org/web/packages/hyperSpec/vignettes/baseline.pdf)
-      new LocMinLoessCorrector() // (Package R/Bioc. "PROcess" -
-                                 // http://bioconductor.org/packages/release/bioc/manuals/PROcess/man/PROcess.pdf)
+      new LocMinLoessCorrector(), // (Package R/Bioc. "PROcess" -
+                                  // http://bioconductor.org/packages/release/bioc/manuals/PROcess/man/PROcess.pdf)
+      new MedianCorrector() // (R "stats" - runmed)
   };
 
   public static final ModuleComboParameter<BaselineCorrector> BASELINE_CORRECTORS =
@@ -126,6 +128,16 @@ public class BaselineCorrectionParameters extends SimpleParameterSet {
       new BooleanParameter("Remove source file after baseline correction",
           "If checked, original file will be replaced by the corrected version", true);
 
+  /**
+   * Java or R.
+   */
+  public static final ComboParameter<BaselineEngine> ENGINE = new ComboParameter<BaselineEngine>(
+      "Engine",
+      "Compute the baselines with the original R packages of the correctors or in Java. The Java"
+          + " ports are not yet verified against reference outputs of the R packages, so their"
+          + " baselines, especially of the peak detection corrector, are approximate.",
+      BaselineEngine.values(), BaselineEngine.R);
+
   /**
    * R engine type.
    */
@@ -138,7 +150,7 @@ public class BaselineCorrectionParameters extends SimpleParameterSet {
    */
   public BaselineCorrectionParameters() {
     super(new Parameter[] {dataFiles, SUFFIX, CHROMOTAGRAM_TYPE, MS_LEVEL, USE_MZ_BINS,
-        MZ_BIN_WIDTH, BASELINE_CORRECTORS, RENGINE_TYPE, REMOVE_ORIGINAL});
+        MZ_BIN_WIDTH, BASELINE_CORRECTORS, ENGINE, RENGINE_TYPE, REMOVE_ORIGINAL});
     thisParameters = null;
   }
 
@@ -118,12 +118,16 @@ public class BaselineCorrectionTask extends AbstractTask {
 
     try {
 
-      // Check R availability, by trying to open the connection.
-      String[] reqPackages = this.baselineCorrectorProcStep.getModule().getRequiredRPackages();
-      String callerFeatureName = this.baselineCorrectorProcStep.getModule().getName();
-      this.rSession = new RSessionWrapper(rEngineType, callerFeatureName, reqPackages, null);
-
-      this.rSession.open();
+      // Check R availability, by trying to open the connection, unless the baselines are
+      // computed in Java.
+      this.baselineCorrectorProcStep.getModule().collectCommonParameters(this.commonParameters);
+      if (this.baselineCorrectorProcStep.getModule().isUsingR()) {
+        String[] reqPackages = this.baselineCorrectorProcStep.getModule().getRequiredRPackages();
+        String callerFeatureName = this.baselineCorrectorProcStep.getModule().getName();
+        this.rSession = new RSessionWrapper(rEngineType, callerFeatureName, reqPackages, null);
+
+        this.rSession.open();
+      }
 
       this.baselineCorrectorProcStep.getModule().initProgress(origDataFile);
 
@@ -155,7 +159,7 @@ public class BaselineCorrectionTask extends AbstractTask {
         logger.info("Baseline corrected " + origDataFile.getName());
       }
       // Turn off R instance, once task ended gracefully.
-      if (!isCanceled())
+      if (!isCanceled() && this.rSession != null)
         this.rSession.close(false);
 
     } catch (IOException | RSessionWrapperException e) {
@@ -172,7 +176,7 @@ public class BaselineCorrectionTask extends AbstractTask {
 
     // Turn off R instance, once task ended UNgracefully.
     try {
-      if (!isCanceled())
+      if (!isCanceled() && this.rSession != null)
         this.rSession.close(isCanceled());
     } catch (RSessionWrapperException e) {
       if (!isCanceled()) {
@@ -20,7 +20,12 @@ package io.github.mzmine.modules.dataprocessing.filter_baselinecorrection;
 
 import io.github.mzmine.util.MemoryMapStorage;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import com.google.common.collect.Range;
 import io.github.mzmine.datamodel.DataPoint;
@@ -59,6 +64,7 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
   private String suffix;
 
   // General parameters (common to all baseline correction methods).
+  private BaselineEngine engine;
   private REngineType rEgineType;
   private ChromatogramType chromatogramType;
   private double binWidth;
@@ -92,6 +98,7 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
       generalParameters = BaselineCorrectionParameters.getBaselineCorrectionParameters();
     }
     // Get common parameters.
+    engine = generalParameters.getParameter(BaselineCorrectionParameters.ENGINE).getValue();
     rEgineType =
         generalParameters.getParameter(BaselineCorrectionParameters.RENGINE_TYPE).getValue();
     suffix = generalParameters.getParameter(BaselineCorrectionParameters.SUFFIX).getValue();
@@ -102,11 +109,15 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
     msLevel = generalParameters.getParameter(BaselineCorrectionParameters.MS_LEVEL).getValue();
   }
 
-  public final RawDataFile correctDatafile(final RSessionWrapper rSession,
+  /**
+   * @param rSession the R session or null, if the baselines are computed in Java (see {@link
+   *        #isUsingR()})
+   */
+  public final RawDataFile correctDatafile(@Nullable final RSessionWrapper rSession,
       final RawDataFile dataFile, final ParameterSet parameters,
       final ParameterSet commonParameters, @Nullable MemoryMapStorage storage) throws IOException, RSessionWrapperException {
 
-    if (isAborted(dataFile) || !rSession.isSessionRunning())
+    if (isAborted(dataFile) || (rSession != null && !rSession.isSessionRunning()))
       return null;
     // Get very last information from root module setup
     // this.setGeneralParameters(MZmineCore.getConfiguration().getModuleParameters(BaselineCorrectionModule.class));
@@ -244,11 +255,7 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
     // Calculate baselines: done in-place, i.e. overwrite chromatograms to
     // save memory.
     logger.finest("Calculating baselines.");
-    for (int binIndex = 0; !isAborted(origDataFile) && binIndex < numBins; binIndex++) {
-      baseChrom[binIndex] =
-          computeBaseline(rSession, origDataFile, baseChrom[binIndex], parameters);
-      progressMap.get(origDataFile)[0]++;
-    }
+    computeBaselines(rSession, origDataFile, baseChrom, parameters, false);
 
     // Subtract baselines.
     logger.finest("Subtracting baselines.");
@@ -295,22 +302,7 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
     // Calculate baselines: done in-place, i.e. overwrite chromatograms to
     // save memory.
     logger.finest("Calculating baselines.");
-    for (int binIndex = 0; !isAborted(origDataFile) && binIndex < numBins; binIndex++) {
-
-      // Calculate baseline.
-      // final double[] baseline = asymBaseline(baseChrom[binIndex]);
-      final double[] baseline =
-          computeBaseline(rSession, origDataFile, baseChrom[binIndex], parameters);
-
-      // Normalize the baseline w.r.t. chromatogram (TIC).
-      for (int scanIndex = 0; !isAborted(origDataFile) && scanIndex < numScans; scanIndex++) {
-        final double bc = baseChrom[binIndex][scanIndex];
-        if (bc != 0.0) {
-          baseChrom[binIndex][scanIndex] = baseline[scanIndex] / bc;
-        }
-      }
-      progressMap.get(origDataFile)[0]++;
-    }
+    computeBaselines(rSession, origDataFile, baseChrom, parameters, true);
 
     // Subtract baselines.
     logger.finest("Subtracting baselines.");
@@ -332,6 +324,68 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
 
   }
 
+  /**
+   * Calculate the baselines of all m/z bins in place. In Java, the bins are calculated in parallel,
+   * an R session can only calculate one bin at a time.
+   *
+   * @param rSession the R session or null for the Java implementation.
+   * @param origDataFile dataFile of concern.
+   * @param chromatograms the chromatograms, overwritten by the baselines.
+   * @param parameters parameters specific to the actual method for baseline computing.
+   * @param normalize if true, the baselines are normalized w.r.t. the chromatograms (TIC).
+   * @throws RSessionWrapperException
+   */
+  private void computeBaselines(final RSessionWrapper rSession, final RawDataFile origDataFile,
+      final double[][] chromatograms, final ParameterSet parameters, final boolean normalize)
+      throws RSessionWrapperException {
+
+    if (rSession != null) {
+      for (int binIndex = 0; !isAborted(origDataFile) && binIndex < chromatograms.length;
+          binIndex++) {
+        final double[] baseline =
+            computeBaseline(rSession, origDataFile, chromatograms[binIndex], parameters);
+        setBaseline(chromatograms[binIndex], baseline, normalize);
+        progressMap.get(origDataFile)[0]++;
+      }
+      return;
+    }
+
+    final int[] progress = progressMap.get(origDataFile);
+    final List<Future<?>> tasks = new ArrayList<>(chromatograms.length);
+    for (final double[] chromatogram : chromatograms) {
+      tasks.add(ForkJoinPool.commonPool().submit(() -> {
+        if (isAborted(origDataFile)) {
+          return;
+        }
+        setBaseline(chromatogram, computeBaseline(chromatogram, parameters), normalize);
+        synchronized (progress) {
+          progress[0]++;
+        }
+      }));
+    }
+    try {
+      for (Future<?> task : tasks) {
+        task.get();
+      }
+    } catch (InterruptedException | ExecutionException e) {
+      throw new IllegalStateException("Cannot calculate the baselines", e);
+    }
+  }
+
+  /**
+   * Overwrite a chromatogram by its baseline, or by the ratio of baseline and chromatogram (TIC).
+   */
+  private static void setBaseline(final double[] chromatogram, final double[] baseline,
+      final boolean normalize) {
+    for (int scanIndex = 0; scanIndex < chromatogram.length; scanIndex++) {
+      if (!normalize) {
+        chromatogram[scanIndex] = baseline[scanIndex];
+      } else if (chromatogram[scanIndex] != 0.0) {
+        chromatogram[scanIndex] = baseline[scanIndex] / chromatogram[scanIndex];
+      }
+    }
+  }
+
   /**
    * Constructs base peak (max) chromatograms - one for each m/z bin.
    *
@@ -537,6 +591,14 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
     progressMap.remove(origDataFile);
   }
 
+  /**
+   * @return true if the baselines are computed in R and an R session is needed, i.e., the R engine
+   *         is selected.
+   */
+  public boolean isUsingR() {
+    return engine == BaselineEngine.R;
+  }
+
   public REngineType getRengineType() {
     return this.rEgineType;
   }
@@ -1,57 +1,41 @@
 /*
  * Copyright 2006-2020 The MZmine Development Team
- * 
+ *
  * This file is part of MZmine.
- * 
+ *
  * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
  * General Public License as published by the Free Software Foundation; either version 2 of the
  * License, or (at your option) any later version.
- * 
+ *
  * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
  * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
  * Public License for more details.
- * 
+ *
  * You should have received a copy of the GNU General Public License along with MZmine; if not,
  * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
  * USA
  */
 
-package io.github.mzmine.modules.dataprocessing.gapfill_peakfinder;
 
-import io.github.mzmine.datamodel.DataPoint;
-import io.github.mzmine.datamodel.Scan;
+package io.github.mzmine.modules.dataprocessing.filter_baselinecorrection;
 
 /**
- * DataPoint implementation extended with retention time and scan number
+ * Engine used to compute the baselines. The R engine runs the original R packages of the
+ * correctors and is the default. The Java engine needs no R installation, but its ports are not yet
+ * verified against reference outputs of the R packages.
  */
-class GapDataPoint implements DataPoint {
+public enum BaselineEngine {
 
-  private Scan scanNumber;
-  private double mz, rt, intensity;
+  JAVA("Java (built-in)"), R("R");
 
-  /**
-   */
-  GapDataPoint(Scan scanNumber, double mz, double rt, double intensity) {
-    this.scanNumber = scanNumber;
-    this.mz = mz;
-    this.rt = rt;
-    this.intensity = intensity;
-  }
-
-  Scan getScan() {
-    return scanNumber;
-  }
+  private final String name;
 
-  public double getIntensity() {
-    return intensity;
+  BaselineEngine(String name) {
+    this.name = name;
   }
 
-  public double getMZ() {
-    return mz;
+  @Override
+  public String toString() {
+    return name;
   }
-
-  public double getRT() {
-    return rt;
-  }
-
 }
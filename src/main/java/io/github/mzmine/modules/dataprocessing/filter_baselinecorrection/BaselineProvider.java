@@ -42,4 +42,10 @@ public interface BaselineProvider {
   public double[] computeBaseline(final RSessionWrapper rSession, final RawDataFile origDataFile,
       final double[] chromatogram, ParameterSet parameters) throws RSessionWrapperException;
 
+  /**
+   * Returns a baseline for correcting the given chromatogram in Java. Called in parallel for the
+   * m/z bins, so implementations must not keep state between calls.
+   */
+  public double[] computeBaseline(final double[] chromatogram, ParameterSet parameters);
+
 }
@@ -34,6 +34,9 @@ import io.github.mzmine.util.R.RSessionWrapperException;
  */
 public class AsymmetryCorrector extends BaselineCorrector {
 
+  // Same as the default of "asysm".
+  private static final int MAX_ITERATIONS = 25;
+
   @Override
   public String[] getRequiredRPackages() {
     return new String[] { /* "rJava", "Rserve", */"ptw"};
@@ -74,6 +77,16 @@ public class AsymmetryCorrector extends BaselineCorrector {
     return baseline;
   }
 
+  @Override
+  public double[] computeBaseline(double[] chromatogram, ParameterSet parameters) {
+    final double smoothing =
+        parameters.getParameter(AsymmetryCorrectorParameters.SMOOTHING).getValue();
+    final double asymmetry =
+        parameters.getParameter(AsymmetryCorrectorParameters.ASYMMETRY).getValue();
+    return BaselineAlgorithms.asymmetricLeastSquares(chromatogram, smoothing, asymmetry,
+        MAX_ITERATIONS);
+  }
+
   @Override
   public @Nonnull String getName() {
     return "Asymmetric baseline corrector";
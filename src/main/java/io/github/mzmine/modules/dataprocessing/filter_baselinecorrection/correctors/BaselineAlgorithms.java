@@ -0,0 +1,840 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.correctors;
+
+import java.util.Arrays;
+import javax.annotation.Nonnull;
+
+/**
+ * Baseline algorithms in plain Java, used instead of the R packages when the Java engine is
+ * selected. All methods work on primitive arrays, do not keep any state and are safe to call from
+ * multiple threads.
+ */
+public final class BaselineAlgorithms {
+
+  private BaselineAlgorithms() {
+  }
+
+  /**
+   * Asymmetric least squares baseline as "asysm" of the "ptw" R-package: a Whittaker smoother
+   * (second order differences) is fitted iteratively, weighting points above the baseline with
+   * asymmetry and points below it with 1 - asymmetry.
+   *
+   * @param y the chromatogram
+   * @param smoothing the smoothing factor (lambda)
+   * @param asymmetry the weight of points above the baseline (p)
+   * @param maxIterations the maximum number of reweighting iterations
+   * @return the baseline
+   */
+  @Nonnull
+  public static double[] asymmetricLeastSquares(@Nonnull double[] y, double smoothing,
+      double asymmetry, int maxIterations) {
+    final int n = y.length;
+    final double[] weights = new double[n];
+    Arrays.fill(weights, 1d);
+    double[] z = y.clone();
+    if (n < 3) {
+      return z;
+    }
+    final PentadiagonalSolver solver = new PentadiagonalSolver(n);
+    for (int it = 0; it < maxIterations; it++) {
+      z = solver.whittaker(y, weights, smoothing);
+      boolean changed = false;
+      for (int i = 0; i < n; i++) {
+        final double w = y[i] > z[i] + 1e-8 ? asymmetry : 1d - asymmetry;
+        changed |= w != weights[i];
+        weights[i] = w;
+      }
+      if (!changed) {
+        break;
+      }
+    }
+    return z;
+  }
+
+  /**
+   * Rolling ball baseline as "rollingBall" of the "baseline" R-package: a moving minimum followed
+   * by a moving maximum of the minima, both over 2 * wm + 1 scans, smoothed by a moving average
+   * over 2 * ws + 1 scans. The windows are truncated at both ends of the chromatogram.
+   *
+   * @param y the chromatogram
+   * @param wm half width of the minimization/maximization window
+   * @param ws half width of the smoothing window
+   * @return the baseline
+   */
+  @Nonnull
+  public static double[] rollingBall(@Nonnull double[] y, int wm, int ws) {
+    final double[] minima = movingExtremum(y, wm, true);
+    final double[] maxima = movingExtremum(minima, wm, false);
+    return movingAverage(maxima, ws);
+  }
+
+  /**
+   * Running median over 2 * halfWidth + 1 scans as "runmed" of R with endrule "constant": the
+   * scans closer than halfWidth to either end get the median of the first or last full window.
+   * The window is shrunk to the largest odd width not above the chromatogram length.
+   *
+   * @param y the chromatogram
+   * @param halfWidth half width of the median window
+   * @return the baseline
+   */
+  @Nonnull
+  public static double[] runningMedian(@Nonnull double[] y, int halfWidth) {
+    final int n = y.length;
+    final int h = Math.max(0, Math.min(halfWidth, (n - 1) / 2));
+    final int k = 2 * h + 1;
+    final double[] baseline = y.clone();
+    if (h == 0) {
+      return baseline;
+    }
+    // sorted copy of the current window, updated by binary search and array shifts
+    final double[] window = Arrays.copyOf(y, k);
+    Arrays.sort(window);
+    baseline[h] = window[h];
+    for (int i = h + 1; i < n - h; i++) {
+      final int removed = Arrays.binarySearch(window, y[i - h - 1]);
+      final double added = y[i + h];
+      int insert = Arrays.binarySearch(window, added);
+      if (insert < 0) {
+        insert = -insert - 1;
+      }
+      if (insert > removed) {
+        System.arraycopy(window, removed + 1, window, removed, insert - 1 - removed);
+        window[insert - 1] = added;
+      } else {
+        System.arraycopy(window, insert, window, insert + 1, removed - insert);
+        window[insert] = added;
+      }
+      baseline[i] = window[h];
+    }
+    Arrays.fill(baseline, 0, h, baseline[h]);
+    Arrays.fill(baseline, n - h, n, baseline[n - h - 1]);
+    return baseline;
+  }
+
+  /**
+   * Local minima baseline as "bslnoff" of the "PROcess" R-package: the scans are split into equally
+   * spaced intervals on the log scale of the scan number, one less than the number of breaks. The
+   * minimum of each interval, or all scans of the interval at or below the quantile of its
+   * intensities, are the support points of the baseline, which is fitted by a local linear
+   * regression (loess of degree 1) or interpolated linearly.
+   *
+   * @param y the chromatogram
+   * @param breaks the number of interval bounds
+   * @param quantile 0 to use the minima, otherwise the quantile of the intensities of each interval
+   * @param loess true for a loess fit, false for a linear interpolation
+   * @param span the span (bandwidth) of the loess fit
+   * @return the baseline
+   */
+  @Nonnull
+  public static double[] localMinimaLoess(@Nonnull double[] y, int breaks, double quantile,
+      boolean loess, double span) {
+    final int n = y.length;
+    if (n == 0) {
+      return new double[0];
+    }
+    final int intervals = Math.max(1, breaks - 1);
+    final double width = Math.log(n) / intervals;
+
+    final int[] support = new int[n];
+    int size = 0;
+    int from = 0;
+    while (from < n) {
+      // the intervals are closed on the right, like cut(include.lowest = TRUE) in R
+      final int interval = interval(from, width, intervals);
+      int to = from + 1;
+      while (to < n && interval(to, width, intervals) == interval) {
+        to++;
+      }
+      if (quantile == 0d) {
+        int min = from;
+        for (int i = from + 1; i < to; i++) {
+          if (y[i] < y[min]) {
+            min = i;
+          }
+        }
+        support[size++] = min;
+      } else {
+        final double[] sorted = Arrays.copyOfRange(y, from, to);
+        Arrays.sort(sorted);
+        final double limit = quantile(sorted, quantile);
+        for (int i = from; i < to; i++) {
+          if (y[i] <= limit) {
+            support[size++] = i;
+          }
+        }
+      }
+      from = to;
+    }
+
+    final double[] values = new double[size];
+    for (int k = 0; k < size; k++) {
+      values[k] = y[support[k]];
+    }
+    return loess ? loess(support, values, size, span, n)
+        : linearInterpolation(support, values, size, n);
+  }
+
+  /**
+   * Peak detection baseline following the steps of "peakDetection" of the "baseline" R-package
+   * (after the MATLAB code of Coombes et al.): peaks of increasing widths from left to right scans
+   * are detected and cut off by straight lines, if their height above both ends reaches snMinimum
+   * times the noise level. The remaining chromatogram is smoothed by moving minima followed by
+   * running medians with increasing windows from lwin to rwin scans. The windows grow by the
+   * multiplier, but at least by one scan.
+   *
+   * @param y the chromatogram
+   * @param left the smallest half width of the peak detection windows
+   * @param right the largest half width of the peak detection windows
+   * @param lwin the smallest half width of the minimum and median windows
+   * @param rwin the largest half width of the minimum and median windows
+   * @param snMinimum the minimum signal to noise ratio of removed peaks
+   * @param mono true for a monotonically decreasing baseline
+   * @param multiplier the growth factor of the windows
+   * @return the baseline
+   */
+  @Nonnull
+  public static double[] peakDetection(@Nonnull double[] y, int left, int right, int lwin,
+      int rwin, double snMinimum, boolean mono, double multiplier) {
+    final int n = y.length;
+    final double[] work = y.clone();
+    if (n < 3) {
+      return work;
+    }
+    final double minHeight = snMinimum * noiseLevel(y);
+    for (int w = Math.max(1, left); w <= right; w = nextWindow(w, multiplier)) {
+      removePeaks(work, w, minHeight);
+    }
+    double[] baseline = work;
+    for (int w = Math.max(1, lwin); w <= rwin; w = nextWindow(w, multiplier)) {
+      baseline = runningMedian(movingExtremum(baseline, w, true), w);
+    }
+    if (mono) {
+      for (int i = 1; i < n; i++) {
+        baseline[i] = Math.min(baseline[i], baseline[i - 1]);
+      }
+    }
+    return baseline;
+  }
+
+  /**
+   * Rubber band baseline as "spc.rubberband" of the "hyperSpec" R-package: the support points are
+   * the vertices of the lower convex hull of the chromatogram. The baseline is a smoothing spline
+   * through the support points, where the inner points are raised by the noise level, or the
+   * linear interpolation of the support points. A bend of bend * x^2 (x normalized to 0..1) is
+   * added before and removed after the fit, which lets the band touch concave baselines.
+   * <p>
+   * The smoothing spline has df degrees of freedom like "smooth.spline" of R. If df is not above 1,
+   * the smoothing is chosen by generalized cross validation, as R does for invalid df.
+   *
+   * @param y the chromatogram
+   * @param noise the noise level
+   * @param df the degrees of freedom of the smoothing spline
+   * @param spline true for a smoothing spline, false for a linear interpolation
+   * @param bend the bend factor
+   * @return the baseline
+   */
+  @Nonnull
+  public static double[] rubberBand(@Nonnull double[] y, double noise, double df, boolean spline,
+      double bend) {
+    final int n = y.length;
+    if (n < 2) {
+      return y.clone();
+    }
+    final double[] bends = new double[n];
+    final double[] bent = new double[n];
+    for (int i = 0; i < n; i++) {
+      final double x = (double) i / (n - 1);
+      bends[i] = bend * x * x;
+      bent[i] = y[i] + bends[i];
+    }
+
+    // lower convex hull (monotone chain), collinear points are dropped
+    final int[] hull = new int[n];
+    int size = 0;
+    for (int i = 0; i < n; i++) {
+      while (size >= 2 && (hull[size - 1] - hull[size - 2]) * (bent[i] - bent[hull[size - 2]])
+          - (bent[hull[size - 1]] - bent[hull[size - 2]]) * (i - hull[size - 2]) <= 0) {
+        size--;
+      }
+      hull[size++] = i;
+    }
+
+    final double[] values = new double[size];
+    for (int k = 0; k < size; k++) {
+      values[k] = bent[hull[k]];
+    }
+    final double[] baseline;
+    if (spline && size > 2) {
+      for (int k = 1; k < size - 1; k++) {
+        values[k] += noise;
+      }
+      baseline = new SmoothingSpline(hull, values, size).fit(df, n);
+    } else {
+      baseline = linearInterpolation(hull, values, size, n);
+    }
+    for (int i = 0; i < n; i++) {
+      baseline[i] -= bends[i];
+    }
+    return baseline;
+  }
+
+  /**
+   * @return the interval of the scan on the log scale of the 1 based scan numbers
+   */
+  private static int interval(int scan, double width, int intervals) {
+    if (width <= 0d) {
+      return 0;
+    }
+    final int interval = (int) Math.ceil(Math.log(scan + 1) / width) - 1;
+    return Math.max(0, Math.min(intervals - 1, interval));
+  }
+
+  /**
+   * Quantile of sorted values as the default (type 7) quantile of R.
+   */
+  static double quantile(@Nonnull double[] sorted, double probability) {
+    final double h = (sorted.length - 1) * probability;
+    final int lower = (int) Math.floor(h);
+    if (lower + 1 >= sorted.length) {
+      return sorted[sorted.length - 1];
+    }
+    return sorted[lower] + (h - lower) * (sorted[lower + 1] - sorted[lower]);
+  }
+
+  /**
+   * Local linear regression (loess of degree 1 without robustness iterations) of the support
+   * points, evaluated at all scans. Each fit uses the span * size nearest support points, but at
+   * least 3, with tricube weights. Spans above 1 enlarge the distances as in R.
+   *
+   * @param x the ascending scan indices of the support points
+   */
+  @Nonnull
+  static double[] loess(@Nonnull int[] x, @Nonnull double[] values, int size, double span, int n) {
+    final double[] fit = new double[n];
+    if (size == 1) {
+      Arrays.fill(fit, values[0]);
+      return fit;
+    }
+    final int q = Math.min(size, Math.max(3, (int) Math.floor(size * span)));
+    int from = 0;
+    for (int i = 0; i < n; i++) {
+      // slide the window of the q nearest support points
+      while (from + q < size && x[from + q] - i < i - x[from]) {
+        from++;
+      }
+      double maxDistance = Math.max(i - x[from], x[from + q - 1] - i);
+      if (span > 1d) {
+        maxDistance *= span;
+      }
+      double sw = 0;
+      double swx = 0;
+      double swy = 0;
+      double swxx = 0;
+      double swxy = 0;
+      for (int k = from; k < from + q; k++) {
+        final double dx = x[k] - i;
+        final double r = Math.abs(dx) / maxDistance;
+        if (r >= 1d) {
+          continue;
+        }
+        final double t = 1d - r * r * r;
+        final double w = t * t * t;
+        sw += w;
+        swx += w * dx;
+        swy += w * values[k];
+        swxx += w * dx * dx;
+        swxy += w * dx * values[k];
+      }
+      if (sw <= 0d) {
+        // two support points at the same distance
+        fit[i] = values[i - x[from] <= x[from + q - 1] - i ? from : from + q - 1];
+        continue;
+      }
+      final double det = sw * swxx - swx * swx;
+      // the intercept of the centered regression is the fit at scan i
+      fit[i] = det > 1e-12 * sw * swxx ? (swy * swxx - swx * swxy) / det : swy / sw;
+    }
+    return fit;
+  }
+
+  /**
+   * Linear interpolation of the support points at all scans, the values of the first and last
+   * support points are used outside of their range (as approx with rule 2 in R).
+   *
+   * @param x the ascending scan indices of the support points
+   */
+  @Nonnull
+  static double[] linearInterpolation(@Nonnull int[] x, @Nonnull double[] values, int size,
+      int n) {
+    final double[] result = new double[n];
+    int k = 0;
+    for (int i = 0; i < n; i++) {
+      while (k + 1 < size && x[k + 1] <= i) {
+        k++;
+      }
+      if (i <= x[0]) {
+        result[i] = values[0];
+      } else if (k == size - 1) {
+        result[i] = values[size - 1];
+      } else {
+        result[i] = values[k] + (values[k + 1] - values[k]) * (i - x[k]) / (x[k + 1] - x[k]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Robust noise level: the median absolute difference of consecutive scans, scaled to the standard
+   * deviation of normally distributed noise.
+   */
+  private static double noiseLevel(@Nonnull double[] y) {
+    final double[] differences = new double[y.length - 1];
+    for (int i = 0; i < differences.length; i++) {
+      differences[i] = Math.abs(y[i + 1] - y[i]);
+    }
+    Arrays.sort(differences);
+    return quantile(differences, 0.5) * 1.4826 / Math.sqrt(2d);
+  }
+
+  private static int nextWindow(int window, double multiplier) {
+    return (int) Math.min(Integer.MAX_VALUE,
+        Math.max(window + 1L, Math.round(window * multiplier)));
+  }
+
+  /**
+   * Replaces the peaks, which are the maxima of their window of 2 * halfWidth + 1 scans, by
+   * straight lines between the minima on both sides within the window. All peaks are found before
+   * the first one is removed.
+   */
+  private static void removePeaks(@Nonnull double[] y, int halfWidth, double minHeight) {
+    final int n = y.length;
+    final double[] maxima = movingExtremum(y, halfWidth, false);
+    final int[] starts = new int[n];
+    final int[] ends = new int[n];
+    int peaks = 0;
+    for (int i = 1; i < n - 1; i++) {
+      // the first scan of a plateau is the peak
+      if (y[i] < maxima[i] || y[i] == y[i - 1]) {
+        continue;
+      }
+      int start = i - 1;
+      for (int k = Math.max(0, i - halfWidth); k < i; k++) {
+        if (y[k] < y[start]) {
+          start = k;
+        }
+      }
+      int end = i + 1;
+      for (int k = i + 1; k <= Math.min(n - 1, i + halfWidth); k++) {
+        if (y[k] < y[end]) {
+          end = k;
+        }
+      }
+      final double height = y[i] - Math.max(y[start], y[end]);
+      if (height > 0d && height >= minHeight) {
+        starts[peaks] = start;
+        ends[peaks++] = end;
+      }
+    }
+    for (int p = 0; p < peaks; p++) {
+      final int start = starts[p];
+      final int end = ends[p];
+      for (int k = start + 1; k < end; k++) {
+        y[k] = y[start] + (y[end] - y[start]) * (k - start) / (end - start);
+      }
+    }
+  }
+
+  /**
+   * Moving minimum or maximum over 2 * halfWidth + 1 values in linear time, keeping the indices of
+   * the candidate extrema of the window in a primitive deque.
+   */
+  @Nonnull
+  static double[] movingExtremum(@Nonnull double[] y, int halfWidth, boolean minimum) {
+    final int n = y.length;
+    final double[] result = new double[n];
+    final int[] deque = new int[n];
+    int head = 0;
+    int tail = 0;
+    int next = 0;
+    for (int i = 0; i < n; i++) {
+      for (; next < n && next <= i + halfWidth; next++) {
+        while (tail > head && (minimum ? y[deque[tail - 1]] >= y[next]
+            : y[deque[tail - 1]] <= y[next])) {
+          tail--;
+        }
+        deque[tail++] = next;
+      }
+      while (deque[head] < i - halfWidth) {
+        head++;
+      }
+      result[i] = y[deque[head]];
+    }
+    return result;
+  }
+
+  /**
+   * Moving average over 2 * halfWidth + 1 values, truncated at both ends.
+   */
+  @Nonnull
+  static double[] movingAverage(@Nonnull double[] y, int halfWidth) {
+    final int n = y.length;
+    final double[] prefix = new double[n + 1];
+    for (int i = 0; i < n; i++) {
+      prefix[i + 1] = prefix[i] + y[i];
+    }
+    final double[] result = new double[n];
+    for (int i = 0; i < n; i++) {
+      final int from = Math.max(0, i - halfWidth);
+      final int to = Math.min(n, i + halfWidth + 1);
+      result[i] = (prefix[to] - prefix[from]) / (to - from);
+    }
+    return result;
+  }
+
+  /**
+   * Solves the weighted Whittaker smoother (W + lambda D'D) z = W y with second order differences
+   * D. The matrix is symmetric and pentadiagonal, so it is factorized as L D L' with a unit lower
+   * triangular L of band width 2 in linear time. The work arrays are reused between solves.
+   */
+  static final class PentadiagonalSolver {
+
+    private final int n;
+    // bands of D'D: 1 5 6 ... 6 5 1, -2 -4 ... -4 -2 and 1 ... 1
+    private final double[] penalty0;
+    private final double[] penalty1;
+    private final double[] penalty2;
+    // factorization
+    private final double[] diag;
+    private final double[] lower1;
+    private final double[] lower2;
+
+    PentadiagonalSolver(int n) {
+      this.n = n;
+      penalty0 = new double[n];
+      penalty1 = new double[n];
+      penalty2 = new double[n];
+      // every row of D is 1 -2 1
+      for (int r = 0; r + 2 < n; r++) {
+        penalty0[r] += 1d;
+        penalty0[r + 1] += 4d;
+        penalty0[r + 2] += 1d;
+        penalty1[r] -= 2d;
+        penalty1[r + 1] -= 2d;
+        penalty2[r] += 1d;
+      }
+      diag = new double[n];
+      lower1 = new double[n];
+      lower2 = new double[n];
+    }
+
+    @Nonnull
+    double[] whittaker(@Nonnull double[] y, @Nonnull double[] weights, double lambda) {
+      for (int i = 0; i < n; i++) {
+        double d = weights[i] + lambda * penalty0[i];
+        double l1 = lambda * penalty1[i];
+        if (i >= 1) {
+          d -= lower1[i - 1] * lower1[i - 1] * diag[i - 1];
+          l1 -= lower2[i - 1] * lower1[i - 1] * diag[i - 1];
+        }
+        if (i >= 2) {
+          d -= lower2[i - 2] * lower2[i - 2] * diag[i - 2];
+        }
+        diag[i] = d;
+        lower1[i] = l1 / d;
+        lower2[i] = lambda * penalty2[i] / d;
+      }
+      // forward and backward substitution
+      final double[] z = new double[n];
+      for (int i = 0; i < n; i++) {
+        double v = weights[i] * y[i];
+        if (i >= 1) {
+          v -= lower1[i - 1] * z[i - 1];
+        }
+        if (i >= 2) {
+          v -= lower2[i - 2] * z[i - 2];
+        }
+        z[i] = v;
+      }
+      for (int i = 0; i < n; i++) {
+        z[i] /= diag[i];
+      }
+      for (int i = n - 1; i >= 0; i--) {
+        if (i + 1 < n) {
+          z[i] -= lower1[i] * z[i + 1];
+        }
+        if (i + 2 < n) {
+          z[i] -= lower2[i] * z[i + 2];
+        }
+      }
+      return z;
+    }
+  }
+
+  /**
+   * Cubic smoothing spline with natural boundary conditions (Reinsch algorithm), which minimizes
+   * the sum of squared residuals plus lambda times the integral of the squared second derivative.
+   * The band matrices of the knots are set up once, every lambda is then solved in linear time.
+   */
+  static final class SmoothingSpline {
+
+    private final int[] x;
+    private final double[] values;
+    private final int size;
+    // inner knots, i.e., the columns of Q and the rows of R
+    private final int m;
+    // nonzero rows c, c + 1 and c + 2 of column c of Q
+    private final double[] q0;
+    private final double[] q1;
+    private final double[] q2;
+    // bands of R and Q'Q
+    private final double[] r0;
+    private final double[] r1;
+    private final double[] qq0;
+    private final double[] qq1;
+    private final double[] qq2;
+    private final double[] qty;
+    // factorization of R + lambda Q'Q
+    private final double[] diag;
+    private final double[] lower1;
+    private final double[] lower2;
+
+    /**
+     * @param x the ascending scan indices of the knots, at least 3
+     */
+    SmoothingSpline(@Nonnull int[] x, @Nonnull double[] values, int size) {
+      this.x = x;
+      this.values = values;
+      this.size = size;
+      m = size - 2;
+      q0 = new double[m];
+      q1 = new double[m];
+      q2 = new double[m];
+      r0 = new double[m];
+      r1 = new double[m];
+      for (int c = 0; c < m; c++) {
+        final double h0 = x[c + 1] - x[c];
+        final double h1 = x[c + 2] - x[c + 1];
+        q0[c] = 1d / h0;
+        q1[c] = -1d / h0 - 1d / h1;
+        q2[c] = 1d / h1;
+        r0[c] = (h0 + h1) / 3d;
+        r1[c] = h1 / 6d;
+      }
+      qq0 = new double[m];
+      qq1 = new double[m];
+      qq2 = new double[m];
+      qty = new double[m];
+      for (int c = 0; c < m; c++) {
+        qq0[c] = q0[c] * q0[c] + q1[c] * q1[c] + q2[c] * q2[c];
+        if (c + 1 < m) {
+          qq1[c] = q1[c] * q0[c + 1] + q2[c] * q1[c + 1];
+        }
+        if (c + 2 < m) {
+          qq2[c] = q2[c] * q0[c + 2];
+        }
+        qty[c] = q0[c] * values[c] + q1[c] * values[c + 1] + q2[c] * values[c + 2];
+      }
+      diag = new double[m];
+      lower1 = new double[m];
+      lower2 = new double[m];
+    }
+
+    /**
+     * Fits the spline with df degrees of freedom, or chosen by generalized cross validation if df
+     * is not above 1, and evaluates it at all scans.
+     */
+    @Nonnull
+    double[] fit(double df, int n) {
+      // lambda is searched on the log scale, from far below the cube of the smallest spacing (one
+      // scan) to far above the cube of the whole range
+      double low = -20d;
+      double high = 3 * Math.log(x[size - 1] - x[0]) + 20d;
+      final double lambda;
+      if (df >= size) {
+        lambda = 0d;
+      } else if (df > 1d) {
+        // the degrees of freedom decrease with lambda, from size to 2
+        for (int it = 0; it < 100 && high - low > 1e-9; it++) {
+          final double mid = (low + high) / 2d;
+          if (degreesOfFreedom(Math.exp(mid)) > df) {
+            low = mid;
+          } else {
+            high = mid;
+          }
+        }
+        lambda = Math.exp((low + high) / 2d);
+      } else {
+        // golden section search of the minimum
+        final double ratio = (Math.sqrt(5d) - 1d) / 2d;
+        double a = high - ratio * (high - low);
+        double b = low + ratio * (high - low);
+        double fa = crossValidation(Math.exp(a));
+        double fb = crossValidation(Math.exp(b));
+        for (int it = 0; it < 100 && high - low > 1e-6; it++) {
+          if (fa <= fb) {
+            high = b;
+            b = a;
+            fb = fa;
+            a = high - ratio * (high - low);
+            fa = crossValidation(Math.exp(a));
+          } else {
+            low = a;
+            a = b;
+            fa = fb;
+            b = low + ratio * (high - low);
+            fb = crossValidation(Math.exp(b));
+          }
+        }
+        lambda = Math.exp((low + high) / 2d);
+      }
+      return evaluate(lambda, n);
+    }
+
+    /**
+     * @return the trace of the hat matrix, size - lambda tr((R + lambda Q'Q)^-1 Q'Q)
+     */
+    double degreesOfFreedom(double lambda) {
+      factorize(lambda);
+      // band of the inverse (Hutchinson and de Hoog)
+      final double[] s0 = new double[m];
+      final double[] s1 = new double[m];
+      final double[] s2 = new double[m];
+      for (int i = m - 1; i >= 0; i--) {
+        if (i + 2 < m) {
+          s2[i] = -lower1[i] * s1[i + 1] - lower2[i] * s0[i + 2];
+        }
+        if (i + 1 < m) {
+          s1[i] = -lower1[i] * s0[i + 1] - lower2[i] * s1[i + 1];
+        }
+        s0[i] = 1d / diag[i] - lower1[i] * s1[i] - lower2[i] * s2[i];
+      }
+      double trace = 0;
+      for (int i = 0; i < m; i++) {
+        trace += s0[i] * qq0[i] + 2d * (s1[i] * qq1[i] + s2[i] * qq2[i]);
+      }
+      return size - lambda * trace;
+    }
+
+    private double crossValidation(double lambda) {
+      final double[] g = knotValues(lambda, solve(lambda));
+      double rss = 0;
+      for (int k = 0; k < size; k++) {
+        rss += (values[k] - g[k]) * (values[k] - g[k]);
+      }
+      final double residualDf = size - degreesOfFreedom(lambda);
+      return size * rss / (residualDf * residualDf);
+    }
+
+    /**
+     * @return the second derivatives at the inner knots
+     */
+    @Nonnull
+    private double[] solve(double lambda) {
+      factorize(lambda);
+      final double[] gamma = new double[m];
+      for (int i = 0; i < m; i++) {
+        double v = qty[i];
+        if (i >= 1) {
+          v -= lower1[i - 1] * gamma[i - 1];
+        }
+        if (i >= 2) {
+          v -= lower2[i - 2] * gamma[i - 2];
+        }
+        gamma[i] = v;
+      }
+      for (int i = 0; i < m; i++) {
+        gamma[i] /= diag[i];
+      }
+      for (int i = m - 1; i >= 0; i--) {
+        if (i + 1 < m) {
+          gamma[i] -= lower1[i] * gamma[i + 1];
+        }
+        if (i + 2 < m) {
+          gamma[i] -= lower2[i] * gamma[i + 2];
+        }
+      }
+      return gamma;
+    }
+
+    /**
+     * @return the values of the spline at the knots, values - lambda Q gamma
+     */
+    @Nonnull
+    private double[] knotValues(double lambda, @Nonnull double[] gamma) {
+      final double[] g = values.clone();
+      for (int c = 0; c < m; c++) {
+        g[c] -= lambda * q0[c] * gamma[c];
+        g[c + 1] -= lambda * q1[c] * gamma[c];
+        g[c + 2] -= lambda * q2[c] * gamma[c];
+      }
+      return g;
+    }
+
+    @Nonnull
+    private double[] evaluate(double lambda, int n) {
+      final double[] inner = solve(lambda);
+      final double[] g = knotValues(lambda, inner);
+      // natural spline: no curvature at the first and last knot
+      final double[] gamma = new double[size];
+      System.arraycopy(inner, 0, gamma, 1, m);
+
+      final double[] result = new double[n];
+      int k = 0;
+      for (int i = 0; i < n; i++) {
+        while (k + 2 < size && x[k + 1] <= i) {
+          k++;
+        }
+        if (i <= x[0]) {
+          result[i] = g[0];
+        } else if (i >= x[size - 1]) {
+          result[i] = g[size - 1];
+        } else {
+          final double h = x[k + 1] - x[k];
+          final double a = i - x[k];
+          final double b = x[k + 1] - i;
+          result[i] = (a * g[k + 1] + b * g[k]) / h
+              - a * b / 6d * ((1d + a / h) * gamma[k + 1] + (1d + b / h) * gamma[k]);
+        }
+      }
+      return result;
+    }
+
+    /**
+     * L D L' factorization of R + lambda Q'Q.
+     */
+    private void factorize(double lambda) {
+      for (int i = 0; i < m; i++) {
+        double d = r0[i] + lambda * qq0[i];
+        double l1 = r1[i] + lambda * qq1[i];
+        if (i >= 1) {
+          d -= lower1[i - 1] * lower1[i - 1] * diag[i - 1];
+          l1 -= lower2[i - 1] * lower1[i - 1] * diag[i - 1];
+        }
+        if (i >= 2) {
+          d -= lower2[i - 2] * lower2[i - 2] * diag[i - 2];
+        }
+        diag[i] = d;
+        lower1[i] = l1 / d;
+        lower2[i] = lambda * qq2[i] / d;
+      }
+    }
+  }
+}
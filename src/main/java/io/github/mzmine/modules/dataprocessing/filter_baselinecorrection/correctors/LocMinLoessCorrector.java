@@ -29,7 +29,8 @@ import io.github.mzmine.util.R.RSessionWrapperException;
 /**
  * @description Local Minima + LOESS (smoothed low-percentile intensity) baseline corrector. Uses
  *              "bslnoff" feature from "PROcess" R/Bioconductor package
- *              (http://bioconductor.org/packages/release/ bioc/manuals/PROcess/man/PROcess.pdf).
+ *              (http://bioconductor.org/packages/release/ bioc/manuals/PROcess/man/PROcess.pdf),
+ *              or the equivalent Java implementation.
  * 
  */
 public class LocMinLoessCorrector extends BaselineCorrector {
@@ -48,9 +49,6 @@ public class LocMinLoessCorrector extends BaselineCorrector {
     // Local Minima parameters.
     String method = parameters.getParameter(LocMinLoessCorrectorParameters.METHOD).getValue();
     double bw = parameters.getParameter(LocMinLoessCorrectorParameters.BW).getValue();
-    int breaks = parameters.getParameter(LocMinLoessCorrectorParameters.BREAKS).getValue();
-    int breaks_width =
-        parameters.getParameter(LocMinLoessCorrectorParameters.BREAK_WIDTH).getValue();
     double qntl = parameters.getParameter(LocMinLoessCorrectorParameters.QNTL).getValue();
 
     final double[] baseline;
@@ -63,9 +61,7 @@ public class LocMinLoessCorrector extends BaselineCorrector {
     rSession.eval("mat <- cbind(matrix(seq(" + ((double) mini) + ", " + ((double) maxi)
         + ", by = 1.0), ncol=1), " + "matrix(chromatogram[" + mini + ":" + maxi + "], ncol=1))");
     // Breaks
-    rSession.eval("breaks <- "
-        + ((breaks_width > 0) ? (int) Math.round((double) (maxi - mini) / (double) breaks_width)
-            : breaks));
+    rSession.eval("breaks <- " + getBreaks(chromatogram, parameters));
     // Calculate baseline.
     // + Seems like "loess" method doesn't support "bw=0.0"
     rSession.eval("bseoff <- bslnoff(mat, method=\"" + method + "\", bw="
@@ -79,6 +75,28 @@ public class LocMinLoessCorrector extends BaselineCorrector {
     return baseline;
   }
 
+  @Override
+  public double[] computeBaseline(double[] chromatogram, ParameterSet parameters) {
+    final String method = parameters.getParameter(LocMinLoessCorrectorParameters.METHOD).getValue();
+    final double bw = parameters.getParameter(LocMinLoessCorrectorParameters.BW).getValue();
+    final double qntl = parameters.getParameter(LocMinLoessCorrectorParameters.QNTL).getValue();
+    final boolean loess = !method.equals("approx");
+    return BaselineAlgorithms.localMinimaLoess(chromatogram, getBreaks(chromatogram, parameters),
+        qntl, loess, loess ? Math.max(bw, BW_MIN_VAL) : bw);
+  }
+
+  /**
+   * @return the number of breaks, given directly or by the break width
+   */
+  private static int getBreaks(double[] chromatogram, ParameterSet parameters) {
+    final int breaks = parameters.getParameter(LocMinLoessCorrectorParameters.BREAKS).getValue();
+    final int breaksWidth =
+        parameters.getParameter(LocMinLoessCorrectorParameters.BREAK_WIDTH).getValue();
+    return breaksWidth > 0
+        ? (int) Math.round((double) (chromatogram.length - 1) / (double) breaksWidth)
+        : breaks;
+  }
+
   @Override
   public @Nonnull String getName() {
     return "Local minima + LOESS baseline corrector";
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.correctors;
+
+import javax.annotation.Nonnull;
+
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.BaselineCorrector;
+import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.util.R.RSessionWrapper;
+import io.github.mzmine.util.R.RSessionWrapperException;
+
+/**
+ * @description Median baseline corrector. Estimates a trend as the running median of the
+ *              chromatogram. Uses "runmed" feature from "stats" R-package with endrule "constant",
+ *              or the equivalent Java implementation.
+ *
+ */
+public class MedianCorrector extends BaselineCorrector {
+
+  @Override
+  public String[] getRequiredRPackages() {
+    return new String[] {};
+  }
+
+  @Override
+  public double[] computeBaseline(final RSessionWrapper rSession, final RawDataFile origDataFile,
+      double[] chromatogram, ParameterSet parameters) throws RSessionWrapperException {
+
+    final int halfWidth = parameters.getParameter(MedianCorrectorParameters.HALF_WIDTH).getValue();
+    // runmed shrinks too large windows as well, but with a warning.
+    final int k = 2 * Math.max(0, Math.min(halfWidth, (chromatogram.length - 1) / 2)) + 1;
+
+    final double[] baseline;
+
+    // Set chromatogram.
+    rSession.assign("chromatogram", chromatogram);
+    // Calculate baseline.
+    rSession.eval("baseline <- as.numeric(runmed(chromatogram, " + k + ", endrule=\"constant\"))");
+    baseline = (double[]) rSession.collect("baseline");
+    // Done: Refresh R code stack
+    rSession.clearCode();
+
+    return baseline;
+  }
+
+  @Override
+  public double[] computeBaseline(double[] chromatogram, ParameterSet parameters) {
+    final int halfWidth = parameters.getParameter(MedianCorrectorParameters.HALF_WIDTH).getValue();
+    return BaselineAlgorithms.runningMedian(chromatogram, halfWidth);
+  }
+
+  @Override
+  public @Nonnull String getName() {
+    return "Median baseline corrector";
+  }
+
+  @Override
+  public @Nonnull Class<? extends ParameterSet> getParameterSetClass() {
+    return MedianCorrectorParameters.class;
+  }
+
+}
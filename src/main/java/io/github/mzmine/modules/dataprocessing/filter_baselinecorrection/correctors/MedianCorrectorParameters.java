@@ -0,0 +1,53 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.correctors;
+
+import io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.BaselineCorrectorSetupDialog;
+import io.github.mzmine.parameters.UserParameter;
+import io.github.mzmine.parameters.impl.SimpleParameterSet;
+import io.github.mzmine.parameters.parametertypes.IntegerParameter;
+import io.github.mzmine.util.ExitCode;
+
+/**
+ * @description Median baseline corrector parameters.
+ *
+ */
+public class MedianCorrectorParameters extends SimpleParameterSet {
+
+  /**
+   * Median window.
+   */
+  public static final IntegerParameter HALF_WIDTH = new IntegerParameter(
+      "Half window width (number of scans)",
+      "The median is taken over 2 * half width + 1 scans, which should be wider than the peaks.",
+      50, 0, null);
+
+  public MedianCorrectorParameters() {
+    super(new UserParameter[] {HALF_WIDTH});
+  }
+
+  @Override
+  public ExitCode showSetupDialog(boolean valueCheckRequired) {
+    BaselineCorrectorSetupDialog dialog =
+        new BaselineCorrectorSetupDialog(valueCheckRequired, this, MedianCorrector.class);
+    dialog.showAndWait();
+    return dialog.getExitCode();
+  }
+}
@@ -33,6 +33,7 @@ import io.github.mzmine.util.R.RSessionWrapperException;
  *              "peakDetection" feature from "baseline" R-package
  *              (http://cran.r-project.org/web/packages/baseline/baseline.pdf). (A translation from
  *              Kevin R. Coombes et al.'s MATLAB code for detecting peaks and removing baselines).
+ *              The Java implementation follows the same steps.
  * 
  */
 public class PeakDetectionCorrector extends BaselineCorrector {
@@ -90,6 +91,21 @@ public class PeakDetectionCorrector extends BaselineCorrector {
     return baseline;
   }
 
+  @Override
+  public double[] computeBaseline(double[] chromatogram, ParameterSet parameters) {
+    final int left = parameters.getParameter(PeakDetectionCorrectorParameters.LEFT).getValue();
+    final int right = parameters.getParameter(PeakDetectionCorrectorParameters.RIGHT).getValue();
+    final int lwin = parameters.getParameter(PeakDetectionCorrectorParameters.LWIN).getValue();
+    final int rwin = parameters.getParameter(PeakDetectionCorrectorParameters.RWIN).getValue();
+    final double snminimum =
+        parameters.getParameter(PeakDetectionCorrectorParameters.SNMINIMUM).getValue();
+    final double mono = parameters.getParameter(PeakDetectionCorrectorParameters.MONO).getValue();
+    final double multiplier =
+        parameters.getParameter(PeakDetectionCorrectorParameters.MULTIPLIER).getValue();
+    return BaselineAlgorithms.peakDetection(chromatogram, left, right, lwin, rwin, snminimum,
+        mono > 0, multiplier);
+  }
+
   @Override
   public @Nonnull String getName() {
     return "PeakDetection baseline corrector";
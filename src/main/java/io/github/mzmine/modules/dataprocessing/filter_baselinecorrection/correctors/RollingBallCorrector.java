@@ -82,6 +82,13 @@ public class RollingBallCorrector extends BaselineCorrector {
     return baseline;
   }
 
+  @Override
+  public double[] computeBaseline(double[] chromatogram, ParameterSet parameters) {
+    final int wm = parameters.getParameter(RollingBallCorrectorParameters.MIN_MAX_WIDTH).getValue();
+    final int ws = parameters.getParameter(RollingBallCorrectorParameters.SMOOTHING).getValue();
+    return BaselineAlgorithms.rollingBall(chromatogram, wm, ws);
+  }
+
   @Override
   public @Nonnull String getName() {
     return "RollingBall baseline corrector";
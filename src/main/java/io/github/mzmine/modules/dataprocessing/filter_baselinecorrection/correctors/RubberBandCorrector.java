@@ -18,6 +18,7 @@
 
 package io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.correctors;
 
+import java.util.Arrays;
 import javax.annotation.Nonnull;
 
 import io.github.mzmine.datamodel.RawDataFile;
@@ -30,7 +31,8 @@ import io.github.mzmine.util.R.RSessionWrapperException;
  * @description Rubber Band baseline corrector. Estimates a trend based on Rubber Band algorithm
  *              (which determines a convex envelope for the spectra - underneath side). Uses
  *              "spc.rubberband" feature from "hyperSpec" R-package
- *              (http://cran.r-project.org/web/packages /hyperSpec/vignettes/baseline.pdf).
+ *              (http://cran.r-project.org/web/packages /hyperSpec/vignettes/baseline.pdf), or the
+ *              equivalent Java implementation.
  * 
  */
 public class RubberBandCorrector extends BaselineCorrector {
@@ -80,6 +82,19 @@ public class RubberBandCorrector extends BaselineCorrector {
     return baseline;
   }
 
+  @Override
+  public double[] computeBaseline(double[] chromatogram, ParameterSet parameters) {
+    final double noise = parameters.getParameter(RubberBandCorrectorParameters.NOISE).getValue();
+    final boolean autoNoise =
+        parameters.getParameter(RubberBandCorrectorParameters.AUTO_NOISE).getValue();
+    final double df = parameters.getParameter(RubberBandCorrectorParameters.DF).getValue();
+    final boolean spline = parameters.getParameter(RubberBandCorrectorParameters.SPLINE).getValue();
+    final double bend =
+        parameters.getParameter(RubberBandCorrectorParameters.BEND_FACTOR).getValue();
+    return BaselineAlgorithms.rubberBand(chromatogram,
+        autoNoise ? Arrays.stream(chromatogram).min().orElse(0d) : noise, df, spline, bend);
+  }
+
   @Override
   public @Nonnull String getName() {
     return "RubberBand baseline corrector";
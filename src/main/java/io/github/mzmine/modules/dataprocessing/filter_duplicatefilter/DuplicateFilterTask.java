@@ -22,11 +22,14 @@ import io.github.mzmine.datamodel.features.Feature;
 import io.github.mzmine.datamodel.features.FeatureList;
 import io.github.mzmine.datamodel.features.FeatureList.FeatureListAppliedMethod;
 import io.github.mzmine.datamodel.features.FeatureListRow;
+import io.github.mzmine.datamodel.features.FeatureListRowIndex;
 import io.github.mzmine.datamodel.features.ModularFeature;
 import io.github.mzmine.datamodel.features.ModularFeatureList;
 import io.github.mzmine.datamodel.features.ModularFeatureListRow;
 import io.github.mzmine.datamodel.features.SimpleFeatureListAppliedMethod;
 import io.github.mzmine.util.FeatureListRowSorter;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
 import io.github.mzmine.util.FeatureUtils;
 import io.github.mzmine.util.MemoryMapStorage;
 import java.util.Arrays;
@@ -163,6 +166,10 @@ public class DuplicateFilterTask extends AbstractTask {
 
     // filter by average mz and rt
     boolean filterByAvgRTMZ = !mode.equals(FilterMode.SINGLE_FEATURE);
+    // candidates for average m/z and rt are found in an index of the rows
+    final FeatureListRowIndex rowIndex =
+        filterByAvgRTMZ ? new FeatureListRowIndex(Arrays.asList(peakListRows)) : null;
+    final IntArrayList candidates = new IntArrayList();
 
     // Loop through all feature list rows
     processedRows = 0;
@@ -176,33 +183,32 @@ public class DuplicateFilterTask extends AbstractTask {
         // copy first row
         ModularFeatureListRow firstRow = new ModularFeatureListRow(newPeakList, mainRow, true);
 
-        for (int secondRowIndex = firstRowIndex + 1; !isCanceled()
-            && secondRowIndex < rowCount; secondRowIndex++) {
-
-          final FeatureListRow secondRow = peakListRows[secondRowIndex];
-          if (secondRow != null) {
-            // Compare identifications
-            final boolean sameID =
-                !requireSameId || FeatureUtils.compareIdentities(firstRow, secondRow);
-
-            boolean sameMZRT = filterByAvgRTMZ ? // average or
-                                                 // single feature
-                checkSameAverageRTMZ(firstRow, secondRow, mzTolerance, rtTolerance)
-                : checkSameSingleFeatureRTMZ(rawFiles, firstRow, secondRow, mzTolerance,
-                    rtTolerance);
-
-            // Duplicate peaks?
-            if (sameID && sameMZRT) {
-              // create consensus row in new filter
-              if (!mode.equals(FilterMode.OLD_AVERAGE)) {
+        if (filterByAvgRTMZ) {
+          n += removeAverageDuplicates(newPeakList, rawFiles, peakListRows, rowIndex, candidates,
+              firstRowIndex, firstRow, mzTolerance, rtTolerance, requireSameId, mode);
+        } else {
+          for (int secondRowIndex = firstRowIndex + 1; !isCanceled()
+              && secondRowIndex < rowCount; secondRowIndex++) {
+
+            final FeatureListRow secondRow = peakListRows[secondRowIndex];
+            if (secondRow != null) {
+              // Compare identifications
+              final boolean sameID =
+                  !requireSameId || FeatureUtils.compareIdentities(firstRow, secondRow);
+
+              boolean sameMZRT = checkSameSingleFeatureRTMZ(rawFiles, firstRow, secondRow,
+                  mzTolerance, rtTolerance);
+
+              // Duplicate peaks?
+              if (sameID && sameMZRT) {
                 // copy all detected features of row2 into row1
                 // to exchange gap-filled against detected
                 // features
                 createConsensusFirstRow(newPeakList, rawFiles, firstRow, secondRow);
+                // second row deleted
+                n++;
+                peakListRows[secondRowIndex] = null;
               }
-              // second row deleted
-              n++;
-              peakListRows[secondRowIndex] = null;
             }
           }
         }
@@ -229,6 +235,72 @@ public class DuplicateFilterTask extends AbstractTask {
     return newPeakList;
   }
 
+  /**
+   * Removes all following rows that share the same average m/z and rt with the first row. Only the
+   * rows within the m/z and rt tolerance of the first row are compared, in the same order as the
+   * rows array. If a duplicate changes the averages of the first row, the candidates are searched
+   * again with the new averages.
+   *
+   * @return the number of removed rows
+   */
+  private int removeAverageDuplicates(ModularFeatureList newPeakList, RawDataFile[] rawFiles,
+      ModularFeatureListRow[] peakListRows, FeatureListRowIndex rowIndex,
+      IntArrayList candidates, int firstRowIndex, ModularFeatureListRow firstRow,
+      MZTolerance mzTolerance, RTTolerance rtTolerance, boolean requireSameId,
+      FilterMode mode) {
+    int removed = 0;
+    // last compared row
+    int cursor = firstRowIndex;
+    boolean changed = true;
+    while (changed && !isCanceled()) {
+      changed = false;
+
+      final double mz = firstRow.getAverageMZ();
+      final float rt = firstRow.getAverageRT();
+      final int lastCompared = cursor;
+      candidates.clear();
+      rowIndex.forEachPosition(mzTolerance.getToleranceRange(mz),
+          rtTolerance.getToleranceRange(rt), null, position -> {
+            if (position > lastCompared && peakListRows[position] != null) {
+              candidates.add(position);
+            }
+          });
+      IntArrays.quickSort(candidates.elements(), 0, candidates.size());
+
+      for (int i = 0; i < candidates.size(); i++) {
+        final int secondRowIndex = candidates.getInt(i);
+        final FeatureListRow secondRow = peakListRows[secondRowIndex];
+        cursor = secondRowIndex;
+
+        // Compare identifications
+        final boolean sameID =
+            !requireSameId || FeatureUtils.compareIdentities(firstRow, secondRow);
+
+        // Duplicate peaks?
+        if (sameID && checkSameAverageRTMZ(firstRow, secondRow, mzTolerance, rtTolerance)) {
+          // create consensus row in new filter
+          if (!mode.equals(FilterMode.OLD_AVERAGE)) {
+            // copy all detected features of row2 into row1
+            // to exchange gap-filled against detected
+            // features
+            createConsensusFirstRow(newPeakList, rawFiles, firstRow, secondRow);
+          }
+          // second row deleted
+          removed++;
+          peakListRows[secondRowIndex] = null;
+
+          // the averages of the first row may have changed
+          if (Double.compare(mz, firstRow.getAverageMZ()) != 0
+              || Float.compare(rt, firstRow.getAverageRT()) != 0) {
+            changed = true;
+            break;
+          }
+        }
+      }
+    }
+    return removed;
+  }
+
   /**
    * Turns firstRow to consensus row. With all features with highest FeatureStatus:
    * DETECTED>ESTIMATED>UNKNOWN Or the highest feature when comparing two ESTIMATED features
@@ -39,7 +39,6 @@ import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
-import io.github.mzmine.util.scans.ScanUtils;
 import io.github.mzmine.util.scans.SpectraMerging;
 import io.github.mzmine.util.scans.SpectraMerging.MergingType;
 import java.util.ArrayList;
@@ -149,7 +148,8 @@ public class GroupMS2Task extends AbstractTask {
         double fmz = f.getMZ();
         Range<Float> rtRange = f.getRawDataPointsRTRange();
 
-        List<Scan> scans = ScanUtils.streamScans(raw, 2)
+        List<Scan> scans = raw.getFragmentScanIndex()
+            .getScans(2, rtTol.getToleranceRange(frt), mzTol.getToleranceRange(fmz)).stream()
             .filter(scan -> filterScan(scan, frt, fmz, rtRange)).collect(
                 Collectors.toList());
 
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package io.github.mzmine.modules.dataprocessing.filter_isotopegrouper;
+
+import io.github.mzmine.datamodel.features.FeatureListRow;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance;
+import io.github.mzmine.parameters.parametertypes.tolerances.mobilitytolerance.MobilityTolerance;
+import io.github.mzmine.util.IndexSort;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Fits isotope patterns around the rows of a feature list. The rows are kept in arrays sorted by
+ * m/z, so the candidates of every isotope are found by binary search instead of checking all
+ * remaining rows. Grouped rows are marked as removed in a bit set.
+ * <p>
+ * The rows are identified by their index in the list given to the constructor. Candidates are
+ * returned in the order of this list, so the patterns are the same as when checking the rows one
+ * after another.
+ */
+class IsotopeGrouper {
+
+  /**
+   * The isotopeDistance constant defines expected distance between isotopes. Actual weight of 1
+   * neutron is 1.008665 Da, but part of this mass is consumed as binding energy to other
+   * protons/neutrons. Actual mass increase of isotopes depends on chemical formula of the molecule.
+   * Since we don't know the formula, we can assume the distance to be ~1.0033 Da, with user-defined
+   * tolerance.
+   */
+  private static final double isotopeDistance = 1.0033;
+
+  private final FeatureListRow[] rows;
+  private final Map<FeatureListRow, Integer> indices;
+  private final float[] rts;
+  private final Float[] mobilities;
+  // row indices and m/z values sorted by m/z
+  private final int[] mzOrder;
+  private final double[] sortedMzs;
+  private final BitSet removed;
+  // no row before this index is left
+  private int firstClearRow = 0;
+
+  private final MZTolerance mzTolerance;
+  private final RTTolerance rtTolerance;
+  private final MobilityTolerance mobilityTolerance;
+  private final boolean monotonicShape;
+  private final boolean parallel;
+
+  /**
+   * @param rows              the rows in the order in which they are grouped
+   * @param mobilityTolerance the mobility tolerance or null, if the mobility is not checked
+   * @param parallel          fit the patterns of different charges in parallel
+   */
+  IsotopeGrouper(@Nonnull List<FeatureListRow> rows, @Nonnull MZTolerance mzTolerance,
+      @Nonnull RTTolerance rtTolerance, @Nullable MobilityTolerance mobilityTolerance,
+      boolean monotonicShape, boolean parallel) {
+    this.rows = rows.toArray(new FeatureListRow[0]);
+    this.mzTolerance = mzTolerance;
+    this.rtTolerance = rtTolerance;
+    this.mobilityTolerance = mobilityTolerance;
+    this.monotonicShape = monotonicShape;
+    this.parallel = parallel;
+
+    final int numRows = this.rows.length;
+    indices = new IdentityHashMap<>(numRows);
+    rts = new float[numRows];
+    mobilities = new Float[numRows];
+    final double[] mzs = new double[numRows];
+    for (int i = 0; i < numRows; i++) {
+      indices.put(this.rows[i], i);
+      mzs[i] = this.rows[i].getAverageMZ();
+      rts[i] = this.rows[i].getAverageRT();
+      mobilities[i] = this.rows[i].getAverageMobility();
+    }
+
+    mzOrder = IndexSort.sort(mzs, true);
+    sortedMzs = new double[numRows];
+    for (int i = 0; i < numRows; i++) {
+      sortedMzs[i] = mzs[mzOrder[i]];
+    }
+    removed = new BitSet(numRows);
+  }
+
+  /**
+   * @return the index of the first row that was not removed or -1, if all rows were removed
+   */
+  int nextRow() {
+    // removed rows are never restored, so the search continues after the last clear bit
+    firstClearRow = removed.nextClearBit(firstClearRow);
+    return firstClearRow < rows.length ? firstClearRow : -1;
+  }
+
+  @Nonnull
+  FeatureListRow getRow(int index) {
+    return rows[index];
+  }
+
+  /**
+   * Marks a row as grouped, so it is no longer a candidate for other patterns.
+   */
+  void remove(@Nonnull FeatureListRow row) {
+    final Integer index = indices.get(row);
+    if (index != null) {
+      removed.set(index);
+    }
+  }
+
+  /**
+   * Fits the isotope patterns of all charges around a row.
+   *
+   * @return for every charge, the row followed by the rows of its pattern
+   */
+  @Nonnull
+  List<List<FeatureListRow>> fitPatterns(int index, @Nonnull int[] charges) {
+    final List<List<FeatureListRow>> patterns = new ArrayList<>(charges.length);
+    if (!parallel || charges.length < 2) {
+      for (int charge : charges) {
+        patterns.add(fitPattern(index, charge));
+      }
+      return patterns;
+    }
+
+    final List<Future<List<FeatureListRow>>> tasks = new ArrayList<>(charges.length);
+    for (int i = 1; i < charges.length; i++) {
+      final int charge = charges[i];
+      tasks.add(ForkJoinPool.commonPool().submit(() -> fitPattern(index, charge)));
+    }
+    patterns.add(fitPattern(index, charges[0]));
+    try {
+      for (Future<List<FeatureListRow>> task : tasks) {
+        patterns.add(task.get());
+      }
+    } catch (InterruptedException | ExecutionException e) {
+      throw new IllegalStateException("Cannot fit the isotope patterns", e);
+    }
+    return patterns;
+  }
+
+  /**
+   * Fits isotope pattern around one row.
+   *
+   * @param index  Pattern is fitted around this row
+   * @param charge Charge state of the fitted pattern
+   * @return the row followed by the rows of its pattern
+   */
+  @Nonnull
+  private List<FeatureListRow> fitPattern(int index, int charge) {
+    final List<FeatureListRow> fittedRows = new ArrayList<>();
+    fittedRows.add(rows[index]);
+    if (charge == 0) {
+      return fittedRows;
+    }
+
+    // Search for peaks before the start peak
+    if (!monotonicShape) {
+      fitHalfPattern(index, charge, -1, fittedRows);
+    }
+
+    // Search for peaks after the start peak
+    fitHalfPattern(index, charge, 1, fittedRows);
+    return fittedRows;
+  }
+
+  /**
+   * Helper method for fitPattern. Fits only one half of the pattern.
+   *
+   * @param index      Pattern is fitted around this row
+   * @param charge     Charge state of the fitted pattern
+   * @param direction  Defines which half to fit: -1=fit to peaks before start M/Z, +1=fit to peaks
+   *                   after start M/Z
+   * @param fittedRows All matching rows will be added to this list
+   */
+  private void fitHalfPattern(int index, int charge, int direction,
+      List<FeatureListRow> fittedRows) {
+
+    // Use M/Z and RT of the strongest peak of the pattern (row)
+    final double mainMZ = rows[index].getAverageMZ();
+    final float mainRT = rts[index];
+    final Float mainMobility = mobilities[index];
+
+    // The tolerance is applied to the shifted m/z of the candidate, so the
+    // search window is wider and the candidates are checked exactly below
+    final double searchTolerance =
+        2 * mzTolerance.getMzToleranceForMass(Math.abs(mainMZ)) + 1E-9 * (1 + Math.abs(mainMZ));
+
+    // Variable n is the number of peak we are currently searching. 1=first
+    // peak before/after start peak, 2=peak before/after previous, 3=...
+    int n = 1;
+    while (true) {
+      final double expectedMZ = mainMZ + isotopeDistance * direction * n / charge;
+      final double maxMZ = expectedMZ + searchTolerance;
+
+      // Collect the candidates for the n:th peak in the pattern
+      final List<Integer> goodCandidates = new ArrayList<>();
+      for (int i = firstIndex(expectedMZ - searchTolerance);
+          i < sortedMzs.length && sortedMzs[i] <= maxMZ; i++) {
+        final int candidate = mzOrder[i];
+        if (removed.get(candidate)) {
+          continue;
+        }
+
+        // Does this peak fill all requirements of a candidate?
+        // - within tolerances from the expected location (M/Z and RT)
+        double isotopeMZ = sortedMzs[i] - isotopeDistance * direction * n / charge;
+        if (!mzTolerance.checkWithinTolerance(isotopeMZ, mainMZ)
+            || !rtTolerance.checkWithinTolerance(rts[candidate], mainRT)) {
+          continue;
+        }
+        final Float candidateMobility = mobilities[candidate];
+        if (mobilityTolerance != null && mainMobility != null && candidateMobility != null
+            && !mobilityTolerance.checkWithinTolerance(mainMobility, candidateMobility)) {
+          continue;
+        }
+        goodCandidates.add(candidate);
+      }
+
+      // Add all good candidates to the isotope pattern (note: in MZmine
+      // 2.3 and older, only the highest candidate was added)
+      if (goodCandidates.isEmpty()) {
+        return;
+      }
+      goodCandidates.sort(null);
+      for (int candidate : goodCandidates) {
+        fittedRows.add(rows[candidate]);
+      }
+
+      // n:th peak was found, so let's move on to n+1
+      n++;
+    }
+  }
+
+  /**
+   * @return the index of the first m/z value that is at least mz
+   */
+  private int firstIndex(double mz) {
+    int low = 0;
+    int high = sortedMzs.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (sortedMzs[mid] < mz) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+}
@@ -53,15 +53,6 @@ class IsotopeGrouperTask extends AbstractTask {
 
   private final Logger logger = Logger.getLogger(this.getClass().getName());
 
-  /**
-   * The isotopeDistance constant defines expected distance between isotopes. Actual weight of 1
-   * neutron is 1.008665 Da, but part of this mass is consumed as binding energy to other
-   * protons/neutrons. Actual mass increase of isotopes depends on chemical formula of the molecule.
-   * Since we don't know the formula, we can assume the distance to be ~1.0033 Da, with user-defined
-   * tolerance.
-   */
-  private static final double isotopeDistance = 1.0033;
-
   private final MZmineProject project;
   private final ModularFeatureList featureList;
 
@@ -160,29 +151,27 @@ class IsotopeGrouperTask extends AbstractTask {
     // Loop through all peaks
     totalRows = sortedRows.size();
 
-    while (!sortedRows.isEmpty()) {
+    // Evaluating the charges in parallel only pays off for more than one charge
+    IsotopeGrouper grouper = new IsotopeGrouper(sortedRows, mzTolerance, rtTolerance,
+        useMobilityTolerance ? mobilityTolerance : null, monotonicShape, charges.length > 1);
+
+    for (int rowIndex = grouper.nextRow(); rowIndex != -1; rowIndex = grouper.nextRow()) {
 
       if (isCanceled()) {
         return;
       }
 
-      ModularFeatureListRow row = (ModularFeatureListRow) sortedRows.get(0);
-
-      // Check if peak was already deleted
-      if (row == null) {
-        processedRows++;
-        continue;
-      }
+      ModularFeatureListRow row = (ModularFeatureListRow) grouper.getRow(rowIndex);
 
       // Check which charge state fits best around this peak
       int bestFitCharge = 0;
       int bestFitScore = -1;
       List<FeatureListRow> bestFitRows = null;
-      for (int charge : charges) {
+      List<List<FeatureListRow>> fits = grouper.fitPatterns(rowIndex, charges);
+      for (int i = 0; i < charges.length; i++) {
 
-        List<FeatureListRow> fittedRows = new ArrayList<>();
-        fittedRows.add(row);
-        fitPattern(fittedRows, row, charge, sortedRows);
+        int charge = charges[i];
+        List<FeatureListRow> fittedRows = fits.get(i);
 
         int score = fittedRows.size();
         if ((score > bestFitScore) || ((score == bestFitScore) && (bestFitCharge > charge))) {
@@ -199,7 +188,7 @@ class IsotopeGrouperTask extends AbstractTask {
       // isotope, we skip this left the original peak in the feature list.
       if (bestFitRows.size() == 1) {
         deisotopedFeatureList.addRow(new ModularFeatureListRow(deisotopedFeatureList, row, true));
-        sortedRows.remove(bestFitRows.get(0));
+        grouper.remove(bestFitRows.get(0));
         processedRows++;
         continue;
       }
@@ -238,7 +227,7 @@ class IsotopeGrouperTask extends AbstractTask {
 
       // Remove all peaks already assigned to isotope pattern
       for (FeatureListRow fit : bestFitRows) {
-        sortedRows.remove(fit);
+        grouper.remove(fit);
       }
 
       // Update completion rate
@@ -267,105 +256,4 @@ class IsotopeGrouperTask extends AbstractTask {
     setStatus(TaskStatus.FINISHED);
   }
 
-  /**
-   * Fits isotope pattern around one peak.
-   *
-   * @param row    Pattern is fitted around this peak
-   * @param charge Charge state of the fitted pattern
-   */
-  private void fitPattern(List<FeatureListRow> fittedRows, ModularFeatureListRow row, int charge,
-      List<FeatureListRow> sortedRows) {
-
-    if (charge == 0) {
-      return;
-    }
-
-    // Search for peaks before the start peak
-    if (!monotonicShape) {
-      fitHalfPattern(row, charge, -1, fittedRows, sortedRows);
-    }
-
-    // Search for peaks after the start peak
-    fitHalfPattern(row, charge, 1, fittedRows, sortedRows);
-  }
-
-  /**
-   * Helper method for fitPattern. Fits only one half of the pattern.
-   *
-   * @param row        Pattern is fitted around this peak
-   * @param charge     Charge state of the fitted pattern
-   * @param direction  Defines which half to fit: -1=fit to peaks before start M/Z, +1=fit to peaks
-   *                   after start M/Z
-   * @param fittedRows All matching peaks will be added to this set
-   */
-  private void fitHalfPattern(ModularFeatureListRow row, int charge, int direction,
-      List<FeatureListRow> fittedRows,
-      List<FeatureListRow> sortedRows) {
-
-    // Use M/Z and RT of the strongest peak of the pattern (row)
-    double mainMZ = row.getAverageMZ();
-    float mainRT = row.getAverageRT();
-    Float mainMobility = row.getAverageMobility();
-
-    // Variable n is the number of peak we are currently searching. 1=first
-    // peak before/after start peak, 2=peak before/after previous, 3=...
-    boolean followingPeakFound;
-    int n = 1;
-    do {
-
-      // Assume we don't find match for n:th peak in the pattern (which
-      // will end the loop)
-      followingPeakFound = false;
-
-      // Loop through all peaks, and collect candidates for the n:th peak
-      // in the pattern
-      List<FeatureListRow> goodCandidates = new ArrayList<>();
-      for (int ind = 0; ind < sortedRows.size(); ind++) {
-
-        ModularFeatureListRow candidatePeak = (ModularFeatureListRow) sortedRows.get(ind);
-
-        if (candidatePeak == null) {
-          continue;
-        }
-
-        // Get properties of the candidate peak
-        double candidatePeakMZ = candidatePeak.getAverageMZ();
-        float candidatePeakRT = candidatePeak.getAverageRT();
-        Float candidateMobility = candidatePeak.getAverageMobility();
-
-        // Does this peak fill all requirements of a candidate?
-        // - within tolerances from the expected location (M/Z and RT)
-        // - not already a fitted peak (only necessary to avoid
-        // conflicts when parameters are set too wide)
-        double isotopeMZ = candidatePeakMZ - isotopeDistance * direction * n / charge;
-
-        if (mzTolerance.checkWithinTolerance(isotopeMZ, mainMZ)
-            && rtTolerance.checkWithinTolerance(candidatePeakRT, mainRT)) {
-
-          if (useMobilityTolerance && mainMobility != null && candidateMobility != null) {
-            if (mobilityTolerance.checkWithinTolerance(mainMobility, candidateMobility)) {
-              goodCandidates.add(candidatePeak);
-            }
-          } else {
-            goodCandidates.add(candidatePeak);
-          }
-
-        }
-
-      }
-
-      // Add all good candidates to the isotope pattern (note: in MZmine
-      // 2.3 and older, only the highest candidate was added)
-      if (!goodCandidates.isEmpty()) {
-
-        fittedRows.addAll(goodCandidates);
-
-        // n:th peak was found, so let's move on to n+1
-        n++;
-        followingPeakFound = true;
-      }
-
-    } while (followingPeakFound);
-  }
-
 }
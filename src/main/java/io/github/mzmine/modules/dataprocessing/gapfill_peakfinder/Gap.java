@@ -27,10 +27,7 @@ import io.github.mzmine.datamodel.features.FeatureListRow;
 import io.github.mzmine.datamodel.features.ModularFeature;
 import io.github.mzmine.datamodel.features.ModularFeatureList;
 import io.github.mzmine.datamodel.impl.SimpleDataPoint;
-import io.github.mzmine.util.RangeUtils;
 import io.github.mzmine.util.scans.ScanUtils;
-import java.util.List;
-import java.util.Vector;
 
 public class Gap {
 
@@ -42,10 +39,15 @@ public class Gap {
   private double intTolerance;
 
   // These store information about peak that is currently under construction
-  private List<GapDataPoint> currentPeakDataPoints;
-  private List<GapDataPoint> bestPeakDataPoints;
+  private GapDataPoints currentPeakDataPoints;
+  // the best peak is the range [bestPeakStart, bestPeakEnd) of a former current peak
+  private GapDataPoints bestPeakDataPoints;
+  private int bestPeakStart, bestPeakEnd;
   private double bestPeakHeight;
 
+  // no more scans are needed
+  private boolean finished = false;
+
   /**
    * Constructor: Initializes an empty gap
    * 
@@ -62,6 +64,21 @@ public class Gap {
     this.rtRange = rtRange;
   }
 
+  public Range<Float> getRTRange() {
+    return rtRange;
+  }
+
+  /**
+   * @return true if the gap passed its RT range and finished the last peak. Later scans are
+   *         ignored.
+   */
+  public boolean isFinished() {
+    return finished;
+  }
+
+  /**
+   * Scans have to be offered in the order of their retention time.
+   */
   public void offerNextScan(Scan scan) {
 
     double scanRT = scan.getRetentionTime();
@@ -71,32 +88,43 @@ public class Gap {
       return;
 
     // If we have passed the RT range and finished processing last peak
-    if ((scanRT > rtRange.upperEndpoint()) && (currentPeakDataPoints == null))
+    if ((scanRT > rtRange.upperEndpoint()) && (currentPeakDataPoints == null)) {
+      finished = true;
       return;
+    }
 
-    // Find top m/z peak in our range
-    DataPoint basePeak = ScanUtils.findBasePeak(scan, mzRange);
-
-    GapDataPoint currentDataPoint;
-    if (basePeak != null) {
-      currentDataPoint =
-          new GapDataPoint(scan, basePeak.getMZ(), scanRT, basePeak.getIntensity());
-    } else {
-      currentDataPoint =
-          new GapDataPoint(scan, RangeUtils.rangeCenter(mzRange), scanRT, 0);
+    // Find top m/z peak in our range. Same result as ScanUtils.findBasePeak, which reports an m/z
+    // of 0 if there is no signal in the range
+    double baseMz = 0d;
+    double baseIntensity = 0d;
+    final int numDataPoints = scan.getNumberOfDataPoints();
+    final double upperMz = mzRange.upperEndpoint();
+    for (int i = findFirstMzIndex(scan, mzRange.lowerEndpoint()); i < numDataPoints; i++) {
+      final double mz = scan.getMzValue(i);
+      if (mz > upperMz) {
+        break;
+      }
+      if (!mzRange.contains(mz)) {
+        continue;
+      }
+      final double intensity = scan.getIntensityValue(i);
+      if (intensity > baseIntensity) {
+        baseIntensity = intensity;
+        baseMz = mz;
+      }
     }
 
     // If we have not yet started, just create a new peak
     if (currentPeakDataPoints == null) {
-      currentPeakDataPoints = new Vector<GapDataPoint>();
-      currentPeakDataPoints.add(currentDataPoint);
+      currentPeakDataPoints = new GapDataPoints();
+      currentPeakDataPoints.add(scan, baseMz, scanRT, baseIntensity);
       return;
     }
 
     // Check if this continues previous peak?
-    if (checkRTShape(currentDataPoint)) {
+    if (checkRTShape(scanRT, baseIntensity)) {
       // Yes, continue this peak.
-      currentPeakDataPoints.add(currentDataPoint);
+      currentPeakDataPoints.add(scan, baseMz, scanRT, baseIntensity);
     } else {
 
       // No, new peak is starting
@@ -126,52 +154,59 @@ public class Gap {
     // If we have best peak candidate, construct a SimpleChromatographicPeak
     if (bestPeakDataPoints != null) {
 
+      final GapDataPoints peak = bestPeakDataPoints;
+      final int numDataPoints = bestPeakEnd - bestPeakStart;
+
       double mz = 0;
       float rt = 0, height = 0, area = 0;
-      Scan scanNumbers[] = new Scan[bestPeakDataPoints.size()];
-      DataPoint finalDataPoint[] = new DataPoint[bestPeakDataPoints.size()];
-      Range<Double> finalMZRange = null;
-      Range<Float> finalRTRange = null, finalIntensityRange = null;
+      Scan scanNumbers[] = new Scan[numDataPoints];
+      DataPoint finalDataPoint[] = new DataPoint[numDataPoints];
+      double minMz = 0, maxMz = 0;
+      float minRT = 0, maxRT = 0, minIntensity = 0, maxIntensity = 0;
       Scan representativeScan = null;
 
       // Process all datapoints
-      for (int i = 0; i < bestPeakDataPoints.size(); i++) {
+      for (int i = 0; i < numDataPoints; i++) {
 
-        GapDataPoint dp = bestPeakDataPoints.get(i);
+        final int dp = bestPeakStart + i;
+        final double dpMz = peak.getMZ(dp);
+        final float dpRT = (float) peak.getRT(dp);
+        final float dpIntensity = (float) peak.getIntensity(dp);
 
         if (i == 0) {
-          finalRTRange = Range.singleton((float) dp.getRT());
-          finalMZRange = Range.singleton(dp.getMZ());
-          finalIntensityRange = Range.singleton((float) dp.getIntensity());
+          minMz = maxMz = dpMz;
+          minRT = maxRT = dpRT;
+          minIntensity = maxIntensity = dpIntensity;
         } else {
-          assert finalRTRange != null && finalMZRange != null && finalIntensityRange != null;
-          finalRTRange = finalRTRange.span(Range.singleton((float) dp.getRT()));
-          finalMZRange = finalMZRange.span(Range.singleton(dp.getMZ()));
-          finalIntensityRange = finalIntensityRange.span(Range.singleton((float) dp.getIntensity()));
+          minMz = Math.min(minMz, dpMz);
+          maxMz = Math.max(maxMz, dpMz);
+          minRT = Math.min(minRT, dpRT);
+          maxRT = Math.max(maxRT, dpRT);
+          minIntensity = Math.min(minIntensity, dpIntensity);
+          maxIntensity = Math.max(maxIntensity, dpIntensity);
         }
 
-        scanNumbers[i] = bestPeakDataPoints.get(i).getScan();
-        finalDataPoint[i] = new SimpleDataPoint(dp.getMZ(), dp.getIntensity());
-        mz += bestPeakDataPoints.get(i).getMZ();
+        scanNumbers[i] = peak.getScan(dp);
+        finalDataPoint[i] = new SimpleDataPoint(dpMz, peak.getIntensity(dp));
+        mz += dpMz;
 
         // Check height
-        if (bestPeakDataPoints.get(i).getIntensity() > height) {
-          height = (float) bestPeakDataPoints.get(i).getIntensity();
-          rt = (float) bestPeakDataPoints.get(i).getRT();
-          representativeScan = bestPeakDataPoints.get(i).getScan();
+        if (peak.getIntensity(dp) > height) {
+          height = (float) peak.getIntensity(dp);
+          rt = (float) peak.getRT(dp);
+          representativeScan = peak.getScan(dp);
         }
 
         // Skip last data point
-        if (i == bestPeakDataPoints.size() - 1)
+        if (i == numDataPoints - 1)
           break;
 
         // X axis interval length
-        double rtDifference =
-            (bestPeakDataPoints.get(i + 1).getRT() - bestPeakDataPoints.get(i).getRT()) * 60d;
+        double rtDifference = (peak.getRT(dp + 1) - peak.getRT(dp)) * 60d;
 
         // intensity at the beginning and end of the interval
-        double intensityStart = bestPeakDataPoints.get(i).getIntensity();
-        double intensityEnd = bestPeakDataPoints.get(i + 1).getIntensity();
+        double intensityStart = peak.getIntensity(dp);
+        double intensityEnd = peak.getIntensity(dp + 1);
 
         // calculate area of the interval
         area += (rtDifference * (intensityStart + intensityEnd) / 2);
@@ -179,7 +214,11 @@ public class Gap {
       }
 
       // Calculate average m/z value
-      mz /= bestPeakDataPoints.size();
+      mz /= numDataPoints;
+
+      final Range<Double> finalMZRange = Range.closed(minMz, maxMz);
+      final Range<Float> finalRTRange = Range.closed(minRT, maxRT);
+      final Range<Float> finalIntensityRange = Range.closed(minIntensity, maxIntensity);
 
       // Find the best fragmentation scan, if available
       Scan fragmentScan = ScanUtils.findBestFragmentScan(rawDataFile, finalRTRange, finalMZRange);
@@ -202,22 +241,22 @@ public class Gap {
    * This function check for the shape of the peak in RT direction, and determines if it is possible
    * to add given m/z peak at the end of the peak.
    */
-  private boolean checkRTShape(GapDataPoint dp) {
+  private boolean checkRTShape(double rt, double intensity) {
 
-    if (dp.getRT() < rtRange.lowerEndpoint()) {
-      double prevInt = currentPeakDataPoints.get(currentPeakDataPoints.size() - 1).getIntensity();
-      if (dp.getIntensity() > (prevInt * (1 - intTolerance))) {
+    if (rt < rtRange.lowerEndpoint()) {
+      double prevInt = currentPeakDataPoints.getIntensity(currentPeakDataPoints.size() - 1);
+      if (intensity > (prevInt * (1 - intTolerance))) {
         return true;
       }
     }
 
-    if (rtRange.contains((float) dp.getRT())) {
+    if (rtRange.contains((float) rt)) {
       return true;
     }
 
-    if (dp.getRT() > rtRange.upperEndpoint()) {
-      double prevInt = currentPeakDataPoints.get(currentPeakDataPoints.size() - 1).getIntensity();
-      if (dp.getIntensity() < (prevInt * (1 + intTolerance))) {
+    if (rt > rtRange.upperEndpoint()) {
+      double prevInt = currentPeakDataPoints.getIntensity(currentPeakDataPoints.size() - 1);
+      if (intensity < (prevInt * (1 + intTolerance))) {
         return true;
       }
     }
@@ -228,21 +267,22 @@ public class Gap {
 
   private void checkCurrentPeak() {
 
+    final GapDataPoints peak = currentPeakDataPoints;
+    final int size = peak.size();
+
     // 1) Check if currentpeak has a local maximum inside the search range
     int highestMaximumInd = -1;
     double currentMaxHeight = 0f;
-    for (int i = 1; i < currentPeakDataPoints.size() - 1; i++) {
+    for (int i = 1; i < size - 1; i++) {
 
-      if (rtRange.contains((float) currentPeakDataPoints.get(i).getRT())) {
+      if (rtRange.contains((float) peak.getRT(i))) {
 
-        if ((currentPeakDataPoints.get(i).getIntensity() >= currentPeakDataPoints.get(i + 1)
-            .getIntensity())
-            && (currentPeakDataPoints.get(i).getIntensity() >= currentPeakDataPoints.get(i - 1)
-                .getIntensity())) {
+        if ((peak.getIntensity(i) >= peak.getIntensity(i + 1))
+            && (peak.getIntensity(i) >= peak.getIntensity(i - 1))) {
 
-          if (currentPeakDataPoints.get(i).getIntensity() > currentMaxHeight) {
+          if (peak.getIntensity(i) > currentMaxHeight) {
 
-            currentMaxHeight = currentPeakDataPoints.get(i).getIntensity();
+            currentMaxHeight = peak.getIntensity(i);
             highestMaximumInd = i;
           }
         }
@@ -255,9 +295,9 @@ public class Gap {
 
     // 2) Find elution start and stop
     int startInd = highestMaximumInd;
-    double currentInt = currentPeakDataPoints.get(startInd).getIntensity();
+    double currentInt = peak.getIntensity(startInd);
     while (startInd > 0) {
-      double nextInt = currentPeakDataPoints.get(startInd - 1).getIntensity();
+      double nextInt = peak.getIntensity(startInd - 1);
       if (currentInt < (nextInt * (1 - intTolerance)))
         break;
       startInd--;
@@ -267,18 +307,18 @@ public class Gap {
       currentInt = nextInt;
     }
 
-    // Since subList does not include toIndex value then find highest
-    // possible value of stopInd+1 and currentPeakDataPoints.size()
+    // The best peak range excludes toIndex, find highest
+    // possible value of stopInd+1 and size
     int stopInd = highestMaximumInd, toIndex = highestMaximumInd;
-    currentInt = currentPeakDataPoints.get(stopInd).getIntensity();
-    while (stopInd < (currentPeakDataPoints.size() - 1)) {
-      double nextInt = currentPeakDataPoints.get(stopInd + 1).getIntensity();
+    currentInt = peak.getIntensity(stopInd);
+    while (stopInd < (size - 1)) {
+      double nextInt = peak.getIntensity(stopInd + 1);
       if (nextInt > (currentInt * (1 + intTolerance))) {
-        toIndex = Math.min(currentPeakDataPoints.size(), stopInd + 1);
+        toIndex = Math.min(size, stopInd + 1);
         break;
       }
       stopInd++;
-      toIndex = Math.min(currentPeakDataPoints.size(), stopInd + 1);
+      toIndex = Math.min(size, stopInd + 1);
       if (nextInt == 0) {
         stopInd++;
         toIndex = stopInd;
@@ -289,9 +329,30 @@ public class Gap {
 
     // 3) Check if this is the best candidate for a peak
     if ((bestPeakDataPoints == null) || (bestPeakHeight < currentMaxHeight)) {
-      bestPeakDataPoints = currentPeakDataPoints.subList(startInd, toIndex);
+      // the current peak is not continued, so the data points are not copied
+      bestPeakDataPoints = peak;
+      bestPeakStart = startInd;
+      bestPeakEnd = toIndex;
     }
 
   }
 
+  /**
+   * @return the index of the first data point with an m/z greater or equal to the given m/z. The
+   *         m/z values of a scan are sorted.
+   */
+  private static int findFirstMzIndex(Scan scan, double mz) {
+    int low = 0;
+    int high = scan.getNumberOfDataPoints();
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (scan.getMzValue(mid) < mz) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
 }
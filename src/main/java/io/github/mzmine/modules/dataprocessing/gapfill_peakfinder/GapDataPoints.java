@@ -0,0 +1,70 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ * 
+ * This file is part of MZmine.
+ * 
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.gapfill_peakfinder;
+
+import io.github.mzmine.datamodel.Scan;
+import java.util.Arrays;
+
+/**
+ * Growing list of the data points of a gap peak, stored in primitive arrays. Every data point is
+ * the base peak in the m/z range of the gap in one scan.
+ */
+class GapDataPoints {
+
+  private Scan[] scans = new Scan[16];
+  private double[] mzs = new double[16];
+  private double[] rts = new double[16];
+  private double[] intensities = new double[16];
+  private int size = 0;
+
+  void add(Scan scan, double mz, double rt, double intensity) {
+    if (size == scans.length) {
+      final int capacity = size * 2;
+      scans = Arrays.copyOf(scans, capacity);
+      mzs = Arrays.copyOf(mzs, capacity);
+      rts = Arrays.copyOf(rts, capacity);
+      intensities = Arrays.copyOf(intensities, capacity);
+    }
+    scans[size] = scan;
+    mzs[size] = mz;
+    rts[size] = rt;
+    intensities[size] = intensity;
+    size++;
+  }
+
+  int size() {
+    return size;
+  }
+
+  Scan getScan(int index) {
+    return scans[index];
+  }
+
+  double getMZ(int index) {
+    return mzs[index];
+  }
+
+  double getRT(int index) {
+    return rts[index];
+  }
+
+  double getIntensity(int index) {
+    return intensities[index];
+  }
+}
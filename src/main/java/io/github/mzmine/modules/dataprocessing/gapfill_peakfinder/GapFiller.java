@@ -0,0 +1,161 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.gapfill_peakfinder;
+
+import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.util.IndexSort;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+import javax.annotation.Nonnull;
+
+/**
+ * Fills the gaps of one raw data file in a sweep over the retention time. The gaps are sorted by
+ * the start of their RT range. A gap only receives the scans from the start of its RT range until
+ * it is finished, instead of every scan of the file. The gaps can be split into chunks of
+ * consecutive RT ranges, which are processed in parallel on the common fork-join pool. Each chunk
+ * only sweeps the scans of its own RT range.
+ */
+public class GapFiller {
+
+  /**
+   * Minimum number of gaps per chunk of the parallel gap filling.
+   */
+  private static final int MIN_GAPS_PER_CHUNK = 250;
+
+  private final Gap[] gaps;
+  private final List<Scan> scans;
+  private final float[] scanRTs;
+
+  /**
+   * @param gaps  the gaps of one raw data file
+   * @param scans the scans of the raw data file, sorted by retention time
+   */
+  public GapFiller(@Nonnull List<Gap> gaps, @Nonnull List<Scan> scans) {
+    final double[] starts = new double[gaps.size()];
+    for (int i = 0; i < starts.length; i++) {
+      starts[i] = gaps.get(i).getRTRange().lowerEndpoint();
+    }
+    final int[] order = IndexSort.sort(starts, true);
+    this.gaps = new Gap[order.length];
+    for (int i = 0; i < order.length; i++) {
+      this.gaps[i] = gaps.get(order[i]);
+    }
+
+    this.scans = scans;
+    scanRTs = new float[scans.size()];
+    for (int i = 0; i < scanRTs.length; i++) {
+      scanRTs[i] = scans.get(i).getRetentionTime();
+    }
+  }
+
+  /**
+   * Offers the scans to the gaps and finalizes all gaps, which adds the detected features to the
+   * rows of the gaps. Nothing is finalized if the gap filling is canceled.
+   *
+   * @param parallel       process chunks of gaps in parallel
+   * @param isCanceled     stops the gap filling
+   * @param processedScans receives the number of processed scans. Chunks report their share of the
+   *                       scans of the file when they are finished.
+   * @return false if the gap filling was canceled
+   */
+  public boolean fillGaps(boolean parallel, @Nonnull BooleanSupplier isCanceled,
+      @Nonnull IntConsumer processedScans) {
+    final int chunkSize;
+    if (parallel) {
+      final int parallelism = Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+      chunkSize = Math.max(MIN_GAPS_PER_CHUNK,
+          (int) Math.ceil(gaps.length / (double) (parallelism * 4)));
+    } else {
+      chunkSize = Math.max(1, gaps.length);
+    }
+
+    final List<ForkJoinTask<?>> tasks = new ArrayList<>();
+    for (int from = 0; from < gaps.length; from += chunkSize) {
+      final int start = from;
+      final int end = Math.min(from + chunkSize, gaps.length);
+      if (end == gaps.length && tasks.isEmpty()) {
+        // a single chunk runs in the calling thread
+        fillGaps(start, end, isCanceled, processedScans);
+      } else {
+        tasks.add(ForkJoinPool.commonPool()
+            .submit(() -> fillGaps(start, end, isCanceled, processedScans)));
+      }
+    }
+    for (ForkJoinTask<?> task : tasks) {
+      task.join();
+    }
+    return !isCanceled.getAsBoolean();
+  }
+
+  /**
+   * Sweeps over the scans for the gaps from (inclusive) to (exclusive) and finalizes the gaps.
+   */
+  private void fillGaps(int from, int to, BooleanSupplier isCanceled,
+      IntConsumer processedScans) {
+    // gaps that reached their RT range, in the order of activation
+    final List<Gap> active = new ArrayList<>();
+    int next = from;
+
+    for (int s = firstScanIndex(gaps[from].getRTRange().lowerEndpoint());
+        s < scanRTs.length && (next < to || !active.isEmpty()); s++) {
+      if (isCanceled.getAsBoolean()) {
+        return;
+      }
+      final float rt = scanRTs[s];
+      while (next < to && gaps[next].getRTRange().lowerEndpoint() <= rt) {
+        active.add(gaps[next]);
+        next++;
+      }
+
+      final Scan scan = scans.get(s);
+      for (Gap gap : active) {
+        gap.offerNextScan(scan);
+      }
+      active.removeIf(Gap::isFinished);
+    }
+
+    for (int i = from; i < to; i++) {
+      gaps[i].noMoreOffers();
+    }
+    // share of the scans of this chunk
+    processedScans.accept((int) ((long) scanRTs.length * to / gaps.length
+        - (long) scanRTs.length * from / gaps.length));
+  }
+
+  /**
+   * @return the index of the first scan with a retention time greater or equal to the given one
+   */
+  private int firstScanIndex(float rt) {
+    int low = 0;
+    int high = scanRTs.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (scanRTs[mid] < rt) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+}
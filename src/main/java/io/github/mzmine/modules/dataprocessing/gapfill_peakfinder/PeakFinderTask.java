@@ -35,7 +35,6 @@ import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.MemoryMapStorage;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Vector;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import java.util.stream.IntStream;
@@ -147,22 +146,9 @@ class PeakFinderTask extends AbstractTask {
           return;
         }
 
-        // Get all scans of this data file
-        dataFile.getScanNumbers(1).forEach(scan -> {
-          if(!isCanceled()) {
-            // Feed this scan to all gaps
-            for (Gap gap : gaps) {
-              gap.offerNextScan(scan);
-            }
-
-            processedScans.incrementAndGet();
-          }
-        });
-
-        // Finalize gaps
-        for (Gap gap : gaps) {
-          gap.noMoreOffers();
-        }
+        // Offer the scans of this data file to the gaps and finalize the gaps
+        new GapFiller(gaps, dataFile.getScanNumbers(1))
+            .fillGaps(useParallelStream, this::isCanceled, processedScans::addAndGet);
       });
     }
     // terminate - stream only skips all elements
@@ -217,7 +203,7 @@ class PeakFinderTask extends AbstractTask {
           return;
         }
 
-        Vector<Gap> gaps = new Vector<Gap>();
+        List<Gap> gaps = new ArrayList<Gap>();
 
         // Fill each row of this raw data file column, create new empty
         // gaps
@@ -263,26 +249,11 @@ class PeakFinderTask extends AbstractTask {
           continue;
         }
 
-        // Get all scans of this data file
-        datafile1.getScanNumbers(1).forEach(scan -> {
-          if(!isCanceled()) {
-            // Feed this scan to all gaps
-            for (Gap gap : gaps) {
-              gap.offerNextScan(scan);
-            }
-            processedScans.incrementAndGet();
-          }
-        });
-
-        // Canceled?
-        if (isCanceled()) {
+        // Offer the scans of this data file to the gaps and finalize the gaps
+        if (!new GapFiller(gaps, datafile1.getScanNumbers(1))
+            .fillGaps(useParallelStream, this::isCanceled, processedScans::addAndGet)) {
           return;
         }
-
-        // Finalize gaps
-        for (Gap gap : gaps) {
-          gap.noMoreOffers();
-        }
       }
     }
   }
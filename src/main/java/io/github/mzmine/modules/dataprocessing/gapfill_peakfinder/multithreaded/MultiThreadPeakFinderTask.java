@@ -27,6 +27,7 @@ import io.github.mzmine.datamodel.features.FeatureList;
 import io.github.mzmine.datamodel.features.FeatureListRow;
 import io.github.mzmine.datamodel.features.ModularFeatureList;
 import io.github.mzmine.modules.dataprocessing.gapfill_peakfinder.Gap;
+import io.github.mzmine.modules.dataprocessing.gapfill_peakfinder.GapFiller;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance;
@@ -126,25 +127,11 @@ class MultiThreadPeakFinderTask extends AbstractTask {
         continue;
       }
 
-      // Get all scans of this data file
-      dataFile.getScanNumbers(1).forEach(scan -> {
-        if(!isCanceled()) {
-          // Feed this scan to all gaps
-          for (Gap gap : gaps) {
-            gap.offerNextScan(scan);
-          }
-
-          processedScans.incrementAndGet();
-        }
-      });
-
-        if (isCanceled()) {
-          return;
-        }
-
-      // Finalize gaps
-      for (Gap gap : gaps) {
-        gap.noMoreOffers();
+      // Offer the scans of this data file to the gaps and finalize the gaps. The sub tasks
+      // already run in parallel, so the gaps of a file are filled in one chunk
+      if (!new GapFiller(gaps, dataFile.getScanNumbers(1))
+          .fillGaps(false, this::isCanceled, processedScans::addAndGet)) {
+        return;
       }
     }
 
@@ -23,12 +23,20 @@ import static io.github.mzmine.modules.dataprocessing.id_adductsearch.AdductSear
 import static io.github.mzmine.modules.dataprocessing.id_adductsearch.AdductSearchParameters.MZ_TOLERANCE;
 import static io.github.mzmine.modules.dataprocessing.id_adductsearch.AdductSearchParameters.RT_TOLERANCE;
 
+import com.google.common.collect.Range;
 import io.github.mzmine.datamodel.features.FeatureList;
 import io.github.mzmine.datamodel.features.FeatureListRow;
+import io.github.mzmine.datamodel.features.FeatureListRowIndex;
 import io.github.mzmine.datamodel.features.SimpleFeatureListAppliedMethod;
 import io.github.mzmine.util.FeatureListRowSorter;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import io.github.mzmine.parameters.ParameterSet;
@@ -44,6 +52,9 @@ public class AdductSearchTask extends AbstractTask {
   // Logger.
   private static final Logger logger = Logger.getLogger(AdductSearchTask.class.getName());
 
+  // main rows per parallel task
+  private static final int BLOCK_SIZE = 1024;
+
   private int finishedRows;
   private int totalRows;
   private final FeatureList peakList;
@@ -121,7 +132,7 @@ public class AdductSearchTask extends AbstractTask {
   /**
    * Search peak-list for adducts.
    */
-  private void searchAdducts() {
+  private void searchAdducts() throws InterruptedException, ExecutionException {
 
     // Get rows.
     final FeatureListRow[] rows = peakList.getRows().toArray(FeatureListRow[]::new);
@@ -130,36 +141,74 @@ public class AdductSearchTask extends AbstractTask {
     // Start with the highest peaks.
     Arrays.sort(rows, new FeatureListRowSorter(SortingProperty.Height, SortingDirection.Descending));
 
-    // Compare each pair of rows against each other.
-    for (int i = 0; !isCanceled() && i < totalRows; i++) {
-      for (int j = 0; !isCanceled() && j < totalRows; j++) {
-
-        if (i == j)
-          continue;
+    // Only compare rows within the m/z and RT tolerance of an adduct of the main row. Blocks of
+    // main rows are searched in parallel, the identities are added in the order of the main rows.
+    final FeatureListRowIndex rowIndex = new FeatureListRowIndex(Arrays.asList(rows));
+    final List<Future<IntArrayList>> tasks = new ArrayList<>();
+    for (int start = 0; start < totalRows; start += BLOCK_SIZE) {
+      final int blockStart = start;
+      final int blockEnd = Math.min(totalRows, start + BLOCK_SIZE);
+      tasks.add(ForkJoinPool.commonPool()
+          .submit(() -> findAdducts(rows, rowIndex, blockStart, blockEnd)));
+    }
 
-        findAdducts(rows[i], rows[j]);
+    for (int b = 0; b < tasks.size(); b++) {
+      final IntArrayList matches = tasks.get(b).get();
+      if (isCanceled()) {
+        return;
       }
+      for (int m = 0; m < matches.size(); m += 3) {
+        final FeatureListRow mainRow = rows[matches.getInt(m)];
+        final FeatureListRow possibleAdduct = rows[matches.getInt(m + 1)];
+        final AdductType adduct = selectedAdducts.get(matches.getInt(m + 2));
 
-      finishedRows++;
+        // Add adduct identity and notify GUI.
+        possibleAdduct.addFeatureIdentity(new AdductIdentity(mainRow, adduct), false);
+      }
+      finishedRows = Math.min(totalRows, (b + 1) * BLOCK_SIZE);
     }
   }
 
   /**
-   * Check if candidate peak may be a possible adduct of a given main peak.
+   * Finds the adducts of a block of main rows.
    *
-   * @param mainRow main peak.
-   * @param possibleAdduct candidate adduct peak.
+   * @return the index of the main row, the index of the adduct row and the index of the adduct
+   * type of each match
    */
-  private void findAdducts(final FeatureListRow mainRow, final FeatureListRow possibleAdduct) {
-
-    for (final AdductType adduct : selectedAdducts) {
+  private IntArrayList findAdducts(final FeatureListRow[] rows, final FeatureListRowIndex rowIndex,
+      final int blockStart, final int blockEnd) {
+
+    final IntArrayList matches = new IntArrayList();
+    final IntArrayList candidates = new IntArrayList();
+    for (int i = blockStart; !isCanceled() && i < blockEnd; i++) {
+      final FeatureListRow mainRow = rows[i];
+      final Range<Float> rtRange = rtTolerance.getToleranceRange(mainRow.getAverageRT());
+
+      candidates.clear();
+      for (final AdductType adduct : selectedAdducts) {
+        rowIndex.forEachPosition(
+            mzTolerance.getToleranceRange(mainRow.getAverageMZ() + adduct.getMassDifference()),
+            rtRange, null, candidates::add);
+      }
+      // same order as comparing each pair of rows
+      IntArrays.quickSort(candidates.elements(), 0, candidates.size());
 
-      if (checkAdduct(mainRow, possibleAdduct, adduct)) {
+      for (int c = 0; c < candidates.size(); c++) {
+        final int j = candidates.getInt(c);
+        if (i == j || (c > 0 && j == candidates.getInt(c - 1)))
+          continue;
 
-        // Add adduct identity and notify GUI.
-        possibleAdduct.addFeatureIdentity(new AdductIdentity(mainRow, adduct), false);
+        // Check if candidate peak may be a possible adduct of the main peak.
+        for (int a = 0; a < selectedAdducts.size(); a++) {
+          if (checkAdduct(mainRow, rows[j], selectedAdducts.get(a))) {
+            matches.add(i);
+            matches.add(j);
+            matches.add(a);
+          }
+        }
       }
     }
+    return matches;
   }
 
   /**
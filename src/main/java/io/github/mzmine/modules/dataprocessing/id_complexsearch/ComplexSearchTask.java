@@ -20,10 +20,21 @@ package io.github.mzmine.modules.dataprocessing.id_complexsearch;
 
 import io.github.mzmine.datamodel.features.FeatureList;
 import io.github.mzmine.datamodel.features.FeatureListRow;
+import io.github.mzmine.datamodel.features.FeatureListRowIndex;
 import io.github.mzmine.datamodel.features.ModularFeatureList;
 import io.github.mzmine.datamodel.features.SimpleFeatureListAppliedMethod;
 import io.github.mzmine.util.FeatureListRowSorter;
+import io.github.mzmine.util.IndexSort;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import com.google.common.collect.Range;
 import io.github.mzmine.datamodel.IonizationType;
@@ -39,6 +50,9 @@ public class ComplexSearchTask extends AbstractTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
+  // possible complexes per parallel task
+  private static final int BLOCK_SIZE = 1024;
+
   private int finishedRows, totalRows;
   private FeatureList peakList;
 
@@ -94,41 +108,56 @@ public class ComplexSearchTask extends AbstractTask {
     logger.info("Starting complex search in " + peakList);
 
     FeatureListRow rows[] = peakList.getRows().toArray(FeatureListRow[]::new);
+    final FeatureListRow listRows[] = rows.clone();
     totalRows = rows.length;
 
+    // Candidate rows sorted by m/z, order maps their positions back to the positions in the
+    // feature list, which are the order of the pairs as returned by getRowsInsideScanRange()
+    final double mzs[] = new double[rows.length];
+    for (int i = 0; i < rows.length; i++) {
+      mzs[i] = rows[i].getAverageMZ();
+    }
+    final FeatureListRow mzSortedRows[] = new FeatureListRow[rows.length];
+    final int order[] = IndexSort.sort(mzs, true);
+    for (int i = 0; i < rows.length; i++) {
+      mzSortedRows[i] = rows[order[i]];
+    }
+    final FeatureListRowIndex rowIndex = new FeatureListRowIndex(Arrays.asList(mzSortedRows));
+
     // Sort the array by m/z so we start with biggest peak (possible
     // complex)
     Arrays.sort(rows, new FeatureListRowSorter(SortingProperty.MZ, SortingDirection.Descending));
 
-    // Compare each three rows against each other
-    for (int i = 0; i < totalRows; i++) {
-
-      Range<Float> testRTRange = rtTolerance.getToleranceRange(rows[i].getAverageRT());
-      FeatureListRow testRows[] = peakList.getRowsInsideScanRange(testRTRange)
-          .toArray(new FeatureListRow[0]);
-
-      for (int j = 0; j < testRows.length; j++) {
-
-        for (int k = j; k < testRows.length; k++) {
-
-          // Task canceled?
-          if (isCanceled())
-            return;
+    // Blocks of possible complexes are searched in parallel, the identities
+    // are added in the order of the complexes
+    final List<Future<IntArrayList>> tasks = new ArrayList<>();
+    for (int start = 0; start < totalRows; start += BLOCK_SIZE) {
+      final int blockStart = start;
+      final int blockEnd = Math.min(totalRows, start + BLOCK_SIZE);
+      tasks.add(ForkJoinPool.commonPool()
+          .submit(() -> findComplexes(rows, mzSortedRows, order, rowIndex, blockStart,
+              blockEnd)));
+    }
 
-          // To avoid finding a complex of the peak itself and another
-          // very small m/z peak
-          if ((rows[i] == testRows[j]) || (rows[i] == testRows[k]))
-            continue;
+    try {
+      for (int b = 0; b < tasks.size(); b++) {
+        final IntArrayList complexes = tasks.get(b).get();
 
-          if (checkComplex(rows[i], testRows[j], testRows[k]))
-            addComplexInfo(rows[i], testRows[j], testRows[k]);
+        // Task canceled?
+        if (isCanceled())
+          return;
 
+        for (int c = 0; c < complexes.size(); c += 3) {
+          addComplexInfo(rows[complexes.getInt(c)], listRows[complexes.getInt(c + 1)],
+              listRows[complexes.getInt(c + 2)]);
         }
-
+        finishedRows = Math.min(totalRows, (b + 1) * BLOCK_SIZE);
       }
-
-      finishedRows++;
-
+    } catch (InterruptedException | ExecutionException e) {
+      logger.log(Level.SEVERE, "Complex search error", e);
+      setErrorMessage(e.getMessage());
+      setStatus(TaskStatus.ERROR);
+      return;
     }
 
     // Add task description to peakList
@@ -143,6 +172,77 @@ public class ComplexSearchTask extends AbstractTask {
 
   }
 
+  /**
+   * Finds the complexes of a block of rows. Instead of comparing all pairs of rows within the RT
+   * tolerance, only the second rows within the m/z window of the complex minus the first row are
+   * checked. As the first row has the lower m/z, it is at most half of the complex.
+   *
+   * @param listPositions the position in the feature list of each row in mzSortedRows
+   * @return the index of the complex row and the positions of the two rows in the feature list of
+   * each complex, the pairs of each complex row in the order of the feature list
+   */
+  private IntArrayList findComplexes(FeatureListRow rows[], FeatureListRow mzSortedRows[],
+      int listPositions[], FeatureListRowIndex rowIndex, int blockStart, int blockEnd) {
+
+    final IntArrayList complexes = new IntArrayList();
+    final IntArrayList firstRows = new IntArrayList();
+    final IntArrayList secondRows = new IntArrayList();
+    final LongArrayList pairs = new LongArrayList();
+    for (int i = blockStart; !isCanceled() && i < blockEnd; i++) {
+
+      final FeatureListRow complexRow = rows[i];
+      final Range<Float> testRTRange = rtTolerance.getToleranceRange(complexRow.getAverageRT());
+      final double detectedMass = complexRow.getAverageMZ() - ionType.getAddedMass();
+      final Range<Double> mzRange = mzTolerance.getToleranceRange(detectedMass);
+      // sum of the m/z of both rows, widened for rounding, the exact check is done below
+      final double margin = 1E-9 * (1d + Math.abs(complexRow.getAverageMZ()));
+      final double minSum = mzRange.lowerEndpoint() + 2 * ionType.getAddedMass() - margin;
+      final double maxSum = mzRange.upperEndpoint() + 2 * ionType.getAddedMass() + margin;
+
+      // the RT tolerance is more selective than half of the m/z range
+      firstRows.clear();
+      rowIndex.forEachPositionByRT(Double.NEGATIVE_INFINITY, maxSum / 2 + margin,
+          testRTRange.lowerEndpoint(), testRTRange.upperEndpoint(), Float.NEGATIVE_INFINITY,
+          Float.POSITIVE_INFINITY, firstRows::add);
+      pairs.clear();
+      for (int f = 0; f < firstRows.size(); f++) {
+        final int j = firstRows.getInt(f);
+        final double firstMZ = mzSortedRows[j].getAverageMZ();
+
+        secondRows.clear();
+        rowIndex.forEachPosition(minSum - firstMZ, maxSum - firstMZ, testRTRange.lowerEndpoint(),
+            testRTRange.upperEndpoint(), Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY,
+            secondRows::add);
+
+        for (int s = 0; s < secondRows.size(); s++) {
+          final int k = secondRows.getInt(s);
+          // each pair once, the first row has the lower m/z
+          if (k < j)
+            continue;
+
+          // To avoid finding a complex of the peak itself and another
+          // very small m/z peak
+          if ((complexRow == mzSortedRows[j]) || (complexRow == mzSortedRows[k]))
+            continue;
+
+          if (checkComplex(complexRow, mzSortedRows[j], mzSortedRows[k])) {
+            final int first = Math.min(listPositions[j], listPositions[k]);
+            final int second = Math.max(listPositions[j], listPositions[k]);
+            pairs.add(((long) first << 32) | second);
+          }
+        }
+      }
+
+      LongArrays.quickSort(pairs.elements(), 0, pairs.size());
+      for (int p = 0; p < pairs.size(); p++) {
+        complexes.add(i);
+        complexes.add((int) (pairs.getLong(p) >>> 32));
+        complexes.add((int) pairs.getLong(p));
+      }
+    }
+    return complexes;
+  }
+
   /**
    * Check if candidate peak may be a possible complex of given two peaks
    *
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package io.github.mzmine.modules.dataprocessing.id_formulapredictionfeaturelist;
+
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.IsotopePattern;
+import io.github.mzmine.datamodel.PolarityType;
+import io.github.mzmine.modules.tools.isotopeprediction.IsotopePatternCalculator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.openscience.cdk.formula.MolecularFormulaGenerator;
+import org.openscience.cdk.formula.MolecularFormulaRange;
+import org.openscience.cdk.interfaces.IIsotope;
+import org.openscience.cdk.interfaces.IMolecularFormula;
+import org.openscience.cdk.silent.SilentChemObjectBuilder;
+import org.openscience.cdk.tools.manipulator.MolecularFormulaManipulator;
+
+/**
+ * Caches of candidate formulas and predicted isotope patterns of one formula prediction task. Both
+ * caches remove the least recently used entries when they are full and are cleared when the task
+ * ends.
+ * <p>
+ * Candidate formulas are generated for a mass window that is widened to a grid of at most a quarter
+ * of the window width, so rows with near-identical neutral masses share one generated list. The
+ * list is then filtered by the exact mass window of the row. The cached formulas are shared by all
+ * rows of the window and must not be changed.
+ * <p>
+ * The isotope patterns are cached by formula, charge, polarity and minimum abundance, which is
+ * rounded down to a power of two. Each pattern is calculated at exactly this rounded abundance and
+ * then filtered by the minimum abundance of the row. The isotope pattern generator prunes and
+ * merges isotopes at the abundance it is called with, so the intensities may differ slightly from
+ * a pattern calculated at the minimum abundance of the row, which is less than twice the rounded
+ * abundance.
+ */
+class FormulaPredictionCache {
+
+  // estimated memory of the candidate formulas of all windows
+  private static final long MAX_CANDIDATE_BYTES = 256L << 20;
+  // larger windows are not cached, they would evict most other windows
+  private static final long MAX_WINDOW_BYTES = MAX_CANDIDATE_BYTES / 8;
+  // estimated memory of one formula and of each of its elements
+  private static final long FORMULA_BYTES = 200;
+  private static final long ELEMENT_BYTES = 100;
+
+  private static final int MAX_ISOTOPE_PATTERNS = 100_000;
+
+  private final LinkedHashMap<String, CandidateWindow> candidates =
+      new LinkedHashMap<>(16, 0.75f, true);
+  private long candidateBytes;
+
+  private final Map<String, IsotopePattern> isotopePatterns =
+      Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, IsotopePattern> eldest) {
+          return size() > MAX_ISOTOPE_PATTERNS;
+        }
+      });
+
+  private final AtomicLong candidateHits = new AtomicLong();
+  private final AtomicLong candidateMisses = new AtomicLong();
+  private final AtomicLong isotopeHits = new AtomicLong();
+  private final AtomicLong isotopeMisses = new AtomicLong();
+
+  /**
+   * Returns the formulas within the mass range and element ranges. If the candidates are not
+   * cached, they are generated by a {@link MolecularFormulaGenerator}, which is added to the
+   * running generators while it runs, so it can be canceled.
+   *
+   * @return the formulas or null, if the prediction was canceled
+   */
+  @Nullable
+  List<IMolecularFormula> getCandidateFormulas(@Nonnull Range<Double> massRange,
+      @Nonnull MolecularFormulaRange elementCounts,
+      @Nonnull Set<MolecularFormulaGenerator> runningGenerators,
+      @Nonnull BooleanSupplier isCanceled) {
+
+    // widen the window to a power of two grid, so it is the same for near-identical masses
+    final double width = massRange.upperEndpoint() - massRange.lowerEndpoint();
+    final double grid = width > 0 ? Math.scalb(1d, Math.getExponent(width / 4)) : 1E-6;
+    final double lower = Math.floor(massRange.lowerEndpoint() / grid) * grid;
+    final double upper = Math.ceil(massRange.upperEndpoint() / grid) * grid;
+    final String key = lower + "-" + upper + " " + elementsKey(elementCounts);
+
+    List<IMolecularFormula> windowFormulas;
+    synchronized (candidates) {
+      final CandidateWindow window = candidates.get(key);
+      windowFormulas = window == null ? null : window.formulas;
+    }
+    if (windowFormulas != null) {
+      candidateHits.incrementAndGet();
+    } else {
+      candidateMisses.incrementAndGet();
+      final MolecularFormulaGenerator generator = new MolecularFormulaGenerator(
+          SilentChemObjectBuilder.getInstance(), lower, upper, elementCounts);
+      runningGenerators.add(generator);
+      long bytes = 0;
+      try {
+        windowFormulas = new ArrayList<>();
+        IMolecularFormula formula;
+        while (!isCanceled.getAsBoolean() && (formula = generator.getNextFormula()) != null) {
+          windowFormulas.add(formula);
+          bytes += FORMULA_BYTES + ELEMENT_BYTES * formula.getIsotopeCount();
+        }
+      } finally {
+        runningGenerators.remove(generator);
+      }
+      // a canceled generator returns only a part of the formulas
+      if (isCanceled.getAsBoolean()) {
+        return null;
+      }
+      if (bytes <= MAX_WINDOW_BYTES) {
+        putCandidates(key, new CandidateWindow(windowFormulas, bytes));
+      }
+    }
+
+    final List<IMolecularFormula> formulas = new ArrayList<>();
+    for (IMolecularFormula formula : windowFormulas) {
+      if (massRange.contains(MolecularFormulaManipulator.getTotalExactMass(formula))) {
+        formulas.add(formula);
+      }
+    }
+    return formulas;
+  }
+
+  private void putCandidates(String key, CandidateWindow window) {
+    synchronized (candidates) {
+      final CandidateWindow previous = candidates.put(key, window);
+      candidateBytes += window.bytes - (previous == null ? 0 : previous.bytes);
+      final Iterator<CandidateWindow> eldest = candidates.values().iterator();
+      while (candidateBytes > MAX_CANDIDATE_BYTES && eldest.hasNext()) {
+        candidateBytes -= eldest.next().bytes;
+        eldest.remove();
+      }
+    }
+  }
+
+  /**
+   * Same as {@link IsotopePatternCalculator#calculateIsotopePattern(String, double, int,
+   * PolarityType)}, but the pattern is calculated at the minimum abundance rounded down to a power
+   * of two, so it is only calculated once for all rows with similar abundances, and then filtered
+   * by the minimum abundance.
+   */
+  @Nonnull
+  IsotopePattern getIsotopePattern(@Nonnull String formula, double minAbundance, int charge,
+      @Nonnull PolarityType polarity) {
+    // no power of two below subnormal or infinite abundances
+    if (!(minAbundance >= Double.MIN_NORMAL) || Double.isInfinite(minAbundance)) {
+      isotopeMisses.incrementAndGet();
+      return IsotopePatternCalculator.calculateIsotopePattern(formula, minAbundance, charge,
+          polarity);
+    }
+
+    final double cachedAbundance = Math.scalb(1d, Math.getExponent(minAbundance));
+    final String key = formula + " " + charge + " " + polarity + " " + cachedAbundance;
+    IsotopePattern pattern = isotopePatterns.get(key);
+    if (pattern != null) {
+      isotopeHits.incrementAndGet();
+    } else {
+      isotopeMisses.incrementAndGet();
+      // calculated outside of the lock, so a pattern may be calculated twice in parallel
+      pattern = IsotopePatternCalculator.calculateIsotopePattern(formula, cachedAbundance, charge,
+          polarity);
+      isotopePatterns.put(key, pattern);
+    }
+    return removeIsotopesBelow(pattern, minAbundance);
+  }
+
+  /**
+   * @return the pattern without the isotopes below the abundance relative to the most abundant
+   * isotope, or the same pattern, if there are none
+   */
+  private static IsotopePattern removeIsotopesBelow(IsotopePattern pattern, double minAbundance) {
+    final Double maxIntensity = pattern.getBasePeakIntensity();
+    if (maxIntensity == null) {
+      return pattern;
+    }
+    final double minIntensity = minAbundance * maxIntensity;
+    for (int i = 0; i < pattern.getNumberOfDataPoints(); i++) {
+      if (pattern.getIntensityValue(i) < minIntensity) {
+        return IsotopePatternCalculator.removeDataPointsBelowIntensity(pattern, minIntensity);
+      }
+    }
+    return pattern;
+  }
+
+  /**
+   * Removes all cached formulas and isotope patterns.
+   */
+  void clear() {
+    synchronized (candidates) {
+      candidates.clear();
+      candidateBytes = 0;
+    }
+    isotopePatterns.clear();
+  }
+
+  private static String elementsKey(MolecularFormulaRange elementCounts) {
+    final StringBuilder b = new StringBuilder();
+    for (IIsotope isotope : elementCounts.isotopes()) {
+      b.append(isotope.getSymbol()).append(isotope.getMassNumber()).append('[')
+          .append(elementCounts.getIsotopeCountMin(isotope)).append(',')
+          .append(elementCounts.getIsotopeCountMax(isotope)).append(']');
+    }
+    return b.toString();
+  }
+
+  /**
+   * @return hit rates of both caches
+   */
+  @Override
+  public String toString() {
+    return String.format("candidate formula cache %d hits / %d misses, "
+            + "isotope pattern cache %d hits / %d misses", candidateHits.get(),
+        candidateMisses.get(), isotopeHits.get(), isotopeMisses.get());
+  }
+
+  private static class CandidateWindow {
+
+    private final List<IMolecularFormula> formulas;
+    private final long bytes;
+
+    private CandidateWindow(List<IMolecularFormula> formulas, long bytes) {
+      this.formulas = formulas;
+      this.bytes = bytes;
+    }
+  }
+}
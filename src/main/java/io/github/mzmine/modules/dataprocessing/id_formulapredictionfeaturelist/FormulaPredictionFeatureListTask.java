@@ -29,13 +29,11 @@ import io.github.mzmine.datamodel.features.FeatureList;
 import io.github.mzmine.datamodel.features.FeatureListRow;
 import io.github.mzmine.datamodel.features.SimpleFeatureListAppliedMethod;
 import io.github.mzmine.datamodel.identities.MolecularFormulaIdentity;
-import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.modules.dataprocessing.id_formula_sort.FormulaSortParameters;
 import io.github.mzmine.modules.dataprocessing.id_formulaprediction.restrictions.elements.ElementalHeuristicChecker;
 import io.github.mzmine.modules.dataprocessing.id_formulaprediction.restrictions.rdbe.RDBERestrictionChecker;
 import io.github.mzmine.modules.tools.isotopepatternscore.IsotopePatternScoreCalculator;
 import io.github.mzmine.modules.tools.isotopepatternscore.IsotopePatternScoreParameters;
-import io.github.mzmine.modules.tools.isotopeprediction.IsotopePatternCalculator;
 import io.github.mzmine.modules.tools.msmsscore.MSMSScore;
 import io.github.mzmine.modules.tools.msmsscore.MSMSScoreCalculator;
 import io.github.mzmine.modules.tools.msmsscore.MSMSScoreParameters;
@@ -44,24 +42,31 @@ import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.FormulaUtils;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.openscience.cdk.formula.MolecularFormulaGenerator;
 import org.openscience.cdk.formula.MolecularFormulaRange;
-import org.openscience.cdk.interfaces.IChemObjectBuilder;
 import org.openscience.cdk.interfaces.IMolecularFormula;
-import org.openscience.cdk.silent.SilentChemObjectBuilder;
 import org.openscience.cdk.tools.manipulator.MolecularFormulaManipulator;
 
 public class FormulaPredictionFeatureListTask extends AbstractTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
-  private Range<Double> massRange;
   private MolecularFormulaRange elementCounts;
-  private MolecularFormulaGenerator generator;
+  // generators of all rows that are predicted in parallel
+  private final Set<MolecularFormulaGenerator> runningGenerators = ConcurrentHashMap.newKeySet();
+  private final FormulaPredictionCache cache = new FormulaPredictionCache();
   private IonizationType ionType;
-  private double searchedMass;
   private int charge;
   private FeatureList featureList;
   private boolean checkIsotopes, checkMSMS, checkRatios, checkRDBE;
@@ -69,6 +74,8 @@ public class FormulaPredictionFeatureListTask extends AbstractTask {
   private MZTolerance mzTolerance;
   private String message;
   private int totalRows, finishedRows;
+  private final AtomicLong checkedFormulas = new AtomicLong();
+  private long startTime;
   private int maxBestFormulasPerFeature;
   private final double minScore;
   private final double minMSMSScore;
@@ -144,7 +151,7 @@ public class FormulaPredictionFeatureListTask extends AbstractTask {
       sortIsotopeFactor =
           sortParam.getParameter(FormulaSortParameters.ISOTOPE_SCORE_WEIGHT).getValue();
     }
-    message = "Formula Prediction";
+    message = "Formula prediction on " + featureList;
     this.parameters = parameters;
   }
 
@@ -164,6 +171,11 @@ public class FormulaPredictionFeatureListTask extends AbstractTask {
    */
   @Override
   public String getTaskDescription() {
+    final double seconds = (System.nanoTime() - startTime) / 1E9;
+    if (startTime != 0 && seconds > 1) {
+      return String.format("%s (%.1f rows/s, %.0f formulas/s)", message, finishedRows / seconds,
+          checkedFormulas.get() / seconds);
+    }
     return message;
   }
 
@@ -174,90 +186,143 @@ public class FormulaPredictionFeatureListTask extends AbstractTask {
   public void run() {
 
     setStatus(TaskStatus.PROCESSING);
+    startTime = System.nanoTime();
 
     totalRows = featureList.getNumberOfRows();
 
-    for (FeatureListRow row : featureList.getRows()) {
-
-      if (row.getPeakIdentities().size() > 0) {
-        continue;
-      }
-
-      this.searchedMass = (row.getAverageMZ() - ionType.getAddedMass()) * charge;
-
-      message = "Formula prediction for "
-          + MZmineCore.getConfiguration().getMZFormat().format(searchedMass);
-
-      massRange = mzTolerance.getToleranceRange(searchedMass);
+    // Rows are predicted in parallel, but at most a few rows ahead of the
+    // row whose formulas are added next
+    final int maxPendingRows = 2 * Runtime.getRuntime().availableProcessors();
+    final Deque<FeatureListRow> pendingRows = new ArrayDeque<>();
+    final Deque<ForkJoinTask<List<MolecularFormulaIdentity>>> pendingPredictions =
+        new ArrayDeque<>();
 
-      IChemObjectBuilder builder = SilentChemObjectBuilder.getInstance();
-      generator = new MolecularFormulaGenerator(builder, massRange.lowerEndpoint(),
-          massRange.upperEndpoint(), elementCounts);
+    try {
+      for (FeatureListRow row : featureList.getRows()) {
 
-      IMolecularFormula cdkFormula;
+        if (row.getPeakIdentities().size() > 0) {
+          continue;
+        }
 
-      // create a map to store ResultFormula and relative mass deviation
-      // for sorting
-      List<MolecularFormulaIdentity> flist = new ArrayList<>();
-      while ((cdkFormula = generator.getNextFormula()) != null) {
         if (isCanceled()) {
           return;
         }
 
-        // Mass is ok, so test other constraints
-        if (checkConstraints(cdkFormula, row)) {
-          Double isotopeScore = calcIsotopePatternScore(cdkFormula, row);
-          Double msmsScore = calcIsotopePatternScore(cdkFormula, row);
-          if (getStatus().equals(TaskStatus.ERROR)) {
-            return;
-          }
-
-          if ((isotopeScore == null || isotopeScore >= minScore)
-              && (msmsScore == null || msmsScore >= minMSMSScore)) {
-            // write to map
-            MolecularFormulaIdentity molf =
-                new MolecularFormulaIdentity(cdkFormula, searchedMass, isotopeScore, msmsScore);
-            flist.add(molf);
-          }
+        pendingRows.add(row);
+        pendingPredictions.add(ForkJoinPool.commonPool().submit(() -> predictFormulas(row)));
+        if (pendingRows.size() >= maxPendingRows) {
+          addFormulas(pendingRows.poll(), pendingPredictions.poll().get());
         }
       }
-
-      if (isCanceled()) {
-        return;
+      while (!pendingRows.isEmpty()) {
+        addFormulas(pendingRows.poll(), pendingPredictions.poll().get());
       }
-
-      // sort formulas by ppm difference
-      FormulaUtils.sortFormulaList(flist, sortPPMFactor, sortIsotopeFactor, sortMSMSFactor);
-
-      // Add the new formula entry top results
-      int ctr = 0;
-      for (MolecularFormulaIdentity f : flist) {
-        if (ctr < maxBestFormulasPerFeature) {
-          f.setPropertyValue(FeatureIdentity.PROPERTY_METHOD, this.getClass().getName());
-          row.addFeatureIdentity(f, false);
-          ctr++;
-        }
-      }
-      if (isCanceled()) {
-        return;
+    } catch (InterruptedException | ExecutionException e) {
+      logger.log(Level.SEVERE, "Formula prediction failed", e);
+      setErrorMessage("Formula prediction failed: " + e.getMessage());
+      setStatus(TaskStatus.ERROR);
+      return;
+    } finally {
+      // stop the remaining rows if the prediction failed or was canceled
+      for (ForkJoinTask<List<MolecularFormulaIdentity>> task : pendingPredictions) {
+        task.cancel(false);
       }
-      finishedRows++;
-
+      cache.clear();
     }
 
-    if (isCanceled()) {
+    if (isCanceled() || getStatus() == TaskStatus.ERROR) {
       return;
     }
 
     featureList.getAppliedMethods().add(new SimpleFeatureListAppliedMethod(
         FormulaPredictionFeatureListModule.class, parameters));
 
-    logger.finest("Finished formula search for all the features");
+    final double seconds = (System.nanoTime() - startTime) / 1E9;
+    logger.info(String.format(
+        "Finished formula prediction of %d rows and %d candidate formulas in %.1f s, %s",
+        finishedRows, checkedFormulas.get(), seconds, cache));
 
     setStatus(TaskStatus.FINISHED);
 
   }
 
+  /**
+   * Predicts the formulas of one row. Called in parallel for multiple rows.
+   *
+   * @return the best formulas, or null if the task was canceled or failed
+   */
+  private List<MolecularFormulaIdentity> predictFormulas(FeatureListRow row) {
+
+    final double searchedMass = (row.getAverageMZ() - ionType.getAddedMass()) * charge;
+    final Range<Double> massRange = mzTolerance.getToleranceRange(searchedMass);
+
+    final List<IMolecularFormula> candidates =
+        cache.getCandidateFormulas(massRange, elementCounts, runningGenerators, this::isCanceled);
+    if (candidates == null) {
+      return null;
+    }
+
+    // create a map to store ResultFormula and relative mass deviation
+    // for sorting
+    List<MolecularFormulaIdentity> flist = new ArrayList<>();
+    for (IMolecularFormula cdkFormula : candidates) {
+      if (isCanceled()) {
+        return null;
+      }
+      checkedFormulas.incrementAndGet();
+
+      // Mass is ok, so test other constraints
+      if (checkConstraints(cdkFormula, row)) {
+        Double isotopeScore = calcIsotopePatternScore(cdkFormula, row);
+        Double msmsScore = calcMSMSPatternScore(cdkFormula, row);
+        if (getStatus().equals(TaskStatus.ERROR)) {
+          return null;
+        }
+
+        if ((isotopeScore == null || isotopeScore >= minScore)
+            && (msmsScore == null || msmsScore >= minMSMSScore)) {
+          // write to map
+          // the candidates are shared with other rows, so the identity gets its own copy
+          MolecularFormulaIdentity molf = new MolecularFormulaIdentity(copyFormula(cdkFormula),
+              searchedMass, isotopeScore, msmsScore);
+          flist.add(molf);
+        }
+      }
+    }
+
+    // sort formulas by ppm difference
+    FormulaUtils.sortFormulaList(flist, sortPPMFactor, sortIsotopeFactor, sortMSMSFactor);
+    return flist;
+  }
+
+  /**
+   * Adds the top results of a row.
+   */
+  private void addFormulas(FeatureListRow row, List<MolecularFormulaIdentity> flist) {
+    if (flist == null) {
+      return;
+    }
+
+    // Add the new formula entry top results
+    int ctr = 0;
+    for (MolecularFormulaIdentity f : flist) {
+      if (ctr < maxBestFormulasPerFeature) {
+        f.setPropertyValue(FeatureIdentity.PROPERTY_METHOD, this.getClass().getName());
+        row.addFeatureIdentity(f, false);
+        ctr++;
+      }
+    }
+    finishedRows++;
+  }
+
+  private static IMolecularFormula copyFormula(IMolecularFormula formula) {
+    try {
+      return (IMolecularFormula) formula.clone();
+    } catch (CloneNotSupportedException e) {
+      throw new IllegalStateException("Cannot copy formula " + formula, e);
+    }
+  }
+
   private boolean checkConstraints(IMolecularFormula cdkFormula, FeatureListRow featureListRow) {
 
     // Check elemental ratios
@@ -339,8 +404,8 @@ public class FormulaPredictionFeatureListTask extends AbstractTask {
 
       final double minPredictedAbundance = isotopeNoiseLevel / detectedPatternHeight;
 
-      predictedIsotopePattern = IsotopePatternCalculator.calculateIsotopePattern(adjustedFormula,
-          minPredictedAbundance, charge, ionType.getPolarity());
+      predictedIsotopePattern = cache.getIsotopePattern(adjustedFormula, minPredictedAbundance,
+          charge, ionType.getPolarity());
 
       isotopeScore = IsotopePatternScoreCalculator.getSimilarityScore(detectedPattern,
           predictedIsotopePattern, isotopeParameters);
@@ -352,9 +417,9 @@ public class FormulaPredictionFeatureListTask extends AbstractTask {
   public void cancel() {
     super.cancel();
 
-    // We need to cancel the formula generator, because searching for next
+    // We need to cancel the formula generators, because searching for next
     // candidate formula may take a looong time
-    if (generator != null) {
+    for (MolecularFormulaGenerator generator : runningGenerators) {
       generator.cancel();
     }
 
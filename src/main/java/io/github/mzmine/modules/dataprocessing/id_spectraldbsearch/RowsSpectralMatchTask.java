@@ -40,6 +40,7 @@ import io.github.mzmine.util.scans.ScanUtils;
 import io.github.mzmine.util.scans.similarity.SpectralSimilarity;
 import io.github.mzmine.util.scans.similarity.SpectralSimilarityFunction;
 import io.github.mzmine.util.scans.sorting.ScanSortMode;
+import io.github.mzmine.util.spectraldb.SpectralLibraryIndex;
 import io.github.mzmine.util.spectraldb.entry.DBEntryField;
 import io.github.mzmine.util.spectraldb.entry.SpectralDBEntry;
 import io.github.mzmine.util.spectraldb.entry.SpectralDBFeatureIdentity;
@@ -52,6 +53,7 @@ import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 public class RowsSpectralMatchTask extends AbstractTask {
 
@@ -75,14 +77,11 @@ public class RowsSpectralMatchTask extends AbstractTask {
   private final int msLevel;
   private final double noiseLevel;
   private final int minMatch;
-  private List<SpectralDBEntry> list;
+  private SpectralLibraryIndex library;
+  private final int librarySize;
 
   private int count = 0;
 
-  // as this module is started in a series the start entry is saved to track
-  // progress
-  private int startEntry;
-  private int listsize;
   private MZmineProcessingStep<SpectralSimilarityFunction> simFunction;
 
   // remove 13C isotopes
@@ -101,21 +100,20 @@ public class RowsSpectralMatchTask extends AbstractTask {
   private int minMatchedIsoSignals;
 
   public RowsSpectralMatchTask(String description, @Nonnull FeatureListRow[] rows,
-      ParameterSet parameters, int startEntry, List<SpectralDBEntry> list) {
-    this(description, rows, parameters, startEntry, list, null);
+      ParameterSet parameters, @Nonnull SpectralLibraryIndex library) {
+    this(description, rows, parameters, library, null);
   }
 
   public RowsSpectralMatchTask(String description, @Nonnull FeatureListRow[] rows,
-      ParameterSet parameters, int startEntry, List<SpectralDBEntry> list,
+      ParameterSet parameters, @Nonnull SpectralLibraryIndex library,
       Consumer<SpectralDBFeatureIdentity> matchListener) {
     super(null); // no new data stored -> null
     this.description = description;
     this.rows = rows;
     this.parameters = parameters;
-    this.startEntry = startEntry;
-    this.list = list;
+    this.library = library;
     this.matchListener = matchListener;
-    listsize = list.size();
+    librarySize = library.size();
     dataBaseFile = parameters.getParameter(LocalSpectralDBSearchParameters.dataBaseFile).getValue();
     mzToleranceSpectra =
         parameters.getParameter(LocalSpectralDBSearchParameters.mzTolerance).getValue();
@@ -167,8 +165,33 @@ public class RowsSpectralMatchTask extends AbstractTask {
   @Override
   public String getTaskDescription() {
     return MessageFormat.format(
-        "(entry {2}-{3}) spectral database identification in {0} using database {1}", description,
-        dataBaseFile.getName(), startEntry, startEntry + listsize - 1);
+        "spectral database identification in {0} using database {1} ({2} entries)", description,
+        dataBaseFile.getName(), librarySize);
+  }
+
+  /**
+   * Splits the rows into one task per available processor. Every task matches its rows against the
+   * whole library.
+   *
+   * @param matchListener listens for matches, may be null
+   * @return the tasks
+   */
+  public static List<RowsSpectralMatchTask> createTasks(String description,
+      @Nonnull FeatureListRow[] rows, ParameterSet parameters,
+      @Nonnull SpectralLibraryIndex library,
+      @Nullable Consumer<SpectralDBFeatureIdentity> matchListener) {
+    final int numTasks =
+        Math.max(1, Math.min(rows.length, Runtime.getRuntime().availableProcessors()));
+    final int rowsPerTask = (int) Math.ceil(rows.length / (double) numTasks);
+
+    final List<RowsSpectralMatchTask> tasks = new ArrayList<>();
+    for (int start = 0; start < rows.length; start += rowsPerTask) {
+      final FeatureListRow[] taskRows =
+          Arrays.copyOfRange(rows, start, Math.min(start + rowsPerTask, rows.length));
+      tasks.add(new RowsSpectralMatchTask(description, taskRows, parameters, library,
+          matchListener));
+    }
+    return tasks;
   }
 
   /**
@@ -178,6 +201,7 @@ public class RowsSpectralMatchTask extends AbstractTask {
   public void run() {
     setStatus(TaskStatus.PROCESSING);
     addRowTypes();
+    final long startTime = System.nanoTime();
 
     for (FeatureListRow row : rows) {
       if (isCanceled()) {
@@ -199,8 +223,11 @@ public class RowsSpectralMatchTask extends AbstractTask {
           rowMassLists.add(rowMassList);
         }
 
-        // match against all library entries
-        for (SpectralDBEntry ident : list) {
+        // match against all library entries, or only against the entries with a matching
+        // precursor m/z for MS2
+        final List<SpectralDBEntry> candidates = msLevel == 1 ? library.getEntries()
+            : library.getCandidates(row.getAverageMZ(), mzTolerancePrecursor);
+        for (SpectralDBEntry ident : candidates) {
           SpectralDBFeatureIdentity best = null;
           // match all scans against this ident to find best match
           for (int i = 0; i < scans.size(); i++) {
@@ -229,7 +256,7 @@ public class RowsSpectralMatchTask extends AbstractTask {
         logger.log(Level.WARNING, "Data base matching failed. To many missing mass lists ");
         setStatus(TaskStatus.ERROR);
         setErrorMessage("Data base matching failed. To many missing mass lists ");
-        list = null;
+        library = null;
         return;
       }
       // next row
@@ -238,7 +265,12 @@ public class RowsSpectralMatchTask extends AbstractTask {
     if (count > 0)
       logger.info("Added " + count + " spectral library matches");
 
-    list = null;
+    final double seconds = (System.nanoTime() - startTime) / 1E9;
+    logger.fine(() -> String.format(
+        "Matched %d rows against %d library entries in %.1f s (%.1f rows/s)", totalRows,
+        librarySize, seconds, totalRows / Math.max(seconds, 1E-9)));
+
+    library = null;
 
     setStatus(TaskStatus.FINISHED);
   }
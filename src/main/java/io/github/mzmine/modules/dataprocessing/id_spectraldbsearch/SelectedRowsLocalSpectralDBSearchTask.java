@@ -25,9 +25,8 @@ import io.github.mzmine.modules.visualization.spectra.spectralmatchresults.Spect
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
-import io.github.mzmine.util.spectraldb.entry.SpectralDBEntry;
-import io.github.mzmine.util.spectraldb.parser.AutoLibraryParser;
-import io.github.mzmine.util.spectraldb.parser.LibraryEntryProcessor;
+import io.github.mzmine.util.spectraldb.SpectralLibraryCache;
+import io.github.mzmine.util.spectraldb.SpectralLibraryIndex;
 import io.github.mzmine.util.spectraldb.parser.UnsupportedFormatException;
 import java.io.File;
 import java.io.IOException;
@@ -154,33 +153,27 @@ public class SelectedRowsLocalSpectralDBSearchTask extends AbstractTask {
   }
 
   /**
-   * Load all library entries from data base file
+   * Load all library entries from data base file (or the library cache) and start the matching
+   * tasks
    *
    * @param dataBaseFile
-   * @return
+   * @return the tasks or an empty list if the library is empty or parsing was canceled
    */
   private List<RowsSpectralMatchTask> parseFile(File dataBaseFile)
       throws UnsupportedFormatException, IOException {
-    //
-    List<RowsSpectralMatchTask> tasks = new ArrayList<>();
-    AutoLibraryParser parser = new AutoLibraryParser(100, new LibraryEntryProcessor() {
-      @Override
-      public void processNextEntries(List<SpectralDBEntry> list, int alreadyProcessed) {
-        // start last task
-        RowsSpectralMatchTask task = new RowsSpectralMatchTask(peakListRows.length + " rows",
-            peakListRows, parameters, alreadyProcessed + 1, list, (match) -> {
+    SpectralLibraryIndex library = SpectralLibraryCache.getLibrary(this, dataBaseFile);
+    if (library == null || library.size() == 0) {
+      return new ArrayList<>();
+    }
+
+    List<RowsSpectralMatchTask> tasks = RowsSpectralMatchTask.createTasks(
+        peakListRows.length + " rows", peakListRows, parameters, library, (match) -> {
           // one selected row -> show in dialog
           if (resultWindow != null) {
             Platform.runLater(() -> resultWindow.addMatches(match));
           }
         });
-        MZmineCore.getTaskController().addTask(task);
-        tasks.add(task);
-      }
-    });
-
-    // return tasks
-    parser.parse(this, dataBaseFile);
+    tasks.forEach(task -> MZmineCore.getTaskController().addTask(task));
     return tasks;
   }
 
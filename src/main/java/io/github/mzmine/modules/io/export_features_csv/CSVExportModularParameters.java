@@ -21,6 +21,7 @@ package io.github.mzmine.modules.io.export_features_csv;
 import io.github.mzmine.modules.io.export_gnps.fbmn.FeatureListRowsFilter;
 import io.github.mzmine.parameters.Parameter;
 import io.github.mzmine.parameters.impl.SimpleParameterSet;
+import io.github.mzmine.parameters.parametertypes.BooleanParameter;
 import io.github.mzmine.parameters.parametertypes.ComboParameter;
 import io.github.mzmine.parameters.parametertypes.StringParameter;
 import io.github.mzmine.parameters.parametertypes.filenames.FileNameParameter;
@@ -48,8 +49,11 @@ public class CSVExportModularParameters extends SimpleParameterSet {
       "Filter rows", "Limit the exported rows to those with MS/MS data (or annotated rows)",
       FeatureListRowsFilter.values(), FeatureListRowsFilter.ALL);
 
+  public static final BooleanParameter gzip = new BooleanParameter("Compress (gzip)",
+      "If selected, the CSV file is compressed with gzip and saved as .csv.gz", false);
+
   public CSVExportModularParameters() {
-    super(new Parameter[] {featureLists, filename, fieldSeparator, idSeparator, filter});
+    super(new Parameter[] {featureLists, filename, fieldSeparator, idSeparator, filter, gzip});
   }
 
 }
@@ -36,15 +36,24 @@ import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.files.FileAndPathUtil;
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.text.MessageFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 import java.util.stream.Collectors;
 import javafx.beans.property.Property;
 
@@ -52,8 +61,20 @@ public class CSVExportModularTask extends AbstractTask {
 
   public static final String DATAFILE_PREFIX = "DATAFILE";
 
+  // number of values that are formatted by one worker at once
+  private static final int VALUES_PER_CHUNK = 1 << 16;
+  private static final int MAX_ROWS_PER_CHUNK = 1024;
+  private static final Pattern CONTROL_CHARACTERS = Pattern.compile("[\\p{Cntrl}]");
+
   private ModularFeatureList[] featureLists;
-  private int processedRows = 0, totalRows = 0;
+  private final AtomicInteger processedRows = new AtomicInteger();
+  private int totalRows = 0;
+  private long startTime;
+
+  // every worker formats its chunks into its own builder
+  private final ThreadLocal<StringBuilder> chunkBuilder =
+      ThreadLocal.withInitial(() -> new StringBuilder(1 << 16));
+  private final String lineSeparator = System.lineSeparator();
 
   // parameter values
   private File fileName;
@@ -62,6 +83,7 @@ public class CSVExportModularTask extends AbstractTask {
   private String idSeparator;
   private String headerSeparator = ":";
   private FeatureListRowsFilter filter;
+  private boolean gzip;
 
   public CSVExportModularTask(ParameterSet parameters) {
     super(null); // no new data stored -> null
@@ -73,6 +95,7 @@ public class CSVExportModularTask extends AbstractTask {
         CSVExportModularParameters.fieldSeparator).getValue();
     idSeparator = parameters.getParameter(CSVExportModularParameters.idSeparator).getValue();
     this.filter = parameters.getParameter(CSVExportModularParameters.filter).getValue();
+    this.gzip = parameters.getParameter(CSVExportModularParameters.gzip).getValue();
   }
 
   /**
@@ -85,6 +108,19 @@ public class CSVExportModularTask extends AbstractTask {
   public CSVExportModularTask(ModularFeatureList[] featureLists, File fileName,
       String fieldSeparator,
       String idSeparator, FeatureListRowsFilter filter) {
+    this(featureLists, fileName, fieldSeparator, idSeparator, filter, false);
+  }
+
+  /**
+   * @param featureLists   feature lists to export
+   * @param fileName       export file name
+   * @param fieldSeparator separation of columns
+   * @param idSeparator    identity field separation
+   * @param filter         Row filter
+   * @param gzip           compress the files with gzip
+   */
+  public CSVExportModularTask(ModularFeatureList[] featureLists, File fileName,
+      String fieldSeparator, String idSeparator, FeatureListRowsFilter filter, boolean gzip) {
     super(null); // no new data stored -> null
     if (fieldSeparator.equals(idSeparator)) {
       throw new IllegalArgumentException(MessageFormat
@@ -96,6 +132,7 @@ public class CSVExportModularTask extends AbstractTask {
     this.fieldSeparator = fieldSeparator;
     this.idSeparator = idSeparator;
     this.filter = filter;
+    this.gzip = gzip;
   }
 
   @Override
@@ -103,17 +140,24 @@ public class CSVExportModularTask extends AbstractTask {
     if (totalRows == 0) {
       return 0;
     }
-    return (double) processedRows / (double) totalRows;
+    return (double) processedRows.get() / (double) totalRows;
   }
 
   @Override
   public String getTaskDescription() {
-    return "Exporting feature list(s) " + Arrays.toString(featureLists) + " to CSV file(s) (new format)";
+    String description = "Exporting feature list(s) " + Arrays.toString(featureLists)
+        + " to CSV file(s) (new format)";
+    final double seconds = (System.nanoTime() - startTime) / 1E9;
+    if (startTime != 0 && seconds > 1) {
+      description += String.format(" (%.0f rows/s)", processedRows.get() / seconds);
+    }
+    return description;
   }
 
   @Override
   public void run() {
     setStatus(TaskStatus.PROCESSING);
+    startTime = System.nanoTime();
 
     // Shall export several files?
     boolean substitute = fileName.getPath().contains(plNamePattern);
@@ -137,15 +181,26 @@ public class CSVExportModularTask extends AbstractTask {
         curFile = new File(newFilename);
       }
       curFile = FileAndPathUtil.getRealFilePath(curFile, "csv");
+      if (gzip) {
+        curFile = new File(curFile.getPath() + ".gz");
+      }
 
       // Open file
 
-      try (BufferedWriter writer = Files
-          .newBufferedWriter(curFile.toPath(), StandardCharsets.UTF_8)) {
-        exportFeatureList(featureList, writer, curFile);
+      try (OutputStream out = openOutputStream(curFile)) {
+        exportFeatureList(featureList, out);
       } catch (IOException e) {
         setStatus(TaskStatus.ERROR);
-        setErrorMessage("Could not open file " + curFile + " for writing.");
+        setErrorMessage("Could not write file " + curFile + ": " + e.getMessage());
+        return;
+      } catch (ExecutionException e) {
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage("Could not export feature list " + featureList.getName() + ": " + e
+            .getCause().toString());
+        return;
+      } catch (InterruptedException e) {
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage("Export of feature list " + featureList.getName() + " was interrupted");
         return;
       }
 
@@ -166,8 +221,20 @@ public class CSVExportModularTask extends AbstractTask {
     }
   }
 
-  private void exportFeatureList(ModularFeatureList flist, BufferedWriter writer, File fileName)
-      throws IOException {
+  private OutputStream openOutputStream(File file) throws IOException {
+    OutputStream out = Files.newOutputStream(file.toPath());
+    if (gzip) {
+      out = new GZIPOutputStream(out, 1 << 16);
+    }
+    return new BufferedOutputStream(out, 1 << 20);
+  }
+
+  /**
+   * Formats chunks of rows in parallel and writes them in order of the rows. Only a few chunks are
+   * formatted ahead of the writer, so the memory stays bounded for any number of rows.
+   */
+  private void exportFeatureList(ModularFeatureList flist, OutputStream out)
+      throws IOException, ExecutionException, InterruptedException {
     List<RawDataFile> rawDataFiles = flist.getRawDataFiles();
 
     List<DataType> rowTypes = flist.getRowTypes().values().stream()
@@ -185,25 +252,64 @@ public class CSVExportModularTask extends AbstractTask {
           DATAFILE_PREFIX + headerSeparator + raw.getName());
     }
 
-    writer.append(header);
-    writer.newLine();
+    out.write((header + lineSeparator).getBytes(StandardCharsets.UTF_8));
 
     // write data
-    for (FeatureListRow row : flist.getRows()) {
-      if (!filter.filter(row)) {
-        processedRows++;
-        continue;
+    final List<FeatureListRow> rows = new ArrayList<>(flist.getRows());
+    final int numValues = rowTypes.size() + rawDataFiles.size() * featureTypes.size();
+    final int rowsPerChunk = Math.max(1,
+        Math.min(MAX_ROWS_PER_CHUNK, VALUES_PER_CHUNK / Math.max(1, numValues)));
+    final int maxPendingChunks = 2 * Runtime.getRuntime().availableProcessors();
+    final Deque<ForkJoinTask<byte[]>> pendingChunks = new ArrayDeque<>();
+
+    try {
+      for (int start = 0; start < rows.size(); start += rowsPerChunk) {
+        // Cancel?
+        if (isCanceled()) {
+          return;
+        }
+        final List<FeatureListRow> chunk =
+            rows.subList(start, Math.min(rows.size(), start + rowsPerChunk));
+        pendingChunks.add(ForkJoinPool.commonPool()
+            .submit(() -> formatRows(chunk, rawDataFiles, rowTypes, featureTypes)));
+        if (pendingChunks.size() >= maxPendingChunks) {
+          out.write(pendingChunks.poll().get());
+        }
+      }
+      while (!pendingChunks.isEmpty()) {
+        out.write(pendingChunks.poll().get());
+      }
+    } finally {
+      // stop the remaining workers if the export failed or was canceled
+      for (ForkJoinTask<byte[]> task : pendingChunks) {
+        task.cancel(false);
       }
+    }
+  }
 
-      // Cancel?
+  /**
+   * @return the UTF-8 encoded lines of the rows that pass the filter
+   */
+  private byte[] formatRows(List<FeatureListRow> rows, List<RawDataFile> rawDataFiles,
+      List<DataType> rowTypes, List<DataType> featureTypes) {
+    final StringBuilder b = chunkBuilder.get();
+    b.setLength(0);
+    for (FeatureListRow row : rows) {
       if (isCanceled()) {
-        return;
+        break;
       }
-      writer.append(joinRowData((ModularFeatureListRow) row, rawDataFiles, rowTypes, featureTypes));
-      writer.newLine();
-
-      processedRows++;
+      if (filter.filter(row)) {
+        joinRowData(b, (ModularFeatureListRow) row, rawDataFiles, rowTypes, featureTypes);
+        b.append(lineSeparator);
+      }
+      processedRows.incrementAndGet();
+    }
+    final byte[] bytes = b.toString().getBytes(StandardCharsets.UTF_8);
+    // do not keep the memory of exceptionally large chunks
+    if (b.capacity() > VALUES_PER_CHUNK * 64) {
+      chunkBuilder.remove();
     }
+    return bytes;
   }
 
   public boolean filterType(DataType type) {
@@ -211,27 +317,27 @@ public class CSVExportModularTask extends AbstractTask {
         || type instanceof LinkedDataType);
   }
 
-  private String joinRowData(ModularFeatureListRow row,
+  private void joinRowData(StringBuilder b, ModularFeatureListRow row,
       List<RawDataFile> raws, List<DataType> rowTypes, List<DataType> featureTypes) {
-    StringBuilder b = new StringBuilder();
-    joinData(b, row, rowTypes);
+    boolean first = joinData(b, true, row, rowTypes);
 
     // add feature types
     for (RawDataFile raw : raws) {
       ModularFeature feature = row.getFeature(raw);
-      joinData(b, feature, featureTypes);
+      first = joinData(b, first, feature, featureTypes);
     }
-    return b.toString();
   }
 
   /**
    * @param b
+   * @param first true if the next value is the first value of the line
    * @param data  {@link ModularFeatureListRow}, {@link ModularFeature}, {@link
    *              ModularTypeProperty}
    * @param types
-   * @return
+   * @return true if no value was appended to the line so far
    */
-  private void joinData(StringBuilder b, ModularDataModel data, List<DataType> types) {
+  private boolean joinData(StringBuilder b, boolean first, ModularDataModel data,
+      List<DataType> types) {
     for (DataType type : types) {
       if (type instanceof ModularType) {
         ModularType modType = (ModularType) type;
@@ -239,26 +345,29 @@ public class CSVExportModularTask extends AbstractTask {
         // join all the sub types of a modular data type
         List<DataType> filteredSubTypes = modType.getSubDataTypes().stream()
             .filter(this::filterType).collect(Collectors.toList());
-        joinData(b, modProp, filteredSubTypes);
+        first = joinData(b, first, modProp, filteredSubTypes);
       } else if (type instanceof SubColumnsFactory subCols) {
         Property property = data.get(type);
         Object value = property == null? null : property.getValue();
         int numberOfSub = subCols.getNumberOfSubColumns();
         for (int i = 0; i < numberOfSub; i++) {
           String field = subCols.getFormattedSubColValue(i, null, null, value, null);
-          if (b.length() != 0) {
+          if (!first) {
             b.append(fieldSeparator);
           }
           b.append(field == null ? "" : field);
+          first = false;
         }
       } else {
         Property property = data.get(type);
-        if (b.length() != 0) {
+        if (!first) {
           b.append(fieldSeparator);
         }
         b.append(escapeStringForCSV(type.getFormattedString(property)));
+        first = false;
       }
     }
+    return first;
   }
 
 
@@ -310,7 +419,7 @@ public class CSVExportModularTask extends AbstractTask {
 
     // Remove all special characters (particularly \n would mess up our CSV
     // format).
-    String result = inputString.replaceAll("[\\p{Cntrl}]", " ");
+    String result = CONTROL_CHARACTERS.matcher(inputString).replaceAll(" ");
 
     // Skip too long strings (see Excel 2007 specifications)
     if (result.length() >= 32766) {
@@ -320,7 +429,7 @@ public class CSVExportModularTask extends AbstractTask {
     // If the text contains fieldSeparator, we will add
     // parenthesis
     if (result.contains(fieldSeparator) || result.contains("\"")) {
-      result = "\"" + result.replaceAll("\"", "'") + "\"";
+      result = "\"" + result.replace('"', '\'') + "\"";
     }
 
     return result;
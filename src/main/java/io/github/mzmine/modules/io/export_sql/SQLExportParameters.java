@@ -21,6 +21,7 @@ package io.github.mzmine.modules.io.export_sql;
 import io.github.mzmine.parameters.Parameter;
 import io.github.mzmine.parameters.impl.SimpleParameterSet;
 import io.github.mzmine.parameters.parametertypes.BooleanParameter;
+import io.github.mzmine.parameters.parametertypes.IntegerParameter;
 import io.github.mzmine.parameters.parametertypes.StringParameter;
 import io.github.mzmine.parameters.parametertypes.selectors.FeatureListsParameter;
 
@@ -42,8 +43,21 @@ public class SQLExportParameters extends SimpleParameterSet {
       "Export empty feature list",
       "If selected, an empty feature list will be exported with null values for all column other than the rawdatafile and any constant values.");
 
+  public static final IntegerParameter batchSize = new IntegerParameter("Batch size",
+      "Number of rows that are sent to the database at once", 1000, 1, null);
+
+  public static final IntegerParameter rowsPerStatement = new IntegerParameter(
+      "Rows per INSERT statement",
+      "Number of rows inserted by one multi-row INSERT statement. Databases limit the number of values per statement (SQLite: 999), so this times the number of columns must stay below that limit.",
+      10, 1, null);
+
+  public static final IntegerParameter writerThreads = new IntegerParameter("Parallel writers",
+      "Number of connections that insert rows in parallel. Only use more than one for databases that support concurrent writes (not SQLite). Each writer commits its rows separately.",
+      1, 1, 32);
+
   public SQLExportParameters() {
-    super(new Parameter[] {featureList, connectionString, tableName, exportColumns, emptyExport});
+    super(new Parameter[] {featureList, connectionString, tableName, exportColumns, emptyExport,
+        batchSize, rowsPerStatement, writerThreads});
   }
 
 }
@@ -18,12 +18,20 @@
 
 package io.github.mzmine.modules.io.export_sql;
 
-import java.io.ByteArrayInputStream;
 import java.sql.Connection;
 import java.sql.DriverManager;
-import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
 import io.github.mzmine.datamodel.DataPoint;
 import io.github.mzmine.datamodel.FeatureIdentity;
 import io.github.mzmine.datamodel.IsotopePattern;
@@ -41,28 +49,58 @@ import io.github.mzmine.util.scans.ScanUtils;
 
 class SQLExportTask extends AbstractTask {
 
+  private static final Logger logger = Logger.getLogger(SQLExportTask.class.getName());
+
+  // data types with one value per raw data file, rows are exported once per raw data file
+  private static final Set<SQLExportDataType> DATA_FILE_TYPES = EnumSet.of(
+      SQLExportDataType.FEATURECHARGE, SQLExportDataType.FEATUREDURATION,
+      SQLExportDataType.FEATURESTATUS, SQLExportDataType.FEATUREMZ, SQLExportDataType.FEATURERT,
+      SQLExportDataType.FEATURERT_START, SQLExportDataType.FEATURERT_END,
+      SQLExportDataType.FEATUREHEIGHT, SQLExportDataType.FEATUREAREA,
+      SQLExportDataType.DATAPOINTS, SQLExportDataType.FWHM, SQLExportDataType.TAILINGFACTOR,
+      SQLExportDataType.ASYMMETRYFACTOR, SQLExportDataType.RAWFILE);
+
   private final FeatureList featureList;
   private final String connectionString;
   private final String tableName;
   private final SQLColumnSettings exportColumns;
   private final boolean emptyExport;
+  private final int batchSize;
+  private final int rowsPerStatement;
+  private final int writerThreads;
 
-  private int processedRows = 0, totalRows = 0;
-
-  private Connection dbConnection;
+  private final AtomicInteger processedRows = new AtomicInteger();
+  private final AtomicInteger writtenRecords = new AtomicInteger();
+  private int totalRows = 0;
+  private long startTime;
+  // set if one of the parallel writers failed, so the others stop
+  private volatile boolean writerFailed = false;
 
   SQLExportTask(ParameterSet parameters) {
-    super(null); // no new data stored -> null
-
-    this.featureList = parameters.getParameter(SQLExportParameters.featureList).getValue()
-        .getMatchingFeatureLists()[0];
-    this.connectionString =
-        parameters.getParameter(SQLExportParameters.connectionString).getValue();
+    this(parameters.getParameter(SQLExportParameters.featureList).getValue()
+            .getMatchingFeatureLists()[0],
+        parameters.getParameter(SQLExportParameters.connectionString).getValue(),
+        parameters.getParameter(SQLExportParameters.tableName).getValue(),
+        parameters.getParameter(SQLExportParameters.exportColumns).getValue(),
+        parameters.getParameter(SQLExportParameters.emptyExport).getValue(),
+        parameters.getParameter(SQLExportParameters.batchSize).getValue(),
+        parameters.getParameter(SQLExportParameters.rowsPerStatement).getValue(),
+        parameters.getParameter(SQLExportParameters.writerThreads).getValue());
+  }
 
-    this.tableName = parameters.getParameter(SQLExportParameters.tableName).getValue();
-    this.exportColumns = parameters.getParameter(SQLExportParameters.exportColumns).getValue();
-    this.emptyExport = parameters.getParameter(SQLExportParameters.emptyExport).getValue();
+  SQLExportTask(FeatureList featureList, String connectionString, String tableName,
+      SQLColumnSettings exportColumns, boolean emptyExport, int batchSize, int rowsPerStatement,
+      int writerThreads) {
+    super(null); // no new data stored -> null
 
+    this.featureList = featureList;
+    this.connectionString = connectionString;
+    this.tableName = tableName;
+    this.exportColumns = exportColumns;
+    this.emptyExport = emptyExport;
+    this.batchSize = batchSize;
+    this.rowsPerStatement = rowsPerStatement;
+    this.writerThreads = writerThreads;
   }
 
   @Override
@@ -70,243 +108,313 @@ class SQLExportTask extends AbstractTask {
     if (totalRows == 0) {
       return 0;
     }
-    return (double) processedRows / (double) totalRows;
+    return (double) processedRows.get() / (double) totalRows;
   }
 
   @Override
   public String getTaskDescription() {
-    return "Exporting feature list \"" + featureList + "\" to SQL table " + tableName;
+    String description =
+        "Exporting feature list \"" + featureList + "\" to SQL table " + tableName;
+    final double seconds = (System.nanoTime() - startTime) / 1E9;
+    if (startTime != 0 && seconds > 1) {
+      description += String.format(" (%.0f rows/s)", processedRows.get() / seconds);
+    }
+    return description;
   }
 
   @Override
   public void run() {
     setStatus(TaskStatus.PROCESSING);
+    startTime = System.nanoTime();
 
     // Get number of rows
     totalRows = featureList.getNumberOfRows();
 
-    try {
-      this.dbConnection = DriverManager.getConnection(connectionString);
-    } catch (SQLException e) {
-      setStatus(TaskStatus.ERROR);
-      setErrorMessage("Error connecting to the SQL database: " + e.toString());
-      return;
+    final String columnNames[] = new String[exportColumns.getRowCount()];
+    final int sqlTypes[] = new int[exportColumns.getRowCount()];
+    for (int i = 0; i < columnNames.length; i++) {
+      columnNames[i] = (String) exportColumns.getValueAt(i, 0);
+      sqlTypes[i] = getSQLType((SQLExportDataType) exportColumns.getValueAt(i, 1));
     }
 
-    FeatureListRow rows[] = featureList.getRows().toArray(FeatureListRow[]::new);
+    final List<FeatureListRow> rows = new ArrayList<>(featureList.getRows());
 
     try {
-      dbConnection.setAutoCommit(false);
-
       // If select, an empty row with just the raw data file
       // information will be exported
-      if (rows.length < 1 && emptyExport) {
-        exportFeatureListRow(null);
+      if (rows.isEmpty() && emptyExport) {
+        writeRows(Collections.<FeatureListRow>singletonList(null), columnNames, sqlTypes);
       } else {
-        for (FeatureListRow row : rows) {
-          if (getStatus() != TaskStatus.PROCESSING)
-            break;
-          exportFeatureListRow(row);
-          processedRows++;
+        // contiguous parts of the rows are written by separate connections
+        final int numWriters = Math.max(1, Math.min(writerThreads, rows.size()));
+        final List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int w = 0; w < numWriters; w++) {
+          final List<FeatureListRow> part = rows.subList(
+              (int) ((long) rows.size() * w / numWriters),
+              (int) ((long) rows.size() * (w + 1) / numWriters));
+          tasks.add(ForkJoinPool.commonPool().submit(() -> {
+            writeRows(part, columnNames, sqlTypes);
+            return null;
+          }));
+        }
+        try {
+          for (ForkJoinTask<?> task : tasks) {
+            task.get();
+          }
+        } catch (ExecutionException e) {
+          // stop the other writers
+          writerFailed = true;
+          for (ForkJoinTask<?> task : tasks) {
+            task.quietlyJoin();
+          }
+          throw e;
         }
       }
-      dbConnection.commit();
-      dbConnection.close();
     } catch (SQLException e) {
       setStatus(TaskStatus.ERROR);
       setErrorMessage("Error running SQL query: " + e.toString());
       return;
+    } catch (ExecutionException e) {
+      setStatus(TaskStatus.ERROR);
+      setErrorMessage("Error running SQL query: " + e.getCause().toString());
+      return;
+    } catch (InterruptedException e) {
+      setStatus(TaskStatus.ERROR);
+      setErrorMessage("SQL export was interrupted");
+      return;
     }
 
+    final double seconds = (System.nanoTime() - startTime) / 1E9;
+    logger.info(String.format("Exported %d rows of %s to SQL table %s in %.1f s (%.0f rows/s)",
+        writtenRecords.get(), featureList, tableName, seconds, writtenRecords.get() / seconds));
+
     if (getStatus() == TaskStatus.PROCESSING)
       setStatus(TaskStatus.FINISHED);
 
   }
 
-  private void exportFeatureListRow(FeatureListRow row) throws SQLException {
+  /**
+   * Writes the feature list rows with a new connection in one transaction. The transaction is
+   * rolled back if the task is canceled or another writer failed. A failed writer rolls back its
+   * own transaction and stops the other writers, but writers that already committed are not undone.
+   *
+   * @param rows the rows or a single null row for an empty export
+   */
+  private void writeRows(List<FeatureListRow> rows, String columnNames[], int sqlTypes[])
+      throws SQLException {
 
-    // Cancel?
-    if (isCanceled()) {
-      return;
+    final Connection dbConnection;
+    try {
+      dbConnection = DriverManager.getConnection(connectionString);
+    } catch (SQLException e) {
+      writerFailed = true;
+      throw new SQLException("Error connecting to the SQL database: " + e.getMessage(), e);
     }
 
-    // Value for looping through raw data files
-    boolean loopDataFiles = false;
+    try (dbConnection;
+        SQLRecordWriter writer = new SQLRecordWriter(dbConnection, tableName, columnNames,
+            sqlTypes, batchSize, rowsPerStatement)) {
+      try {
+        dbConnection.setAutoCommit(false);
 
-    StringBuilder sql = new StringBuilder();
-    sql.append("INSERT INTO ");
-    sql.append(tableName);
-    sql.append(" (");
-    for (int i = 0; i < exportColumns.getRowCount(); i++) {
-      sql.append(exportColumns.getValueAt(i, 0));
-      if (i < exportColumns.getRowCount() - 1)
-        sql.append(",");
+        for (FeatureListRow row : rows) {
+          if (getStatus() != TaskStatus.PROCESSING || writerFailed) {
+            dbConnection.rollback();
+            return;
+          }
+          for (Object record[] : createRecords(row)) {
+            writer.write(record);
+          }
+          if (row != null) {
+            processedRows.incrementAndGet();
+          }
+        }
+        writer.flush();
+        if (getStatus() != TaskStatus.PROCESSING || writerFailed) {
+          dbConnection.rollback();
+          return;
+        }
+        dbConnection.commit();
+        writtenRecords.addAndGet(writer.getWrittenRecords());
+      } catch (SQLException | RuntimeException e) {
+        // stop the other writers right away, not only when this writer is joined
+        writerFailed = true;
+        try {
+          dbConnection.rollback();
+        } catch (SQLException rollbackException) {
+          e.addSuppressed(rollbackException);
+        }
+        throw e;
+      }
     }
-    sql.append(" ) VALUES (");
-    for (int i = 0; i < exportColumns.getRowCount(); i++) {
-      sql.append("?");
-      if (i < exportColumns.getRowCount() - 1)
-        sql.append(",");
+  }
+
+  private static int getSQLType(SQLExportDataType dataType) {
+    switch (dataType.valueType()) {
+      case "INT":
+        return Types.INTEGER;
+      case "DOUBLE":
+        return Types.DOUBLE;
+      case "BLOB":
+        return Types.BLOB;
+      default:
+        return Types.VARCHAR;
     }
-    sql.append(")");
+  }
 
-    PreparedStatement statement = dbConnection.prepareStatement(sql.toString());
+  /**
+   * Creates the values of the table rows of a feature list row. A feature list row is exported as
+   * one table row per raw data file, if any data file element is exported.
+   *
+   * @param row the feature list row or null to create one table row for an empty export
+   * @return one value per column for every table row
+   */
+  private List<Object[]> createRecords(FeatureListRow row) {
+
+    final int numColumns = exportColumns.getRowCount();
 
     if (row == null) {
-      for (int i = 0; i < exportColumns.getRowCount(); i++) {
+      final Object record[] = new Object[numColumns];
+      for (int i = 0; i < numColumns; i++) {
         SQLExportDataType dataType = (SQLExportDataType) exportColumns.getValueAt(i, 1);
         String dataValue = (String) exportColumns.getValueAt(i, 2);
         switch (dataType) {
           case CONSTANT:
-            statement.setString(i + 1, dataValue);
+            record[i] = dataValue;
             break;
           case RAWFILE:
             RawDataFile rawdatafiles[] = featureList.getRawDataFiles().toArray(RawDataFile[]::new);
-            statement.setString(i + 1, rawdatafiles[0].getName());
+            record[i] = rawdatafiles[0].getName();
             break;
           default:
-            statement.setString(i + 1, null);
+            record[i] = null;
             break;
         }
       }
-      statement.executeUpdate();
+      return Collections.singletonList(record);
     }
 
-    else {
-      for (RawDataFile rawDataFile : row.getRawDataFiles()) {
-        Feature feature = row.getFeature(rawDataFile);
+    // Value for looping through raw data files
+    boolean loopDataFiles = false;
+    for (int i = 0; i < numColumns; i++) {
+      if (DATA_FILE_TYPES.contains(exportColumns.getValueAt(i, 1))) {
+        loopDataFiles = true;
+      }
+    }
 
-        for (int i = 0; i < exportColumns.getRowCount(); i++) {
-          SQLExportDataType dataType = (SQLExportDataType) exportColumns.getValueAt(i, 1);
-          String dataValue = (String) exportColumns.getValueAt(i, 2);
-          switch (dataType) {
-            case CONSTANT:
-              statement.setString(i + 1, dataValue);
-              break;
-            case MZ:
-              statement.setDouble(i + 1, row.getAverageMZ());
-              break;
-            case RT:
-              statement.setDouble(i + 1, row.getAverageRT());
-              break;
-            case ID:
-              statement.setInt(i + 1, row.getID());
-              break;
-            case FEATURECHARGE:
-              statement.setDouble(i + 1, feature.getCharge());
-              loopDataFiles = true;
-              break;
-            case FEATUREDURATION:
-              statement.setDouble(i + 1, RangeUtils.rangeLength(feature.getRawDataPointsRTRange()));
-              loopDataFiles = true;
-              break;
-            case FEATURESTATUS:
-              statement.setString(i + 1, feature.getFeatureStatus().name());
-              loopDataFiles = true;
-              break;
-            case FEATUREMZ:
-              statement.setDouble(i + 1, feature.getMZ());
-              loopDataFiles = true;
-              break;
-            case FEATURERT:
-              statement.setDouble(i + 1, feature.getRT());
-              loopDataFiles = true;
-              break;
-            case FEATURERT_START:
-              statement.setDouble(i + 1, feature.getRawDataPointsRTRange().lowerEndpoint());
-              loopDataFiles = true;
-              break;
-            case FEATURERT_END:
-              statement.setDouble(i + 1, feature.getRawDataPointsRTRange().upperEndpoint());
-              loopDataFiles = true;
-              break;
-            case FEATUREHEIGHT:
-              statement.setDouble(i + 1, feature.getHeight());
-              loopDataFiles = true;
-              break;
-            case FEATUREAREA:
-              statement.setDouble(i + 1, feature.getArea());
-              loopDataFiles = true;
-              break;
-            case DATAPOINTS:
-              statement.setDouble(i + 1, feature.getScanNumbers().size());
-              loopDataFiles = true;
-              break;
-            case FWHM:
-              statement.setDouble(i + 1, feature.getFWHM());
-              loopDataFiles = true;
-              break;
-            case TAILINGFACTOR:
-              statement.setDouble(i + 1, feature.getTailingFactor());
-              loopDataFiles = true;
-              break;
-            case ASYMMETRYFACTOR:
-              statement.setDouble(i + 1, feature.getAsymmetryFactor());
-              loopDataFiles = true;
-              break;
-            case RAWFILE:
-              statement.setString(i + 1, rawDataFile.getName());
-              loopDataFiles = true;
-              break;
-            case HEIGHT:
-              statement.setDouble(i + 1, row.getAverageHeight());
-              break;
-            case AREA:
-              statement.setDouble(i + 1, row.getAverageArea());
-              break;
-            case COMMENT:
-              statement.setString(i + 1, row.getComment());
-              break;
-            case IDENTITY:
-              FeatureIdentity id = row.getPreferredFeatureIdentity();
-              if (id != null) {
-                statement.setString(i + 1, id.getName());
-              } else {
-                statement.setNull(i + 1, Types.VARCHAR);
-              }
-              break;
-            case ISOTOPEPATTERN:
-              IsotopePattern isotopes = row.getBestIsotopePattern();
-              if (isotopes == null) {
-                statement.setNull(i + 1, Types.BLOB);
-                break;
-              }
-              DataPoint dataPoints[] = ScanUtils.extractDataPoints(isotopes);
-              byte bytes[] = ScanUtils.encodeDataPointsToBytes(dataPoints);
-              ByteArrayInputStream is = new ByteArrayInputStream(bytes);
-              statement.setBlob(i + 1, is);
+    final List<Object[]> records = new ArrayList<>();
+    for (RawDataFile rawDataFile : row.getRawDataFiles()) {
+      Feature feature = row.getFeature(rawDataFile);
+      final Object record[] = new Object[numColumns];
+
+      for (int i = 0; i < numColumns; i++) {
+        SQLExportDataType dataType = (SQLExportDataType) exportColumns.getValueAt(i, 1);
+        String dataValue = (String) exportColumns.getValueAt(i, 2);
+        switch (dataType) {
+          case CONSTANT:
+            record[i] = dataValue;
+            break;
+          case MZ:
+            record[i] = row.getAverageMZ();
+            break;
+          case RT:
+            record[i] = (double) row.getAverageRT();
+            break;
+          case ID:
+            record[i] = row.getID();
+            break;
+          case FEATURECHARGE:
+            record[i] = feature.getCharge();
+            break;
+          case FEATUREDURATION:
+            record[i] = RangeUtils.rangeLength(feature.getRawDataPointsRTRange()).doubleValue();
+            break;
+          case FEATURESTATUS:
+            record[i] = feature.getFeatureStatus().name();
+            break;
+          case FEATUREMZ:
+            record[i] = feature.getMZ();
+            break;
+          case FEATURERT:
+            record[i] = (double) feature.getRT();
+            break;
+          case FEATURERT_START:
+            record[i] = feature.getRawDataPointsRTRange().lowerEndpoint().doubleValue();
+            break;
+          case FEATURERT_END:
+            record[i] = feature.getRawDataPointsRTRange().upperEndpoint().doubleValue();
+            break;
+          case FEATUREHEIGHT:
+            record[i] = (double) feature.getHeight();
+            break;
+          case FEATUREAREA:
+            record[i] = (double) feature.getArea();
+            break;
+          case DATAPOINTS:
+            record[i] = feature.getScanNumbers().size();
+            break;
+          case FWHM:
+            record[i] = (double) feature.getFWHM();
+            break;
+          case TAILINGFACTOR:
+            record[i] = (double) feature.getTailingFactor();
+            break;
+          case ASYMMETRYFACTOR:
+            record[i] = (double) feature.getAsymmetryFactor();
+            break;
+          case RAWFILE:
+            record[i] = rawDataFile.getName();
+            break;
+          case HEIGHT:
+            record[i] = row.getAverageHeight();
+            break;
+          case AREA:
+            record[i] = row.getAverageArea();
+            break;
+          case COMMENT:
+            record[i] = row.getComment();
+            break;
+          case IDENTITY:
+            FeatureIdentity id = row.getPreferredFeatureIdentity();
+            record[i] = id != null ? id.getName() : null;
+            break;
+          case ISOTOPEPATTERN:
+            IsotopePattern isotopes = row.getBestIsotopePattern();
+            if (isotopes == null) {
+              record[i] = null;
               break;
-            case MSMS:
-              Scan msmsScan = row.getBestFeature().getMostIntenseFragmentScan();
-              // Check if there is any MS/MS scan
-              if (msmsScan == null) {
-                statement.setNull(i + 1, Types.BLOB);
-                break;
-              }
-              MassList msmsMassList = msmsScan.getMassList();
-              // Check if there is a masslist for the scan
-              if (msmsMassList == null) {
-                statement.setNull(i + 1, Types.BLOB);
-                break;
-              }
-              dataPoints = msmsMassList.getDataPoints();
-              bytes = ScanUtils.encodeDataPointsToBytes(dataPoints);
-              is = new ByteArrayInputStream(bytes);
-              statement.setBlob(i + 1, is);
+            }
+            DataPoint dataPoints[] = ScanUtils.extractDataPoints(isotopes);
+            record[i] = ScanUtils.encodeDataPointsToBytes(dataPoints);
+            break;
+          case MSMS:
+            Scan msmsScan = row.getBestFeature().getMostIntenseFragmentScan();
+            // Check if there is any MS/MS scan
+            if (msmsScan == null) {
+              record[i] = null;
               break;
-            default:
+            }
+            MassList msmsMassList = msmsScan.getMassList();
+            // Check if there is a masslist for the scan
+            if (msmsMassList == null) {
+              record[i] = null;
               break;
-          }
+            }
+            record[i] = ScanUtils.encodeDataPointsToBytes(msmsMassList.getDataPoints());
+            break;
+          default:
+            break;
         }
-        statement.executeUpdate();
+      }
+      records.add(record);
 
-        // If no data file elements are selected then don't loop through
-        // all
-        // data files in feature list
-        if (!loopDataFiles) {
-          break;
-        }
+      // If no data file elements are selected then don't loop through
+      // all
+      // data files in feature list
+      if (!loopDataFiles) {
+        break;
       }
     }
+    return records;
   }
 }
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package io.github.mzmine.modules.io.export_sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nonnull;
+
+/**
+ * Inserts records into a database table in batches. Records are staged until a multi-row INSERT
+ * statement of {@code recordsPerStatement} rows is complete, and the statements are sent to the
+ * database in JDBC batches of about {@code batchSize} records. This saves most of the round trips
+ * of one statement per record. The connection is neither committed nor closed by this writer.
+ * <p>
+ * Note that databases limit the number of parameters of a statement, e.g. SQLite to 999, so
+ * {@code recordsPerStatement} times the number of columns should stay below that limit.
+ */
+public class SQLRecordWriter implements AutoCloseable {
+
+  private final Connection connection;
+  private final String tableName;
+  private final String[] columnNames;
+  private final int[] sqlTypes;
+  private final int batchSize;
+  private final int recordsPerStatement;
+
+  private PreparedStatement multiRowStatement;
+  private PreparedStatement singleRowStatement;
+  private final List<Object[]> stagedRecords = new ArrayList<>();
+  private int batchedRecords = 0;
+  private int writtenRecords = 0;
+
+  /**
+   * @param connection          connection to the database
+   * @param tableName           table to insert the records into
+   * @param columnNames         names of the columns of the table
+   * @param sqlTypes            SQL types of the columns, see {@link java.sql.Types}, used for null
+   *                            values
+   * @param batchSize           number of records sent to the database at once
+   * @param recordsPerStatement number of records inserted by one statement
+   */
+  public SQLRecordWriter(@Nonnull Connection connection, @Nonnull String tableName,
+      @Nonnull String[] columnNames, @Nonnull int[] sqlTypes, int batchSize,
+      int recordsPerStatement) {
+    if (columnNames.length != sqlTypes.length) {
+      throw new IllegalArgumentException("Every column needs a SQL type");
+    }
+    this.connection = connection;
+    this.tableName = tableName;
+    this.columnNames = columnNames;
+    this.sqlTypes = sqlTypes;
+    this.batchSize = Math.max(1, batchSize);
+    this.recordsPerStatement = Math.max(1, recordsPerStatement);
+  }
+
+  /**
+   * Stages a record. The record is written to the database when the current batch is full or on
+   * {@link #flush()}.
+   *
+   * @param record one value per column: String, Double, Integer, byte[] or null
+   */
+  public void write(@Nonnull Object[] record) throws SQLException {
+    if (record.length != columnNames.length) {
+      throw new IllegalArgumentException(
+          "Expected " + columnNames.length + " values, got " + record.length);
+    }
+    stagedRecords.add(record);
+    if (stagedRecords.size() < recordsPerStatement) {
+      return;
+    }
+
+    if (multiRowStatement == null) {
+      multiRowStatement = connection.prepareStatement(createInsert(recordsPerStatement));
+    }
+    bind(multiRowStatement, stagedRecords);
+    multiRowStatement.addBatch();
+    batchedRecords += stagedRecords.size();
+    stagedRecords.clear();
+
+    if (batchedRecords >= batchSize) {
+      executeBatch();
+    }
+  }
+
+  /**
+   * Writes all staged records to the database.
+   */
+  public void flush() throws SQLException {
+    executeBatch();
+    if (stagedRecords.isEmpty()) {
+      return;
+    }
+    // the remaining records do not fill a multi-row statement
+    if (singleRowStatement == null) {
+      singleRowStatement = connection.prepareStatement(createInsert(1));
+    }
+    for (Object[] record : stagedRecords) {
+      bind(singleRowStatement, List.<Object[]>of(record));
+      singleRowStatement.addBatch();
+    }
+    singleRowStatement.executeBatch();
+    writtenRecords += stagedRecords.size();
+    stagedRecords.clear();
+  }
+
+  /**
+   * @return the number of records written to the database so far
+   */
+  public int getWrittenRecords() {
+    return writtenRecords;
+  }
+
+  /**
+   * Closes the statements without writing the staged records.
+   */
+  @Override
+  public void close() throws SQLException {
+    try {
+      if (multiRowStatement != null) {
+        multiRowStatement.close();
+      }
+    } finally {
+      if (singleRowStatement != null) {
+        singleRowStatement.close();
+      }
+    }
+  }
+
+  private void executeBatch() throws SQLException {
+    if (batchedRecords == 0) {
+      return;
+    }
+    multiRowStatement.executeBatch();
+    writtenRecords += batchedRecords;
+    batchedRecords = 0;
+  }
+
+  private String createInsert(int numRecords) {
+    StringBuilder sql = new StringBuilder();
+    sql.append("INSERT INTO ");
+    sql.append(tableName);
+    sql.append(" (");
+    sql.append(String.join(",", columnNames));
+    sql.append(") VALUES ");
+    for (int r = 0; r < numRecords; r++) {
+      if (r > 0) {
+        sql.append(",");
+      }
+      sql.append("(");
+      for (int i = 0; i < columnNames.length; i++) {
+        if (i > 0) {
+          sql.append(",");
+        }
+        sql.append("?");
+      }
+      sql.append(")");
+    }
+    return sql.toString();
+  }
+
+  private void bind(PreparedStatement statement, List<Object[]> records) throws SQLException {
+    int index = 1;
+    for (Object[] record : records) {
+      for (int i = 0; i < record.length; i++, index++) {
+        final Object value = record[i];
+        if (value == null) {
+          statement.setNull(index, sqlTypes[i]);
+        } else if (value instanceof String) {
+          statement.setString(index, (String) value);
+        } else if (value instanceof Double) {
+          statement.setDouble(index, (Double) value);
+        } else if (value instanceof Integer) {
+          statement.setInt(index, (Integer) value);
+        } else if (value instanceof byte[]) {
+          statement.setBytes(index, (byte[]) value);
+        } else {
+          statement.setObject(index, value);
+        }
+      }
+    }
+  }
+}
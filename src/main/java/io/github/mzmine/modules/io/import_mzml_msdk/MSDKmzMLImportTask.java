@@ -37,6 +37,7 @@ import io.github.mzmine.modules.io.import_all_data_files.AdvancedSpectraImportPa
 import io.github.mzmine.modules.io.import_all_data_files.MassDetectionSubParameters;
 import io.github.mzmine.modules.io.import_mzml_msdk.msdk.MzMLFileImportMethod;
 import io.github.mzmine.modules.io.import_mzml_msdk.msdk.data.MzMLMsScan;
+import io.github.mzmine.modules.io.import_mzml_msdk.msdk.util.ByteBufferInputStream;
 import io.github.mzmine.parameters.parametertypes.selectors.ScanSelection;
 import io.github.mzmine.project.impl.IMSRawDataFileImpl;
 import io.github.mzmine.taskcontrol.AbstractTask;
@@ -44,10 +45,14 @@ import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.ExceptionUtils;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.logging.Logger;
 import javax.annotation.Nullable;
 
@@ -65,6 +70,13 @@ public class MSDKmzMLImportTask extends AbstractTask {
   private int totalScans = 0, parsedScans;
   private String description;
 
+  /**
+   * Number of scans that are decoded in parallel before they are added to the raw data file. Limits
+   * the number of decoded scans in memory.
+   */
+  private static final int SCANS_PER_BATCH = 1024;
+  private static final int MIN_SCANS_PER_CHUNK = 16;
+
   // advanced processing will apply mass detection directly to the scans
   private final boolean applyMassDetection;
   private MZmineProcessingStep<MassDetector> ms1Detector = null;
@@ -126,6 +138,9 @@ public class MSDKmzMLImportTask extends AbstractTask {
       } else {
         buildLCMSFile(file);
       }
+      if (isCanceled()) {
+        return;
+      }
 
 
     } catch (Throwable e) {
@@ -162,41 +177,62 @@ public class MSDKmzMLImportTask extends AbstractTask {
   }
 
   public void buildLCMSFile(io.github.msdk.datamodel.RawDataFile file) throws IOException {
-    for (MsScan scan : file.getScans()) {
-      MzMLMsScan mzMLScan = (MzMLMsScan) scan;
-
-      Scan newScan = null;
-
-      if (applyMassDetection) {
-        // wrap scan
-        MsdkScanWrapper wrapper = new MsdkScanWrapper(scan);
-        double[][] mzIntensities = null;
+    final List<MsScan> scans = file.getScans();
+    final Scan[] batch = new Scan[SCANS_PER_BATCH];
+    for (int from = 0; from < scans.size(); from += SCANS_PER_BATCH) {
+      final int to = Math.min(from + SCANS_PER_BATCH, scans.size());
+      final int batchStart = from;
+      forEachScanInParallel(scans, from, to,
+          (index, scan) -> batch[index - batchStart] = convertScan(scan));
+      if (isCanceled()) {
+        return;
+      }
 
-        // apply mass detection
-        if (ms1Detector != null && wrapper.getMSLevel() == 1) {
-          mzIntensities = applyMassDetection(ms1Detector, wrapper);
-        } else if (ms2Detector != null && wrapper.getMSLevel() >= 2) {
-          mzIntensities = applyMassDetection(ms2Detector, wrapper);
-        }
+      // add in the order of the file
+      for (int i = 0; i < to - from; i++) {
+        newMZmineFile.addScan(batch[i]);
+        batch[i] = null;
+      }
+      parsedScans = to;
+      description =
+          "Importing " + file.getName() + ", parsed " + parsedScans + "/" + totalScans + " scans";
+    }
+  }
 
-        if(mzIntensities != null) {
-          // create mass list and scan. Override data points and spectrum type
-          newScan = ConversionUtils.msdkScanToSimpleScan(newMZmineFile, mzMLScan, mzIntensities[0],
-              mzIntensities[1], MassSpectrumType.CENTROIDED);
-          ScanPointerMassList newMassList = new ScanPointerMassList(newScan);
-          newScan.addMassList(newMassList);
-        }
+  /**
+   * Decodes the data of the scan and creates a {@link Scan}. Applies the mass detection, if
+   * selected.
+   */
+  private Scan convertScan(MzMLMsScan mzMLScan) throws IOException {
+    Scan newScan = null;
+
+    if (applyMassDetection) {
+      // wrap scan
+      MsdkScanWrapper wrapper = new MsdkScanWrapper(mzMLScan);
+      double[][] mzIntensities = null;
+
+      // apply mass detection
+      if (ms1Detector != null && wrapper.getMSLevel() == 1) {
+        mzIntensities = applyMassDetection(ms1Detector, wrapper);
+      } else if (ms2Detector != null && wrapper.getMSLevel() >= 2) {
+        mzIntensities = applyMassDetection(ms2Detector, wrapper);
       }
 
-      if (newScan == null) {
-        newScan = ConversionUtils.msdkScanToSimpleScan(newMZmineFile, mzMLScan);
+      if (mzIntensities != null) {
+        // create mass list and scan. Override data points and spectrum type
+        newScan = ConversionUtils.msdkScanToSimpleScan(newMZmineFile, mzMLScan, mzIntensities[0],
+            mzIntensities[1], MassSpectrumType.CENTROIDED);
+        ScanPointerMassList newMassList = new ScanPointerMassList(newScan);
+        newScan.addMassList(newMassList);
       }
+    }
 
-      newMZmineFile.addScan(newScan);
-      parsedScans++;
-      description =
-          "Importing " + file.getName() + ", parsed " + parsedScans + "/" + totalScans + " scans";
+    if (newScan == null) {
+      newScan = ConversionUtils.msdkScanToSimpleScan(newMZmineFile, mzMLScan);
     }
+    // the data was copied to the scan
+    mzMLScan.clearDecodedData();
+    return newScan;
   }
 
   public void buildIonMobilityFile(io.github.msdk.datamodel.RawDataFile file) throws IOException {
@@ -210,7 +246,20 @@ public class MSDKmzMLImportTask extends AbstractTask {
     Set<ImsMsMsInfo> finishedImsMsMsInfos = null;
     final IMSRawDataFile newImsFile = (IMSRawDataFile) newMZmineFile;
 
-    for (MsScan scan : file.getScans()) {
+    final List<MsScan> scans = file.getScans();
+    for (int i = 0; i < scans.size(); i++) {
+      if (i % SCANS_PER_BATCH == 0) {
+        // decode the next batch in parallel, the frames are built in the order of the file
+        forEachScanInParallel(scans, i, Math.min(i + SCANS_PER_BATCH, scans.size()),
+            (index, scan) -> {
+              scan.getMzValues();
+              scan.getIntensityValues();
+            });
+        if (isCanceled()) {
+          return;
+        }
+      }
+      final MsScan scan = scans.get(i);
       MzMLMsScan mzMLScan = (MzMLMsScan) scan;
       if (buildingFrame == null || Float.compare((scan.getRetentionTime() / 60f),
           buildingFrame.getRetentionTime()) != 0) {
@@ -246,6 +295,7 @@ public class MSDKmzMLImportTask extends AbstractTask {
       }
 
       mobilityScans.add(ConversionUtils.msdkScanToMobilityScan(mobilityScanNumberCounter, scan));
+      mzMLScan.clearDecodedData();
       mobilities.add(mzMLScan.getMobility().mobility());
       ConversionUtils.extractImsMsMsInfo(mzMLScan, buildingImsMsMsInfos, frameNumber,
           mobilityScanNumberCounter);
@@ -254,6 +304,65 @@ public class MSDKmzMLImportTask extends AbstractTask {
     }
   }
 
+  /**
+   * Runs the action for the scans from (inclusive) to (exclusive) in chunks on the common fork-join
+   * pool. The XML parser only recorded the positions of the binary data arrays, so the decoding and
+   * decompression of the arrays runs in parallel. Every chunk reads the memory mapped file with its
+   * own copy of the input stream.
+   */
+  private void forEachScanInParallel(List<MsScan> scans, int from, int to, ScanAction action)
+      throws IOException {
+    final int parallelism = Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+    final int scansPerChunk =
+        Math.max(MIN_SCANS_PER_CHUNK, (int) Math.ceil((to - from) / (double) (parallelism * 4)));
+
+    final List<ForkJoinTask<?>> tasks = new ArrayList<>();
+    for (int chunkStart = from; chunkStart < to; chunkStart += scansPerChunk) {
+      final int start = chunkStart;
+      final int end = Math.min(chunkStart + scansPerChunk, to);
+      final InputStream stream = copyInputStream(((MzMLMsScan) scans.get(start)).getInputStream());
+      tasks.add(ForkJoinPool.commonPool().submit(() -> {
+        for (int i = start; i < end && !isCanceled(); i++) {
+          final MzMLMsScan scan = (MzMLMsScan) scans.get(i);
+          scan.setInputStream(stream);
+          action.apply(i, scan);
+        }
+        return null;
+      }));
+    }
+
+    try {
+      for (ForkJoinTask<?> task : tasks) {
+        task.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while decoding scans", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * @return a copy of a memory mapped stream with its own position, otherwise the stream
+   */
+  private static InputStream copyInputStream(InputStream stream) {
+    return stream instanceof ByteBufferInputStream ? ((ByteBufferInputStream) stream).copy()
+        : stream;
+  }
+
+  @FunctionalInterface
+  private interface ScanAction {
+
+    void apply(int index, MzMLMsScan scan) throws IOException;
+  }
+
   @Override
   public String getTaskDescription() {
     return description;
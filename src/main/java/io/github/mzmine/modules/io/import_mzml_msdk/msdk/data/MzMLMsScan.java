@@ -179,6 +179,19 @@ public class MzMLMsScan implements MsScan {
     this.inputStream = inputStream;
   }
 
+  /**
+   * <p>
+   * Releases the decoded m/z and intensity values of a scan that was read from a file. The values
+   * are decoded from the file again on the next access.
+   * </p>
+   */
+  public void clearDecodedData() {
+    if (dataFile.getOriginalFile().isPresent()) {
+      this.mzValues = null;
+      this.intensityValues = null;
+    }
+  }
+
   /**
    * <p>
    * getPrecursorList.
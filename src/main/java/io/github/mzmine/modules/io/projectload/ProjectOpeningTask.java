@@ -75,7 +75,7 @@ public class ProjectOpeningTask extends AbstractTask {
 
   // This hashtable maps stored IDs to raw data file objects
   private final Hashtable<String, RawDataFile> dataFilesIDMap = new Hashtable<>();
-  private final Hashtable<String, File> scanFilesIDMap = new Hashtable<>();
+  private final Hashtable<String, ScansFileEntry> scanFilesIDMap = new Hashtable<>();
 
   public ProjectOpeningTask(ParameterSet parameters) {
     super(null);
@@ -244,19 +244,19 @@ public class ProjectOpeningTask extends AbstractTask {
         if (scansFileMatcher.matches()) {
           final String fileID = scansFileMatcher.group(1);
           final String fileName = scansFileMatcher.group(2);
-          // loadScansFile(cis, fileID, fileName);
+          loadScansFile(entry, fileID, fileName);
         }
         final Matcher imsScansFileMatcher = imsScansFilePattern.matcher(entryName);
         if (imsScansFileMatcher.matches()) {
           final String fileID = imsScansFileMatcher.group(1);
           final String fileName = imsScansFileMatcher.group(2);
-          // loadScansFile(cis, fileID, fileName);
+          loadScansFile(entry, fileID, fileName);
         }
         final Matcher imagingScansFileMatcher = imagingScansFilePattern.matcher(entryName);
         if (imagingScansFileMatcher.matches()) {
           final String fileID = imagingScansFileMatcher.group(1);
           final String fileName = imagingScansFileMatcher.group(2);
-          // loadScansFile(cis, fileID, fileName);
+          loadScansFile(entry, fileID, fileName);
         }
 
         // Load a feature list
@@ -435,7 +435,7 @@ public class ProjectOpeningTask extends AbstractTask {
 
     currentLoadedObjectName = fileName;
 
-    File scansFile = scanFilesIDMap.get(fileID);
+    ScansFileEntry scansFile = scanFilesIDMap.get(fileID);
     if (scansFile == null) {
       throw new IOException("Missing scans data for file ID " + fileID);
     }
@@ -447,26 +447,18 @@ public class ProjectOpeningTask extends AbstractTask {
 
   }
 
-  /*
-   * private void loadScansFile(InputStream is, String fileID, String fileName) throws IOException {
-   * 
-   * logger.info("Loading scans data #" + fileID + ": " + fileName);
-   * 
-   * currentLoadedObjectName = fileName + " scan data";
-   * 
-   * final File tempFile = null;// RawDataFileImpl.createNewDataPointsFile();
-   * logger.info("Saving scans data of #" + fileID + " to " + tempFile);
-   * 
-   * final FileOutputStream os = new FileOutputStream(tempFile);
-   * 
-   * // If the project was saved with 2.5 version < 3.0 copyMachine = (rawDataFileOpenHandler
-   * instanceof RawDataFileOpenHandler_2_5) ? new StreamCopy32to64() : new StreamCopy();
-   * copyMachine.copy(is, os); os.close();
-   * 
-   * scanFilesIDMap.put(fileID, tempFile);
-   * 
-   * }
+  /**
+   * Registers the scans file of a raw data file. The scan data is read from the project file when
+   * the raw data file is loaded and the data points are only extracted when they are accessed.
    */
+  private void loadScansFile(ZipEntry entry, String fileID, String fileName) {
+
+    logger.info("Found scans data #" + fileID + ": " + fileName);
+
+    scanFilesIDMap.put(fileID,
+        new ScansFileEntry(openFile, entry.getName(), entry.getSize(), entry.getCrc()));
+
+  }
 
   private void loadFeatureList(InputStream is, String featureListName) throws IOException,
       ParserConfigurationException, SAXException, InstantiationException, IllegalAccessException {
@@ -18,7 +18,6 @@
 
 package io.github.mzmine.modules.io.projectload;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import javax.xml.parsers.ParserConfigurationException;
@@ -27,7 +26,7 @@ import io.github.mzmine.datamodel.RawDataFile;
 
 public interface RawDataFileOpenHandler {
 
-  RawDataFile readRawDataFile(InputStream is, File scansFile, boolean isIMSRawDataFile,
+  RawDataFile readRawDataFile(InputStream is, ScansFileEntry scansFile, boolean isIMSRawDataFile,
       boolean isImagingRawDataFile) throws IOException, ParserConfigurationException, SAXException;
 
   void cancel();
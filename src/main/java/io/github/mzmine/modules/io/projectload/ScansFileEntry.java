@@ -0,0 +1,144 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package io.github.mzmine.modules.io.projectload;
+
+import io.github.mzmine.modules.io.projectsave.ProjectSavingTask;
+import io.github.mzmine.util.LazyMappedFile;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.annotation.Nonnull;
+
+/**
+ * The binary scans file of a raw data file within a project zip file. The scan properties are read
+ * directly from the zip file. The data points are only extracted to a temporary file and mapped
+ * when they are accessed for the first time. The project file is opened again for the extraction,
+ * so the extracted file is checked against the size and the CRC of the entry found when the project
+ * was opened. The temporary file is deleted when the raw data file is closed, see {@link
+ * LazyMappedFile#close()}.
+ */
+public class ScansFileEntry {
+
+  private static final Logger logger = Logger.getLogger(ScansFileEntry.class.getName());
+
+  private final File projectFile;
+  private final String entryName;
+  private final long size;
+  private final long crc;
+  private LazyMappedFile mappedFile;
+
+  /**
+   * @param size size of the uncompressed entry
+   * @param crc  CRC-32 of the uncompressed entry, -1 if unknown
+   */
+  public ScansFileEntry(@Nonnull File projectFile, @Nonnull String entryName, long size,
+      long crc) {
+    this.projectFile = projectFile;
+    this.entryName = entryName;
+    this.size = size;
+    this.crc = crc;
+  }
+
+  /**
+   * @return true if the entry is empty, e.g. in projects saved before the binary scans file
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * @return a new stream of the uncompressed entry, the zip file is closed with the stream
+   */
+  @Nonnull
+  public InputStream openStream() throws IOException {
+    final ZipFile zipFile = new ZipFile(projectFile);
+    try {
+      final ZipEntry entry = zipFile.getEntry(entryName);
+      if (entry == null) {
+        throw new IOException("Missing " + entryName + " in " + projectFile);
+      }
+      return new FilterInputStream(zipFile.getInputStream(entry)) {
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            zipFile.close();
+          }
+        }
+      };
+    } catch (IOException | RuntimeException e) {
+      zipFile.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @return the memory mapped entry, which is extracted to a temporary file on the first access
+   */
+  @Nonnull
+  public synchronized LazyMappedFile getMappedFile() {
+    if (mappedFile == null) {
+      mappedFile = new LazyMappedFile(this::extract);
+    }
+    return mappedFile;
+  }
+
+  private File extract() throws IOException {
+    final File tempFile = File.createTempFile("mzmine", ".scans");
+    tempFile.deleteOnExit();
+    logger.info("Extracting " + entryName + " to " + tempFile);
+    try {
+      final CRC32 checksum = new CRC32();
+      final long extractedSize;
+      try (InputStream is = openStream();
+          OutputStream os = new CheckedOutputStream(new FileOutputStream(tempFile), checksum)) {
+        final byte header[] = is.readNBytes(Integer.BYTES);
+        if (header.length < Integer.BYTES || ByteBuffer.wrap(header).getInt()
+            != ProjectSavingTask.SCANS_FILE_MAGIC) {
+          throw new IOException("Invalid scans file " + entryName + " in " + projectFile);
+        }
+        os.write(header);
+        extractedSize = header.length + is.transferTo(os);
+      }
+      if (extractedSize != size) {
+        throw new IOException("Extracted " + extractedSize + " instead of " + size + " bytes of "
+            + entryName + " from " + projectFile + ", the project file was changed");
+      }
+      if (crc != -1 && checksum.getValue() != crc) {
+        throw new IOException("CRC mismatch of " + entryName + " extracted from " + projectFile
+            + ", the project file was changed");
+      }
+    } catch (IOException | RuntimeException e) {
+      tempFile.delete();
+      throw e;
+    }
+    return tempFile;
+  }
+}
@@ -26,9 +26,9 @@ import io.github.mzmine.datamodel.Scan;
 import io.github.mzmine.datamodel.impl.SimpleScan;
 import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.modules.io.projectload.RawDataFileOpenHandler;
+import io.github.mzmine.modules.io.projectload.ScansFileEntry;
 import io.github.mzmine.project.impl.RawDataFileImpl;
 import io.github.mzmine.util.RangeUtils;
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -79,7 +79,7 @@ public class RawDataFileOpenHandler_2_5 extends DefaultHandler implements RawDat
    * @throws ParserConfigurationException
    */
   @Override
-  public RawDataFile readRawDataFile(InputStream is, File scansFile, boolean isIMSRawDataFile,
+  public RawDataFile readRawDataFile(InputStream is, ScansFileEntry scansFile, boolean isIMSRawDataFile,
       boolean isImagingRawDataFile) throws IOException, ParserConfigurationException, SAXException,
       UnsupportedOperationException {
 
@@ -256,8 +256,8 @@ public class RawDataFileOpenHandler_2_5 extends DefaultHandler implements RawDat
     if (qName.equals(RawDataElementName_2_5.SCAN.getElementName())) {
 
       Scan storableScan = new SimpleScan(newRawDataFile, scanNumber, msLevel, retentionTime,
-          precursorMZ, precursorCharge, /* fragmentScan, */ null, null, null, polarity,
-          scanDescription, scanMZRange);
+          precursorMZ, precursorCharge, /* fragmentScan, */ (double[]) null, (double[]) null, null,
+          polarity, scanDescription, scanMZRange);
 
       try {
         newRawDataFile.addScan(storableScan);
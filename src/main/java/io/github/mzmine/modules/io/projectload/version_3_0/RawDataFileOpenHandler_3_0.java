@@ -19,21 +19,39 @@
 package io.github.mzmine.modules.io.projectload.version_3_0;
 
 import com.google.common.collect.Range;
+import com.google.common.io.CountingInputStream;
+import io.github.mzmine.datamodel.Frame;
+import io.github.mzmine.datamodel.ImsMsMsInfo;
 import io.github.mzmine.datamodel.MassList;
+import io.github.mzmine.datamodel.MassSpectrumType;
+import io.github.mzmine.datamodel.MobilityScan;
 import io.github.mzmine.datamodel.MobilityType;
 import io.github.mzmine.datamodel.PolarityType;
 import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.datamodel.impl.ImsMsMsInfoImpl;
+import io.github.mzmine.datamodel.impl.SimpleFrame;
+import io.github.mzmine.datamodel.impl.SimpleImagingScan;
 import io.github.mzmine.datamodel.impl.SimpleScan;
+import io.github.mzmine.datamodel.impl.masslist.SimpleMassList;
 import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.modules.io.import_imzml.Coordinates;
 import io.github.mzmine.modules.io.projectload.RawDataFileOpenHandler;
+import io.github.mzmine.modules.io.projectload.ScansFileEntry;
+import io.github.mzmine.modules.io.projectsave.ProjectSavingTask;
 import io.github.mzmine.project.impl.IMSRawDataFileImpl;
 import io.github.mzmine.project.impl.ImagingRawDataFileImpl;
 import io.github.mzmine.project.impl.RawDataFileImpl;
+import io.github.mzmine.util.LazyDoubleBuffer;
+import io.github.mzmine.util.LazyMappedFile;
 import io.github.mzmine.util.RangeUtils;
-import java.io.File;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.logging.Logger;
 import javafx.scene.paint.Color;
@@ -82,8 +100,8 @@ public class RawDataFileOpenHandler_3_0 extends DefaultHandler implements RawDat
   private boolean canceled = false;
 
   /**
-   * Extract the scan file and copies it into the temporary folder. Create a new raw data file using
-   * the information from the XML raw data description file
+   * Create a new raw data file using the information from the XML raw data description file and
+   * the scans file. The data points are not read until they are accessed.
    *
    * @param is
    * @param scansFile
@@ -92,7 +110,7 @@ public class RawDataFileOpenHandler_3_0 extends DefaultHandler implements RawDat
    * @throws ParserConfigurationException
    */
   @Override
-  public RawDataFile readRawDataFile(InputStream is, File scansFile, boolean isIMSRawDataFile,
+  public RawDataFile readRawDataFile(InputStream is, ScansFileEntry scansFile, boolean isIMSRawDataFile,
       boolean isImagingRawDataFile) throws IOException, ParserConfigurationException, SAXException {
 
     charBuffer = new StringBuffer();
@@ -100,8 +118,7 @@ public class RawDataFileOpenHandler_3_0 extends DefaultHandler implements RawDat
 
     if (isIMSRawDataFile) {
       newRawDataFile = (IMSRawDataFileImpl) MZmineCore.createNewIMSFile(null, null);
-    }
-    if (isImagingRawDataFile) {
+    } else if (isImagingRawDataFile) {
       newRawDataFile = (ImagingRawDataFileImpl) MZmineCore.createNewImagingFile(null, null);
     } else {
       newRawDataFile = (RawDataFileImpl) MZmineCore.createNewFile(null, null);
@@ -116,12 +133,270 @@ public class RawDataFileOpenHandler_3_0 extends DefaultHandler implements RawDat
     SAXParser saxParser = factory.newSAXParser();
     saxParser.parse(is, this);
 
+    readScansFile(scansFile);
+
     // Adds the raw data file to MZmine
     // RawDataFile rawDataFile = newRawDataFile.finishWriting();
     return newRawDataFile;
 
   }
 
+  /**
+   * Reads the binary scans file, see {@link ProjectSavingTask#SCANS_FILE_MAGIC}. Only the scan
+   * properties are read from the project file. The data points are mapped when they are accessed.
+   */
+  private void readScansFile(ScansFileEntry scansFile) throws IOException {
+
+    // projects saved before the binary scans file describe the scans in the XML file
+    if (scansFile.isEmpty()) {
+      return;
+    }
+
+    final int numScans;
+    final int scanNumbers[], msLevels[], precursorCharges[], numDataPoints[], numMassListPoints[];
+    final float retentionTimes[];
+    final double precursorMZs[];
+    final MassSpectrumType spectrumTypes[];
+    final PolarityType polarities[];
+    final String scanDefinitions[];
+    final Range<Double> scanMZRanges[];
+    final Coordinates coordinates[];
+    final Summaries scanSummaries, massListSummaries;
+    final MobilityType mobilityTypes[];
+    final Frames frames;
+    final long dataOffset;
+
+    try (CountingInputStream cis = new CountingInputStream(
+        new BufferedInputStream(scansFile.openStream(), 1 << 16));
+        DataInputStream in = new DataInputStream(cis)) {
+
+      if (in.readInt() != ProjectSavingTask.SCANS_FILE_MAGIC) {
+        throw new IOException("Invalid scans file of " + newRawDataFile.getName());
+      }
+      final int version = in.readInt();
+      if (version > ProjectSavingTask.SCANS_FILE_VERSION) {
+        throw new IOException("The scans file was saved with a newer version (" + version + ")");
+      }
+      numScans = in.readInt();
+
+      scanNumbers = new int[numScans];
+      for (int i = 0; i < numScans; i++) {
+        scanNumbers[i] = in.readInt();
+      }
+      msLevels = new int[numScans];
+      for (int i = 0; i < numScans; i++) {
+        msLevels[i] = in.readInt();
+      }
+      retentionTimes = new float[numScans];
+      for (int i = 0; i < numScans; i++) {
+        retentionTimes[i] = in.readFloat();
+      }
+      precursorMZs = new double[numScans];
+      for (int i = 0; i < numScans; i++) {
+        precursorMZs[i] = in.readDouble();
+      }
+      precursorCharges = new int[numScans];
+      for (int i = 0; i < numScans; i++) {
+        precursorCharges[i] = in.readInt();
+      }
+      spectrumTypes = new MassSpectrumType[numScans];
+      for (int i = 0; i < numScans; i++) {
+        final String type = in.readUTF();
+        spectrumTypes[i] = type.isEmpty() ? null : MassSpectrumType.valueOf(type);
+      }
+      polarities = new PolarityType[numScans];
+      for (int i = 0; i < numScans; i++) {
+        final String pol = in.readUTF();
+        polarities[i] = pol.isEmpty() ? PolarityType.UNKNOWN : PolarityType.valueOf(pol);
+      }
+      scanDefinitions = new String[numScans];
+      for (int i = 0; i < numScans; i++) {
+        scanDefinitions[i] = in.readUTF();
+      }
+      scanMZRanges = new Range[numScans];
+      for (int i = 0; i < numScans; i++) {
+        scanMZRanges[i] = readRange(in);
+      }
+      coordinates = new Coordinates[numScans];
+      for (int i = 0; i < numScans; i++) {
+        final boolean hasCoordinates = in.readBoolean();
+        final int x = in.readInt();
+        final int y = in.readInt();
+        final int z = in.readInt();
+        coordinates[i] = hasCoordinates ? new Coordinates(x, y, z) : null;
+      }
+      numDataPoints = readInts(in, numScans);
+      numMassListPoints = readInts(in, numScans);
+      scanSummaries = new Summaries(in, numScans);
+      massListSummaries = new Summaries(in, numScans);
+
+      // ion mobility data, not present before version 2
+      mobilityTypes = new MobilityType[numScans];
+      int numFrames = 0;
+      for (int i = 0; version >= 2 && i < numScans; i++) {
+        final String type = in.readUTF();
+        mobilityTypes[i] = type.isEmpty() ? null : MobilityType.valueOf(type);
+        numFrames += mobilityTypes[i] == null ? 0 : 1;
+      }
+      frames = new Frames(in, numFrames);
+      dataOffset = cis.getCount();
+    }
+
+    final long totalDataPoints = sum(numDataPoints);
+    final long totalMassListPoints = sum(numMassListPoints);
+    final long totalMobilityScanPoints = sum(frames.numDataPoints);
+    final long totalMobilityScanMassListPoints = sum(frames.numMassListPoints);
+
+    final LazyMappedFile mappedFile = scansFile.getMappedFile();
+    newRawDataFile.setMappedScansFile(mappedFile);
+    long mzOffset = dataOffset;
+    long intensityOffset = mzOffset + totalDataPoints * Double.BYTES;
+    long massListMzOffset = intensityOffset + totalDataPoints * Double.BYTES;
+    long massListIntensityOffset = massListMzOffset + totalMassListPoints * Double.BYTES;
+    long mobilityScanMzOffset = massListIntensityOffset + totalMassListPoints * Double.BYTES;
+    long mobilityScanIntensityOffset =
+        mobilityScanMzOffset + totalMobilityScanPoints * Double.BYTES;
+    long mobilityScanMassListMzOffset =
+        mobilityScanIntensityOffset + totalMobilityScanPoints * Double.BYTES;
+    long mobilityScanMassListIntensityOffset =
+        mobilityScanMassListMzOffset + totalMobilityScanMassListPoints * Double.BYTES;
+    long mobilityOffset =
+        mobilityScanMassListIntensityOffset + totalMobilityScanMassListPoints * Double.BYTES;
+
+    final Scan scans[] = new Scan[numScans];
+    int frame = 0;
+    int mobilityScan = 0;
+    for (int i = 0; i < numScans; i++) {
+      if (canceled) {
+        return;
+      }
+
+      final LazyDoubleBuffer mzValues = new LazyDoubleBuffer(mappedFile, mzOffset,
+          numDataPoints[i]);
+      final LazyDoubleBuffer intensityValues = new LazyDoubleBuffer(mappedFile, intensityOffset,
+          numDataPoints[i]);
+      mzOffset += (long) numDataPoints[i] * Double.BYTES;
+      intensityOffset += (long) numDataPoints[i] * Double.BYTES;
+
+      final Scan scan;
+      if (mobilityTypes[i] != null) {
+        final SimpleFrame newFrame = new SimpleFrame(newRawDataFile, scanNumbers[i], msLevels[i],
+            retentionTimes[i], precursorMZs[i], precursorCharges[i], mzValues, intensityValues,
+            scanSummaries.mzRanges[i], scanSummaries.basePeakIndices[i], scanSummaries.tics[i],
+            spectrumTypes[i], polarities[i], scanDefinitions[i], scanMZRanges[i],
+            mobilityTypes[i], null);
+        final int numMobilities = frames.numMobilities[frame];
+        if (numMobilities > 0) {
+          newFrame.setMobilities(new LazyDoubleBuffer(mappedFile, mobilityOffset, numMobilities),
+              frames.mobilityRanges[frame]);
+          mobilityOffset += (long) numMobilities * Double.BYTES;
+        }
+
+        // the mobility scans of a frame share a buffer
+        final int from = mobilityScan;
+        final int to = from + frames.numMobilityScans[frame];
+        int numFramePoints = 0;
+        for (int j = from; j < to; j++) {
+          numFramePoints += frames.numDataPoints[j];
+        }
+        newFrame.setMobilityScans(
+            new LazyDoubleBuffer(mappedFile, mobilityScanMzOffset, numFramePoints),
+            new LazyDoubleBuffer(mappedFile, mobilityScanIntensityOffset, numFramePoints),
+            Arrays.copyOfRange(frames.mobilityScanNumbers, from, to),
+            Arrays.copyOfRange(frames.numDataPoints, from, to),
+            Arrays.copyOfRange(frames.basePeakIndices, from, to));
+        mobilityScanMzOffset += (long) numFramePoints * Double.BYTES;
+        mobilityScanIntensityOffset += (long) numFramePoints * Double.BYTES;
+
+        for (MobilityScan newMobilityScan : newFrame.getMobilityScans()) {
+          final int numPoints = frames.numMassListPoints[mobilityScan];
+          if (numPoints >= 0) {
+            newMobilityScan.setMassList(new SimpleMassList(
+                new LazyDoubleBuffer(mappedFile, mobilityScanMassListMzOffset, numPoints),
+                new LazyDoubleBuffer(mappedFile, mobilityScanMassListIntensityOffset, numPoints),
+                frames.massListSummaries.mzRanges[mobilityScan],
+                frames.massListSummaries.basePeakIndices[mobilityScan],
+                frames.massListSummaries.tics[mobilityScan]));
+            mobilityScanMassListMzOffset += (long) numPoints * Double.BYTES;
+            mobilityScanMassListIntensityOffset += (long) numPoints * Double.BYTES;
+          }
+          mobilityScan++;
+        }
+        frame++;
+        scan = newFrame;
+      } else if (coordinates[i] != null && newRawDataFile instanceof ImagingRawDataFileImpl) {
+        scan = new SimpleImagingScan(newRawDataFile, scanNumbers[i], msLevels[i],
+            retentionTimes[i], precursorMZs[i], precursorCharges[i], mzValues, intensityValues,
+            scanSummaries.mzRanges[i], scanSummaries.basePeakIndices[i], scanSummaries.tics[i],
+            spectrumTypes[i], polarities[i], scanDefinitions[i], scanMZRanges[i], coordinates[i]);
+      } else {
+        scan = new SimpleScan(newRawDataFile, scanNumbers[i], msLevels[i], retentionTimes[i],
+            precursorMZs[i], precursorCharges[i], mzValues, intensityValues,
+            scanSummaries.mzRanges[i], scanSummaries.basePeakIndices[i], scanSummaries.tics[i],
+            spectrumTypes[i], polarities[i], scanDefinitions[i], scanMZRanges[i]);
+      }
+      newRawDataFile.addScan(scan);
+      scans[i] = scan;
+
+      if (numMassListPoints[i] >= 0) {
+        scan.addMassList(new SimpleMassList(
+            new LazyDoubleBuffer(mappedFile, massListMzOffset, numMassListPoints[i]),
+            new LazyDoubleBuffer(mappedFile, massListIntensityOffset, numMassListPoints[i]),
+            massListSummaries.mzRanges[i], massListSummaries.basePeakIndices[i],
+            massListSummaries.tics[i]));
+        massListMzOffset += (long) numMassListPoints[i] * Double.BYTES;
+        massListIntensityOffset += (long) numMassListPoints[i] * Double.BYTES;
+      }
+    }
+
+    // precursor information refers to other frames, so it is set once all frames exist
+    frame = 0;
+    int info = 0;
+    for (int i = 0; i < numScans; i++) {
+      if (mobilityTypes[i] == null) {
+        continue;
+      }
+      final Set<ImsMsMsInfo> infos = new HashSet<>();
+      for (int j = 0; j < frames.numInfos[frame]; j++, info++) {
+        final int parent = frames.infoParentIndices[info];
+        infos.add(new ImsMsMsInfoImpl(frames.infoPrecursorMZs[info],
+            frames.infoSpectrumNumberRanges[info], frames.infoCollisionEnergies[info],
+            frames.infoPrecursorCharges[info], parent == -1 ? null : (Frame) scans[parent],
+            (Frame) scans[i]));
+      }
+      ((SimpleFrame) scans[i]).setPrecursorInfos(infos);
+      frame++;
+    }
+  }
+
+  private static int[] readInts(DataInputStream in, int length) throws IOException {
+    final int values[] = new int[length];
+    for (int i = 0; i < length; i++) {
+      values[i] = in.readInt();
+    }
+    return values;
+  }
+
+  /**
+   * @return the sum of the numbers of data points, ignoring missing spectra (-1)
+   */
+  private static long sum(int numbersOfDataPoints[]) {
+    long sum = 0;
+    for (int numDataPoints : numbersOfDataPoints) {
+      sum += Math.max(0, numDataPoints);
+    }
+    return sum;
+  }
+
+  /**
+   * @return the range or null if the lower endpoint is NaN
+   */
+  private static Range<Double> readRange(DataInputStream in) throws IOException {
+    final double lower = in.readDouble();
+    final double upper = in.readDouble();
+    return Double.isNaN(lower) ? null : Range.closed(lower, upper);
+  }
+
   @Override
   public void cancel() {
     canceled = true;
@@ -301,8 +576,8 @@ public class RawDataFileOpenHandler_3_0 extends DefaultHandler implements RawDat
       // TODO
 
       final Scan storableScan = new SimpleScan(newRawDataFile, scanNumber, msLevel, retentionTime,
-          precursorMZ, precursorCharge, /* fragmentScan, */ null, null, null, polarity,
-          scanDescription, scanMZRange);
+          precursorMZ, precursorCharge, /* fragmentScan, */ (double[]) null, (double[]) null, null,
+          polarity, scanDescription, scanMZRange);
 
       try {
         newRawDataFile.addScan(storableScan);
@@ -386,4 +661,80 @@ public class RawDataFileOpenHandler_3_0 extends DefaultHandler implements RawDat
     lowerMobilityRange = 0.0d;
     upperMobilityRange = 0.0d;
   }
+
+  /**
+   * The columns of the frames and their mobility scans.
+   */
+  private static class Frames {
+
+    private final int numMobilities[], numMobilityScans[], numInfos[];
+    private final Range<Double> mobilityRanges[];
+    private final double infoPrecursorMZs[];
+    private final Range<Integer> infoSpectrumNumberRanges[];
+    private final float infoCollisionEnergies[];
+    private final int infoPrecursorCharges[], infoParentIndices[];
+    private final int mobilityScanNumbers[], basePeakIndices[], numDataPoints[],
+        numMassListPoints[];
+    private final Summaries massListSummaries;
+
+    private Frames(DataInputStream in, int numFrames) throws IOException {
+      numMobilities = readInts(in, numFrames);
+      numMobilityScans = readInts(in, numFrames);
+      mobilityRanges = new Range[numFrames];
+      for (int i = 0; i < numFrames; i++) {
+        mobilityRanges[i] = readRange(in);
+      }
+
+      numInfos = readInts(in, numFrames);
+      final int totalInfos = Arrays.stream(numInfos).sum();
+      infoPrecursorMZs = new double[totalInfos];
+      for (int i = 0; i < totalInfos; i++) {
+        infoPrecursorMZs[i] = in.readDouble();
+      }
+      infoSpectrumNumberRanges = new Range[totalInfos];
+      for (int i = 0; i < totalInfos; i++) {
+        final int lower = in.readInt();
+        infoSpectrumNumberRanges[i] = Range.closed(lower, in.readInt());
+      }
+      infoCollisionEnergies = new float[totalInfos];
+      for (int i = 0; i < totalInfos; i++) {
+        infoCollisionEnergies[i] = in.readFloat();
+      }
+      infoPrecursorCharges = readInts(in, totalInfos);
+      infoParentIndices = readInts(in, totalInfos);
+
+      final int totalMobilityScans = Arrays.stream(numMobilityScans).sum();
+      mobilityScanNumbers = readInts(in, totalMobilityScans);
+      basePeakIndices = readInts(in, totalMobilityScans);
+      numDataPoints = readInts(in, totalMobilityScans);
+      numMassListPoints = readInts(in, totalMobilityScans);
+      massListSummaries = new Summaries(in, totalMobilityScans);
+    }
+  }
+
+  /**
+   * The m/z range, base peak index and TIC of the data points of all scans or of all mass lists.
+   */
+  private static class Summaries {
+
+    private final Range<Double> mzRanges[];
+    private final Integer basePeakIndices[];
+    private final double tics[];
+
+    private Summaries(DataInputStream in, int numScans) throws IOException {
+      mzRanges = new Range[numScans];
+      for (int i = 0; i < numScans; i++) {
+        mzRanges[i] = readRange(in);
+      }
+      basePeakIndices = new Integer[numScans];
+      for (int i = 0; i < numScans; i++) {
+        final int index = in.readInt();
+        basePeakIndices[i] = index == -1 ? null : index;
+      }
+      tics = new double[numScans];
+      for (int i = 0; i < numScans; i++) {
+        tics[i] = in.readDouble();
+      }
+    }
+  }
 }
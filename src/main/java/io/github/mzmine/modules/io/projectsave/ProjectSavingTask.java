@@ -19,12 +19,23 @@
 package io.github.mzmine.modules.io.projectsave;
 
 import io.github.mzmine.datamodel.features.FeatureList;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -50,13 +61,43 @@ public class ProjectSavingTask extends AbstractTask {
   public static final String CONFIG_FILENAME = "configuration.xml";
   public static final String PARAMETERS_FILENAME = "User parameters.xml";
 
+  /**
+   * First int of the binary scans file of a raw data file. The scans file is written column by
+   * column in big endian byte order:
+   * <ul>
+   * <li>header: magic, {@link #SCANS_FILE_VERSION}, number of scans</li>
+   * <li>one column per scan property: scan number, MS level, retention time, precursor m/z,
+   * precursor charge, spectrum type, polarity, scan definition, scanning m/z range, imaging
+   * coordinates, number of data points and number of mass list data points (-1 if there is no mass
+   * list)</li>
+   * <li>one column per summary of the data points of the scans and then of the mass lists: m/z
+   * range of the data points (NaN if there are none), base peak index (-1 if there is none) and
+   * TIC</li>
+   * <li>the mobility type of every scan (empty if it is not a frame)</li>
+   * <li>one column per frame property: number of mobilities, number of mobility scans, mobility
+   * range and number of MS/MS precursor infos</li>
+   * <li>one column per precursor info property of all frames: precursor m/z, mobility scan number
+   * range, collision energy, charge and index of the parent frame (-1 if there is none)</li>
+   * <li>one column per mobility scan property of all frames: mobility scan number, base peak index,
+   * number of data points, number of mass list data points and the summaries of the mass lists</li>
+   * <li>the m/z and then the intensity values of all scans, all mass lists, all mobility scans and
+   * all mass lists of mobility scans, then the mobilities of all frames</li>
+   * </ul>
+   * The data point columns are stored as plain doubles, so they can be memory mapped when the
+   * project is opened. With the summaries, a project is opened without reading any data points.
+   * Version 1 files do not contain the ion mobility columns.
+   */
+  public static final int SCANS_FILE_MAGIC = 0x4D5A5343;
+  public static final int SCANS_FILE_VERSION = 2;
+
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
   private File saveFile;
   private MZmineProjectImpl savedProject;
 
-  private RawDataFileSaveHandler rawDataFileSaveHandler;
-  private PeakListSaveHandler peakListSaveHandler;
+  // handlers of all raw data files and feature lists, they are saved in parallel
+  private final List<RawDataFileSaveHandler> rawDataFileSaveHandlers = new ArrayList<>();
+  private final List<PeakListSaveHandler> peakListSaveHandlers = new ArrayList<>();
   private UserParameterSaveHandler userParameterSaveHandler;
 
   private final int totalSaveItems;
@@ -97,12 +138,16 @@ public class ProjectSavingTask extends AbstractTask {
 
     switch (currentStage) {
       case 2:
-        if (rawDataFileSaveHandler != null)
-          currentItemProgress = rawDataFileSaveHandler.getProgress();
+        synchronized (rawDataFileSaveHandlers) {
+          for (RawDataFileSaveHandler handler : rawDataFileSaveHandlers)
+            currentItemProgress += handler.getProgress();
+        }
         break;
       case 3:
-        if (peakListSaveHandler != null)
-          currentItemProgress = peakListSaveHandler.getProgress();
+        synchronized (peakListSaveHandlers) {
+          for (PeakListSaveHandler handler : peakListSaveHandlers)
+            currentItemProgress += handler.getProgress();
+        }
         break;
       case 4:
       case 5:
@@ -126,11 +171,15 @@ public class ProjectSavingTask extends AbstractTask {
 
     setStatus(TaskStatus.CANCELED);
 
-    if (rawDataFileSaveHandler != null)
-      rawDataFileSaveHandler.cancel();
+    synchronized (rawDataFileSaveHandlers) {
+      for (RawDataFileSaveHandler handler : rawDataFileSaveHandlers)
+        handler.cancel();
+    }
 
-    if (peakListSaveHandler != null)
-      peakListSaveHandler.cancel();
+    synchronized (peakListSaveHandlers) {
+      for (PeakListSaveHandler handler : peakListSaveHandlers)
+        handler.cancel();
+    }
 
     if (userParameterSaveHandler != null)
       userParameterSaveHandler.cancel();
@@ -155,14 +204,15 @@ public class ProjectSavingTask extends AbstractTask {
       // Create a ZIP stream writing to the temporary file
       FileOutputStream tempStream = new FileOutputStream(tempFile);
       ZipOutputStream zipStream = new ZipOutputStream(tempStream);
+      // the scans files are stored uncompressed, the remaining entries are compressed fast
+      zipStream.setLevel(Deflater.BEST_SPEED);
 
       // Stage 1 - save version and configuration
       currentStage++;
       saveVersion(zipStream);
       saveConfiguration(zipStream);
       if (isCanceled()) {
-        zipStream.close();
-        tempFile.delete();
+        discard(tempStream, tempFile);
         return;
       }
 
@@ -170,8 +220,7 @@ public class ProjectSavingTask extends AbstractTask {
       currentStage++;
       saveRawDataFiles(zipStream);
       if (isCanceled()) {
-        zipStream.close();
-        tempFile.delete();
+        discard(tempStream, tempFile);
         return;
       }
 
@@ -179,8 +228,7 @@ public class ProjectSavingTask extends AbstractTask {
       currentStage++;
       savePeakLists(zipStream);
       if (isCanceled()) {
-        zipStream.close();
-        tempFile.delete();
+        discard(tempStream, tempFile);
         return;
       }
 
@@ -188,8 +236,7 @@ public class ProjectSavingTask extends AbstractTask {
       currentStage++;
       saveUserParameters(zipStream);
       if (isCanceled()) {
-        zipStream.close();
-        tempFile.delete();
+        discard(tempStream, tempFile);
         return;
       }
 
@@ -246,6 +293,19 @@ public class ProjectSavingTask extends AbstractTask {
     }
   }
 
+  /**
+   * Deletes the temporary zip file of a canceled save. The last entry may be written partially, so
+   * the zip stream is not finished.
+   */
+  private void discard(FileOutputStream tempStream, File tempFile) {
+    try {
+      tempStream.close();
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Could not close " + tempFile, e);
+    }
+    tempFile.delete();
+  }
+
   /**
    * Save the version info
    * 
@@ -292,57 +352,156 @@ public class ProjectSavingTask extends AbstractTask {
   }
 
   /**
-   * Save the raw data files
-   * 
-   * @throws SAXException
-   * @throws TransformerConfigurationException
+   * Save the raw data files. The scans files are written to temporary files in parallel, which
+   * also computes their size and CRC, and then copied uncompressed into the zip file one raw data
+   * file after another.
    */
-  private void saveRawDataFiles(ZipOutputStream zipStream)
-      throws IOException, TransformerConfigurationException, SAXException {
-
-    rawDataFileSaveHandler = new RawDataFileSaveHandler(zipStream);
+  private void saveRawDataFiles(ZipOutputStream zipStream) throws IOException {
 
     RawDataFile rawDataFiles[] = savedProject.getDataFiles();
 
-    for (int i = 0; i < rawDataFiles.length; i++) {
+    final ZipEntry scansEntries[] = new ZipEntry[rawDataFiles.length];
+    final File scansFiles[] = new File[rawDataFiles.length];
+    final ByteArrayOutputStream descriptions[] = new ByteArrayOutputStream[rawDataFiles.length];
+    final RawDataFileSaveHandler handlers[] = new RawDataFileSaveHandler[rawDataFiles.length];
+    final List<ForkJoinTask<?>> tasks = new ArrayList<>();
 
-      if (isCanceled())
-        return;
+    try {
+      for (int i = 0; i < rawDataFiles.length; i++) {
+        final RawDataFileImpl rawDataFile = (RawDataFileImpl) rawDataFiles[i];
+        final RawDataFileSaveHandler handler = new RawDataFileSaveHandler();
+        synchronized (rawDataFileSaveHandlers) {
+          rawDataFileSaveHandlers.add(handler);
+        }
+        handlers[i] = handler;
+        final String savedName = RawDataFileSaveHandler.getSavedName(rawDataFile, i + 1);
+        scansFiles[i] = File.createTempFile("mzmine", ".scans");
+        final File scansFile = scansFiles[i];
+        final int index = i;
+        tasks.add(ForkJoinPool.commonPool().submit(() -> {
+          scansEntries[index] =
+              handler.writeScans(rawDataFile, savedName + ".scans", scansFile);
+          descriptions[index] = new ByteArrayOutputStream();
+          handler.writeDescription(rawDataFile, descriptions[index]);
+          return null;
+        }));
+      }
 
-      currentSavedObjectName = rawDataFiles[i].getName();
-      rawDataFileSaveHandler.writeRawDataFile((RawDataFileImpl) rawDataFiles[i], i + 1);
-      dataFilesIDMap.put(rawDataFiles[i], String.valueOf(i + 1));
-      finishedSaveItems++;
+      for (int i = 0; i < rawDataFiles.length; i++) {
+        joinSaveTask(tasks.get(i), rawDataFiles[i].getName());
+        if (isCanceled())
+          return;
+
+        currentSavedObjectName = rawDataFiles[i].getName();
+        final String savedName =
+            RawDataFileSaveHandler.getSavedName((RawDataFileImpl) rawDataFiles[i], i + 1);
+        zipStream.putNextEntry(scansEntries[i]);
+        Files.copy(scansFiles[i].toPath(), zipStream);
+        scansFiles[i].delete();
+        zipStream.putNextEntry(new ZipEntry(savedName + ".xml"));
+        descriptions[i].writeTo(zipStream);
+
+        dataFilesIDMap.put(rawDataFiles[i], String.valueOf(i + 1));
+        finishedSaveItems++;
+      }
+    } finally {
+      // stop the remaining tasks if saving failed or was canceled
+      synchronized (rawDataFileSaveHandlers) {
+        for (RawDataFileSaveHandler handler : rawDataFileSaveHandlers)
+          handler.cancel();
+      }
+      for (ForkJoinTask<?> task : tasks) {
+        task.quietlyJoin();
+      }
+      deleteAll(scansFiles);
+      synchronized (rawDataFileSaveHandlers) {
+        rawDataFileSaveHandlers.clear();
+      }
     }
   }
 
   /**
-   * Save the feature lists
-   * 
-   * @throws SAXException
-   * @throws TransformerConfigurationException
+   * Save the feature lists. The feature lists are serialized to temporary files in parallel and
+   * then copied into the zip file one after another.
    */
-  private void savePeakLists(ZipOutputStream zipStream)
-      throws IOException, TransformerConfigurationException, SAXException {
+  private void savePeakLists(ZipOutputStream zipStream) throws IOException {
 
     FeatureList peakLists[] = savedProject.getFeatureLists().toArray(new FeatureList[0]);
 
-    for (int i = 0; i < peakLists.length; i++) {
+    final File peakListFiles[] = new File[peakLists.length];
+    final List<ForkJoinTask<?>> tasks = new ArrayList<>();
 
-      if (isCanceled())
-        return;
+    try {
+      for (int i = 0; i < peakLists.length; i++) {
+        final FeatureList peakList = peakLists[i];
+        peakListFiles[i] = File.createTempFile("mzmine", ".xml");
+        final File peakListFile = peakListFiles[i];
+        tasks.add(ForkJoinPool.commonPool().submit(() -> {
+          try (OutputStream stream = new BufferedOutputStream(
+              new FileOutputStream(peakListFile))) {
+            final PeakListSaveHandler handler = new PeakListSaveHandler(stream, dataFilesIDMap);
+            synchronized (peakListSaveHandlers) {
+              peakListSaveHandlers.add(handler);
+            }
+            if (!isCanceled()) {
+              handler.savePeakList(peakList);
+            }
+          }
+          return null;
+        }));
+      }
 
-      logger.info("Saving feature list: " + peakLists[i].getName());
+      for (int i = 0; i < peakLists.length; i++) {
+        joinSaveTask(tasks.get(i), peakLists[i].getName());
+        if (isCanceled())
+          return;
 
-      String peakListSavedName = "Peak list #" + (i + 1) + " " + peakLists[i].getName();
+        logger.info("Saving feature list: " + peakLists[i].getName());
 
-      zipStream.putNextEntry(new ZipEntry(peakListSavedName + ".xml"));
+        currentSavedObjectName = peakLists[i].getName();
+        String peakListSavedName = "Peak list #" + (i + 1) + " " + peakLists[i].getName();
+        zipStream.putNextEntry(new ZipEntry(peakListSavedName + ".xml"));
+        Files.copy(peakListFiles[i].toPath(), zipStream);
+        finishedSaveItems++;
+      }
+    } finally {
+      // stop the remaining tasks if saving failed or was canceled
+      synchronized (peakListSaveHandlers) {
+        for (PeakListSaveHandler handler : peakListSaveHandlers)
+          handler.cancel();
+      }
+      for (ForkJoinTask<?> task : tasks) {
+        task.quietlyJoin();
+      }
+      deleteAll(peakListFiles);
+      synchronized (peakListSaveHandlers) {
+        peakListSaveHandlers.clear();
+      }
+    }
+  }
 
-      peakListSaveHandler = new PeakListSaveHandler(zipStream, dataFilesIDMap);
+  /**
+   * Waits for a task that serializes an object of the project and rethrows its exception.
+   */
+  private void joinSaveTask(ForkJoinTask<?> task, String objectName) throws IOException {
+    try {
+      task.get();
+    } catch (InterruptedException e) {
+      throw new IOException("Interrupted while saving " + objectName, e);
+    } catch (ExecutionException e) {
+      currentSavedObjectName = objectName;
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
 
-      currentSavedObjectName = peakLists[i].getName();
-      peakListSaveHandler.savePeakList(peakLists[i]);
-      finishedSaveItems++;
+  private static void deleteAll(File files[]) {
+    for (File file : files) {
+      if (file != null) {
+        file.delete();
+      }
     }
   }
 
@@ -16,26 +16,40 @@
  * USA
  */
 
+
 package io.github.mzmine.modules.io.projectsave;
 
 import com.google.common.collect.Range;
+import com.google.common.io.CountingOutputStream;
 import io.github.mzmine.datamodel.Frame;
 import io.github.mzmine.datamodel.IMSRawDataFile;
+import io.github.mzmine.datamodel.ImsMsMsInfo;
 import io.github.mzmine.datamodel.ImagingRawDataFile;
 import io.github.mzmine.datamodel.ImagingScan;
 import io.github.mzmine.datamodel.MassList;
+import io.github.mzmine.datamodel.MassSpectrum;
+import io.github.mzmine.datamodel.MobilityScan;
 import io.github.mzmine.datamodel.Scan;
 import io.github.mzmine.modules.io.import_imzml.Coordinates;
 import io.github.mzmine.project.impl.IMSRawDataFileImpl;
 import io.github.mzmine.project.impl.ImagingRawDataFileImpl;
 import io.github.mzmine.project.impl.RawDataFileImpl;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
@@ -48,87 +62,76 @@ import org.xml.sax.helpers.AttributesImpl;
 class RawDataFileSaveHandler {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
-  private int numOfScans, completedScans;
-  private ZipOutputStream zipOutputStream;
+  private List<Scan> scans;
+  private int numOfScans;
   private boolean canceled = false;
-  private Map<Integer, Long> dataPointsOffsets;
-  private Map<Integer, Long> consolidatedDataPointsOffsets;
-  private Map<Integer, Integer> dataPointsLengths;
   private double progress = 0;
 
-  RawDataFileSaveHandler(ZipOutputStream zipOutputStream) {
-    this.zipOutputStream = zipOutputStream;
+  /**
+   * @param rawDataFile raw data file to be saved
+   * @param number      number of the raw data file
+   * @return the name of the zip entries of the raw data file, without file extension
+   */
+  static String getSavedName(RawDataFileImpl rawDataFile, int number) {
+    if (rawDataFile instanceof IMSRawDataFile) {
+      return IMSRawDataFileImpl.SAVE_IDENTIFIER + " #" + number + " " + rawDataFile.getName();
+    } else if (rawDataFile instanceof ImagingRawDataFile) {
+      return ImagingRawDataFileImpl.SAVE_IDENTIFIER + " #" + number + " " + rawDataFile.getName();
+    } else {
+      return RawDataFileImpl.SAVE_IDENTIFIER + " #" + number + " " + rawDataFile.getName();
+    }
   }
 
   /**
-   * Copy the data points file of the raw data file from the temporary folder to the zip file.
-   * Create an XML file which contains the description of the same raw data file an copy it into the
-   * same zip file.
+   * Write the scans of the raw data file in the binary format described in {@link
+   * ProjectSavingTask#SCANS_FILE_MAGIC} to a file. The scans file is stored uncompressed in the zip
+   * file, so the size and the CRC are computed while the scans are written and the file is then
+   * copied into the zip file as it is.
    *
-   * @param rawDataFile raw data file to be copied
-   * @param number number of the raw data file
+   * @param rawDataFile raw data file to be saved
+   * @param entryName   name of the zip entry of the scans file
+   * @param scansFile   file for the scan data, usually a temporary file
+   * @return the uncompressed zip entry of the scans file
    * @throws java.io.IOException
-   * @throws TransformerConfigurationException
-   * @throws SAXException
    */
-  void writeRawDataFile(RawDataFileImpl rawDataFile, int number)
-      throws IOException, TransformerConfigurationException, SAXException {
+  ZipEntry writeScans(RawDataFileImpl rawDataFile, String entryName, File scansFile)
+      throws IOException {
 
-    numOfScans = rawDataFile.getNumOfScans();
+    scans = List.copyOf(rawDataFile.getScans());
+    numOfScans = scans.size();
 
-    // Get the structure of the data points file
-    // dataPointsOffsets = rawDataFile.getDataPointsOffsets();
-    // dataPointsLengths = rawDataFile.getDataPointsLengths();
-    consolidatedDataPointsOffsets = new TreeMap<Integer, Long>();
-
-    // step 1 - save data file
     logger.info("Saving data points of: " + rawDataFile.getName());
 
-    String rawDataSavedName;
-    if (rawDataFile instanceof IMSRawDataFile) {
-      rawDataSavedName =
-          IMSRawDataFileImpl.SAVE_IDENTIFIER + " #" + number + " " + rawDataFile.getName();
-    } else if (rawDataFile instanceof ImagingRawDataFile) {
-      rawDataSavedName =
-          ImagingRawDataFileImpl.SAVE_IDENTIFIER + " #" + number + " " + rawDataFile.getName();
-    } else {
-      rawDataSavedName =
-          RawDataFileImpl.SAVE_IDENTIFIER + " #" + number + " " + rawDataFile.getName();
-    }
-
-    zipOutputStream.putNextEntry(new ZipEntry(rawDataSavedName + ".scans"));
-
-    // We save only those data points that still have a reference in the
-    // dataPointsOffset table. Some deleted mass lists may still be present
-    // in the data points file, we don't want to copy those.
-    long newOffset = 0;
-    byte buffer[] = new byte[1 << 20];
-    /*
-     * RandomAccessFile dataPointsFile = rawDataFile.getDataPointsFile(); for (Integer storageID :
-     * dataPointsOffsets.keySet()) {
-     * 
-     * if (canceled) { return; }
-     * 
-     * final long offset = dataPointsOffsets.get(storageID); dataPointsFile.seek(offset);
-     * 
-     * final int bytes = dataPointsLengths.get(storageID) * 4 * 2;
-     * consolidatedDataPointsOffsets.put(storageID, newOffset); if (buffer.length < bytes) { buffer
-     * = new byte[bytes * 2]; } dataPointsFile.read(buffer, 0, bytes); zipOutputStream.write(buffer,
-     * 0, bytes); newOffset += bytes; progress = 0.9 * ((double) offset / dataPointsFile.length());
-     * }
-     */
-
-    if (canceled) {
-      return;
+    final CountingOutputStream counter;
+    final CheckedOutputStream checked;
+    try (OutputStream os = new FileOutputStream(scansFile)) {
+      counter = new CountingOutputStream(os);
+      checked = new CheckedOutputStream(counter, new CRC32());
+      writeScans(scans, checked);
     }
 
-    // step 2 - save raw data description
-    logger.info("Saving raw data description of: " + rawDataFile.getName());
+    final ZipEntry entry = new ZipEntry(entryName);
+    entry.setMethod(ZipEntry.STORED);
+    entry.setSize(counter.getCount());
+    entry.setCompressedSize(counter.getCount());
+    entry.setCrc(checked.getChecksum().getValue());
+    return entry;
+  }
+
+  /**
+   * Write an XML file with the description of the raw data file. The stream is not closed.
+   *
+   * @param rawDataFile       raw data file to be saved
+   * @param descriptionStream stream for the description (.xml)
+   * @throws TransformerConfigurationException
+   * @throws SAXException
+   */
+  void writeDescription(RawDataFileImpl rawDataFile, OutputStream descriptionStream)
+      throws TransformerConfigurationException, SAXException {
 
-    zipOutputStream.putNextEntry(new ZipEntry(rawDataSavedName + ".xml"));
-    OutputStream finalStream = zipOutputStream;
+    logger.info("Saving raw data description of: " + rawDataFile.getName());
 
-    StreamResult streamResult = new StreamResult(finalStream);
+    StreamResult streamResult = new StreamResult(descriptionStream);
     SAXTransformerFactory tf = (SAXTransformerFactory) SAXTransformerFactory.newInstance();
 
     TransformerHandler hd = tf.newTransformerHandler();
@@ -143,267 +146,269 @@ class RawDataFileSaveHandler {
   }
 
   /**
-   * Function which creates an XML file with the descripcion of the raw data
-   *
-   * @param rawDataFile
-   * @param hd
-   * @throws SAXException
-   * @throws java.lang.Exception
+   * Writes the binary scans file. All values of one property of all scans are written one after
+   * another, the data points of all scans last. The progress follows the written data points.
    */
-  private void saveRawDataInformation(RawDataFileImpl rawDataFile, TransformerHandler hd)
-      throws SAXException, IOException {
-
-    AttributesImpl atts = new AttributesImpl();
+  private void writeScans(List<Scan> scans, OutputStream os) throws IOException {
 
-    hd.startElement("", "", RawDataElementName.RAWDATA.getElementName(), atts);
+    final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 1 << 16));
 
-    // <NAME>
-    hd.startElement("", "", RawDataElementName.NAME.getElementName(), atts);
-    hd.characters(rawDataFile.getName().toCharArray(), 0, rawDataFile.getName().length());
-    hd.endElement("", "", RawDataElementName.NAME.getElementName());
+    out.writeInt(ProjectSavingTask.SCANS_FILE_MAGIC);
+    out.writeInt(ProjectSavingTask.SCANS_FILE_VERSION);
+    out.writeInt(numOfScans);
 
-    // COLOR
-    hd.startElement("", "", RawDataElementName.COLOR.getElementName(), atts);
-    hd.characters(rawDataFile.getColor().toString().toCharArray(), 0,
-        rawDataFile.getColor().toString().length());
-    hd.endElement("", "", RawDataElementName.COLOR.getElementName());
+    for (Scan scan : scans) {
+      out.writeInt(scan.getScanNumber());
+    }
+    for (Scan scan : scans) {
+      out.writeInt(scan.getMSLevel());
+    }
+    for (Scan scan : scans) {
+      out.writeFloat(scan.getRetentionTime());
+    }
+    for (Scan scan : scans) {
+      out.writeDouble(scan.getPrecursorMZ());
+    }
+    for (Scan scan : scans) {
+      out.writeInt(scan.getPrecursorCharge());
+    }
+    for (Scan scan : scans) {
+      out.writeUTF(scan.getSpectrumType() == null ? "" : scan.getSpectrumType().name());
+    }
+    for (Scan scan : scans) {
+      out.writeUTF(scan.getPolarity() == null ? "" : scan.getPolarity().name());
+    }
+    for (Scan scan : scans) {
+      out.writeUTF(scan.getScanDefinition() == null ? "" : scan.getScanDefinition());
+    }
+    for (Scan scan : scans) {
+      final Range<Double> mzRange = scan.getScanningMZRange();
+      out.writeDouble(mzRange == null ? Double.NaN : mzRange.lowerEndpoint());
+      out.writeDouble(mzRange == null ? Double.NaN : mzRange.upperEndpoint());
+    }
+    for (Scan scan : scans) {
+      final Coordinates coordinates =
+          scan instanceof ImagingScan ? ((ImagingScan) scan).getCoordinates() : null;
+      out.writeBoolean(coordinates != null);
+      out.writeInt(coordinates == null ? 0 : coordinates.getX());
+      out.writeInt(coordinates == null ? 0 : coordinates.getY());
+      out.writeInt(coordinates == null ? 0 : coordinates.getZ());
+    }
 
-    // <STORED_DATAPOINTS>
-    atts.addAttribute("", "", RawDataElementName.QUANTITY.getElementName(), "CDATA",
-        String.valueOf(dataPointsOffsets.size()));
-    hd.startElement("", "", RawDataElementName.STORED_DATAPOINTS.getElementName(), atts);
-    atts.clear();
-    for (Integer storageID : dataPointsOffsets.keySet()) {
-      if (canceled) {
-        return;
+    final List<MassList> massLists = new ArrayList<>(scans.size());
+    for (Scan scan : scans) {
+      massLists.add(scan.getMassList());
+    }
+    writeNumbersOfDataPoints(scans, out);
+    writeNumbersOfDataPoints(massLists, out);
+    writeSummaries(scans, out);
+    writeSummaries(massLists, out);
+
+    // frames of ion mobility data, their mobilities and mobility scans
+    final List<Frame> frames = new ArrayList<>();
+    final List<MobilityScan> mobilityScans = new ArrayList<>();
+    for (Scan scan : scans) {
+      out.writeUTF(scan instanceof Frame ? ((Frame) scan).getMobilityType().name() : "");
+      if (scan instanceof Frame) {
+        frames.add((Frame) scan);
+        mobilityScans.addAll(((Frame) scan).getMobilityScans());
       }
-      int length = dataPointsLengths.get(storageID);
-      long offset = consolidatedDataPointsOffsets.get(storageID);
-      atts.addAttribute("", "", RawDataElementName.STORAGE_ID.getElementName(), "CDATA",
-          String.valueOf(storageID));
-      atts.addAttribute("", "", RawDataElementName.QUANTITY_DATAPOINTS.getElementName(), "CDATA",
-          String.valueOf(length));
-      hd.startElement("", "", RawDataElementName.STORED_DATA.getElementName(), atts);
-      atts.clear();
-      hd.characters(String.valueOf(offset).toCharArray(), 0, String.valueOf(offset).length());
-      hd.endElement("", "", RawDataElementName.STORED_DATA.getElementName());
     }
+    final List<MassList> mobilityScanMassLists = new ArrayList<>(mobilityScans.size());
+    for (MobilityScan mobilityScan : mobilityScans) {
+      mobilityScanMassLists.add(mobilityScan.getMassList());
+    }
+    writeFrames(scans, frames, out);
+    for (MobilityScan mobilityScan : mobilityScans) {
+      out.writeInt(mobilityScan.getMobilityScanNumber());
+    }
+    for (MobilityScan mobilityScan : mobilityScans) {
+      final Integer basePeakIndex = mobilityScan.getBasePeakIndex();
+      out.writeInt(basePeakIndex == null ? -1 : basePeakIndex);
+    }
+    writeNumbersOfDataPoints(mobilityScans, out);
+    writeNumbersOfDataPoints(mobilityScanMassLists, out);
+    writeSummaries(mobilityScanMassLists, out);
 
-    hd.endElement("", "", RawDataElementName.STORED_DATAPOINTS.getElementName());
-
-    // <QUANTITY>
-    hd.startElement("", "", RawDataElementName.QUANTITY_SCAN.getElementName(), atts);
-    hd.characters(String.valueOf(numOfScans).toCharArray(), 0, String.valueOf(numOfScans).length());
-    hd.endElement("", "", RawDataElementName.QUANTITY_SCAN.getElementName());
-
-    // <SCAN>
-    for (Scan scan : rawDataFile.getScans()) {
+    if (canceled) {
+      return;
+    }
 
-      if (canceled) {
-        return;
+    // the data point columns
+    final List<List<? extends MassSpectrum>> spectra =
+        List.of(scans, massLists, mobilityScans, mobilityScanMassLists);
+    long totalDataPoints = 0;
+    int maxDataPoints = 0;
+    for (Frame frame : frames) {
+      final DoubleBuffer mobilities = frame.getMobilities();
+      totalDataPoints += mobilities == null ? 0 : mobilities.capacity();
+      maxDataPoints = Math.max(maxDataPoints, mobilities == null ? 0 : mobilities.capacity());
+    }
+    for (List<? extends MassSpectrum> column : spectra) {
+      for (MassSpectrum spectrum : column) {
+        if (spectrum != null) {
+          totalDataPoints += 2L * spectrum.getNumberOfDataPoints();
+          maxDataPoints = Math.max(maxDataPoints, spectrum.getNumberOfDataPoints());
+        }
       }
-
-      int storageID = 0;
-      atts.addAttribute("", "", RawDataElementName.STORAGE_ID.getElementName(), "CDATA",
-          String.valueOf(storageID));
-      hd.startElement("", "", RawDataElementName.SCAN.getElementName(), atts);
-      fillScanElement(scan, hd);
-      hd.endElement("", "", RawDataElementName.SCAN.getElementName());
-      atts.clear();
-      completedScans++;
-      progress = 0.8 + (0.1 * ((double) completedScans / numOfScans));
     }
 
-    // for loading frames it is important, that scans have already been loaded! so save frames after
-    // scans
-    // <FRAME>
-    if (rawDataFile instanceof IMSRawDataFile) {
-
-      final IMSRawDataFile imsFile = (IMSRawDataFile) rawDataFile;
-      final int numOfFrames = imsFile.getNumberOfFrames();
-
-      // <QUANTITY>
-      hd.startElement("", "", RawDataElementName.QUANTITY_FRAMES.getElementName(), atts);
-      hd.characters(String.valueOf(numOfFrames).toCharArray(), 0,
-          String.valueOf(numOfFrames).length());
-      hd.endElement("", "", RawDataElementName.QUANTITY_FRAMES.getElementName());
-
-      int completedFrames = 0;
-      for (Frame frameNum : imsFile.getFrames()) {
+    final double values[] = new double[maxDataPoints];
+    final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+    long writtenDataPoints = 0;
 
+    for (int column = 0; column < 2 * spectra.size(); column++) {
+      for (MassSpectrum spectrum : spectra.get(column / 2)) {
         if (canceled) {
           return;
         }
-
-        // StorableFrame frame = (StorableFrame) imsFile.getFrame(frameNum);
-        // int storageID = frame.getStorageID();
-        // atts.addAttribute("", "", RawDataElementName.STORAGE_ID.getElementName(), "CDATA",
-        // String.valueOf(storageID));
-        // hd.startElement("", "", RawDataElementName.FRAME.getElementName(), atts);
-        // fillScanElement(frame, hd);
-        // fillFrameElement(frame, hd);
-        // hd.endElement("", "", RawDataElementName.FRAME.getElementName());
-        // atts.clear();
-        //
-        // completedFrames++;
-        // progress = 0.9 + (0.1 * ((double) completedFrames / numOfFrames));
+        if (spectrum == null) {
+          continue;
+        }
+        final int length = spectrum.getNumberOfDataPoints();
+        final double data[] =
+            column % 2 == 0 ? spectrum.getMzValues(values) : spectrum.getIntensityValues(values);
+        writeDoubles(out, data, length, buffer);
+        writtenDataPoints += length;
+        progress = (double) writtenDataPoints / Math.max(1, totalDataPoints);
       }
     }
+    for (Frame frame : frames) {
+      final DoubleBuffer mobilities = frame.getMobilities();
+      final int length = mobilities == null ? 0 : mobilities.capacity();
+      if (length > 0) {
+        mobilities.get(0, values, 0, length);
+        writeDoubles(out, values, length, buffer);
+      }
+      writtenDataPoints += length;
+      progress = (double) writtenDataPoints / Math.max(1, totalDataPoints);
+    }
 
-    hd.endElement("", "", RawDataElementName.RAWDATA.getElementName());
+    out.flush();
+    progress = 1.0;
+  }
 
+  /**
+   * Writes the columns of the frames: number of mobilities, number of mobility scans, mobility
+   * range and the precursor information of MS/MS frames.
+   */
+  private static void writeFrames(List<Scan> scans, List<Frame> frames, DataOutputStream out)
+      throws IOException {
+    for (Frame frame : frames) {
+      final DoubleBuffer mobilities = frame.getMobilities();
+      out.writeInt(mobilities == null ? 0 : mobilities.capacity());
+    }
+    for (Frame frame : frames) {
+      out.writeInt(frame.getNumberOfMobilityScans());
+    }
+    for (Frame frame : frames) {
+      out.writeDouble(frame.getMobilityRange().lowerEndpoint());
+      out.writeDouble(frame.getMobilityRange().upperEndpoint());
+    }
+
+    final Map<Scan, Integer> scanIndices = new IdentityHashMap<>();
+    for (int i = 0; i < scans.size(); i++) {
+      scanIndices.put(scans.get(i), i);
+    }
+    final List<ImsMsMsInfo> infos = new ArrayList<>();
+    for (Frame frame : frames) {
+      out.writeInt(frame.getImsMsMsInfos().size());
+      infos.addAll(frame.getImsMsMsInfos());
+    }
+    for (ImsMsMsInfo info : infos) {
+      out.writeDouble(info.getLargestPeakMz());
+    }
+    for (ImsMsMsInfo info : infos) {
+      out.writeInt(info.getSpectrumNumberRange().lowerEndpoint());
+      out.writeInt(info.getSpectrumNumberRange().upperEndpoint());
+    }
+    for (ImsMsMsInfo info : infos) {
+      out.writeFloat(info.getCollisionEnergy());
+    }
+    for (ImsMsMsInfo info : infos) {
+      out.writeInt(info.getPrecursorCharge());
+    }
+    for (ImsMsMsInfo info : infos) {
+      final Integer parentIndex = info.getParentFrameNumber() == null ? null
+          : scanIndices.get(info.getParentFrameNumber());
+      out.writeInt(parentIndex == null ? -1 : parentIndex);
+    }
   }
 
   /**
-   * Create the part of the XML document related to the scans
-   *
-   * @param scan
-   * @param hd
+   * Writes the number of data points of the spectra, -1 for missing spectra.
    */
-  private void fillScanElement(Scan scan, TransformerHandler hd) throws SAXException, IOException {
-    // <SCAN_ID>
-    AttributesImpl atts = new AttributesImpl();
-    hd.startElement("", "", RawDataElementName.SCAN_ID.getElementName(), atts);
-    hd.characters(String.valueOf(scan.getScanNumber()).toCharArray(), 0,
-        String.valueOf(scan.getScanNumber()).length());
-    hd.endElement("", "", RawDataElementName.SCAN_ID.getElementName());
-
-    // <MS_LEVEL>
-    hd.startElement("", "", RawDataElementName.MS_LEVEL.getElementName(), atts);
-    hd.characters(String.valueOf(scan.getMSLevel()).toCharArray(), 0,
-        String.valueOf(scan.getMSLevel()).length());
-    hd.endElement("", "", RawDataElementName.MS_LEVEL.getElementName());
-
-    if (scan.getMSLevel() >= 2) {
-      // <PRECURSOR_MZ>
-      hd.startElement("", "", RawDataElementName.PRECURSOR_MZ.getElementName(), atts);
-      hd.characters(String.valueOf(scan.getPrecursorMZ()).toCharArray(), 0,
-          String.valueOf(scan.getPrecursorMZ()).length());
-      hd.endElement("", "", RawDataElementName.PRECURSOR_MZ.getElementName());
-
-      // <PRECURSOR_CHARGE>
-      hd.startElement("", "", RawDataElementName.PRECURSOR_CHARGE.getElementName(), atts);
-      hd.characters(String.valueOf(scan.getPrecursorCharge()).toCharArray(), 0,
-          String.valueOf(scan.getPrecursorCharge()).length());
-      hd.endElement("", "", RawDataElementName.PRECURSOR_CHARGE.getElementName());
-    }
-
-    // <RETENTION_TIME>
-    hd.startElement("", "", RawDataElementName.RETENTION_TIME.getElementName(), atts);
-    // In the project file, retention time is represented in seconds, for
-    // historical reasons
-    // TODO @tomas change to minutes here?
-    float rt = scan.getRetentionTime() * 60;
-    hd.characters(String.valueOf(rt).toCharArray(), 0, String.valueOf(rt).length());
-    hd.endElement("", "", RawDataElementName.RETENTION_TIME.getElementName());
-
-    // <CENTROIDED>
-    hd.startElement("", "", RawDataElementName.CENTROIDED.getElementName(), atts);
-    hd.characters(String.valueOf(scan.getSpectrumType()).toCharArray(), 0,
-        String.valueOf(scan.getSpectrumType()).length());
-    hd.endElement("", "", RawDataElementName.CENTROIDED.getElementName());
-
-    // <QUANTITY_DATAPOINTS>
-    hd.startElement("", "", RawDataElementName.QUANTITY_DATAPOINTS.getElementName(), atts);
-    hd.characters(String.valueOf((scan.getNumberOfDataPoints())).toCharArray(), 0,
-        String.valueOf((scan.getNumberOfDataPoints())).length());
-    hd.endElement("", "", RawDataElementName.QUANTITY_DATAPOINTS.getElementName());
-
-    // <FRAGMENT_SCAN>
-    /*
-     * if (scan.getFragmentScanNumbers() != null) { int[] fragmentScans =
-     * scan.getFragmentScanNumbers(); atts.addAttribute("", "",
-     * RawDataElementName.QUANTITY.getElementName(), "CDATA", String.valueOf(fragmentScans.length));
-     * hd.startElement("", "", RawDataElementName.QUANTITY_FRAGMENT_SCAN.getElementName(), atts);
-     * atts.clear(); for (int i : fragmentScans) { hd.startElement("", "",
-     * RawDataElementName.FRAGMENT_SCAN.getElementName(), atts);
-     * hd.characters(String.valueOf(i).toCharArray(), 0, String.valueOf(i).length());
-     * hd.endElement("", "", RawDataElementName.FRAGMENT_SCAN.getElementName()); } hd.endElement("",
-     * "", RawDataElementName.QUANTITY_FRAGMENT_SCAN.getElementName());
-     *
-     * }
-     */
-
-    // <MASS_LIST>
-      MassList stMassList = scan.getMassList();
-      atts.addAttribute("", "", RawDataElementName.NAME.getElementName(), "CDATA",
-          "masses");
-      // atts.addAttribute("", "", RawDataElementName.STORAGE_ID.getElementName(), "CDATA",
-      // String.valueOf(stMassList.getStorageID()));
-      hd.startElement("", "", RawDataElementName.MASS_LIST.getElementName(), atts);
-      atts.clear();
-      hd.endElement("", "", RawDataElementName.MASS_LIST.getElementName());
-
-    // <POLARITY>
-    hd.startElement("", "", RawDataElementName.POLARITY.getElementName(), atts);
-    String pol = scan.getPolarity().toString();
-    hd.characters(pol.toCharArray(), 0, pol.length());
-    hd.endElement("", "", RawDataElementName.POLARITY.getElementName());
-
-    // <SCAN_DESCRIPTION>
-    hd.startElement("", "", RawDataElementName.SCAN_DESCRIPTION.getElementName(), atts);
-    String scanDesc = scan.getScanDefinition();
-    hd.characters(scanDesc.toCharArray(), 0, scanDesc.length());
-    hd.endElement("", "", RawDataElementName.SCAN_DESCRIPTION.getElementName());
-
-    // <SCAN_MZ_RANGE>
-    hd.startElement("", "", RawDataElementName.SCAN_MZ_RANGE.getElementName(), atts);
-    Range<Double> mzRange = scan.getScanningMZRange();
-    String mzRangeStr = mzRange.lowerEndpoint() + "-" + mzRange.upperEndpoint();
-    hd.characters(mzRangeStr.toCharArray(), 0, mzRangeStr.length());
-    hd.endElement("", "", RawDataElementName.SCAN_MZ_RANGE.getElementName());
-
-    // <MOBILITY>
-    // hd.startElement("", "", RawDataElementName.MOBILITY.getElementName(), atts);
-    // double mobility = scan.getMobility();
-    // hd.characters(String.valueOf(mobility).toCharArray(), 0, String.valueOf(mobility).length());
-    // hd.endElement("", "", RawDataElementName.MOBILITY.getElementName());
-
-    if (scan instanceof ImagingScan) {
-      // <COORDINATES>
-      hd.startElement("", "", RawDataElementName.COORDINATES.getElementName(), atts);
-      Coordinates coordinates = ((ImagingScan) scan).getCoordinates();
-      hd.characters(coordinates.toString().toCharArray(), 0, coordinates.toString().length());
-      hd.endElement("", "", RawDataElementName.COORDINATES.getElementName());
+  private static void writeNumbersOfDataPoints(List<? extends MassSpectrum> spectra,
+      DataOutputStream out) throws IOException {
+    for (MassSpectrum spectrum : spectra) {
+      out.writeInt(spectrum == null ? -1 : spectrum.getNumberOfDataPoints());
     }
   }
 
-  private void fillFrameElement(Frame frame, TransformerHandler hd)
-      throws SAXException, IOException {
+  /**
+   * Writes the m/z range, base peak index and TIC columns of the spectra. Dummy values are written
+   * for missing spectra, e.g. scans without a mass list.
+   */
+  private static void writeSummaries(List<? extends MassSpectrum> spectra, DataOutputStream out)
+      throws IOException {
+    for (MassSpectrum spectrum : spectra) {
+      final Range<Double> mzRange = spectrum == null ? null : spectrum.getDataPointMZRange();
+      out.writeDouble(mzRange == null ? Double.NaN : mzRange.lowerEndpoint());
+      out.writeDouble(mzRange == null ? Double.NaN : mzRange.upperEndpoint());
+    }
+    for (MassSpectrum spectrum : spectra) {
+      final Integer basePeakIndex = spectrum == null ? null : spectrum.getBasePeakIndex();
+      out.writeInt(basePeakIndex == null ? -1 : basePeakIndex);
+    }
+    for (MassSpectrum spectrum : spectra) {
+      final Double tic = spectrum == null ? null : spectrum.getTIC();
+      out.writeDouble(tic == null ? 0d : tic);
+    }
+  }
+
+  private static void writeDoubles(DataOutputStream out, double values[], int length,
+      ByteBuffer buffer) throws IOException {
+    final DoubleBuffer doubles = buffer.asDoubleBuffer();
+    for (int offset = 0; offset < length; offset += doubles.capacity()) {
+      final int chunk = Math.min(doubles.capacity(), length - offset);
+      doubles.clear();
+      doubles.put(values, offset, chunk);
+      out.write(buffer.array(), 0, chunk * Double.BYTES);
+    }
+  }
+
+  /**
+   * Function which creates an XML file with the description of the raw data. The scans are
+   * described in the binary scans file.
+   *
+   * @param rawDataFile
+   * @param hd
+   * @throws SAXException
+   */
+  private void saveRawDataInformation(RawDataFileImpl rawDataFile, TransformerHandler hd)
+      throws SAXException {
+
     AttributesImpl atts = new AttributesImpl();
 
-    String frameId = String.valueOf(frame.getFrameId());
-    hd.startElement("", "", RawDataElementName.FRAME_ID.getElementName(), atts);
-    hd.characters(frameId.toCharArray(), 0, frameId.length());
-    hd.endElement("", "", RawDataElementName.FRAME_ID.getElementName());
-
-    // <MOBILITY_TYPE>
-    // hd.startElement("", "", RawDataElementName.MOBILITY_TYPE.getElementName(), atts);
-    // MobilityType mobilityType = scan.getMobilityType();
-    // hd.characters(mobilityType.toString().toCharArray(), 0, mobilityType.toString().length());
-    // hd.endElement("", "", RawDataElementName.MOBILITY_TYPE.getElementName());
-
-    hd.startElement("", "", RawDataElementName.LOWER_MOBILITY_RANGE.getElementName(), atts);
-    hd.characters(frame.getMobilityRange().lowerEndpoint().toString().toCharArray(), 0,
-        frame.getMobilityRange().lowerEndpoint().toString().toCharArray().length);
-    hd.endElement("", "", RawDataElementName.LOWER_MOBILITY_RANGE.getElementName());
-
-    hd.startElement("", "", RawDataElementName.UPPER_MOBILITY_RANGE.getElementName(), atts);
-    hd.characters(frame.getMobilityRange().upperEndpoint().toString().toCharArray(), 0,
-        frame.getMobilityRange().upperEndpoint().toString().toCharArray().length);
-    hd.endElement("", "", RawDataElementName.UPPER_MOBILITY_RANGE.getElementName());
-
-    /*Set<Integer> mobilityScanNumbers = frame.getMobilityScanNumbers();
-    atts.addAttribute("", "", RawDataElementName.QUANTITY.getElementName(), "CDATA",
-        String.valueOf(mobilityScanNumbers.size()));
-    hd.startElement("", "", RawDataElementName.QUANTITY_MOBILITY_SCANS.getElementName(), atts);
-    atts.clear();
-    for (int i : mobilityScanNumbers) {
-      hd.startElement("", "", RawDataElementName.MOBILITY_SCANNUM.getElementName(), atts);
-      hd.characters(String.valueOf(i).toCharArray(), 0, String.valueOf(i).length());
-      hd.endElement("", "", RawDataElementName.MOBILITY_SCANNUM.getElementName());
-    }
-    hd.endElement("", "", RawDataElementName.QUANTITY_MOBILITY_SCANS.getElementName());*/
+    hd.startElement("", "", RawDataElementName.RAWDATA.getElementName(), atts);
+
+    // <NAME>
+    hd.startElement("", "", RawDataElementName.NAME.getElementName(), atts);
+    hd.characters(rawDataFile.getName().toCharArray(), 0, rawDataFile.getName().length());
+    hd.endElement("", "", RawDataElementName.NAME.getElementName());
+
+    // COLOR
+    hd.startElement("", "", RawDataElementName.COLOR.getElementName(), atts);
+    hd.characters(rawDataFile.getColor().toString().toCharArray(), 0,
+        rawDataFile.getColor().toString().length());
+    hd.endElement("", "", RawDataElementName.COLOR.getElementName());
+
+    // <QUANTITY>
+    hd.startElement("", "", RawDataElementName.QUANTITY_SCAN.getElementName(), atts);
+    hd.characters(String.valueOf(numOfScans).toCharArray(), 0, String.valueOf(numOfScans).length());
+    hd.endElement("", "", RawDataElementName.QUANTITY_SCAN.getElementName());
+
+    hd.endElement("", "", RawDataElementName.RAWDATA.getElementName());
 
   }
 
@@ -36,7 +36,7 @@ import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.taskcontrol.Task;
 import io.github.mzmine.taskcontrol.TaskPriority;
 import io.github.mzmine.taskcontrol.TaskStatus;
-import io.github.mzmine.util.scans.ScanUtils;
+import io.github.mzmine.util.scans.ChromatogramIndex;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -358,6 +358,7 @@ public class TICDataSet extends AbstractXYZDataset implements Task {
 
     // Determine plot type (now done from constructor).
     final TICPlotType plotType = this.plotType;
+    final ChromatogramIndex chromatogramIndex = dataFile.getChromatogramIndex();
 
     // Process each scan.
     for (int index = 0; status != TaskStatus.CANCELED && index < totalScans; index++) {
@@ -366,7 +367,7 @@ public class TICDataSet extends AbstractXYZDataset implements Task {
       final Scan scan = scans.get(index);
 
       // Determine base peak value.
-      DataPoint basePeak = ScanUtils.findBasePeak(scan, mzRange);
+      DataPoint basePeak = chromatogramIndex.findBasePeak(scan, mzRange);
       Double basePeakIntensity = null;
 
       if (basePeak != null) {
@@ -380,7 +381,7 @@ public class TICDataSet extends AbstractXYZDataset implements Task {
 
         // Total ion count.
         intensity = mzRange.encloses(scan.getDataPointMZRange()) ? scan.getTIC()
-            : ScanUtils.calculateTIC(scan, mzRange);
+            : chromatogramIndex.calculateTIC(scan, mzRange);
 
       } else if (plotType == TICPlotType.BASEPEAK && basePeakIntensity != null) {
 
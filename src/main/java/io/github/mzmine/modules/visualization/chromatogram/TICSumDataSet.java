@@ -34,7 +34,7 @@ import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.taskcontrol.Task;
 import io.github.mzmine.taskcontrol.TaskPriority;
 import io.github.mzmine.taskcontrol.TaskStatus;
-import io.github.mzmine.util.scans.ScanUtils;
+import io.github.mzmine.util.scans.ChromatogramIndex;
 import javafx.application.Platform;
 
 /**
@@ -223,6 +223,7 @@ public class TICSumDataSet extends AbstractXYZDataset implements Task {
     // all raw data files
     for (int r = 0; r < dataFiles.length; r++) {
       RawDataFile raw = dataFiles[r];
+      final ChromatogramIndex chromatogramIndex = raw.getChromatogramIndex();
       Scan[] scans = raw.getScanNumbers(1, rangeRT);
       // Process each scan.
       for (int index = 0; status != TaskStatus.CANCELED && index < scans.length; index++) {
@@ -234,7 +235,7 @@ public class TICSumDataSet extends AbstractXYZDataset implements Task {
         double intensity = 0.0;
 
         // Determine base peak value.
-        final DataPoint basePeak = ScanUtils.findBasePeak(scan, mzRange);
+        final DataPoint basePeak = chromatogramIndex.findBasePeak(scan, mzRange);
         if (basePeak != null) {
           mzBasePeak = basePeak.getMZ();
           intensityBasePeak = basePeak.getIntensity();
@@ -245,7 +246,7 @@ public class TICSumDataSet extends AbstractXYZDataset implements Task {
 
           // Total ion count.
           intensity = mzRange.encloses(scan.getDataPointMZRange()) ? scan.getTIC()
-              : ScanUtils.calculateTIC(scan, mzRange);
+              : chromatogramIndex.calculateTIC(scan, mzRange);
 
         } else if (plotType == TICPlotType.BASEPEAK && basePeak != null) {
 
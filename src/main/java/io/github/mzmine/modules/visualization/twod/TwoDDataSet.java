@@ -25,8 +25,19 @@ import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.taskcontrol.Task;
 import io.github.mzmine.taskcontrol.TaskPriority;
 import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.RangeUtils;
+import io.github.mzmine.util.scans.ChromatogramIndex;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javafx.application.Platform;
 import org.jfree.data.xy.AbstractXYDataset;
 
@@ -34,25 +45,42 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
 
   private static final long serialVersionUID = 1L;
 
+  private static final Logger logger = Logger.getLogger(TwoDDataSet.class.getName());
+
+  // number of grid cells in RT and m/z direction of a tile calculated in one task
+  private static final int TILE_SIZE = 64;
+  // size of all tiles kept in the cache
+  private static final long MAX_CACHED_BYTES = 64L << 20;
+
   private RawDataFile rawDataFile;
+  private final ChromatogramIndex chromatogramIndex;
 
   private float retentionTimes[];
-  private double basePeaks[], mzValues[][], intensityValues[][];
+  private double basePeaks[];
 
   private final Range<Double> totalMZRange;
   private final Range<Float> totalRTRange;
   private int totalScans, processedScans;
   private final Scan scans[];
 
-  private TaskStatus status = TaskStatus.WAITING;
+  private volatile TaskStatus status = TaskStatus.WAITING;
 
   public double curMaxIntensity;
   private ArrayList<Float> rtValuesInUserRange;
 
+  // least recently used tiles are removed first, guarded by itself
+  private final LinkedHashMap<TileKey, double[]> tileCache = new LinkedHashMap<>(16, 0.75f, true);
+  private final Set<TileKey> pendingTiles = new HashSet<>();
+  // tiles of the last requested image, pending tiles of previous images are dropped
+  private volatile Set<TileKey> visibleTiles = Set.of();
+  private long cachedBytes;
+  private final AtomicBoolean repaintScheduled = new AtomicBoolean();
+
   TwoDDataSet(RawDataFile rawDataFile, Scan scans[], Range<Float> rtRange, Range<Double> mzRange,
       TwoDVisualizerTab visualizer) {
 
     this.rawDataFile = rawDataFile;
+    this.chromatogramIndex = rawDataFile.getChromatogramIndex();
 
     totalRTRange = rtRange;
     totalMZRange = mzRange;
@@ -61,8 +89,6 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
 
     totalScans = scans.length;
 
-    mzValues = new double[totalScans][];
-    intensityValues = new double[totalScans][];
     retentionTimes = new float[totalScans];
     basePeaks = new double[totalScans];
 
@@ -85,10 +111,6 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
       Double scanBasePeakInt = scan.getBasePeakIntensity();
       retentionTimes[index] = scan.getRetentionTime();
       basePeaks[index] = (scanBasePeakInt == null ? 0 : scanBasePeakInt);
-      mzValues[index] = new double[scan.getNumberOfDataPoints()];
-      scan.getMzValues(mzValues[index]);
-      intensityValues[index] = new double[scan.getNumberOfDataPoints()];
-      scan.getIntensityValues(intensityValues[index]);
       processedScans++;
     }
 
@@ -144,6 +166,181 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
       return totalMZRange.upperEndpoint();
   }
 
+  /**
+   * Calculates the maximum intensity of every pixel of an image of the given RT and m/z range.
+   * <p>
+   * The intensities are calculated on a fixed grid, whose cells are the largest powers of two not
+   * larger than a pixel, so the grid does not depend on the position of the view. The grid is
+   * split into tiles of {@link #TILE_SIZE} x {@link #TILE_SIZE} cells, which are calculated in
+   * parallel and cached, so panning, redrawing or zooming back to a previous view does not read
+   * the scans again. A pixel is the maximum of the cells it overlaps, which may extend beyond the
+   * pixel by up to one cell on each side. This method does not wait for missing tiles, their pixels
+   * stay 0 and the data set fires a change event when they are ready. Missing tiles of previously
+   * requested images that did not start yet are dropped.
+   *
+   * @param values the intensities to fill, indexed by pixel column (RT) and pixel row (m/z)
+   * @return true if all tiles of the image were available
+   */
+  boolean upperEndpointIntensities(double values[][], double rtMin, double rtMax, double mzMin,
+      double mzMax, PlotMode plotMode) {
+
+    final int width = values.length;
+    final int height = width == 0 ? 0 : values[0].length;
+    if (width == 0 || height == 0 || !(rtMax > rtMin) || !(mzMax > mzMin)) {
+      return true;
+    }
+    // tiles are only calculated once all scans are loaded, run() fires a change event then
+    if (processedScans < totalScans) {
+      return false;
+    }
+
+    final double rtStep = (rtMax - rtMin) / width;
+    final double mzStep = (mzMax - mzMin) / height;
+    final int rtExponent = Math.getExponent(rtStep);
+    final int mzExponent = Math.getExponent(mzStep);
+    final double rtCell = Math.scalb(1.0, rtExponent);
+    final double mzCell = Math.scalb(1.0, mzExponent);
+
+    // cells overlapped by every pixel column and row
+    final long firstRTCells[] = new long[width];
+    final long lastRTCells[] = new long[width];
+    for (int i = 0; i < width; i++) {
+      final double pixelRTMin = rtMin + i * rtStep;
+      firstRTCells[i] = (long) Math.floor(pixelRTMin / rtCell);
+      lastRTCells[i] =
+          Math.max(firstRTCells[i], (long) Math.ceil((pixelRTMin + rtStep) / rtCell) - 1);
+    }
+    final long firstMZCells[] = new long[height];
+    final long lastMZCells[] = new long[height];
+    for (int j = 0; j < height; j++) {
+      final double pixelMZMin = mzMin + j * mzStep;
+      firstMZCells[j] = (long) Math.floor(pixelMZMin / mzCell);
+      lastMZCells[j] =
+          Math.max(firstMZCells[j], (long) Math.ceil((pixelMZMin + mzStep) / mzCell) - 1);
+    }
+
+    final long firstColumn = Math.floorDiv(firstRTCells[0], TILE_SIZE);
+    final long firstRow = Math.floorDiv(firstMZCells[0], TILE_SIZE);
+    final int numColumns =
+        (int) (Math.floorDiv(lastRTCells[width - 1], TILE_SIZE) - firstColumn) + 1;
+    final int numRows = (int) (Math.floorDiv(lastMZCells[height - 1], TILE_SIZE) - firstRow) + 1;
+    final TileKey keys[][] = new TileKey[numColumns][numRows];
+    final Set<TileKey> requested = new HashSet<>();
+    for (int c = 0; c < numColumns; c++) {
+      for (int r = 0; r < numRows; r++) {
+        keys[c][r] = new TileKey(rtExponent, mzExponent, firstColumn + c, firstRow + r, plotMode);
+        requested.add(keys[c][r]);
+      }
+    }
+    visibleTiles = requested;
+
+    final double tiles[][][] = new double[numColumns][numRows][];
+    boolean complete = true;
+    for (int c = 0; c < numColumns; c++) {
+      for (int r = 0; r < numRows; r++) {
+        tiles[c][r] = getTile(keys[c][r]);
+        complete &= tiles[c][r] != null;
+      }
+    }
+
+    for (int i = 0; i < width; i++) {
+      for (int j = 0; j < height; j++) {
+        double max = 0;
+        for (long rtCellIndex = firstRTCells[i]; rtCellIndex <= lastRTCells[i]; rtCellIndex++) {
+          final int c = (int) (Math.floorDiv(rtCellIndex, TILE_SIZE) - firstColumn);
+          final int x = (int) Math.floorMod(rtCellIndex, TILE_SIZE);
+          for (long mzCellIndex = firstMZCells[j]; mzCellIndex <= lastMZCells[j]; mzCellIndex++) {
+            final double tile[] =
+                tiles[c][(int) (Math.floorDiv(mzCellIndex, TILE_SIZE) - firstRow)];
+            if (tile != null) {
+              final int y = (int) Math.floorMod(mzCellIndex, TILE_SIZE);
+              max = Math.max(max, tile[x * TILE_SIZE + y]);
+            }
+          }
+        }
+        values[i][j] = max;
+      }
+    }
+    return complete;
+  }
+
+  /**
+   * @return the cached tile or null, if it is not calculated yet. Then it is calculated in the
+   * background, unless it is no longer visible when the calculation starts or while it runs.
+   */
+  private double[] getTile(TileKey key) {
+    synchronized (tileCache) {
+      final double tile[] = tileCache.get(key);
+      if (tile != null || !pendingTiles.add(key)) {
+        return tile;
+      }
+    }
+    ForkJoinPool.commonPool().execute(() -> {
+      double newTile[] = null;
+      try {
+        newTile = calculateTile(key);
+      } catch (RuntimeException e) {
+        logger.log(Level.WARNING, "Cannot calculate 2D plot tile " + e.getMessage(), e);
+      } finally {
+        synchronized (tileCache) {
+          pendingTiles.remove(key);
+          if (newTile != null) {
+            cacheTile(key, newTile);
+          }
+        }
+      }
+      // one repaint for all tiles that finished in the meantime
+      if (newTile != null && repaintScheduled.compareAndSet(false, true)) {
+        Platform.runLater(() -> {
+          repaintScheduled.set(false);
+          fireDatasetChanged();
+        });
+      }
+    });
+    return null;
+  }
+
+  /**
+   * @return the tile or null, if the tile is no longer visible
+   */
+  private double[] calculateTile(TileKey key) {
+    final double rtCell = Math.scalb(1.0, key.rtExponent);
+    final double mzCell = Math.scalb(1.0, key.mzExponent);
+    final double tile[] = new double[TILE_SIZE * TILE_SIZE];
+    for (int x = 0; x < TILE_SIZE; x++) {
+      // the view changed, the tile is requested again if it becomes visible again
+      if (!visibleTiles.contains(key) || status == TaskStatus.CANCELED) {
+        return null;
+      }
+      final double cellRTMin = (key.column * TILE_SIZE + x) * rtCell;
+      final Range<Float> cellRTRange =
+          RangeUtils.toFloatRange(Range.closed(cellRTMin, cellRTMin + rtCell));
+      for (int y = 0; y < TILE_SIZE; y++) {
+        final double cellMZMin = (key.row * TILE_SIZE + y) * mzCell;
+        tile[x * TILE_SIZE + y] = upperEndpointIntensity(cellRTRange,
+            Range.closed(cellMZMin, cellMZMin + mzCell), key.plotMode);
+      }
+    }
+    return tile;
+  }
+
+  /**
+   * Adds a tile to the cache and removes the least recently used tiles until the cache fits into
+   * {@link #MAX_CACHED_BYTES}. Must hold the lock of the cache.
+   */
+  private void cacheTile(TileKey key, double tile[]) {
+    final double previous[] = tileCache.put(key, tile);
+    cachedBytes += (long) Double.BYTES * tile.length;
+    if (previous != null) {
+      cachedBytes -= (long) Double.BYTES * previous.length;
+    }
+    final Iterator<double[]> eldest = tileCache.values().iterator();
+    while (cachedBytes > MAX_CACHED_BYTES && eldest.hasNext()) {
+      cachedBytes -= (long) Double.BYTES * eldest.next().length;
+      eldest.remove();
+    }
+  }
+
   double upperEndpointIntensity(Range<Float> rtRange, Range<Double> mzRange, PlotMode plotMode) {
 
     double maxIntensity = 0;
@@ -204,43 +401,45 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
 
   private double upperEndpointIntensity(int index, Range<Double> mzRange, PlotMode plotMode) {
 
-    double maxIntensity = 0;
+    final Scan scan = scans[index];
+    final int numDataPoints = scan.getNumberOfDataPoints();
 
-    int startMZIndex = Arrays.binarySearch(mzValues[index], mzRange.lowerEndpoint());
-    if (startMZIndex < 0)
-      startMZIndex = (startMZIndex * -1) - 1;
+    // first data point with an m/z value not below the range
+    int startMZIndex = 0;
+    int endMZIndex = numDataPoints;
+    while (startMZIndex < endMZIndex) {
+      final int mid = (startMZIndex + endMZIndex) >>> 1;
+      if (scan.getMzValue(mid) < mzRange.lowerEndpoint())
+        startMZIndex = mid + 1;
+      else
+        endMZIndex = mid;
+    }
 
-    if (startMZIndex >= mzValues[index].length)
+    if (startMZIndex >= numDataPoints)
       return 0;
 
-    if (mzValues[index][startMZIndex] > mzRange.upperEndpoint()) {
+    if (scan.getMzValue(startMZIndex) > mzRange.upperEndpoint()) {
       if (plotMode != PlotMode.CENTROID) {
         if (startMZIndex == 0)
           return 0;
-        if (startMZIndex == mzValues[index].length - 1)
-          return intensityValues[index][startMZIndex - 1];
+        if (startMZIndex == numDataPoints - 1)
+          return scan.getIntensityValue(startMZIndex - 1);
 
         // find which data point is closer
-        double diffNext = mzValues[index][startMZIndex] - mzRange.upperEndpoint();
-        double diffPrev = mzRange.lowerEndpoint() - mzValues[index][startMZIndex - 1];
+        double diffNext = scan.getMzValue(startMZIndex) - mzRange.upperEndpoint();
+        double diffPrev = mzRange.lowerEndpoint() - scan.getMzValue(startMZIndex - 1);
 
         if (diffPrev < diffNext)
-          return intensityValues[index][startMZIndex - 1];
+          return scan.getIntensityValue(startMZIndex - 1);
         else
-          return intensityValues[index][startMZIndex];
+          return scan.getIntensityValue(startMZIndex);
       } else {
         return 0;
       }
 
     }
 
-    for (int mzIndex = startMZIndex; ((mzIndex < mzValues[index].length)
-        && (mzValues[index][mzIndex] <= mzRange.upperEndpoint())); mzIndex++) {
-      if (intensityValues[index][mzIndex] > maxIntensity)
-        maxIntensity = intensityValues[index][mzIndex];
-    }
-
-    return maxIntensity;
+    return chromatogramIndex.findBasePeak(scan, mzRange).getIntensity();
 
   }
 
@@ -275,4 +474,41 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
   public TaskPriority getTaskPriority() {
     return TaskPriority.NORMAL;
   }
+
+  /**
+   * Position of a tile in the grid of a certain resolution. The cells of the grid are 2^rtExponent
+   * min x 2^mzExponent m/z large.
+   */
+  private static final class TileKey {
+
+    private final int rtExponent, mzExponent;
+    private final long column, row;
+    private final PlotMode plotMode;
+
+    private TileKey(int rtExponent, int mzExponent, long column, long row, PlotMode plotMode) {
+      this.rtExponent = rtExponent;
+      this.mzExponent = mzExponent;
+      this.column = column;
+      this.row = row;
+      this.plotMode = plotMode;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof TileKey)) {
+        return false;
+      }
+      TileKey that = (TileKey) o;
+      return rtExponent == that.rtExponent && mzExponent == that.mzExponent
+          && column == that.column && row == that.row && plotMode == that.plotMode;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(rtExponent, mzExponent, column, row, plotMode);
+    }
+  }
 }
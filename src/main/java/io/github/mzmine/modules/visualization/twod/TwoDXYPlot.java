@@ -18,7 +18,6 @@
 
 package io.github.mzmine.modules.visualization.twod;
 
-import io.github.mzmine.util.RangeUtils;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.geom.Rectangle2D;
@@ -82,30 +81,24 @@ class TwoDXYPlot extends BaseXYPlot {
     // Save current time
     Date renderStartTime = new Date();
 
-    // prepare a double array of summed intensities
+    // prepare a double array of maximum intensities, tiles that are not calculated yet stay 0 and
+    // are painted when the data set fires a change event
     double values[][] = new double[width][height];
+    final boolean complete = dataset.upperEndpointIntensities(values, imageRTMin, imageRTMax,
+        imageMZMin, imageMZMax, plotMode);
     maxValue = 0; // now this is an instance variable
 
     for (int i = 0; i < width; i++)
       for (int j = 0; j < height; j++) {
 
-        double pointRTMin = imageRTMin + (i * imageRTStep);
-        double pointRTMax = pointRTMin + imageRTStep;
-        double pointMZMin = imageMZMin + (j * imageMZStep);
-        double pointMZMax = pointMZMin + imageMZStep;
-
-        double lv = dataset.upperEndpointIntensity(RangeUtils.toFloatRange(Range.closed(pointRTMin, pointRTMax)),
-            Range.closed(pointMZMin, pointMZMax), plotMode);
+        double lv = values[i][j];
 
         if (logScale) {
           lv = Math.log10(lv);
           if (lv < 0 || Double.isInfinite(lv))
             lv = 0;
-          values[i][j] = lv;
-          // values[r.nextInt(width)][r.nextInt(height)] = lv;
-        } else {
-          values[i][j] = lv;
         }
+        values[i][j] = lv;
 
         if (lv > maxValue)
           maxValue = lv;
@@ -133,7 +126,8 @@ class TwoDXYPlot extends BaseXYPlot {
       }
 
     // if we are zoomed out, save the values
-    if ((imageRTMin == totalRTRange.lowerEndpoint()) && (imageRTMax == totalRTRange.upperEndpoint())
+    if (complete && (imageRTMin == totalRTRange.lowerEndpoint())
+        && (imageRTMax == totalRTRange.upperEndpoint())
         && (imageMZMin == totalMZRange.lowerEndpoint())
         && (imageMZMax == totalMZRange.upperEndpoint())) {
       zoomOutBitmap = image;
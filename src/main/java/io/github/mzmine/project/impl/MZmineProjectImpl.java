@@ -180,6 +180,12 @@ public class MZmineProjectImpl implements MZmineProject {
       featureListsProperty.get().add(featureList);
     });
 
+    // the project owns the temporary files of the feature list from now on
+    if (featureList instanceof ModularFeatureList
+        && ((ModularFeatureList) featureList).getMemoryMapStorage() != null) {
+      ((ModularFeatureList) featureList).getMemoryMapStorage().retain();
+    }
+
   }
 
   @Override
@@ -190,6 +196,12 @@ public class MZmineProjectImpl implements MZmineProject {
     FxThreadUtil.runOnFxThreadAndWait(() -> {
       featureListsProperty.get().remove(featureList);
     });
+
+    // delete the temporary files, if no other feature list uses the same storage
+    if (featureList instanceof ModularFeatureList
+        && ((ModularFeatureList) featureList).getMemoryMapStorage() != null) {
+      ((ModularFeatureList) featureList).getMemoryMapStorage().release();
+    }
   }
 
   @Override
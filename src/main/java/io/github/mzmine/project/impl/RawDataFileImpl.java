@@ -25,12 +25,18 @@ import io.github.mzmine.datamodel.PolarityType;
 import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.datamodel.Scan;
 import io.github.mzmine.datamodel.features.FeatureList.FeatureListAppliedMethod;
+import io.github.mzmine.datamodel.impl.masslist.SimpleMassList;
 import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.util.LazyMappedFile;
 import io.github.mzmine.util.MemoryMapStorage;
 import io.github.mzmine.util.javafx.FxColorUtil;
+import io.github.mzmine.util.scans.ChromatogramIndex;
+import io.github.mzmine.util.scans.FragmentScanIndex;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.logging.Logger;
@@ -41,6 +47,7 @@ import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.scene.paint.Color;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
  * RawDataFile implementation. It provides storage of data points for scans and mass lists using the
@@ -69,6 +76,13 @@ public class RawDataFileImpl implements RawDataFile {
 
   // Temporary file for scan data storage
   private final MemoryMapStorage storageMemoryMap;
+  // the data points of a file loaded from a project, deleted on close
+  private LazyMappedFile mappedScansFile;
+
+  private final ChromatogramIndex chromatogramIndex = new ChromatogramIndex();
+  // scans by MS level and the fragment scan index, created on demand and reset when scans are added
+  private Map<Integer, List<Scan>> scansByMSLevel;
+  private FragmentScanIndex fragmentScanIndex;
 
   private final ObjectProperty<Color> color = new SimpleObjectProperty<>();
 
@@ -76,6 +90,8 @@ public class RawDataFileImpl implements RawDataFile {
   // maximum number of data points and centroid data points in all scans
   protected int maxRawDataPoints = -1;
 
+  private boolean closed = false;
+
   protected final ObservableList<FeatureListAppliedMethod> appliedMethods
       = FXCollections.observableArrayList();
 
@@ -87,6 +103,9 @@ public class RawDataFileImpl implements RawDataFile {
 
     this.dataFileName = dataFileName;
     this.storageMemoryMap = storage;
+    if (storage != null) {
+      storage.retain();
+    }
 
     scans = FXCollections.observableArrayList();
 
@@ -99,6 +118,40 @@ public class RawDataFileImpl implements RawDataFile {
     return storageMemoryMap;
   }
 
+  /**
+   * @param mappedScansFile the extracted scans file of a project the data points are mapped from.
+   *                        The file is deleted when this file is closed.
+   */
+  public void setMappedScansFile(@Nullable LazyMappedFile mappedScansFile) {
+    this.mappedScansFile = mappedScansFile;
+  }
+
+  @Override
+  @Nonnull
+  public ChromatogramIndex getChromatogramIndex() {
+    return chromatogramIndex;
+  }
+
+  @Override
+  @Nonnull
+  public synchronized FragmentScanIndex getFragmentScanIndex() {
+    if (fragmentScanIndex == null) {
+      fragmentScanIndex = new FragmentScanIndex(scans);
+    }
+    return fragmentScanIndex;
+  }
+
+  /**
+   * @return the scans of the MS level, the list must not be modified
+   */
+  @Nonnull
+  private synchronized List<Scan> getScansOfMSLevel(int msLevel) {
+    if (scansByMSLevel == null) {
+      scansByMSLevel = scans.stream().collect(Collectors.groupingBy(Scan::getMSLevel));
+    }
+    return scansByMSLevel.getOrDefault(msLevel, List.of());
+  }
+
   @Override
   public RawDataFile clone() throws CloneNotSupportedException {
     return (RawDataFile) super.clone();
@@ -189,7 +242,7 @@ public class RawDataFileImpl implements RawDataFile {
   @Override
   @Nonnull
   public List<Scan> getScanNumbers(int msLevel) {
-    return scans.stream().filter(s -> s.getMSLevel() == msLevel).collect(Collectors.toList());
+    return new ArrayList<>(getScansOfMSLevel(msLevel));
   }
 
   /**
@@ -199,9 +252,8 @@ public class RawDataFileImpl implements RawDataFile {
   public @Nonnull
   Scan[] getScanNumbers(int msLevel, @Nonnull Range<Float> rtRange) {
     assert rtRange != null;
-    return scans.stream()
-        .filter(s -> s.getMSLevel() == msLevel && rtRange.contains(s.getRetentionTime()))
-        .toArray(Scan[]::new);
+    return getScansOfMSLevel(msLevel).stream()
+        .filter(s -> rtRange.contains(s.getRetentionTime())).toArray(Scan[]::new);
   }
 
   /**
@@ -303,6 +355,8 @@ public class RawDataFileImpl implements RawDataFile {
     dataRTRange.clear();
     dataMaxBasePeakIntensity.clear();
     dataMaxTIC.clear();
+    scansByMSLevel = null;
+    fragmentScanIndex = null;
   }
 
 
@@ -408,7 +462,7 @@ public class RawDataFileImpl implements RawDataFile {
 
   @Override
   public int getNumOfScans(int msLevel) {
-    return getScanNumbers(msLevel).size();
+    return getScansOfMSLevel(msLevel).size();
   }
 
   @Nonnull
@@ -441,7 +495,22 @@ public class RawDataFileImpl implements RawDataFile {
 
   @Override
   public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
 
+    // release the temporary files of this file and its mass lists
+    for (Scan scan : scans) {
+      releaseMassListStorage(scan.getMassList());
+    }
+    chromatogramIndex.clear();
+    if (storageMemoryMap != null) {
+      storageMemoryMap.release();
+    }
+    if (mappedScansFile != null) {
+      mappedScansFile.close();
+    }
   }
 
   @Override
@@ -480,5 +549,17 @@ public class RawDataFileImpl implements RawDataFile {
    * @param masses new mass list
    */
   public void applyMassListChanged(Scan scan, MassList old, MassList masses) {
+    if (masses instanceof SimpleMassList
+        && ((SimpleMassList) masses).getMemoryMapStorage() != null) {
+      ((SimpleMassList) masses).getMemoryMapStorage().retain();
+    }
+    releaseMassListStorage(old);
+  }
+
+  private void releaseMassListStorage(@Nullable MassList massList) {
+    if (massList instanceof SimpleMassList
+        && ((SimpleMassList) massList).getMemoryMapStorage() != null) {
+      ((SimpleMassList) massList).getMemoryMapStorage().release();
+    }
   }
 }
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util;
+
+import java.util.Arrays;
+
+/**
+ * A primitive replacement for a {@link com.google.common.collect.RangeSet} of disjoint open ranges,
+ * where every range is identified by an int id. Ids are assigned in the order the ranges are added,
+ * starting at 0, so they can be used as indices into parallel arrays or lists of the caller.
+ * <p>
+ * The ranges are kept in two arrays sorted by their lower bound: a large main array and a small
+ * pending array new ranges are inserted into. When the pending array is full, it is merged into the
+ * main array. Lookups are two binary searches and no objects are created per lookup or range.
+ */
+public class DisjointRangeIndex {
+
+  private static final int PENDING_CAPACITY = 4096;
+
+  // bounds by id
+  private double[] lowers = new double[64];
+  private double[] uppers = new double[64];
+  private int size = 0;
+
+  // ids sorted by lower bound
+  private int[] main = new int[64];
+  private int mainSize = 0;
+  private final int[] pending = new int[PENDING_CAPACITY];
+  private int pendingSize = 0;
+
+  /**
+   * Adds the open range (lower, upper). The range must not overlap any other range in this index.
+   *
+   * @return the id of the new range
+   */
+  public int add(double lower, double upper) {
+    assert lower < upper;
+    if (size == lowers.length) {
+      lowers = Arrays.copyOf(lowers, size * 2);
+      uppers = Arrays.copyOf(uppers, size * 2);
+    }
+    final int id = size++;
+    lowers[id] = lower;
+    uppers[id] = upper;
+
+    if (pendingSize == PENDING_CAPACITY) {
+      mergePending();
+    }
+    final int position = binarySearch(pending, pendingSize, lower);
+    final int insertAt = position >= 0 ? position : -(position + 1);
+    System.arraycopy(pending, insertAt, pending, insertAt + 1, pendingSize - insertAt);
+    pending[insertAt] = id;
+    pendingSize++;
+    return id;
+  }
+
+  /**
+   * Adds the open range (value - tolerance, value + tolerance) for a value that is not contained in
+   * any range. The new range is narrowed to the bounds of the neighbouring ranges and of narrow
+   * ranges that lie within it, so none of the ranges overlap. The value itself always lies within
+   * or on the lower bound of the result, so the result can be found by {@link
+   * #findIncludingLowerBound(double)} later.
+   *
+   * @return the id of the new range or the id of the range the value is the lower bound of, if the
+   * value lies exactly on the bound of a range and no new range can be added.
+   * @throws IllegalStateException if no range can be created for the value
+   */
+  public int addAround(double value, double tolerance) {
+    // a value on the lower bound of a range belongs to that range
+    final int startingAt = findFirstStartingWithin(Math.nextDown(value), Math.nextUp(value));
+    if (startingAt != -1) {
+      return startingAt;
+    }
+    final int plusRange = find(value + tolerance);
+    final int minusRange = find(value - tolerance);
+    double lower = minusRange == -1 ? value - tolerance : uppers[minusRange];
+    double upper = plusRange == -1 ? value + tolerance : lowers[plusRange];
+
+    if (lower < upper) {
+      // narrow ranges that lie completely within the new range must not be covered
+      final int innerBelow = findLastStartingWithin(lower, value);
+      if (innerBelow != -1) {
+        lower = Math.max(lower, uppers[innerBelow]);
+      }
+      final int innerAbove = findFirstStartingWithin(value, upper);
+      if (innerAbove != -1) {
+        upper = lowers[innerAbove];
+      }
+      return add(lower, upper);
+    } else if (lower == upper && plusRange != -1) {
+      return plusRange;
+    }
+    throw new IllegalStateException(
+        String.format("Incorrect range [%f, %f] for value %f", lower, upper, value));
+  }
+
+  /**
+   * @param value the value
+   * @return the id of the range that contains the value or -1.
+   */
+  public int find(double value) {
+    int id = findIn(main, mainSize, value);
+    if (id == -1) {
+      id = findIn(pending, pendingSize, value);
+    }
+    return id;
+  }
+
+  /**
+   * @param value the value
+   * @return the id of the range that contains the value or has the value as lower bound or -1.
+   */
+  public int findIncludingLowerBound(double value) {
+    final int id = find(value);
+    return id != -1 ? id : findFirstStartingWithin(Math.nextDown(value), Math.nextUp(value));
+  }
+
+  /**
+   * @return the id of the range with the smallest lower bound within the open interval (from, to)
+   * or -1 if there is no such range.
+   */
+  public int findFirstStartingWithin(double from, double to) {
+    final int a = firstStartingAfter(main, mainSize, from);
+    final int b = firstStartingAfter(pending, pendingSize, from);
+    int id = -1;
+    if (a != -1 && lowers[a] < to) {
+      id = a;
+    }
+    if (b != -1 && lowers[b] < to && (id == -1 || lowers[b] < lowers[id])) {
+      id = b;
+    }
+    return id;
+  }
+
+  /**
+   * @return the id of the range with the largest lower bound within the open interval (from, to)
+   * or -1 if there is no such range.
+   */
+  public int findLastStartingWithin(double from, double to) {
+    final int a = lastStartingBefore(main, mainSize, to);
+    final int b = lastStartingBefore(pending, pendingSize, to);
+    int id = -1;
+    if (a != -1 && lowers[a] > from) {
+      id = a;
+    }
+    if (b != -1 && lowers[b] > from && (id == -1 || lowers[b] > lowers[id])) {
+      id = b;
+    }
+    return id;
+  }
+
+  public double getLower(int id) {
+    return lowers[id];
+  }
+
+  public double getUpper(int id) {
+    return uppers[id];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the ids of all ranges sorted by ascending lower bound.
+   */
+  public int[] getIdsInAscendingOrder() {
+    mergePending();
+    return Arrays.copyOf(main, mainSize);
+  }
+
+  private int findIn(int[] sortedIds, int n, double value) {
+    // only the last range with lower < value can contain the value
+    final int candidate = lastStartingBefore(sortedIds, n, value);
+    return candidate != -1 && uppers[candidate] > value ? candidate : -1;
+  }
+
+  private int lastStartingBefore(int[] sortedIds, int n, double value) {
+    int lo = 0;
+    int hi = n - 1;
+    int candidate = -1;
+    while (lo <= hi) {
+      final int mid = (lo + hi) >>> 1;
+      if (lowers[sortedIds[mid]] < value) {
+        candidate = mid;
+        lo = mid + 1;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return candidate == -1 ? -1 : sortedIds[candidate];
+  }
+
+  private int firstStartingAfter(int[] sortedIds, int n, double value) {
+    int lo = 0;
+    int hi = n - 1;
+    int candidate = -1;
+    while (lo <= hi) {
+      final int mid = (lo + hi) >>> 1;
+      if (lowers[sortedIds[mid]] > value) {
+        candidate = mid;
+        hi = mid - 1;
+      } else {
+        lo = mid + 1;
+      }
+    }
+    return candidate == -1 ? -1 : sortedIds[candidate];
+  }
+
+  /**
+   * @return the index of the lower bound or (-(insertion point) - 1) in analogy to {@link
+   * Arrays#binarySearch(double[], double)}
+   */
+  private int binarySearch(int[] sortedIds, int n, double lower) {
+    int lo = 0;
+    int hi = n - 1;
+    while (lo <= hi) {
+      final int mid = (lo + hi) >>> 1;
+      final double midLower = lowers[sortedIds[mid]];
+      if (midLower < lower) {
+        lo = mid + 1;
+      } else if (midLower > lower) {
+        hi = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(lo + 1);
+  }
+
+  private void mergePending() {
+    if (pendingSize == 0) {
+      return;
+    }
+    final int total = mainSize + pendingSize;
+    if (main.length < total) {
+      main = Arrays.copyOf(main, Math.max(total, main.length + main.length / 2));
+    }
+    // merge from the back, so no additional buffer is needed
+    int i = mainSize - 1;
+    int j = pendingSize - 1;
+    for (int k = total - 1; j >= 0; k--) {
+      if (i >= 0 && lowers[main[i]] > lowers[pending[j]]) {
+        main[k] = main[i--];
+      } else {
+        main[k] = pending[j--];
+      }
+    }
+    mainSize = total;
+    pendingSize = 0;
+  }
+}
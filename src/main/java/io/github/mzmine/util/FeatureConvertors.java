@@ -161,6 +161,36 @@ public class FeatureConvertors {
       throw new NullPointerException("Feature list of the ion trace is null.");
     }
 
+    MemoryMapStorage storage = ((ModularFeatureList) ionTrace.getFeatureList())
+        .getMemoryMapStorage();
+    List<IonMobilitySeries> mobilograms = new ArrayList<>();
+    var sortedDp = FeatureConvertorIonMobility.groupDataPointsByFrameId(ionTrace.getDataPoints());
+    for (Entry<Frame, SortedSet<RetentionTimeMobilityDataPoint>> entry : sortedDp.entrySet()) {
+      double[][] data = DataPointUtils.getDataPointsAsDoubleArray(entry.getValue());
+      SimpleIonMobilitySeries mobilogram = new SimpleIonMobilitySeries(storage, data[0], data[1],
+          entry.getValue().stream().map(RetentionTimeMobilityDataPoint::getMobilityScan).collect(
+              Collectors.toList()));
+      mobilograms.add(mobilogram);
+    }
+    IonMobilogramTimeSeries imTimeSeries = new SimpleIonMobilogramTimeSeries(storage, mobilograms);
+    return IonMobilityIonTraceToModularFeature(ionTrace, rawDataFile, imTimeSeries);
+  }
+
+  /**
+   * Creates a feature from the values of the ion trace and an already built ion mobilogram time
+   * series. The data points of the ion trace are not used.
+   *
+   * @param ionTrace     the ion trace with the feature list, m/z, rt, mobility, height and ranges
+   * @param imTimeSeries the data of the feature
+   */
+  public static ModularFeature IonMobilityIonTraceToModularFeature(
+      @Nonnull IIonMobilityTrace ionTrace, RawDataFile rawDataFile,
+      @Nonnull IonMobilogramTimeSeries imTimeSeries) {
+
+    if (ionTrace.getFeatureList() == null) {
+      throw new NullPointerException("Feature list of the ion trace is null.");
+    }
+
     if (!(ionTrace.getFeatureList() instanceof ModularFeatureList)) {
       throw new IllegalArgumentException(
           "Can not create modular feature from ion trace of non-modular feature list.");
@@ -191,18 +221,6 @@ public class FeatureConvertors {
 //    List<DataPoint> dps = new ArrayList<>(ionTrace.getDataPoints());
 //    modularFeature.set(DataPointsType.class, dps);
 
-    MemoryMapStorage storage = ((ModularFeatureList) ionTrace.getFeatureList())
-        .getMemoryMapStorage();
-    List<IonMobilitySeries> mobilograms = new ArrayList<>();
-    var sortedDp = FeatureConvertorIonMobility.groupDataPointsByFrameId(ionTrace.getDataPoints());
-    for (Entry<Frame, SortedSet<RetentionTimeMobilityDataPoint>> entry : sortedDp.entrySet()) {
-      double[][] data = DataPointUtils.getDataPointsAsDoubleArray(entry.getValue());
-      SimpleIonMobilitySeries mobilogram = new SimpleIonMobilitySeries(storage, data[0], data[1],
-          entry.getValue().stream().map(RetentionTimeMobilityDataPoint::getMobilityScan).collect(
-              Collectors.toList()));
-      mobilograms.add(mobilogram);
-    }
-    IonMobilogramTimeSeries imTimeSeries = new SimpleIonMobilogramTimeSeries(storage, mobilograms);
     modularFeature.set(FeatureDataType.class, imTimeSeries);
 
     // Ranges
@@ -250,6 +268,33 @@ public class FeatureConvertors {
           "Can not create modular feature from image of non-modular feature list.");
     }
 
+    // Data points of feature
+    double[][] dp = DataPointUtils.getDataPointsAsDoubleArray(image.getDataPoints());
+    SimpleIonTimeSeries data = new SimpleIonTimeSeries(
+        ((ModularFeatureList) image.getFeatureList()).getMemoryMapStorage(), dp[0], dp[1],
+        image.getScanNumbers().stream().collect(Collectors.toList()));
+    return ImageToModularFeature(image, rawDataFile, data);
+  }
+
+  /**
+   * Creates a feature from the values of the image and an already built time series with one data
+   * point per pixel. The data points of the image are not used.
+   *
+   * @param image the image with the feature list, m/z, height and ranges
+   * @param data  the data of the feature
+   */
+  public static ModularFeature ImageToModularFeature(@Nonnull IImage image,
+      RawDataFile rawDataFile, @Nonnull IonTimeSeries<? extends Scan> data) {
+
+    if (image.getFeatureList() == null) {
+      throw new NullPointerException("Feature list of the image is null.");
+    }
+
+    if (!(image.getFeatureList() instanceof ModularFeatureList)) {
+      throw new IllegalArgumentException(
+          "Can not create modular feature from image of non-modular feature list.");
+    }
+
     ModularFeature modularFeature = new ModularFeature((ModularFeatureList) image.getFeatureList());
 
     // TODO
@@ -267,11 +312,7 @@ public class FeatureConvertors {
     // TODO
     modularFeature.set(BestScanNumberType.class, -1);
 
-    // Data points of feature
-    double[][] dp = DataPointUtils.getDataPointsAsDoubleArray(image.getDataPoints());
-    SimpleIonTimeSeries data = new SimpleIonTimeSeries(
-        ((ModularFeatureList) image.getFeatureList()).getMemoryMapStorage(), dp[0], dp[1],
-        image.getScanNumbers().stream().collect(Collectors.toList()));
+    modularFeature.set(FeatureDataType.class, data);
 
     // Ranges
     Range<Float> rtRange = Range.closed(0.f, 0.f);
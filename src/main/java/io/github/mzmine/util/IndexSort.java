@@ -0,0 +1,111 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util;
+
+/**
+ * Sorts indices of primitive arrays without boxing. Use this instead of sorting lists of data
+ * point objects, when the values are available as (parallel) primitive arrays.
+ */
+public class IndexSort {
+
+  /**
+   * Compares two indices.
+   */
+  @FunctionalInterface
+  public interface IndexComparator {
+
+    int compare(int a, int b);
+  }
+
+  /**
+   * Creates an array of the indices 0 to n-1 that is sorted by the given comparator. The sort is
+   * stable, indices that are equal according to the comparator stay in ascending order.
+   *
+   * @param n          the number of indices
+   * @param comparator compares two indices
+   * @return the sorted indices
+   */
+  public static int[] sort(int n, IndexComparator comparator) {
+    int[] indices = new int[n];
+    for (int i = 0; i < n; i++) {
+      indices[i] = i;
+    }
+    if (n < 2) {
+      return indices;
+    }
+
+    // bottom up merge sort, small runs are sorted by insertion sort first
+    final int run = 32;
+    for (int lo = 0; lo < n; lo += run) {
+      insertionSort(indices, lo, Math.min(lo + run, n), comparator);
+    }
+
+    int[] buffer = new int[n];
+    for (int width = run; width < n; width *= 2) {
+      for (int lo = 0; lo < n; lo += 2 * width) {
+        final int mid = Math.min(lo + width, n);
+        final int hi = Math.min(lo + 2 * width, n);
+        merge(indices, buffer, lo, mid, hi, comparator);
+      }
+      final int[] tmp = indices;
+      indices = buffer;
+      buffer = tmp;
+    }
+    return indices;
+  }
+
+  /**
+   * Sorts the indices of the values by ascending or descending value. Equal values keep the order
+   * of their indices.
+   *
+   * @param values    the values
+   * @param ascending sorting direction
+   * @return the sorted indices
+   */
+  public static int[] sort(double[] values, boolean ascending) {
+    return ascending ? sort(values.length, (a, b) -> Double.compare(values[a], values[b]))
+        : sort(values.length, (a, b) -> Double.compare(values[b], values[a]));
+  }
+
+  private static void insertionSort(int[] indices, int from, int to,
+      IndexComparator comparator) {
+    for (int i = from + 1; i < to; i++) {
+      final int current = indices[i];
+      int j = i - 1;
+      while (j >= from && comparator.compare(indices[j], current) > 0) {
+        indices[j + 1] = indices[j];
+        j--;
+      }
+      indices[j + 1] = current;
+    }
+  }
+
+  private static void merge(int[] src, int[] dst, int lo, int mid, int hi,
+      IndexComparator comparator) {
+    int left = lo;
+    int right = mid;
+    for (int i = lo; i < hi; i++) {
+      if (left < mid && (right >= hi || comparator.compare(src[left], src[right]) <= 0)) {
+        dst[i] = src[left++];
+      } else {
+        dst[i] = src[right++];
+      }
+    }
+  }
+}
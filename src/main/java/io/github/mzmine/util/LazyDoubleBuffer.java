@@ -0,0 +1,77 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package io.github.mzmine.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.SoftReference;
+import java.nio.DoubleBuffer;
+import javax.annotation.Nonnull;
+
+/**
+ * Double values of a {@link LazyMappedFile} that are mapped on the first access. The mapped buffer
+ * is softly referenced, so it is dropped when the garbage collector clears soft references and is
+ * mapped again when it is accessed the next time, see {@link LazyMappedFile}.
+ */
+public class LazyDoubleBuffer {
+
+  private final LazyMappedFile file;
+  private final long offset;
+  private final int numValues;
+
+  private volatile SoftReference<DoubleBuffer> values;
+
+  /**
+   * @param file      the file containing the values
+   * @param offset    position of the first value in bytes
+   * @param numValues number of values
+   */
+  public LazyDoubleBuffer(@Nonnull LazyMappedFile file, long offset, int numValues) {
+    this.file = file;
+    this.offset = offset;
+    this.numValues = numValues;
+  }
+
+  /**
+   * @return the number of values
+   */
+  public int capacity() {
+    return numValues;
+  }
+
+  /**
+   * @return a read-only buffer of the values from position 0 to its capacity
+   * @throws UncheckedIOException if the file cannot be created or mapped
+   */
+  @Nonnull
+  public DoubleBuffer get() {
+    final SoftReference<DoubleBuffer> reference = values;
+    DoubleBuffer buffer = reference == null ? null : reference.get();
+    if (buffer == null) {
+      try {
+        buffer = file.mapDoubles(offset, numValues);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      values = new SoftReference<>(buffer);
+    }
+    return buffer;
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package io.github.mzmine.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+import javax.annotation.Nonnull;
+
+/**
+ * A read-only file of primitive values that is memory mapped on demand. The file itself is only
+ * created on the first access, e.g. by extracting it from a project archive, so data that is never
+ * accessed does not cost any time or disk space.
+ * <p>
+ * The file is mapped in windows of WINDOW_SIZE bytes, because a single mapping is limited to 2 GB.
+ * The windows are only softly referenced, as are the buffers handed out by {@link
+ * LazyDoubleBuffer}. A mapping is only released when the garbage collector clears these references,
+ * i.e. when the Java heap runs low, not when the system runs low on memory. The mapped pages are
+ * not part of the heap, the operating system reads them from the file on demand and may drop them
+ * again at any time.
+ * <p>
+ * {@link #close()} deletes the file. It is called when the raw data file that owns the data is
+ * closed.
+ */
+public class LazyMappedFile {
+
+  private static final Logger logger = Logger.getLogger(LazyMappedFile.class.getName());
+
+  private static final long WINDOW_SIZE = 1L << 28;
+  private static final DoubleBuffer EMPTY_BUFFER = DoubleBuffer.wrap(new double[0]);
+
+  /**
+   * Creates the file on the first access.
+   */
+  @FunctionalInterface
+  public interface FileSource {
+
+    @Nonnull
+    File createFile() throws IOException;
+  }
+
+  private final FileSource source;
+  private File file;
+  private boolean closed = false;
+  private long fileSize;
+  private final Map<Long, SoftReference<ByteBuffer>> windows = new HashMap<>();
+
+  public LazyMappedFile(@Nonnull FileSource source) {
+    this.source = source;
+  }
+
+  /**
+   * Maps double values of the file.
+   *
+   * @param offset    position of the first value in bytes
+   * @param numValues number of values
+   * @return a read-only buffer of the values from position 0 to its capacity
+   */
+  @Nonnull
+  public synchronized DoubleBuffer mapDoubles(long offset, int numValues) throws IOException {
+    if (numValues == 0) {
+      return EMPTY_BUFFER;
+    }
+    if (closed) {
+      throw new IOException("The mapped file was closed");
+    }
+    final long length = (long) numValues * Double.BYTES;
+    final long windowIndex = offset / WINDOW_SIZE;
+    final long windowStart = windowIndex * WINDOW_SIZE;
+
+    // values that cross the border of a window are mapped on their own
+    if (offset + length > windowStart + WINDOW_SIZE) {
+      return map(offset, length).asDoubleBuffer();
+    }
+
+    final SoftReference<ByteBuffer> reference = windows.get(windowIndex);
+    ByteBuffer window = reference == null ? null : reference.get();
+    if (window == null) {
+      window = map(windowStart, Math.min(WINDOW_SIZE, getFileSize() - windowStart));
+      windows.put(windowIndex, new SoftReference<>(window));
+    }
+
+    final int start = (int) (offset - windowStart);
+    return window.duplicate().position(start).limit(start + (int) length).slice()
+        .asDoubleBuffer();
+  }
+
+  /**
+   * Deletes the file, if it was created. Buffers that were already handed out stay readable as long
+   * as the operating system keeps the deleted file, the file may only be deleted on exit otherwise.
+   */
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    windows.clear();
+    if (file != null && !file.delete()) {
+      logger.fine(() -> "Could not delete " + file + ", it is deleted on exit");
+      file.deleteOnExit();
+    }
+  }
+
+  private ByteBuffer map(long position, long length) throws IOException {
+    try (FileChannel channel = FileChannel.open(getFile().toPath(), StandardOpenOption.READ)) {
+      // the mapping stays valid after the channel is closed
+      return channel.map(MapMode.READ_ONLY, position, length);
+    }
+  }
+
+  private File getFile() throws IOException {
+    if (file == null) {
+      file = source.createFile();
+      fileSize = file.length();
+      logger.finest(() -> "Mapping " + file + " (" + fileSize + " bytes)");
+    }
+    return file;
+  }
+
+  private long getFileSize() throws IOException {
+    getFile();
+    return fileSize;
+  }
+}
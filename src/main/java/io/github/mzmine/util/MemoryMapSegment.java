@@ -0,0 +1,203 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.Cleaner;
+import java.lang.ref.Cleaner.Cleanable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import javax.annotation.Nonnull;
+import sun.misc.Unsafe;
+
+/**
+ * A single memory-mapped temporary file of a {@link MemoryMapStorage}. Regions of the segment are
+ * handed out by {@link #reserve(int)} and are never moved or reused, so buffers sliced from a
+ * segment stay valid for as long as the mapping exists. Regions are reserved by bumping an atomic
+ * position, so concurrent writers never block each other.
+ * <p>
+ * Every buffer sliced from the segment references the mapping, so the mapping stays reachable as
+ * long as any owner (e.g. a feature list that took over the buffers of another feature list) holds
+ * one of its buffers. The file is deleted and the disk budget charged for the segment is released
+ * by a {@link Cleaner} once the mapping is unreachable. If the file cannot be deleted yet, the
+ * deletion is retried later and the budget stays charged until it succeeds.
+ */
+final class MemoryMapSegment {
+
+  private static final Logger logger = Logger.getLogger(MemoryMapSegment.class.getName());
+
+  private static final Cleaner cleaner = Cleaner.create();
+
+  /**
+   * Files of unreachable segments that could not be deleted yet.
+   */
+  private static final List<Deleter> pendingDeletes = new ArrayList<>();
+
+  private final MappedByteBuffer buffer;
+  private final int capacity;
+  private final Deleter deleter;
+  private final Cleanable cleanable;
+
+  /**
+   * The first free byte in this segment.
+   */
+  private final AtomicInteger position = new AtomicInteger(0);
+
+  private MemoryMapSegment(@Nonnull File file, @Nonnull MappedByteBuffer buffer, int capacity) {
+    this.buffer = buffer;
+    this.capacity = capacity;
+    this.deleter = new Deleter(file);
+    this.cleanable = cleaner.register(buffer, deleter);
+  }
+
+  /**
+   * Creates a new temporary file and maps it into memory.
+   *
+   * @param capacity The capacity of the segment in bytes.
+   * @return The new segment.
+   * @throws IOException If the file cannot be created or mapped.
+   */
+  @Nonnull
+  static MemoryMapSegment create(int capacity) throws IOException {
+    // Create the temporary storage file
+    final File storageFileName = File.createTempFile("mzmine", ".tmp");
+    logger.finest("Created a temporary file " + storageFileName);
+
+    // Map the file into memory, the mapping remains after the file is closed.
+    final MappedByteBuffer mappedFileBuffer;
+    try (RandomAccessFile storageFile = new RandomAccessFile(storageFileName, "rw")) {
+      mappedFileBuffer = storageFile.getChannel()
+          .map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    } catch (IOException e) {
+      storageFileName.delete();
+      throw e;
+    }
+
+    // Unfortunately, deleteOnExit() doesn't work on Windows, see JDK
+    // bug #4171239. We will try to remove the temporary files in a
+    // shutdown hook registered in the main.ShutDownHook class.
+    storageFileName.deleteOnExit();
+
+    return new MemoryMapSegment(storageFileName, mappedFileBuffer, capacity);
+  }
+
+  /**
+   * Reserves a region of the given size in this segment.
+   *
+   * @param bytes The number of bytes to reserve.
+   * @return The offset of the reserved region or -1 if the segment cannot hold the region.
+   */
+  int reserve(int bytes) {
+    while (true) {
+      final int offset = position.get();
+      if (offset + bytes > capacity) {
+        return -1;
+      }
+      if (position.compareAndSet(offset, offset + bytes)) {
+        return offset;
+      }
+    }
+  }
+
+  /**
+   * Creates an independent view of a previously reserved region. Does not modify the position or
+   * limit of the mapped buffer, so concurrent calls are safe.
+   */
+  @Nonnull
+  ByteBuffer slice(int offset, int length) {
+    return buffer.slice(offset, length);
+  }
+
+  int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Adds bytes that were acquired from the disk budget for regions of this segment. They are
+   * released when the file is deleted.
+   */
+  void charge(long bytes) {
+    deleter.charged.addAndGet(bytes);
+  }
+
+  /**
+   * @return The number of reserved bytes in this segment.
+   */
+  int getReserved() {
+    return Math.min(position.get(), capacity);
+  }
+
+  /**
+   * Unmaps the segment and deletes the underlying file immediately. Must only be used if no buffer
+   * of this segment will be accessed afterwards. Otherwise, the file is deleted as soon as the
+   * mapping is garbage collected.
+   */
+  void unmap(@Nonnull Unsafe theUnsafe) {
+    theUnsafe.invokeCleaner(buffer);
+    cleanable.clean();
+  }
+
+  /**
+   * Retries to delete the files of unreachable segments that could not be deleted before, e.g.
+   * because the operating system had not released the mapping yet.
+   */
+  static void retryPendingDeletes() {
+    final List<Deleter> retry;
+    synchronized (pendingDeletes) {
+      retry = new ArrayList<>(pendingDeletes);
+      pendingDeletes.clear();
+    }
+    retry.forEach(Deleter::run);
+  }
+
+  /**
+   * Deletes the file and releases the charged budget. Must not reference the segment or its buffer,
+   * otherwise the mapping would never become unreachable.
+   */
+  private static final class Deleter implements Runnable {
+
+    private final File file;
+    private final AtomicLong charged = new AtomicLong(0L);
+
+    private Deleter(File file) {
+      this.file = file;
+    }
+
+    @Override
+    public void run() {
+      if (file.delete() || !file.exists()) {
+        MemoryMapStorage.releaseBudget(charged.getAndSet(0L));
+        return;
+      }
+      logger.fine(() -> "Could not delete temporary file " + file.getAbsolutePath()
+          + ", will retry later");
+      synchronized (pendingDeletes) {
+        pendingDeletes.add(this);
+      }
+    }
+  }
+}
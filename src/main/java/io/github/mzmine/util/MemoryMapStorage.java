@@ -19,19 +19,17 @@
 package io.github.mzmine.util;
 
 import io.github.mzmine.main.MZmineCore;
-import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.DoubleBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
-import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -43,19 +41,29 @@ import sun.misc.Unsafe;
  * buffer is directly bound to the memory-mapped portion of the file so the data can be directly
  * accessed without loading it into another intermediate primitive type array.
  * <p>
- * The size of each temporary file is STORAGE_FILE_CAPACITY bytes. When the file is full, a new file
- * is automatically created using the createNewMappedFile() function. The size of each temporary
- * file in the filesystem may show as 1GB, but actually only a portion of that space is occupied on
- * the disk, depending on the amount of stored data (this can be examined using the 'du -hs' Linux
- * command.
+ * The storage consists of {@link MemoryMapSegment}s of STORAGE_FILE_CAPACITY bytes. Every writing
+ * thread carves a private allocation arena of ARENA_CAPACITY bytes out of the current segment and
+ * fills it without any further synchronization. Arenas are reserved with an atomic bump of the
+ * segment position. When the segment is full, a single thread creates the next segment and swaps
+ * it in, while the other writers wait on a lock for the swap. If creating the segment fails, all
+ * writers that waited for it fail with the same error. The size
+ * of each temporary file in the filesystem may show as 1GB, but actually only a portion of that
+ * space is occupied on the disk, depending on the amount of stored data (this can be examined
+ * using the 'du -hs' Linux command.
  * <p>
- * There is no support for removing data from the file - we assume such operation is rare and
- * therefore the data can be left on the disk until the whole temporary file is discarded.
+ * Single arrays cannot be removed from the storage, because the returned buffers are handed out
+ * directly and cannot be relocated. Instead, the owners of the stored data (feature lists, raw data
+ * files and mass lists) {@link #retain()} the storage and {@link #release()} it when they are
+ * removed. As soon as the last owner is gone, the storage drops its segments. Buffers may still be
+ * referenced by other owners, e.g. feature lists derived from a removed feature list, so a segment
+ * file is only deleted when no buffer of the segment is reachable anymore (see {@link
+ * MemoryMapSegment}).
  * <p>
- * There is a limit on the number of open file descriptors (e.g. 1024 by default on Linux). With 1
- * GB per temporary file, this would give us about 1 TB of storage space, so perhaps it is okay.
- * There is no way to remove the memory-mapped file, it is removed automatically when the
- * MappedByteBuffer is garbage-collected.
+ * The total number of reserved bytes of all storages is limited by a disk budget (see {@link
+ * #setDiskBudget(long)}). Each arena or large array is charged with its reserved size, and the
+ * charge is released when the segment file has been deleted. If the budget is exhausted, writing
+ * threads wait until other segments are deleted. If no space is freed within BUDGET_WAIT_SECONDS,
+ * an IOException is thrown and the caller falls back to storing the data in ram.
  * <p>
  * The total amount of storage space is also limited by the amount of addressable virtual memory
  * (e.g., 128TB on Linux). For this reason, this approach requires a 64-bit system - the limit would
@@ -67,15 +75,48 @@ public class MemoryMapStorage {
    * One temporary file can store STORAGE_FILE_CAPACITY bytes. We need to fit within 2GB limit for a
    * single MappedByteBuffer. 1 GB per file seems like a good start.
    */
-  private static final long STORAGE_FILE_CAPACITY = 1_000_000_000L;
-  private final Logger logger = Logger.getLogger(this.getClass().getName());
-  private final Set<File> temporaryFiles = new HashSet<>();
-  private final List<MappedByteBuffer> mappedByteBufferList = new ArrayList<>();
+  private static final int STORAGE_FILE_CAPACITY = 1_000_000_000;
+
+  /**
+   * Size of the per-thread allocation arenas. Arrays larger than a quarter of an arena are directly
+   * reserved in the segment to limit the unused space at the end of an arena.
+   */
+  private static final int ARENA_CAPACITY = 16_000_000;
+
+  private static final long BUDGET_WAIT_SECONDS = 60;
+
+  private static final Logger logger = Logger.getLogger(MemoryMapStorage.class.getName());
+
+  private static final Object budgetLock = new Object();
+  private static long diskBudget = Long.MAX_VALUE;
+  private static long totalBytesCharged = 0L;
 
   private static boolean storeFeaturesInRam = false;
   private static boolean storeRawFilesInRam = false;
   private static boolean storeMassListsInRam = false;
 
+  private final List<MemoryMapSegment> segments = new CopyOnWriteArrayList<>();
+  private final ThreadLocal<Arena> arenas = ThreadLocal.withInitial(this::createArena);
+  // all thread local arenas, so their segments can be dropped when the storage is closed
+  private final List<Arena> threadArenas = new CopyOnWriteArrayList<>();
+  private final AtomicLong bytesLive = new AtomicLong(0L);
+  private final AtomicInteger references = new AtomicInteger(0);
+
+  /**
+   * The segment that we are currently reserving arenas from.
+   */
+  private final AtomicReference<MemoryMapSegment> currentSegment = new AtomicReference<>();
+  /**
+   * Held while a thread creates the next segment.
+   */
+  private final Object rollOverLock = new Object();
+  /**
+   * Number of finished attempts to create a segment and the error of the last one, if it failed.
+   */
+  private volatile long rollOverAttempts = 0L;
+  private IOException rollOverError = null;
+  private volatile boolean discarded = false;
+
   /**
    * @return The {@link MemoryMapStorage} or null, if the data shall be stored in ram.
    */
@@ -111,42 +152,221 @@ public class MemoryMapStorage {
   }
 
   /**
-   * The file that we are currently writing into.
+   * Sets the maximum number of bytes all storages may reserve in total. Threads reserving space
+   * beyond this budget are blocked until the files of released storages are deleted.
+   *
+   * @param bytes The budget in bytes. {@link Long#MAX_VALUE} for no limit.
    */
-  private MappedByteBuffer currentMappedFile = null;
+  public static void setDiskBudget(long bytes) {
+    synchronized (budgetLock) {
+      diskBudget = Math.max(bytes, STORAGE_FILE_CAPACITY);
+      budgetLock.notifyAll();
+    }
+  }
 
   /**
-   * Creates a new temporary file, maps it into memory, and returns the corresponding
-   * MappedByteBuffer. The capacity of the buffer is STORAGE_FILE_CAPACITY bytes.
-   *
-   * @return a MappedByteBuffer corresponding to the memory-mapped temporary file
-   * @throws IOException
+   * @return The number of bytes currently reserved in the temporary files of all storages,
+   * including files that are waiting to be deleted.
+   */
+  public static long getTotalBytesCharged() {
+    synchronized (budgetLock) {
+      return totalBytesCharged;
+    }
+  }
+
+  private static void acquireBudget(long bytes) throws IOException {
+    if (!isWithinBudget(bytes)) {
+      // segments of released storages are deleted once their buffers are collected. Done outside
+      // of the lock, so threads releasing or charging budget do not wait for the collection.
+      MemoryMapSegment.retryPendingDeletes();
+      System.gc();
+    }
+    synchronized (budgetLock) {
+      final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(BUDGET_WAIT_SECONDS);
+      while (totalBytesCharged + bytes > diskBudget) {
+        final long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          throw new IOException(
+              "Temporary storage budget of " + diskBudget + " bytes exceeded (" + totalBytesCharged
+                  + " bytes reserved).");
+        }
+        try {
+          TimeUnit.NANOSECONDS.timedWait(budgetLock, remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while waiting for temporary storage space.", e);
+        }
+      }
+      totalBytesCharged += bytes;
+    }
+  }
+
+  private static boolean isWithinBudget(long bytes) {
+    synchronized (budgetLock) {
+      return totalBytesCharged + bytes <= diskBudget;
+    }
+  }
+
+  static void releaseBudget(long bytes) {
+    synchronized (budgetLock) {
+      totalBytesCharged -= bytes;
+      budgetLock.notifyAll();
+    }
+  }
+
+  /**
+   * Registers an owner of the data in this storage. Every call must be matched by a call to {@link
+   * #release()}.
+   */
+  public void retain() {
+    references.incrementAndGet();
+  }
+
+  /**
+   * Unregisters an owner of the data in this storage. When the last owner releases the storage, the
+   * temporary files are deleted as soon as none of their buffers is referenced anymore.
+   */
+  public void release() {
+    final int remaining = references.decrementAndGet();
+    if (remaining == 0) {
+      logger.finest(() -> "Releasing storage: " + this);
+      close(null);
+      MZmineCore.getStorageList().remove(this);
+    } else if (remaining < 0) {
+      logger.warning("Storage was released more often than it was retained.");
+      references.set(0);
+    }
+  }
+
+  /**
+   * @return The number of bytes of all arrays stored in this storage.
+   */
+  public long getBytesLive() {
+    return bytesLive.get();
+  }
+
+  /**
+   * @return The number of bytes reserved by this storage, including the unused ends of the arenas.
    */
-  private MappedByteBuffer createNewMappedFile() throws IOException {
+  public long getBytesReserved() {
+    long reserved = 0L;
+    for (MemoryMapSegment segment : segments) {
+      reserved += segment.getReserved();
+    }
+    return reserved;
+  }
+
+  /**
+   * @return The number of bytes mapped by this storage.
+   */
+  public long getBytesMapped() {
+    long mapped = 0L;
+    for (MemoryMapSegment segment : segments) {
+      mapped += segment.getCapacity();
+    }
+    return mapped;
+  }
 
-    // Create the temporary storage file
-    File storageFileName = File.createTempFile("mzmine", ".tmp");
-    temporaryFiles.add(storageFileName);
-    logger.finest("Created a temporary file " + storageFileName);
+  /**
+   * Reserves a region of the given size, preferably in the arena of the current thread.
+   *
+   * @param bytes the number of bytes to reserve
+   * @return A byte buffer of exactly the requested size.
+   */
+  @Nonnull
+  private ByteBuffer allocate(final int bytes) throws IOException {
+    if (bytes < 0 || bytes > STORAGE_FILE_CAPACITY) {
+      throw new IOException("Cannot store " + bytes + " bytes in a single segment.");
+    }
 
-    // Open the file for writing
-    RandomAccessFile storageFile = new RandomAccessFile(storageFileName, "rw");
+    // align all regions to 8 bytes
+    final int alignedBytes = (bytes + 7) & ~7;
+
+    final Arena arena;
+    if (alignedBytes > ARENA_CAPACITY / 4) {
+      arena = new Arena();
+      reserve(arena, alignedBytes);
+    } else {
+      arena = arenas.get();
+      if (arena.segment == null || arena.position + alignedBytes > arena.end) {
+        reserve(arena, ARENA_CAPACITY);
+      }
+    }
 
-    // Map the file into memory
-    MappedByteBuffer mappedFileBuffer =
-        storageFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, STORAGE_FILE_CAPACITY);
-    mappedByteBufferList.add(mappedFileBuffer);
+    final MemoryMapSegment segment = arena.segment;
+    if (segment == null) {
+      throw new IOException("Cannot store data in a discarded storage.");
+    }
+    final ByteBuffer slice = segment.slice(arena.position, bytes);
+    arena.position += alignedBytes;
+    bytesLive.addAndGet(bytes);
+    return slice;
+  }
 
-    // Close the temporary file, the memory mapping will remain
-    storageFile.close();
+  @Nonnull
+  private Arena createArena() {
+    final Arena arena = new Arena();
+    threadArenas.add(arena);
+    return arena;
+  }
 
-    // Unfortunately, deleteOnExit() doesn't work on Windows, see JDK
-    // bug #4171239. We will try to remove the temporary files in a
-    // shutdown hook registered in the main.ShutDownHook class.
-    storageFileName.deleteOnExit();
+  /**
+   * Reserves a new region of the given size in the current segment and assigns it to the arena. If
+   * the current segment is full, a new one is created. The region is charged to the disk budget.
+   */
+  private void reserve(@Nonnull final Arena arena, final int bytes) throws IOException {
+    acquireBudget(bytes);
+    try {
+      while (true) {
+        final MemoryMapSegment segment = currentSegment.get();
+        if (segment != null) {
+          final int offset = segment.reserve(bytes);
+          if (offset >= 0) {
+            segment.charge(bytes);
+            arena.segment = segment;
+            arena.position = offset;
+            arena.end = offset + bytes;
+            return;
+          }
+        }
+        rollOver(segment);
+      }
+    } catch (IOException | RuntimeException e) {
+      releaseBudget(bytes);
+      throw e;
+    }
+  }
 
-    return mappedFileBuffer;
+  /**
+   * Replaces the given (full) segment by a new one, unless another thread already did so. Only one
+   * thread creates the new segment, all others wait on the lock until it is swapped in. Threads that
+   * waited for a failed attempt fail as well instead of trying again one after another.
+   */
+  private void rollOver(@Nullable final MemoryMapSegment full) throws IOException {
+    final long attempt = rollOverAttempts;
+    synchronized (rollOverLock) {
+      if (discarded) {
+        throw new IOException("Cannot store data in a discarded storage.");
+      }
+      if (currentSegment.get() != full) {
+        return;
+      }
+      if (rollOverAttempts != attempt && rollOverError != null) {
+        throw new IOException("Cannot create a new temporary file.", rollOverError);
+      }
 
+      try {
+        final MemoryMapSegment segment = MemoryMapSegment.create(STORAGE_FILE_CAPACITY);
+        segments.add(segment);
+        currentSegment.set(segment);
+        rollOverError = null;
+      } catch (IOException e) {
+        rollOverError = e;
+        throw e;
+      } finally {
+        rollOverAttempts++;
+      }
+    }
   }
 
   /**
@@ -158,8 +378,7 @@ public class MemoryMapStorage {
    * @throws IOException
    */
   @Nonnull
-  public synchronized DoubleBuffer storeData(@Nonnull final double data[])
-      throws IOException {
+  public DoubleBuffer storeData(@Nonnull final double data[]) throws IOException {
     return storeData(data, 0, data.length);
   }
 
@@ -174,36 +393,15 @@ public class MemoryMapStorage {
    * @throws IOException
    */
   @Nonnull
-  public synchronized DoubleBuffer storeData(@Nonnull final double data[], int offset,
-      int length) throws IOException {
-
-    // If we have no storage file or if the current file is full, create a new one
-    if ((currentMappedFile == null)
-        || (currentMappedFile.position() + (length * Double.BYTES) > STORAGE_FILE_CAPACITY)) {
-      currentMappedFile = createNewMappedFile();
-    }
-
-    // Save the current position in the storage file
-    final int savedPosition = currentMappedFile.position();
-
-    // Set the limit to the end of the new array and create a buffer slice
-    currentMappedFile.limit(savedPosition + length * Double.BYTES);
-    final ByteBuffer slice = currentMappedFile.slice();
-
-    // Create a double view of the memory-mapped byte buffer
-    DoubleBuffer sliceDoubleView = slice.asDoubleBuffer();
+  public DoubleBuffer storeData(@Nonnull final double data[], int offset, int length)
+      throws IOException {
 
-    // Copy the data to the memory mapped storage
+    // Create a double view of the reserved region and copy the data to the memory mapped storage
+    final DoubleBuffer sliceDoubleView = allocate(length * Double.BYTES).asDoubleBuffer();
     sliceDoubleView.put(data, offset, length);
 
-    // Update the position and the main buffer so we are ready to store the next array
-    currentMappedFile.position(savedPosition + length * Double.BYTES);
-
     // Create a read-only version of the new buffer slice
-    final DoubleBuffer readOnlySlice = sliceDoubleView.asReadOnlyBuffer();
-
-    return readOnlySlice;
-
+    return sliceDoubleView.clear().asReadOnlyBuffer();
   }
 
   /**
@@ -215,8 +413,7 @@ public class MemoryMapStorage {
    * @throws IOException
    */
   @Nonnull
-  public synchronized FloatBuffer storeData(@Nonnull final float data[])
-      throws IOException {
+  public FloatBuffer storeData(@Nonnull final float data[]) throws IOException {
     return storeData(data, 0, data.length);
   }
 
@@ -231,36 +428,15 @@ public class MemoryMapStorage {
    * @throws IOException
    */
   @Nonnull
-  public synchronized FloatBuffer storeData(@Nonnull final float data[], int offset,
-      int length) throws IOException {
-
-    // If we have no storage file or if the current file is full, create a new one
-    if ((currentMappedFile == null)
-        || (currentMappedFile.position() + length > STORAGE_FILE_CAPACITY)) {
-      currentMappedFile = createNewMappedFile();
-    }
-
-    // Save the current position in the storage file
-    final int savedPosition = currentMappedFile.position();
-
-    // Set the limit to the end of the new array and create a buffer slice
-    currentMappedFile.limit(savedPosition + length * Float.BYTES);
-    final ByteBuffer slice = currentMappedFile.slice();
-
-    // Create a float view of the memory-mapped byte buffer
-    FloatBuffer sliceFloatView = slice.asFloatBuffer();
+  public FloatBuffer storeData(@Nonnull final float data[], int offset, int length)
+      throws IOException {
 
-    // Copy the data to the memory mapped storage
+    // Create a float view of the reserved region and copy the data to the memory mapped storage
+    final FloatBuffer sliceFloatView = allocate(length * Float.BYTES).asFloatBuffer();
     sliceFloatView.put(data, offset, length);
 
-    // Update the position and the main buffer so we are ready to store the next array
-    currentMappedFile.position(savedPosition + length * Float.BYTES);
-
     // Create a read-only version of the new buffer slice
-    final FloatBuffer readOnlySlice = sliceFloatView.asReadOnlyBuffer();
-
-    return readOnlySlice;
-
+    return sliceFloatView.clear().asReadOnlyBuffer();
   }
 
   /**
@@ -272,7 +448,7 @@ public class MemoryMapStorage {
    * @throws IOException
    */
   @Nonnull
-  public synchronized IntBuffer storeData(@Nonnull final int data[]) throws IOException {
+  public IntBuffer storeData(@Nonnull final int data[]) throws IOException {
     return storeData(data, 0, data.length);
   }
 
@@ -287,57 +463,78 @@ public class MemoryMapStorage {
    * @throws IOException
    */
   @Nonnull
-  public synchronized IntBuffer storeData(@Nonnull final int data[], int offset,
-      int length) throws IOException {
-
-    // If we have no storage file or if the current file is full, create a new one
-    if ((currentMappedFile == null)
-        || (currentMappedFile.position() + length > STORAGE_FILE_CAPACITY)) {
-      currentMappedFile = createNewMappedFile();
-    }
-
-    // Save the current position in the storage file
-    final int savedPosition = currentMappedFile.position();
-
-    // Set the limit to the end of the new array and create a buffer slice
-    currentMappedFile.limit(savedPosition + length * Integer.BYTES);
-    final ByteBuffer slice = currentMappedFile.slice();
-
-    // Create an int view of the memory-mapped byte buffer
-    IntBuffer sliceIntView = slice.asIntBuffer();
+  public IntBuffer storeData(@Nonnull final int data[], int offset, int length)
+      throws IOException {
 
-    // Copy the data to the memory mapped storage
+    // Create an int view of the reserved region and copy the data to the memory mapped storage
+    final IntBuffer sliceIntView = allocate(length * Integer.BYTES).asIntBuffer();
     sliceIntView.put(data, offset, length);
 
-    // Update the position and the main buffer so we are ready to store the next array
-    currentMappedFile.position(savedPosition + length * Integer.BYTES);
-
     // Create a read-only version of the new buffer slice
-    final IntBuffer readOnlySlice = sliceIntView.asReadOnlyBuffer();
+    return sliceIntView.clear().asReadOnlyBuffer();
+  }
+
+  /**
+   * Store the given byte[] array in a memory-mapped temporary file and return a read-only
+   * ByteBuffer that can access the data.
+   *
+   * @param data   the byte[] array with the data
+   * @param offset offset of the stored portion of the data[] array
+   * @param length size of the stored portion of the data[] array
+   * @return a read-only ByteBuffer that is directly mapped to the stored data on the disk
+   * @throws IOException
+   */
+  @Nonnull
+  public ByteBuffer storeData(@Nonnull final byte data[], int offset, int length)
+      throws IOException {
 
-    return readOnlySlice;
+    // Copy the data to the reserved region of the memory mapped storage
+    final ByteBuffer slice = allocate(length);
+    slice.put(data, offset, length);
 
+    // Create a read-only version of the new buffer slice
+    return slice.clear().asReadOnlyBuffer();
   }
 
   /**
    * Discard this memory-mapped storage and remove all the associated temporary files.
+   *
+   * @param theUnsafe If not null, the mapped buffers are unmapped immediately. Must only be used if
+   *                  no buffer of this storage will be accessed afterwards.
    */
-  public synchronized void discard(Unsafe theUnsafe) throws IOException {
+  public void discard(Unsafe theUnsafe) throws IOException {
+    close(theUnsafe);
+  }
 
-    if (theUnsafe != null) {
-      for (MappedByteBuffer mappedByteBuffer : mappedByteBufferList) {
-        theUnsafe.invokeCleaner(mappedByteBuffer);
-      }
-    }
+  private synchronized void close(@Nullable Unsafe theUnsafe) {
+    discarded = true;
+    currentSegment.set(null);
 
-    for (File tmpFile : temporaryFiles) {
-      if (!tmpFile.delete()) {
-        logger.warning("Could not delete temporary file " + tmpFile.getAbsolutePath());
+    // drop all references to the segments, the arenas may live on in the threads of a pool
+    for (Arena arena : threadArenas) {
+      arena.segment = null;
+    }
+    if (theUnsafe != null) {
+      for (MemoryMapSegment segment : segments) {
+        segment.unmap(theUnsafe);
       }
     }
+    segments.clear();
+  }
 
-    temporaryFiles.clear();
-    currentMappedFile = null;
+  @Override
+  public String toString() {
+    return "MemoryMapStorage{segments=" + segments.size() + ", bytesLive=" + getBytesLive()
+        + ", bytesMapped=" + getBytesMapped() + ", references=" + references.get() + "}";
   }
 
+  /**
+   * A region of a segment that is exclusively used by a single thread.
+   */
+  private static final class Arena {
+
+    private MemoryMapSegment segment;
+    private int position;
+    private int end;
+  }
 }
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util.scans;
+
+import com.google.common.collect.BoundType;
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import java.lang.ref.SoftReference;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import javax.annotation.Nonnull;
+
+/**
+ * Index of the scan data of a {@link RawDataFile} to calculate extracted ion chromatograms, base
+ * peak chromatograms and total ion chromatograms of arbitrary m/z ranges without reading every data
+ * point of every scan.
+ * <p>
+ * The data points of a scan are sorted by m/z, so the data points within an m/z range are found by
+ * binary search. For every scan, a pyramid of blocks of {@link #BLOCK_SIZE} data points, blocks of
+ * blocks and so on keeps the intensity sum and the most intense data point of every block. A query
+ * only reads the data points at the bounds of the m/z range and combines the blocks in between, so
+ * it takes logarithmic time in the number of data points instead of linear time.
+ * <p>
+ * The pyramid of a scan is built when the scan is queried for the first time. It takes about 20
+ * bytes per {@link #BLOCK_SIZE} data points and is softly referenced, so it is released if memory
+ * runs low and built again on the next query. The index only covers the m/z dimension of every
+ * scan, chromatograms are still calculated scan by scan. The results are equal to {@link
+ * ScanUtils#findBasePeak(Scan, Range)} and, apart from rounding, {@link
+ * ScanUtils#calculateTIC(Scan, Range)}.
+ */
+public class ChromatogramIndex {
+
+  private static final int BLOCK_SIZE = 64;
+
+  // marks scans with data points that are not sorted by m/z
+  private static final ScanPyramid UNSORTED = new ScanPyramid(new double[0][], new int[0][]);
+
+  private final Map<Scan, SoftReference<ScanPyramid>> pyramids = new IdentityHashMap<>();
+
+  /**
+   * Find the base peak of a scan in a given m/z range. Same as {@link
+   * ScanUtils#findBasePeak(Scan, Range)}.
+   *
+   * @return the most intense data point with a positive intensity, if there are multiple, the one
+   * with the lowest m/z. A data point with m/z and intensity 0 if there is no such data point.
+   */
+  @Nonnull
+  public DataPoint findBasePeak(@Nonnull Scan scan, @Nonnull Range<Double> mzRange) {
+    final ScanPyramid pyramid = getPyramid(scan);
+    if (pyramid == null) {
+      return ScanUtils.findBasePeak(scan, mzRange);
+    }
+    final int index = pyramid.maxIndex(scan, firstIndex(scan, mzRange), endIndex(scan, mzRange));
+    if (index == -1 || !(scan.getIntensityValue(index) > 0d)) {
+      return new SimpleDataPoint(0d, 0d);
+    }
+    return new SimpleDataPoint(scan.getMzValue(index), scan.getIntensityValue(index));
+  }
+
+  /**
+   * Calculates the total ion count of a scan in a given m/z range. Equal to {@link
+   * ScanUtils#calculateTIC(Scan, Range)} apart from rounding.
+   */
+  public double calculateTIC(@Nonnull Scan scan, @Nonnull Range<Double> mzRange) {
+    final ScanPyramid pyramid = getPyramid(scan);
+    if (pyramid == null) {
+      return ScanUtils.calculateTIC(scan, mzRange);
+    }
+    return pyramid.sum(scan, firstIndex(scan, mzRange), endIndex(scan, mzRange));
+  }
+
+  /**
+   * @return the pyramid of the scan or null, if the data points of the scan are not sorted by m/z
+   */
+  private ScanPyramid getPyramid(Scan scan) {
+    ScanPyramid pyramid;
+    synchronized (pyramids) {
+      final SoftReference<ScanPyramid> reference = pyramids.get(scan);
+      pyramid = reference == null ? null : reference.get();
+    }
+    if (pyramid == null) {
+      // build outside of the lock, so multiple scans can be indexed in parallel
+      pyramid = ScanPyramid.create(scan);
+      synchronized (pyramids) {
+        pyramids.put(scan, new SoftReference<>(pyramid == null ? UNSORTED : pyramid));
+      }
+    }
+    return pyramid == UNSORTED ? null : pyramid;
+  }
+
+  /**
+   * Releases the pyramids of all scans, e.g., when the raw data file is closed.
+   */
+  public void clear() {
+    synchronized (pyramids) {
+      pyramids.clear();
+    }
+  }
+
+  /**
+   * @return the index of the first data point within the range
+   */
+  private static int firstIndex(Scan scan, Range<Double> mzRange) {
+    if (!mzRange.hasLowerBound()) {
+      return 0;
+    }
+    final double lower = mzRange.lowerEndpoint();
+    final boolean open = mzRange.lowerBoundType() == BoundType.OPEN;
+    int low = 0;
+    int high = scan.getNumberOfDataPoints();
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      final double mz = scan.getMzValue(mid);
+      if (mz < lower || (open && mz == lower)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return the index after the last data point within the range
+   */
+  private static int endIndex(Scan scan, Range<Double> mzRange) {
+    if (!mzRange.hasUpperBound()) {
+      return scan.getNumberOfDataPoints();
+    }
+    final double upper = mzRange.upperEndpoint();
+    final boolean open = mzRange.upperBoundType() == BoundType.OPEN;
+    int low = 0;
+    int high = scan.getNumberOfDataPoints();
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      final double mz = scan.getMzValue(mid);
+      if (mz < upper || (!open && mz == upper)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Intensity sums and most intense data points of the blocks of all levels of a scan. A block of
+   * level 0 contains {@link #BLOCK_SIZE} data points, a block of level l contains {@link
+   * #BLOCK_SIZE} blocks of level l - 1.
+   */
+  private static class ScanPyramid {
+
+    private final double[][] sums;
+    // index of the first most intense data point of the block
+    private final int[][] maxIndices;
+
+    private ScanPyramid(double[][] sums, int[][] maxIndices) {
+      this.sums = sums;
+      this.maxIndices = maxIndices;
+    }
+
+    /**
+     * @return the pyramid or null if the m/z values are not sorted
+     */
+    private static ScanPyramid create(Scan scan) {
+      final int numPoints = scan.getNumberOfDataPoints();
+      final double[] mzs = scan.getMzValues(new double[numPoints]);
+      for (int i = 1; i < numPoints; i++) {
+        if (!(mzs[i - 1] <= mzs[i])) {
+          return null;
+        }
+      }
+      final double[] intensities = scan.getIntensityValues(new double[numPoints]);
+
+      int numLevels = 0;
+      for (int units = numPoints; units > 1; units = (units + BLOCK_SIZE - 1) / BLOCK_SIZE) {
+        numLevels++;
+      }
+      final double[][] sums = new double[numLevels][];
+      final int[][] maxIndices = new int[numLevels][];
+
+      double[] unitSums = intensities;
+      int[] unitMaxIndices = null;
+      for (int level = 0; level < numLevels; level++) {
+        final int numUnits = unitSums.length;
+        final int numBlocks = (numUnits + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        sums[level] = new double[numBlocks];
+        maxIndices[level] = new int[numBlocks];
+        for (int block = 0; block < numBlocks; block++) {
+          double sum = 0d;
+          int maxIndex = -1;
+          for (int unit = block * BLOCK_SIZE; unit < Math.min(numUnits, (block + 1) * BLOCK_SIZE);
+              unit++) {
+            sum += unitSums[unit];
+            final int index = unitMaxIndices == null ? unit : unitMaxIndices[unit];
+            if (maxIndex == -1 || intensities[index] > intensities[maxIndex]) {
+              maxIndex = index;
+            }
+          }
+          sums[level][block] = sum;
+          maxIndices[level][block] = maxIndex;
+        }
+        unitSums = sums[level];
+        unitMaxIndices = maxIndices[level];
+      }
+      return new ScanPyramid(sums, maxIndices);
+    }
+
+    /**
+     * @return the sum of the intensities of the data points from (inclusive) to (exclusive)
+     */
+    private double sum(Scan scan, int from, int to) {
+      double sum = 0d;
+      // units of the current level, starting with the data points
+      int level = -1;
+      // collect the left and right remainders of every level and step up to the next level
+      double right = 0d;
+      while (from < to) {
+        final int firstBlock = (from + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        final int endBlock = to / BLOCK_SIZE;
+        if (level + 1 >= sums.length || firstBlock >= endBlock) {
+          for (int unit = from; unit < to; unit++) {
+            sum += unitSum(scan, level, unit);
+          }
+          break;
+        }
+        for (int unit = from; unit < firstBlock * BLOCK_SIZE; unit++) {
+          sum += unitSum(scan, level, unit);
+        }
+        for (int unit = endBlock * BLOCK_SIZE; unit < to; unit++) {
+          right += unitSum(scan, level, unit);
+        }
+        from = firstBlock;
+        to = endBlock;
+        level++;
+      }
+      return sum + right;
+    }
+
+    /**
+     * @return the index of the first most intense data point from (inclusive) to (exclusive) or
+     * -1, if the range is empty
+     */
+    private int maxIndex(Scan scan, int from, int to) {
+      // the remainders on the right side are checked after the blocks in between
+      int maxIndex = -1;
+      double max = 0d;
+      int rightIndex = -1;
+      double rightMax = 0d;
+      int level = -1;
+      while (from < to) {
+        final int firstBlock = (from + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        final int endBlock = to / BLOCK_SIZE;
+        if (level + 1 >= sums.length || firstBlock >= endBlock) {
+          for (int unit = from; unit < to; unit++) {
+            final int index = unitMaxIndex(level, unit);
+            final double intensity = scan.getIntensityValue(index);
+            if (maxIndex == -1 || intensity > max) {
+              maxIndex = index;
+              max = intensity;
+            }
+          }
+          break;
+        }
+        for (int unit = from; unit < firstBlock * BLOCK_SIZE; unit++) {
+          final int index = unitMaxIndex(level, unit);
+          final double intensity = scan.getIntensityValue(index);
+          if (maxIndex == -1 || intensity > max) {
+            maxIndex = index;
+            max = intensity;
+          }
+        }
+        // the right remainders of higher levels lie left of the ones of lower levels
+        int levelRightIndex = -1;
+        double levelRightMax = 0d;
+        for (int unit = endBlock * BLOCK_SIZE; unit < to; unit++) {
+          final int index = unitMaxIndex(level, unit);
+          final double intensity = scan.getIntensityValue(index);
+          if (levelRightIndex == -1 || intensity > levelRightMax) {
+            levelRightIndex = index;
+            levelRightMax = intensity;
+          }
+        }
+        if (levelRightIndex != -1 && (rightIndex == -1 || levelRightMax >= rightMax)) {
+          rightIndex = levelRightIndex;
+          rightMax = levelRightMax;
+        }
+        from = firstBlock;
+        to = endBlock;
+        level++;
+      }
+      if (rightIndex != -1 && (maxIndex == -1 || rightMax > max)) {
+        maxIndex = rightIndex;
+      }
+      return maxIndex;
+    }
+
+    private double unitSum(Scan scan, int level, int unit) {
+      return level == -1 ? scan.getIntensityValue(unit) : sums[level][unit];
+    }
+
+    private int unitMaxIndex(int level, int unit) {
+      return level == -1 ? unit : maxIndices[level][unit];
+    }
+  }
+}
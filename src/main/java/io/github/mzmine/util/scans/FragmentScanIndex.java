@@ -0,0 +1,173 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package io.github.mzmine.util.scans;
+
+import com.google.common.collect.BoundType;
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.util.IndexSort;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Index of the fragment scans (MS level > 1) of a {@link RawDataFile} by precursor m/z. The scans
+ * with a precursor m/z within a range are found by binary search, so a lookup only checks the
+ * retention time of the scans of a narrow m/z range instead of all scans of the file.
+ * <p>
+ * The index is a snapshot of the scans it was created with. {@link RawDataFile#getFragmentScanIndex()}
+ * creates a new index when scans were added to the file.
+ */
+public class FragmentScanIndex {
+
+  // fragment scans sorted by precursor m/z
+  private final Scan[] scans;
+  private final double[] precursorMzs;
+  // position of the scans in the raw data file, to return the scans in their original order
+  private final int[] positions;
+
+  public FragmentScanIndex(@Nonnull Collection<? extends Scan> allScans) {
+    final List<Scan> fragmentScans = new ArrayList<>();
+    final int[] fragmentPositions = new int[allScans.size()];
+    int position = 0;
+    for (Scan scan : allScans) {
+      if (scan.getMSLevel() > 1) {
+        fragmentPositions[fragmentScans.size()] = position;
+        fragmentScans.add(scan);
+      }
+      position++;
+    }
+
+    final double[] unsortedMzs = new double[fragmentScans.size()];
+    for (int i = 0; i < unsortedMzs.length; i++) {
+      unsortedMzs[i] = fragmentScans.get(i).getPrecursorMZ();
+    }
+    // stable, scans with the same precursor m/z stay in the order of the raw data file
+    final int[] order = IndexSort.sort(unsortedMzs, true);
+
+    scans = new Scan[order.length];
+    precursorMzs = new double[order.length];
+    positions = new int[order.length];
+    for (int i = 0; i < order.length; i++) {
+      scans[i] = fragmentScans.get(order[i]);
+      precursorMzs[i] = unsortedMzs[order[i]];
+      positions[i] = fragmentPositions[order[i]];
+    }
+  }
+
+  /**
+   * @param msLevel the MS level of the scans
+   * @param rtRange retention time range of the scans
+   * @param mzRange precursor m/z range of the scans
+   * @return the scans of the MS level within both ranges, in the order of the raw data file
+   */
+  @Nonnull
+  public List<Scan> getScans(int msLevel, @Nonnull Range<Float> rtRange,
+      @Nonnull Range<Double> mzRange) {
+    final int first = firstIndex(mzRange);
+    final int end = endIndex(mzRange);
+
+    final int[] matches = new int[Math.max(0, end - first)];
+    int numMatches = 0;
+    for (int i = first; i < end; i++) {
+      final Scan scan = scans[i];
+      if (scan.getMSLevel() == msLevel && rtRange.contains(scan.getRetentionTime())
+          && mzRange.contains(precursorMzs[i])) {
+        matches[numMatches++] = i;
+      }
+    }
+    final int[] order = IndexSort.sort(numMatches,
+        (a, b) -> Integer.compare(positions[matches[a]], positions[matches[b]]));
+
+    final List<Scan> result = new ArrayList<>(numMatches);
+    for (int i : order) {
+      result.add(scans[matches[i]]);
+    }
+    return result;
+  }
+
+  /**
+   * @return the scan of the MS level within both ranges with the highest base peak intensity, the
+   * first one in the raw data file if there are multiple, or null if there is no such scan
+   */
+  @Nullable
+  public Scan getBestScan(int msLevel, @Nonnull Range<Float> rtRange,
+      @Nonnull Range<Double> mzRange) {
+    Scan best = null;
+    for (Scan scan : getScans(msLevel, rtRange, mzRange)) {
+      final Double basePeakIntensity = scan.getBasePeakIntensity();
+      if (basePeakIntensity != null
+          && (best == null || basePeakIntensity > best.getBasePeakIntensity())) {
+        best = scan;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * @return the index of the first scan with a precursor m/z within the range
+   */
+  private int firstIndex(Range<Double> mzRange) {
+    if (!mzRange.hasLowerBound()) {
+      return 0;
+    }
+    final double lower = mzRange.lowerEndpoint();
+    final boolean open = mzRange.lowerBoundType() == BoundType.OPEN;
+    int low = 0;
+    int high = precursorMzs.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      // Double.compare like Range.contains, NaN is sorted after all values
+      final int compare = Double.compare(precursorMzs[mid], lower);
+      if (compare < 0 || (open && compare == 0)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return the index after the last scan with a precursor m/z within the range
+   */
+  private int endIndex(Range<Double> mzRange) {
+    if (!mzRange.hasUpperBound()) {
+      return precursorMzs.length;
+    }
+    final double upper = mzRange.upperEndpoint();
+    final boolean open = mzRange.upperBoundType() == BoundType.OPEN;
+    int low = 0;
+    int high = precursorMzs.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      final int compare = Double.compare(precursorMzs[mid], upper);
+      if (compare < 0 || (!open && compare == 0)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+}
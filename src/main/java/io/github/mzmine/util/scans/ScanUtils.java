@@ -561,10 +561,7 @@ public class ScanUtils {
     assert rtRange != null;
     assert mzRange != null;
 
-    return dataFile.getScanNumbers(2).stream()
-        .filter(s -> s.getBasePeakIntensity() != null && rtRange.contains(s.getRetentionTime())
-            && mzRange.contains(s.getPrecursorMZ()))
-        .max(Comparator.comparingDouble(s -> s.getBasePeakIntensity())).orElse(null);
+    return dataFile.getFragmentScanIndex().getBestScan(2, rtRange, mzRange);
   }
 
   /**
@@ -577,10 +574,7 @@ public class ScanUtils {
     assert rtRange != null;
     assert mzRange != null;
 
-    return dataFile.getScanNumbers(2).stream()
-        .filter(s -> rtRange.contains(s.getRetentionTime())
-            && mzRange.contains(s.getPrecursorMZ()))
-        .toArray(Scan[]::new);
+    return dataFile.getFragmentScanIndex().getScans(2, rtRange, mzRange).toArray(Scan[]::new);
   }
 
   /**
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util.scans.similarity;
+
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.util.IndexSort;
+import io.github.mzmine.util.scans.ScanAlignment;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nonnull;
+
+/**
+ * Alignment of the signals of a library and a query spectrum on primitive arrays. Matches the
+ * signals the same way as {@link ScanAlignment#align(MZTolerance, DataPoint[], DataPoint[])}: the
+ * library signals are processed by descending intensity and every library signal is matched to the
+ * most intense unmatched query signal within the m/z tolerance. Instead of testing all query
+ * signals, only the m/z window of the library signal is searched in the query signals sorted by
+ * m/z.
+ * <p>
+ * The scores are calculated in the same order as on the aligned data point lists, so they are
+ * equal to the scores of {@link ScanAlignment} and {@link
+ * io.github.mzmine.util.maths.similarity.Similarity#COSINE}.
+ */
+public class SpectralPeakAlignment {
+
+  // sorted by descending intensity, then descending m/z
+  private final int[] libraryOrder;
+  private final double[] libraryMzs;
+  private final double[] libraryIntensities;
+  private final int[] queryOrder;
+  private final double[] queryMzs;
+  private final double[] queryIntensities;
+
+  // index of the matched query signal for every library signal or -1
+  private final int[] libraryMatches;
+  private final boolean[] queryMatched;
+  private int overlap = 0;
+
+  private SpectralPeakAlignment(double[] libraryMzs, double[] libraryIntensities,
+      double[] queryMzs, double[] queryIntensities) {
+    libraryOrder = sortByIntensity(libraryMzs, libraryIntensities);
+    this.libraryMzs = reorder(libraryMzs, libraryOrder);
+    this.libraryIntensities = reorder(libraryIntensities, libraryOrder);
+    queryOrder = sortByIntensity(queryMzs, queryIntensities);
+    this.queryMzs = reorder(queryMzs, queryOrder);
+    this.queryIntensities = reorder(queryIntensities, queryOrder);
+
+    libraryMatches = new int[libraryMzs.length];
+    queryMatched = new boolean[queryMzs.length];
+  }
+
+  /**
+   * Aligns the signals of two spectra. The input arrays are not modified.
+   *
+   * @param mzTol the m/z tolerance
+   * @return the alignment
+   */
+  @Nonnull
+  public static SpectralPeakAlignment align(@Nonnull MZTolerance mzTol,
+      @Nonnull double[] libraryMzs, @Nonnull double[] libraryIntensities,
+      @Nonnull double[] queryMzs, @Nonnull double[] queryIntensities) {
+    SpectralPeakAlignment alignment = new SpectralPeakAlignment(libraryMzs, libraryIntensities,
+        queryMzs, queryIntensities);
+    alignment.match(mzTol);
+    return alignment;
+  }
+
+  /**
+   * Aligns the signals of two spectra. The input arrays are not modified.
+   *
+   * @param mzTol the m/z tolerance
+   * @return the alignment
+   */
+  @Nonnull
+  public static SpectralPeakAlignment align(@Nonnull MZTolerance mzTol,
+      @Nonnull DataPoint[] library, @Nonnull DataPoint[] query) {
+    return align(mzTol, mzs(library), intensities(library), mzs(query), intensities(query));
+  }
+
+  private void match(MZTolerance mzTol) {
+    final int numQuery = queryMzs.length;
+    // query indices sorted by m/z to search the m/z window of a library signal
+    final int[] queryByMz = IndexSort.sort(queryMzs, true);
+    final double[] sortedQueryMzs = reorder(queryMzs, queryByMz);
+
+    for (int i = 0; i < libraryMzs.length; i++) {
+      final double mz = libraryMzs[i];
+      final double tolerance = mzTol.getMzToleranceForMass(mz);
+      final double lower = mz - tolerance;
+      final double upper = mz + tolerance;
+
+      // the most intense unmatched signal has the lowest index
+      int best = -1;
+      for (int j = firstIndex(sortedQueryMzs, lower); j < numQuery && sortedQueryMzs[j] <= upper;
+          j++) {
+        final int query = queryByMz[j];
+        if (!queryMatched[query] && (best == -1 || query < best)) {
+          best = query;
+        }
+      }
+
+      libraryMatches[i] = best;
+      if (best != -1) {
+        queryMatched[best] = true;
+        overlap++;
+      }
+    }
+  }
+
+  /**
+   * @return the number of matched signals
+   */
+  public int getOverlap() {
+    return overlap;
+  }
+
+  /**
+   * Weighted cosine similarity. The weighted values are intensity^weightIntensity *
+   * m/z^weightMz.
+   *
+   * @param removeUnmatched only use matched signals. Otherwise unmatched signals count with an
+   *                        intensity of 0 in the other spectrum.
+   * @return the cosine similarity
+   */
+  public double weightedCosine(double weightIntensity, double weightMz, boolean removeUnmatched) {
+    double dot = 0;
+    double libraryNorm = 0;
+    double queryNorm = 0;
+    for (int i = 0; i < libraryMzs.length; i++) {
+      final int match = libraryMatches[i];
+      if (match == -1 && removeUnmatched) {
+        continue;
+      }
+      final double library = weight(libraryIntensities[i], libraryMzs[i], weightIntensity,
+          weightMz);
+      libraryNorm += library * library;
+      if (match != -1) {
+        final double query = weight(queryIntensities[match], queryMzs[match], weightIntensity,
+            weightMz);
+        dot += library * query;
+        queryNorm += query * query;
+      }
+    }
+    if (!removeUnmatched) {
+      for (int q = 0; q < queryMzs.length; q++) {
+        if (!queryMatched[q]) {
+          final double query = weight(queryIntensities[q], queryMzs[q], weightIntensity, weightMz);
+          queryNorm += query * query;
+        }
+      }
+    }
+    return dot / (Math.sqrt(libraryNorm) * Math.sqrt(queryNorm));
+  }
+
+  /**
+   * Sum of the relative intensity ratios of neighbouring matched signals in both spectra, divided
+   * by the overlap. The matched signals are sorted by their minimum m/z.
+   *
+   * @return the factor from 0 to 1
+   */
+  public double relativeNeighbourFactor() {
+    final int[] matched = new int[overlap];
+    final double[] minMzs = new double[overlap];
+    for (int i = 0, m = 0; i < libraryMzs.length; i++) {
+      if (libraryMatches[i] != -1) {
+        matched[m] = i;
+        minMzs[m] = Math.min(libraryMzs[i], queryMzs[libraryMatches[i]]);
+        m++;
+      }
+    }
+    final int[] byMz = IndexSort.sort(minMzs, true);
+
+    double factor = 0;
+    for (int k = 1; k < byMz.length; k++) {
+      final int lib1 = matched[byMz[k - 1]];
+      final int lib2 = matched[byMz[k]];
+
+      double ratioLibrary = libraryIntensities[lib2] / libraryIntensities[lib1];
+      double ratioQuery =
+          queryIntensities[libraryMatches[lib2]] / queryIntensities[libraryMatches[lib1]];
+      factor += Math.min(ratioLibrary, ratioQuery) / Math.max(ratioLibrary, ratioQuery);
+    }
+    // factor ranges from 0-1 * overlap
+    return factor / overlap;
+  }
+
+  /**
+   * Creates the aligned data point list in the format of {@link ScanAlignment#align(MZTolerance,
+   * DataPoint[], DataPoint[])}. Only call this for matching spectra, e.g., to create a {@link
+   * SpectralSimilarity}.
+   *
+   * @param library         the library data points this alignment was created from
+   * @param query           the query data points this alignment was created from
+   * @param removeUnmatched only add matched signals
+   * @return list of [library, query] data points
+   */
+  @Nonnull
+  public List<DataPoint[]> toAlignedDataPoints(@Nonnull DataPoint[] library,
+      @Nonnull DataPoint[] query, boolean removeUnmatched) {
+    final List<DataPoint[]> aligned = new ArrayList<>();
+    for (int i = 0; i < libraryOrder.length; i++) {
+      final int match = libraryMatches[i];
+      if (match != -1) {
+        aligned.add(new DataPoint[]{library[libraryOrder[i]], query[queryOrder[match]]});
+      } else if (!removeUnmatched) {
+        aligned.add(new DataPoint[]{library[libraryOrder[i]], null});
+      }
+    }
+    if (!removeUnmatched) {
+      for (int q = 0; q < queryOrder.length; q++) {
+        if (!queryMatched[q]) {
+          aligned.add(new DataPoint[]{null, query[queryOrder[q]]});
+        }
+      }
+    }
+    return aligned;
+  }
+
+  private static double weight(double intensity, double mz, double weightIntensity,
+      double weightMz) {
+    return Math.pow(intensity, weightIntensity) * Math.pow(mz, weightMz);
+  }
+
+  /**
+   * Same order as {@link ScanAlignment#sorter}
+   */
+  private static int[] sortByIntensity(double[] mzs, double[] intensities) {
+    return IndexSort.sort(mzs.length, (a, b) -> {
+      final int result = Double.compare(intensities[b], intensities[a]);
+      return result != 0 ? result : Double.compare(mzs[b], mzs[a]);
+    });
+  }
+
+  private static double[] reorder(double[] values, int[] order) {
+    final double[] reordered = new double[order.length];
+    for (int i = 0; i < order.length; i++) {
+      reordered[i] = values[order[i]];
+    }
+    return reordered;
+  }
+
+  /**
+   * @return the first index with a value greater or equal to the given value
+   */
+  private static int firstIndex(double[] sorted, double value) {
+    int low = 0;
+    int high = sorted.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (sorted[mid] < value) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private static double[] mzs(DataPoint[] dataPoints) {
+    final double[] mzs = new double[dataPoints.length];
+    for (int i = 0; i < mzs.length; i++) {
+      mzs[i] = dataPoints[i].getMZ();
+    }
+    return mzs;
+  }
+
+  private static double[] intensities(DataPoint[] dataPoints) {
+    final double[] intensities = new double[dataPoints.length];
+    for (int i = 0; i < intensities.length; i++) {
+      intensities[i] = dataPoints[i].getIntensity();
+    }
+    return intensities;
+  }
+}
@@ -69,6 +69,20 @@ public abstract class SpectralSimilarityFunction implements MZmineModule {
     return ScanAlignment.align(mzTol, a, b);
   }
 
+  /**
+   * Align the signals of two mass lists on primitive arrays. Override if alignment is changed in a
+   * specific spectral similarity function.
+   *
+   * @param mzTol
+   * @param library
+   * @param query
+   * @return the alignment
+   */
+  public SpectralPeakAlignment alignPeaks(MZTolerance mzTol, DataPoint[] library,
+      DataPoint[] query) {
+    return SpectralPeakAlignment.align(mzTol, library, query);
+  }
+
   /**
    * Calculate overlap
    * 
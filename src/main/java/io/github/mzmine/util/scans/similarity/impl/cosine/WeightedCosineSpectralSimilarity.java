@@ -18,15 +18,13 @@
 
 package io.github.mzmine.util.scans.similarity.impl.cosine;
 
-import java.util.List;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import io.github.mzmine.datamodel.DataPoint;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
-import io.github.mzmine.util.maths.similarity.Similarity;
-import io.github.mzmine.util.scans.ScanAlignment;
+import io.github.mzmine.util.scans.similarity.SpectralPeakAlignment;
 import io.github.mzmine.util.scans.similarity.SpectralSimilarity;
 import io.github.mzmine.util.scans.similarity.SpectralSimilarityFunction;
 import io.github.mzmine.util.scans.similarity.Weights;
@@ -53,20 +51,17 @@ public class WeightedCosineSpectralSimilarity extends SpectralSimilarityFunction
         .getParameter(WeightedCosineSpectralSimilarityParameters.removeUnmatched).getValue();
 
     // align
-    List<DataPoint[]> aligned = alignDataPoints(mzTol, library, query);
-    // removes all signals which were not found in both masslists
-    if (removeUnmatched)
-      aligned = removeUnaligned(aligned);
+    SpectralPeakAlignment alignment = alignPeaks(mzTol, library, query);
     // overlapping within mass tolerance
-    int overlap = calcOverlap(aligned);
+    int overlap = alignment.getOverlap();
 
     if (overlap >= minMatch) {
-      // weighted cosine
-      double[][] diffArray =
-          ScanAlignment.toIntensityMatrixWeighted(aligned, weights.getIntensity(), weights.getMz());
-      double diffCosine = Similarity.COSINE.calc(diffArray);
+      // weighted cosine, removes all signals which were not found in both masslists if selected
+      double diffCosine =
+          alignment.weightedCosine(weights.getIntensity(), weights.getMz(), removeUnmatched);
       if (diffCosine >= minCos)
-        return new SpectralSimilarity(getName(), diffCosine, overlap, library, query, aligned);
+        return new SpectralSimilarity(getName(), diffCosine, overlap, library, query,
+            alignment.toAlignedDataPoints(library, query, removeUnmatched));
       else
         return null;
     }
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util.spectraldb;
+
+import io.github.mzmine.taskcontrol.AbstractTask;
+import io.github.mzmine.util.spectraldb.entry.SpectralDBEntry;
+import io.github.mzmine.util.spectraldb.parser.AutoLibraryParser;
+import io.github.mzmine.util.spectraldb.parser.UnsupportedFormatException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Keeps parsed spectral libraries in memory, so subsequent searches (e.g., of the next feature list
+ * in a batch) do not parse the same library file again. A library is parsed again if its file was
+ * modified. The libraries are softly referenced and are released if memory runs low.
+ * <p>
+ * Each library file is parsed by the first task that requests it, without holding a lock. Other
+ * tasks requesting the same file wait for the result, tasks requesting other files are not
+ * blocked.
+ */
+public class SpectralLibraryCache {
+
+  private static final Logger logger = Logger.getLogger(SpectralLibraryCache.class.getName());
+
+  // completes with null if parsing was canceled
+  private static final Map<LibraryKey, CompletableFuture<SoftReference<SpectralLibraryIndex>>>
+      libraries = new ConcurrentHashMap<>();
+
+  /**
+   * Returns the cached library or parses the library file. If another task is parsing the same
+   * file, waits for it to finish. If that task is canceled, the file is parsed by one of the
+   * waiting tasks.
+   *
+   * @param task the task that requests the library, parsing or waiting stops if the task is
+   *             canceled
+   * @param file the library file
+   * @return the library or null if the task was canceled
+   * @throws UnsupportedFormatException if the file format is not supported
+   * @throws IOException                if the file cannot be read or the thread was interrupted
+   */
+  @Nullable
+  public static SpectralLibraryIndex getLibrary(@Nonnull AbstractTask task, @Nonnull File file)
+      throws UnsupportedFormatException, IOException {
+    final LibraryKey key = new LibraryKey(file);
+    while (!task.isCanceled()) {
+      final CompletableFuture<SoftReference<SpectralLibraryIndex>> parsing =
+          new CompletableFuture<>();
+      final CompletableFuture<SoftReference<SpectralLibraryIndex>> future =
+          libraries.putIfAbsent(key, parsing);
+      if (future == null) {
+        return parseLibrary(task, file, key, parsing);
+      }
+
+      final SoftReference<SpectralLibraryIndex> reference = await(task, future);
+      final SpectralLibraryIndex library = reference == null ? null : reference.get();
+      if (library != null) {
+        logger.fine(() -> "Using cached spectral library " + file);
+        return library;
+      }
+      // parsing was canceled or the library was released, try to parse it in this task
+      libraries.remove(key, future);
+    }
+    return null;
+  }
+
+  /**
+   * Parses the library file and completes the future of this file.
+   */
+  @Nullable
+  private static SpectralLibraryIndex parseLibrary(@Nonnull AbstractTask task, @Nonnull File file,
+      @Nonnull LibraryKey key,
+      @Nonnull CompletableFuture<SoftReference<SpectralLibraryIndex>> future)
+      throws UnsupportedFormatException, IOException {
+    final SpectralLibraryIndex library;
+    try {
+      final List<SpectralDBEntry> entries = new ArrayList<>();
+      final AutoLibraryParser parser = new AutoLibraryParser(1000,
+          (list, alreadyProcessed) -> entries.addAll(list));
+      parser.parse(task, file);
+      library = task.isCanceled() ? null : new SpectralLibraryIndex(entries);
+    } catch (Throwable t) {
+      // waiting tasks fail with the same exception, the next request parses the file again
+      libraries.remove(key, future);
+      future.completeExceptionally(t);
+      throw t;
+    }
+
+    if (library == null) {
+      libraries.remove(key, future);
+      future.complete(null);
+      return null;
+    }
+
+    future.complete(new SoftReference<>(library));
+    // remove libraries of outdated files and released libraries
+    libraries.entrySet().removeIf(
+        e -> (!e.getKey().equals(key) && e.getKey().path.equals(key.path)) || isReleased(
+            e.getValue()));
+    logger.info("Loaded spectral library " + file + " with " + library.size() + " entries");
+    return library;
+  }
+
+  /**
+   * Waits for another task to parse a library.
+   *
+   * @return the reference to the library or null if parsing or the waiting task was canceled
+   */
+  @Nullable
+  private static SoftReference<SpectralLibraryIndex> await(@Nonnull AbstractTask task,
+      @Nonnull CompletableFuture<SoftReference<SpectralLibraryIndex>> future)
+      throws UnsupportedFormatException, IOException {
+    while (!task.isCanceled()) {
+      try {
+        return future.get(100, TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e) {
+        // check if the task was canceled and wait again
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for a spectral library");
+      } catch (ExecutionException e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof UnsupportedFormatException) {
+          throw (UnsupportedFormatException) cause;
+        }
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        throw (Error) cause;
+      }
+    }
+    return null;
+  }
+
+  private static boolean isReleased(
+      @Nonnull CompletableFuture<SoftReference<SpectralLibraryIndex>> future) {
+    if (!future.isDone() || future.isCompletedExceptionally()) {
+      return false;
+    }
+    final SoftReference<SpectralLibraryIndex> reference = future.join();
+    return reference == null || reference.get() == null;
+  }
+
+  /**
+   * Removes all cached libraries. Tasks that are parsing a library at the moment are not affected.
+   */
+  public static void clear() {
+    libraries.clear();
+  }
+
+  /**
+   * Identifies a library file and its version.
+   */
+  private static class LibraryKey {
+
+    private final String path;
+    private final long lastModified;
+    private final long length;
+
+    private LibraryKey(File file) {
+      path = file.getAbsolutePath();
+      lastModified = file.lastModified();
+      length = file.length();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof LibraryKey)) {
+        return false;
+      }
+      LibraryKey that = (LibraryKey) o;
+      return lastModified == that.lastModified && length == that.length && path.equals(that.path);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(path, lastModified, length);
+    }
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util.spectraldb;
+
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.util.IndexSort;
+import io.github.mzmine.util.spectraldb.entry.SpectralDBEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.Nonnull;
+
+/**
+ * All entries of a spectral library, sorted by their precursor m/z. The candidates for a precursor
+ * m/z are found by a binary search instead of comparing every entry. Entries without a precursor
+ * m/z can only be retrieved by {@link #getEntries()}.
+ * <p>
+ * The index is immutable and can be shared by multiple threads and tasks.
+ */
+public class SpectralLibraryIndex {
+
+  private final List<SpectralDBEntry> entries;
+  // entries with a precursor m/z, sorted by ascending precursor m/z
+  private final List<SpectralDBEntry> sortedEntries;
+  private final double[] precursorMzs;
+
+  public SpectralLibraryIndex(@Nonnull List<SpectralDBEntry> entries) {
+    this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+
+    final List<SpectralDBEntry> withPrecursor = new ArrayList<>();
+    for (SpectralDBEntry entry : entries) {
+      if (entry.getPrecursorMZ() != null) {
+        withPrecursor.add(entry);
+      }
+    }
+    final double[] mzs = new double[withPrecursor.size()];
+    for (int i = 0; i < mzs.length; i++) {
+      mzs[i] = withPrecursor.get(i).getPrecursorMZ();
+    }
+    final int[] order = IndexSort.sort(mzs, true);
+
+    final List<SpectralDBEntry> sorted = new ArrayList<>(order.length);
+    precursorMzs = new double[order.length];
+    for (int i = 0; i < order.length; i++) {
+      sorted.add(withPrecursor.get(order[i]));
+      precursorMzs[i] = mzs[order[i]];
+    }
+    sortedEntries = Collections.unmodifiableList(sorted);
+  }
+
+  /**
+   * @return all entries in the order of the library file
+   */
+  @Nonnull
+  public List<SpectralDBEntry> getEntries() {
+    return entries;
+  }
+
+  /**
+   * @return the number of entries in the library
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * The entries with a precursor m/z within the given bounds (inclusive), sorted by precursor m/z.
+   *
+   * @return a view of the entries, no entries are copied
+   */
+  @Nonnull
+  public List<SpectralDBEntry> getEntries(double minPrecursorMz, double maxPrecursorMz) {
+    final int from = firstIndex(minPrecursorMz);
+    int to = from;
+    while (to < precursorMzs.length && precursorMzs[to] <= maxPrecursorMz) {
+      to++;
+    }
+    return sortedEntries.subList(from, to);
+  }
+
+  /**
+   * All entries that may match the precursor m/z within the tolerance. The tolerance is applied to
+   * the precursor m/z of the library entries, the result may therefore contain a few entries just
+   * outside the tolerance, which need to be checked by {@link MZTolerance#checkWithinTolerance}.
+   *
+   * @param precursorMz the precursor m/z of the query
+   * @return a view of the candidate entries, sorted by precursor m/z
+   */
+  @Nonnull
+  public List<SpectralDBEntry> getCandidates(double precursorMz, @Nonnull MZTolerance tolerance) {
+    // the tolerance for the largest possible candidate includes all smaller candidates
+    final double tol = tolerance.getMzToleranceForMass(precursorMz);
+    final double maxTol = tolerance.getMzToleranceForMass(precursorMz + 2 * tol);
+    return getEntries(precursorMz - maxTol, precursorMz + maxTol);
+  }
+
+  /**
+   * @return the first index with a precursor m/z greater or equal to the given value
+   */
+  private int firstIndex(double mz) {
+    int low = 0;
+    int high = precursorMzs.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (precursorMzs[mid] < mz) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+}
@@ -0,0 +1,150 @@
+package baselinecorrection;
+
+import io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.correctors.BaselineAlgorithms;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class BaselineAlgorithmsTest {
+
+  /**
+   * Linear trend with narrow peaks on top, the baselines should follow the trend.
+   */
+  private static double[] chromatogram() {
+    final Random random = new Random(42);
+    final double[] y = new double[2000];
+    for (int i = 0; i < y.length; i++) {
+      y[i] = 100 + 0.05 * i + (i % 200 < 10 ? 1000 : 0) + random.nextGaussian();
+    }
+    return y;
+  }
+
+  @Test
+  public void testAsymmetricLeastSquares() {
+    final double[] y = chromatogram();
+    final double[] baseline = BaselineAlgorithms.asymmetricLeastSquares(y, 1e5, 0.001, 25);
+    for (int i = 0; i < y.length; i++) {
+      Assertions.assertEquals(100 + 0.05 * i, baseline[i], 5d);
+    }
+  }
+
+  @Test
+  public void testAsymmetricLeastSquaresLine() {
+    // a straight line is not penalized by second order differences
+    final double[] y = new double[50];
+    for (int i = 0; i < y.length; i++) {
+      y[i] = 3 + 2 * i;
+    }
+    final double[] baseline = BaselineAlgorithms.asymmetricLeastSquares(y, 1e7, 0.01, 25);
+    Assertions.assertArrayEquals(y, baseline, 1e-4);
+  }
+
+  @Test
+  public void testRollingBall() {
+    final double[] y = chromatogram();
+    final double[] baseline = BaselineAlgorithms.rollingBall(y, 20, 5);
+    for (int i = 30; i < y.length - 30; i++) {
+      Assertions.assertEquals(100 + 0.05 * i, baseline[i], 5d);
+    }
+  }
+
+  @Test
+  public void testRollingBallSmallWindows() {
+    final double[] y = {5, 1, 4, 8, 2, 9, 3};
+    // minima: 1 1 1 2 2 2 3, maxima: 1 1 2 2 2 3 3
+    Assertions.assertArrayEquals(new double[] {1, 1, 2, 2, 2, 3, 3},
+        BaselineAlgorithms.rollingBall(y, 1, 0), 0d);
+    Assertions.assertArrayEquals(new double[] {1, 4 / 3d, 5 / 3d, 2, 7 / 3d, 8 / 3d, 3},
+        BaselineAlgorithms.rollingBall(y, 1, 1), 1e-12);
+  }
+
+  @Test
+  public void testRunningMedian() {
+    final double[] y = {5, 1, 4, 8, 2, 9, 3, 3, 7};
+    // medians of full windows of 3, ends copied from the first and last full window
+    Assertions.assertArrayEquals(new double[] {4, 4, 4, 4, 8, 3, 3, 3, 3},
+        BaselineAlgorithms.runningMedian(y, 1), 0d);
+
+    final Random random = new Random(1);
+    final double[] values = new double[500];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = random.nextInt(50);
+    }
+    final int halfWidth = 7;
+    final double[] medians = BaselineAlgorithms.runningMedian(values, halfWidth);
+    for (int i = halfWidth; i < values.length - halfWidth; i++) {
+      final double[] window = Arrays.copyOfRange(values, i - halfWidth, i + halfWidth + 1);
+      Arrays.sort(window);
+      Assertions.assertEquals(window[halfWidth], medians[i]);
+    }
+  }
+
+  @Test
+  public void testLocalMinimaLoess() {
+    final double[] y = chromatogram();
+    final double[] loess = BaselineAlgorithms.localMinimaLoess(y, 100, 0, true, 0.1);
+    final double[] approx = BaselineAlgorithms.localMinimaLoess(y, 100, 0, false, 0);
+    for (int i = 100; i < y.length - 300; i++) {
+      Assertions.assertEquals(100 + 0.05 * i, loess[i], 10d);
+      Assertions.assertEquals(100 + 0.05 * i, approx[i], 10d);
+    }
+  }
+
+  @Test
+  public void testLocalMinimaLoessLine() {
+    // the minima of a falling line are the last scans of the intervals, the first interval only
+    // holds the first scan
+    final double[] y = new double[1000];
+    for (int i = 0; i < y.length; i++) {
+      y[i] = 5000 - 2 * i;
+    }
+    Assertions.assertArrayEquals(y, BaselineAlgorithms.localMinimaLoess(y, 100, 0, false, 0),
+        1e-9);
+    // a local linear regression reproduces lines
+    Assertions.assertArrayEquals(y, BaselineAlgorithms.localMinimaLoess(y, 100, 0, true, 0.2),
+        1e-6);
+    Assertions.assertArrayEquals(y, BaselineAlgorithms.localMinimaLoess(y, 100, 0.5, true, 0.2),
+        1e-6);
+  }
+
+  @Test
+  public void testPeakDetection() {
+    final double[] y = chromatogram();
+    final double[] baseline =
+        BaselineAlgorithms.peakDetection(y, 5, 20, 5, 20, 0.5, false, 2);
+    for (int i = 50; i < y.length - 50; i++) {
+      Assertions.assertEquals(100 + 0.05 * i, baseline[i], 5d);
+    }
+
+    final double[] flat = new double[100];
+    Arrays.fill(flat, 7);
+    Assertions.assertArrayEquals(flat, BaselineAlgorithms.peakDetection(flat, 1, 10, 1, 10, 0.5,
+        true, 1), 0d);
+  }
+
+  @Test
+  public void testRubberBand() {
+    // the first and last scans are always support points, so they must not be part of a peak
+    final double[] y = Arrays.copyOfRange(chromatogram(), 10, 1990);
+    final double[] baseline = BaselineAlgorithms.rubberBand(y, 0, 0, false, 0);
+    for (int i = 0; i < y.length; i++) {
+      Assertions.assertTrue(baseline[i] <= y[i] + 1e-9);
+      Assertions.assertEquals(100 + 0.05 * (i + 10), baseline[i], 5d);
+    }
+  }
+
+  @Test
+  public void testRubberBandConvex() {
+    // all scans of a convex chromatogram are support points
+    final double[] y = new double[101];
+    for (int i = 0; i < y.length; i++) {
+      y[i] = (i - 50) * (i - 50);
+    }
+    Assertions.assertArrayEquals(y, BaselineAlgorithms.rubberBand(y, 0, 0, false, 0), 1e-9);
+    // as many degrees of freedom as support points interpolate them
+    Assertions.assertArrayEquals(y, BaselineAlgorithms.rubberBand(y, 0, 101, true, 0), 1e-6);
+    // the bend is removed after the fit
+    Assertions.assertArrayEquals(y, BaselineAlgorithms.rubberBand(y, 0, 0, false, 1000), 1e-9);
+  }
+}
@@ -0,0 +1,61 @@
+package export_sql;
+
+import io.github.mzmine.modules.io.export_sql.SQLRecordWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class SQLRecordWriterTest {
+
+  private static final String[] COLUMNS = {"id", "mz", "name", "pattern"};
+  private static final int[] TYPES = {Types.INTEGER, Types.DOUBLE, Types.VARCHAR, Types.BLOB};
+
+  /**
+   * Writes records with every combination of full and partial batches and multi-row statements
+   * into an in-memory SQLite database and reads them back.
+   */
+  @Test
+  public void testWriteRecords() throws SQLException {
+    final int numRecords = 1003;
+    for (int batchSize : new int[]{1, 7, 1000}) {
+      for (int recordsPerStatement : new int[]{1, 10, 200}) {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+          try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE features (id INT, mz DOUBLE, name TEXT, pattern BLOB)");
+          }
+          connection.setAutoCommit(false);
+
+          try (SQLRecordWriter writer = new SQLRecordWriter(connection, "features", COLUMNS, TYPES,
+              batchSize, recordsPerStatement)) {
+            for (int i = 0; i < numRecords; i++) {
+              writer.write(new Object[]{i, i * 0.5, i % 3 == 0 ? null : "feature " + i,
+                  new byte[]{(byte) i}});
+            }
+            writer.flush();
+            Assertions.assertEquals(numRecords, writer.getWrittenRecords());
+          }
+          connection.commit();
+
+          try (Statement statement = connection.createStatement();
+              ResultSet result = statement
+                  .executeQuery("SELECT id, mz, name, pattern FROM features ORDER BY id")) {
+            int i = 0;
+            while (result.next()) {
+              Assertions.assertEquals(i, result.getInt(1));
+              Assertions.assertEquals(i * 0.5, result.getDouble(2));
+              Assertions.assertEquals(i % 3 == 0 ? null : "feature " + i, result.getString(3));
+              Assertions.assertArrayEquals(new byte[]{(byte) i}, result.getBytes(4));
+              i++;
+            }
+            Assertions.assertEquals(numRecords, i);
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,182 @@
+package io.github.mzmine.datamodel.impl;
+
+import io.github.mzmine.datamodel.impl.masslist.SimpleMassList;
+import io.github.mzmine.util.MemoryMapStorage;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.logging.Logger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Stores spectra with every {@link SpectrumCodec} and reads them back through the bulk and the
+ * random access methods.
+ */
+public class SpectrumCodecTest {
+
+  private static final Logger logger = Logger.getLogger(SpectrumCodecTest.class.getName());
+
+  private static double[][] randomSpectrum(Random random, int size) {
+    final double[] mzs = new double[size];
+    final double[] intensities = new double[size];
+    for (int i = 0; i < size; i++) {
+      mzs[i] = 50 + random.nextDouble() * 1950;
+      intensities[i] = Math.pow(10, 2 + random.nextDouble() * 6);
+    }
+    Arrays.sort(mzs);
+    return new double[][]{mzs, intensities};
+  }
+
+  private static SimpleMassList store(SpectrumCodec codec, MemoryMapStorage storage,
+      double[][] spectrum) {
+    final SpectrumCodec previous = SpectrumCodec.getDefaultCodec();
+    try {
+      SpectrumCodec.setDefaultCodec(codec);
+      return new SimpleMassList(storage, spectrum[0], spectrum[1]);
+    } finally {
+      SpectrumCodec.setDefaultCodec(previous);
+    }
+  }
+
+  private static void assertValues(SpectrumCodec codec, double[][] expected,
+      SimpleMassList spectrum) {
+    final int n = expected[0].length;
+    Assertions.assertEquals(n, spectrum.getNumberOfDataPoints());
+    final double[] mzs = spectrum.getMzValues(new double[n]);
+    final double[] intensities = spectrum.getIntensityValues(new double[n]);
+    for (int i = 0; i < n; i++) {
+      final double mzTolerance = codec == SpectrumCodec.NUMPRESS ? 1E-6 : 0d;
+      final double intensityTolerance = switch (codec) {
+        case FULL -> 0d;
+        case FLOAT_INTENSITIES -> expected[1][i] * 1E-7;
+        case NUMPRESS -> expected[1][i] * 1E-3;
+      };
+      Assertions.assertEquals(expected[0][i], mzs[i], mzTolerance);
+      Assertions.assertEquals(expected[1][i], intensities[i], intensityTolerance);
+      // random access returns the same values as the bulk access
+      Assertions.assertEquals(mzs[i], spectrum.getMzValue(i));
+      Assertions.assertEquals(intensities[i], spectrum.getIntensityValue(i));
+    }
+  }
+
+  @Test
+  public void testRoundTrip() {
+    final MemoryMapStorage storage = MemoryMapStorage.create();
+    final Random random = new Random(7);
+    for (SpectrumCodec codec : SpectrumCodec.values()) {
+      for (int size : new int[]{0, 1, 2, 3, 10, 1000}) {
+        final double[][] expected = randomSpectrum(random, size);
+        final SimpleMassList spectrum = store(codec, storage, expected);
+        // empty spectra are always stored in full precision
+        Assertions.assertEquals(size == 0 ? SpectrumCodec.FULL : codec, spectrum.getCodec());
+        assertValues(codec, expected, spectrum);
+        if (size == 0) {
+          Assertions.assertNull(spectrum.getBasePeakIndex());
+        } else {
+          Assertions.assertEquals(expected[0][0], spectrum.getDataPointMZRange().lowerEndpoint(),
+              1E-6);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testNumpressWorstCase() {
+    // pairs of duplicates with large steps in between give alternating linear prediction residuals
+    // of up to the whole m/z range, which must still fit into the 8 + 5 * n bytes of the buffer
+    for (int size : new int[]{4, 5, 6, 101}) {
+      final double step = 2000d / ((size - 1) / 2);
+      final double[] mzs = new double[size];
+      final double[] intensities = new double[size];
+      for (int i = 0; i < size; i++) {
+        mzs[i] = (i / 2) * step;
+        intensities[i] = i % 2 == 0 ? 1d : 1E12;
+      }
+      final double[][] expected = {mzs, intensities};
+      assertValues(SpectrumCodec.NUMPRESS, expected,
+          store(SpectrumCodec.NUMPRESS, MemoryMapStorage.create(), expected));
+    }
+
+    final double[][] single = {{1999.99999}, {0d}};
+    assertValues(SpectrumCodec.NUMPRESS, single,
+        store(SpectrumCodec.NUMPRESS, MemoryMapStorage.create(), single));
+  }
+
+  @Test
+  public void testInterleavedRandomAccess() {
+    // more spectra than the decoded values cache of a thread holds
+    final Random random = new Random(11);
+    final MemoryMapStorage storage = MemoryMapStorage.create();
+    final double[][][] expected = new double[20][][];
+    final SimpleMassList[] spectra = new SimpleMassList[expected.length];
+    for (int s = 0; s < expected.length; s++) {
+      expected[s] = randomSpectrum(random, 50 + s);
+      spectra[s] = store(SpectrumCodec.NUMPRESS, storage, expected[s]);
+    }
+    for (int i = 0; i < 50; i++) {
+      for (int s = 0; s < spectra.length; s++) {
+        Assertions.assertEquals(expected[s][0][i], spectra[s].getMzValue(i), 1E-6);
+        Assertions.assertEquals(expected[s][1][i], spectra[s].getIntensityValue(i),
+            expected[s][1][i] * 1E-3);
+      }
+    }
+  }
+
+  /**
+   * Logs the stored bytes per data point and the decoding times of the codecs. Not a strict
+   * benchmark, but shows the trade off between memory and decoding.
+   */
+  @Test
+  public void benchmarkCodecs() {
+    final Random random = new Random(3);
+    final int numSpectra = 2000;
+    final double[][][] spectra = new double[numSpectra][][];
+    long numDataPoints = 0;
+    for (int s = 0; s < numSpectra; s++) {
+      spectra[s] = randomSpectrum(random, 500 + random.nextInt(1000));
+      numDataPoints += spectra[s][0].length;
+    }
+
+    final double[] bytesPerDataPoint = new double[SpectrumCodec.values().length];
+    for (SpectrumCodec codec : SpectrumCodec.values()) {
+      final MemoryMapStorage storage = MemoryMapStorage.create();
+      final SimpleMassList[] stored = new SimpleMassList[numSpectra];
+      final long encodeStart = System.nanoTime();
+      for (int s = 0; s < numSpectra; s++) {
+        stored[s] = store(codec, storage, spectra[s]);
+      }
+      final long encodeTime = System.nanoTime() - encodeStart;
+
+      final double[] mzs = new double[2500];
+      final double[] intensities = new double[2500];
+      double checksum = 0;
+      final long bulkStart = System.nanoTime();
+      for (SimpleMassList spectrum : stored) {
+        spectrum.getMzValues(mzs);
+        spectrum.getIntensityValues(intensities);
+        checksum += mzs[0] + intensities[0];
+      }
+      final long bulkTime = System.nanoTime() - bulkStart;
+
+      final long randomStart = System.nanoTime();
+      for (SimpleMassList spectrum : stored) {
+        for (int i = 0; i < spectrum.getNumberOfDataPoints(); i++) {
+          checksum += spectrum.getMzValue(i) + spectrum.getIntensityValue(i);
+        }
+      }
+      final long randomTime = System.nanoTime() - randomStart;
+
+      bytesPerDataPoint[codec.ordinal()] = (double) storage.getBytesLive() / numDataPoints;
+      logger.info(String.format(
+          "%s: %.2f bytes per data point, encode %d ms, bulk decode %d ms, random access %d ms "
+              + "(%d spectra, %d data points, checksum %.0f)", codec.name(),
+          bytesPerDataPoint[codec.ordinal()], encodeTime / 1_000_000, bulkTime / 1_000_000,
+          randomTime / 1_000_000, numSpectra, numDataPoints, checksum));
+    }
+
+    Assertions.assertEquals(16d, bytesPerDataPoint[SpectrumCodec.FULL.ordinal()], 1E-9);
+    Assertions.assertEquals(12d, bytesPerDataPoint[SpectrumCodec.FLOAT_INTENSITIES.ordinal()],
+        1E-9);
+    Assertions.assertTrue(bytesPerDataPoint[SpectrumCodec.NUMPRESS.ordinal()] < 8d);
+  }
+}
@@ -0,0 +1,229 @@
+package io.github.mzmine.modules.dataprocessing.align_hierarchical;
+
+import io.github.mzmine.taskcontrol.AbstractTask;
+import io.github.mzmine.util.MemoryMapStorage;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import org.gnf.clustering.LinkageMode;
+import org.gnf.clustering.Node;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compares the {@link SparseDistanceMatrix} with the dense distances and the {@link
+ * SparseLinkageClustering} with a brute force linkage on the dense matrix, as the GNF clusterer
+ * computes it.
+ */
+public class SparseLinkageClusteringTest {
+
+  private static final double MZ_MAX_DIFF = 2d;
+  private static final double RT_MAX_DIFF = 2d;
+
+  private static class TestTask extends AbstractTask {
+
+    private TestTask() {
+      super(null);
+    }
+
+    @Override
+    public String getTaskDescription() {
+      return "Test";
+    }
+
+    @Override
+    public double getFinishedPercentage() {
+      return 0;
+    }
+
+    @Override
+    public void run() {
+    }
+  }
+
+  /**
+   * Random rows with continuous distances, so there are no ties between the linkage distances.
+   */
+  private static class RandomRows {
+
+    private final int[] fileIndices;
+    private final float[] rts;
+    private final double[] mzs;
+    private final float[][] distances;
+
+    private RandomRows(Random random, int numRows, int numFiles, float rtWidth) {
+      fileIndices = new int[numRows];
+      rts = new float[numRows];
+      mzs = new double[numRows];
+      for (int i = 0; i < numRows; i++) {
+        fileIndices[i] = random.nextInt(numFiles);
+        rts[i] = random.nextFloat() * rtWidth;
+        mzs[i] = 100 + random.nextDouble() * 10;
+      }
+      distances = new float[numRows][numRows];
+      for (int i = 0; i < numRows; i++) {
+        for (int j = 0; j < i; j++) {
+          // some candidates are rejected by the score like in RowVsRowDistanceProvider
+          final float distance =
+              random.nextInt(10) == 0 ? SparseDistanceMatrix.NO_CANDIDATE_DISTANCE
+                  : random.nextFloat() * 99f;
+          distances[i][j] = distance;
+          distances[j][i] = distance;
+        }
+      }
+    }
+
+    /**
+     * @return the distance of RowVsRowDistanceProvider.getRankedDistance
+     */
+    private float expectedDistance(int i, int j) {
+      if (i == j) {
+        return SparseDistanceMatrix.SAME_ROW_DISTANCE;
+      }
+      if (fileIndices[i] == fileIndices[j]) {
+        return SparseDistanceMatrix.SAME_FILE_DISTANCE;
+      }
+      if (Math.abs(rts[i] - rts[j]) >= RT_MAX_DIFF / 2.0
+          || Math.abs(mzs[i] - mzs[j]) >= MZ_MAX_DIFF / 2.0) {
+        return SparseDistanceMatrix.NO_CANDIDATE_DISTANCE;
+      }
+      return distances[i][j];
+    }
+
+    private SparseDistanceMatrix compute(MemoryMapStorage storage, int mappingThreshold) {
+      return SparseDistanceMatrix.compute(fileIndices, rts, mzs, (i, j) -> distances[i][j],
+          MZ_MAX_DIFF, RT_MAX_DIFF, storage, mappingThreshold, () -> false, rows -> {
+          });
+    }
+  }
+
+  @Test
+  public void testStoredDistances() {
+    final Random random = new Random(21);
+    // several blocks of rows, in memory and memory mapped
+    final RandomRows rows = new RandomRows(random, 700, 4, 40f);
+    for (MemoryMapStorage storage : new MemoryMapStorage[]{null, MemoryMapStorage.create()}) {
+      final SparseDistanceMatrix matrix = rows.compute(storage, 0);
+      int stored = 0;
+      for (int i = 0; i < 700; i++) {
+        for (int j = 0; j < 700; j++) {
+          Assertions.assertEquals(rows.expectedDistance(i, j), matrix.getValue(i, j), i + " " + j);
+        }
+        for (int k = matrix.getStoredStart(i); k < matrix.getStoredEnd(i); k++) {
+          final int column = matrix.getStoredColumn(k);
+          Assertions.assertEquals(rows.expectedDistance(i, column), matrix.getStoredValue(k));
+          stored++;
+        }
+      }
+      Assertions.assertEquals(matrix.getNumberOfStoredDistances(), stored);
+    }
+  }
+
+  @Test
+  public void testDenseLinkage() {
+    final Random random = new Random(42);
+    for (LinkageMode linkage : new LinkageMode[]{LinkageMode.MIN, LinkageMode.AVG,
+        LinkageMode.MAX}) {
+      for (int run = 0; run < 5; run++) {
+        final RandomRows rows = new RandomRows(random, 80, 3, 6f);
+        final SparseDistanceMatrix matrix = rows.compute(null, Integer.MAX_VALUE);
+
+        final Node[] nodes = SparseLinkageClustering.cluster(matrix, linkage, new TestTask());
+        Assertions.assertNotNull(nodes);
+        Assertions.assertEquals(79, nodes.length);
+
+        final List<BitSet> expected = denseLinkage(matrix, linkage);
+        final List<BitSet> actual = mergesBelow(nodes, SparseDistanceMatrix.NO_CANDIDATE_DISTANCE);
+        Assertions.assertFalse(expected.isEmpty());
+        Assertions.assertEquals(expected.size(), actual.size(), linkage.toString());
+        Assertions.assertEquals(new HashSet<>(expected), new HashSet<>(actual),
+            linkage.toString());
+      }
+    }
+  }
+
+  /**
+   * Merges the two closest clusters of the dense matrix until all linkage distances are at least
+   * {@link SparseDistanceMatrix#NO_CANDIDATE_DISTANCE}.
+   *
+   * @return the rows of every merged cluster, in the order of the merges
+   */
+  private static List<BitSet> denseLinkage(SparseDistanceMatrix matrix, LinkageMode linkage) {
+    final List<List<Integer>> clusters = new ArrayList<>();
+    for (int i = 0; i < matrix.getRowCount(); i++) {
+      clusters.add(new ArrayList<>(List.of(i)));
+    }
+    final List<BitSet> merges = new ArrayList<>();
+    while (clusters.size() > 1) {
+      double best = Double.POSITIVE_INFINITY;
+      int bestA = -1;
+      int bestB = -1;
+      for (int a = 0; a < clusters.size(); a++) {
+        for (int b = a + 1; b < clusters.size(); b++) {
+          final double distance = linkageDistance(matrix, linkage, clusters.get(a),
+              clusters.get(b));
+          if (distance < best) {
+            best = distance;
+            bestA = a;
+            bestB = b;
+          }
+        }
+      }
+      if (best >= SparseDistanceMatrix.NO_CANDIDATE_DISTANCE) {
+        break;
+      }
+      clusters.get(bestA).addAll(clusters.remove(bestB));
+      final BitSet members = new BitSet();
+      clusters.get(bestA).forEach(members::set);
+      merges.add(members);
+    }
+    return merges;
+  }
+
+  private static double linkageDistance(SparseDistanceMatrix matrix, LinkageMode linkage,
+      List<Integer> first, List<Integer> second) {
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+    double sum = 0;
+    for (int i : first) {
+      for (int j : second) {
+        final double distance = matrix.getValue(i, j);
+        min = Math.min(min, distance);
+        max = Math.max(max, distance);
+        sum += distance;
+      }
+    }
+    switch (linkage) {
+      case MIN:
+        return min;
+      case MAX:
+        return max;
+      default:
+        return sum / ((long) first.size() * second.size());
+    }
+  }
+
+  /**
+   * @return the rows of the clusters of all nodes below the distance
+   */
+  private static List<BitSet> mergesBelow(Node[] nodes, double distance) {
+    final BitSet[] members = new BitSet[nodes.length];
+    final List<BitSet> merges = new ArrayList<>();
+    for (int k = 0; k < nodes.length; k++) {
+      members[k] = new BitSet();
+      for (int child : new int[]{nodes[k].m_nLeft, nodes[k].m_nRight}) {
+        if (child >= 0) {
+          members[k].set(child);
+        } else {
+          members[k].or(members[-child - 1]);
+        }
+      }
+      if (nodes[k].m_fDistance < distance) {
+        merges.add(members[k]);
+      }
+    }
+    return merges;
+  }
+}
@@ -0,0 +1,206 @@
+package io.github.mzmine.modules.dataprocessing.filter_isotopegrouper;
+
+import io.github.mzmine.datamodel.features.FeatureListRow;
+import io.github.mzmine.datamodel.features.ModularFeatureList;
+import io.github.mzmine.datamodel.features.ModularFeatureListRow;
+import io.github.mzmine.datamodel.features.types.numbers.MZType;
+import io.github.mzmine.datamodel.features.types.numbers.MobilityType;
+import io.github.mzmine.datamodel.features.types.numbers.RTType;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance;
+import io.github.mzmine.parameters.parametertypes.tolerances.mobilitytolerance.MobilityTolerance;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compares the {@link IsotopeGrouper} with the loop over all remaining rows that
+ * IsotopeGrouperTask.fitHalfPattern used before the rows were sorted by m/z.
+ */
+public class IsotopeGrouperTest {
+
+  private static final double ISOTOPE_DISTANCE = 1.0033;
+  private static final int[] CHARGES = {1, 2, 3};
+
+  private static final MZTolerance MZ_TOLERANCE = new MZTolerance(0.003, 10);
+  private static final RTTolerance RT_TOLERANCE = new RTTolerance(true, 0.05f);
+  private static final MobilityTolerance MOBILITY_TOLERANCE = new MobilityTolerance(0.01f);
+
+  /**
+   * The removed grouping of IsotopeGrouperTask, which checks all remaining rows for every isotope.
+   */
+  private static class LinearGrouper {
+
+    private final List<FeatureListRow> sortedRows;
+    private final MobilityTolerance mobilityTolerance;
+    private final boolean monotonicShape;
+
+    private LinearGrouper(List<FeatureListRow> rows, MobilityTolerance mobilityTolerance,
+        boolean monotonicShape) {
+      this.sortedRows = new ArrayList<>(rows);
+      this.mobilityTolerance = mobilityTolerance;
+      this.monotonicShape = monotonicShape;
+    }
+
+    private List<FeatureListRow> fitPattern(FeatureListRow row, int charge) {
+      final List<FeatureListRow> fittedRows = new ArrayList<>();
+      fittedRows.add(row);
+      if (charge == 0) {
+        return fittedRows;
+      }
+      if (!monotonicShape) {
+        fitHalfPattern(row, charge, -1, fittedRows);
+      }
+      fitHalfPattern(row, charge, 1, fittedRows);
+      return fittedRows;
+    }
+
+    private void fitHalfPattern(FeatureListRow row, int charge, int direction,
+        List<FeatureListRow> fittedRows) {
+      final double mainMZ = row.getAverageMZ();
+      final float mainRT = row.getAverageRT();
+      final Float mainMobility = row.getAverageMobility();
+
+      boolean followingPeakFound;
+      int n = 1;
+      do {
+        followingPeakFound = false;
+        final List<FeatureListRow> goodCandidates = new ArrayList<>();
+        for (FeatureListRow candidatePeak : sortedRows) {
+          final double candidatePeakMZ = candidatePeak.getAverageMZ();
+          final float candidatePeakRT = candidatePeak.getAverageRT();
+          final Float candidateMobility = candidatePeak.getAverageMobility();
+
+          final double isotopeMZ = candidatePeakMZ - ISOTOPE_DISTANCE * direction * n / charge;
+          if (MZ_TOLERANCE.checkWithinTolerance(isotopeMZ, mainMZ)
+              && RT_TOLERANCE.checkWithinTolerance(candidatePeakRT, mainRT)) {
+            if (mobilityTolerance != null && mainMobility != null && candidateMobility != null) {
+              if (mobilityTolerance.checkWithinTolerance(mainMobility, candidateMobility)) {
+                goodCandidates.add(candidatePeak);
+              }
+            } else {
+              goodCandidates.add(candidatePeak);
+            }
+          }
+        }
+        if (!goodCandidates.isEmpty()) {
+          fittedRows.addAll(goodCandidates);
+          n++;
+          followingPeakFound = true;
+        }
+      } while (followingPeakFound);
+    }
+  }
+
+  /**
+   * Rows of isotope patterns with the charges 1 to 3, some overlapping in m/z and RT, and single
+   * rows in random order. Some rows have no mobility.
+   */
+  private static List<FeatureListRow> randomRows(Random random, int numPatterns)
+      throws Exception {
+    final RawDataFileImpl rawDataFile = new RawDataFileImpl("test file", null, Color.WHITE);
+    final ModularFeatureList featureList = new ModularFeatureList("test", null, rawDataFile);
+    final List<FeatureListRow> rows = new ArrayList<>();
+    for (int p = 0; p < numPatterns; p++) {
+      final int charge = 1 + random.nextInt(3);
+      final int numIsotopes = 1 + random.nextInt(4);
+      // coarse values, so the patterns overlap
+      final double mz = 200 + random.nextInt(200) * 0.1;
+      final float rt = 1 + random.nextInt(20) * 0.05f;
+      final float mobility = 1 + random.nextInt(20) * 0.005f;
+      for (int i = 0; i < numIsotopes; i++) {
+        final ModularFeatureListRow row = new ModularFeatureListRow(featureList, rows.size() + 1);
+        row.set(MZType.class, mz + ISOTOPE_DISTANCE * i / charge
+            + (random.nextDouble() - 0.5) * 0.008);
+        row.set(RTType.class, rt + (random.nextFloat() - 0.5f) * 0.1f);
+        if (random.nextInt(5) != 0) {
+          row.set(MobilityType.class, mobility + (random.nextFloat() - 0.5f) * 0.02f);
+        }
+        featureList.addRow(row);
+        rows.add(row);
+      }
+    }
+    Collections.shuffle(rows, random);
+    return rows;
+  }
+
+  @Test
+  public void testRandomRows() throws Exception {
+    final Random random = new Random(22);
+    int multiRowPatterns = 0;
+    for (int run = 0; run < 10; run++) {
+      final List<FeatureListRow> rows = randomRows(random, 150);
+      for (boolean monotonicShape : new boolean[]{true, false}) {
+        for (MobilityTolerance mobilityTolerance : new MobilityTolerance[]{null,
+            MOBILITY_TOLERANCE}) {
+          multiRowPatterns += compareGrouping(rows, mobilityTolerance, monotonicShape,
+              random.nextBoolean());
+        }
+      }
+    }
+    // the patterns are not trivially single rows
+    Assertions.assertTrue(multiRowPatterns > 100, "Patterns: " + multiRowPatterns);
+  }
+
+  /**
+   * Groups the rows like IsotopeGrouperTask with both implementations and compares the patterns
+   * of all charges in every step.
+   *
+   * @return the number of grouped patterns with more than one row
+   */
+  private static int compareGrouping(List<FeatureListRow> rows,
+      MobilityTolerance mobilityTolerance, boolean monotonicShape, boolean parallel) {
+    final String message = "monotonic " + monotonicShape + ", mobility " + mobilityTolerance;
+    final LinearGrouper linear = new LinearGrouper(rows, mobilityTolerance, monotonicShape);
+    final IsotopeGrouper grouper = new IsotopeGrouper(rows, MZ_TOLERANCE, RT_TOLERANCE,
+        mobilityTolerance, monotonicShape, parallel);
+
+    int multiRowPatterns = 0;
+    while (!linear.sortedRows.isEmpty()) {
+      final FeatureListRow row = linear.sortedRows.get(0);
+      final int rowIndex = grouper.nextRow();
+      Assertions.assertNotEquals(-1, rowIndex, message);
+      Assertions.assertSame(row, grouper.getRow(rowIndex), message);
+
+      final List<List<FeatureListRow>> fits = grouper.fitPatterns(rowIndex, CHARGES);
+      Assertions.assertEquals(CHARGES.length, fits.size(), message);
+      int bestFitCharge = 0;
+      int bestFitScore = -1;
+      List<FeatureListRow> bestFitRows = null;
+      for (int i = 0; i < CHARGES.length; i++) {
+        final List<FeatureListRow> expected = linear.fitPattern(row, CHARGES[i]);
+        assertSameRows(expected, fits.get(i), message + ", charge " + CHARGES[i]);
+
+        final int score = expected.size();
+        if ((score > bestFitScore) || ((score == bestFitScore) && (bestFitCharge > CHARGES[i]))) {
+          bestFitScore = score;
+          bestFitCharge = CHARGES[i];
+          bestFitRows = expected;
+        }
+      }
+
+      if (bestFitRows.size() > 1) {
+        multiRowPatterns++;
+      }
+      for (FeatureListRow fit : bestFitRows) {
+        linear.sortedRows.remove(fit);
+        grouper.remove(fit);
+      }
+    }
+    Assertions.assertEquals(-1, grouper.nextRow(), message);
+    return multiRowPatterns;
+  }
+
+  private static void assertSameRows(List<FeatureListRow> expected, List<FeatureListRow> actual,
+      String message) {
+    Assertions.assertEquals(expected.size(), actual.size(), message);
+    for (int i = 0; i < expected.size(); i++) {
+      Assertions.assertSame(expected.get(i), actual.get(i), message);
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package io.github.mzmine.modules.io.export_sql;
+
+import io.github.mzmine.datamodel.features.ModularFeatureList;
+import io.github.mzmine.datamodel.features.ModularFeatureListRow;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+import io.github.mzmine.taskcontrol.TaskStatus;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Exports feature lists with two parallel writers into an SQLite file.
+ */
+public class SQLExportTaskTest {
+
+  private static final int NUM_ROWS = 200;
+  // the second writer exports the ids 100 to 199 and fails halfway
+  private static final int FAILING_ID = 150;
+
+  @Test
+  public void testParallelWriters() throws Exception {
+    final File dbFile = createDatabase("CREATE TABLE features (id INT, name TEXT)");
+
+    final SQLExportTask task = createTask(dbFile);
+    task.run();
+
+    Assertions.assertEquals(TaskStatus.FINISHED, task.getStatus(), task.getErrorMessage());
+    Assertions.assertEquals(NUM_ROWS, countRows(dbFile, "SELECT COUNT(*) FROM features"));
+    Assertions.assertEquals(NUM_ROWS,
+        countRows(dbFile, "SELECT COUNT(DISTINCT id) FROM features WHERE name = 'test'"));
+  }
+
+  @Test
+  public void testWriterFailsHalfway() throws Exception {
+    final File dbFile = createDatabase(
+        "CREATE TABLE features (id INT CHECK (id <> " + FAILING_ID + "), name TEXT)");
+
+    final SQLExportTask task = createTask(dbFile);
+    task.run();
+
+    Assertions.assertEquals(TaskStatus.ERROR, task.getStatus());
+    Assertions.assertNotNull(task.getErrorMessage());
+    // the failed writer rolled back all of its rows
+    Assertions.assertEquals(0,
+        countRows(dbFile, "SELECT COUNT(*) FROM features WHERE id >= " + NUM_ROWS / 2));
+    // the other writer either committed all of its rows or was stopped and rolled back
+    final int otherRows =
+        countRows(dbFile, "SELECT COUNT(*) FROM features WHERE id < " + NUM_ROWS / 2);
+    Assertions.assertTrue(otherRows == 0 || otherRows == NUM_ROWS / 2,
+        "Partially written rows: " + otherRows);
+  }
+
+  private static SQLExportTask createTask(File dbFile) throws Exception {
+    final RawDataFileImpl rawDataFile = new RawDataFileImpl("test file", null, Color.WHITE);
+    final ModularFeatureList featureList = new ModularFeatureList("test", null, rawDataFile);
+    for (int id = 0; id < NUM_ROWS; id++) {
+      featureList.addRow(new ModularFeatureListRow(featureList, id));
+    }
+
+    final SQLColumnSettings columns = new SQLColumnSettings();
+    columns.addNewRow();
+    columns.setValueAt("id", 0, 0);
+    columns.setValueAt(SQLExportDataType.ID, 0, 1);
+    columns.addNewRow();
+    columns.setValueAt("name", 1, 0);
+    columns.setValueAt(SQLExportDataType.CONSTANT, 1, 1);
+    columns.setValueAt("test", 1, 2);
+
+    // single row statements and batches, so the failing row stops the writer halfway
+    return new SQLExportTask(featureList, "jdbc:sqlite:" + dbFile.getAbsolutePath(), "features",
+        columns, false, 1, 1, 2);
+  }
+
+  private static File createDatabase(String createTable) throws Exception {
+    final File dbFile = File.createTempFile("mzmine", ".sqlite");
+    dbFile.deleteOnExit();
+    try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
+        Statement statement = connection.createStatement()) {
+      statement.execute(createTable);
+    }
+    return dbFile;
+  }
+
+  private static int countRows(File dbFile, String query) throws SQLException {
+    try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
+        Statement statement = connection.createStatement();
+        ResultSet result = statement.executeQuery(query)) {
+      result.next();
+      return result.getInt(1);
+    }
+  }
+}
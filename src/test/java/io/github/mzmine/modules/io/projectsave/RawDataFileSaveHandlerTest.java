@@ -0,0 +1,283 @@
+/*
+ *  Copyright 2006-2020 The MZmine Development Team
+ *
+ *  This file is part of MZmine.
+ *
+ *  MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ *  General Public License as published by the Free Software Foundation; either version 2 of the
+ *  License, or (at your option) any later version.
+ *
+ *  MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ *  the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ *  Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with MZmine; if not,
+ *  write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ *  USA
+ */
+
+package io.github.mzmine.modules.io.projectsave;
+
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.Frame;
+import io.github.mzmine.datamodel.ImsMsMsInfo;
+import io.github.mzmine.datamodel.MassSpectrum;
+import io.github.mzmine.datamodel.MassSpectrumType;
+import io.github.mzmine.datamodel.MobilityScan;
+import io.github.mzmine.datamodel.MobilityType;
+import io.github.mzmine.datamodel.PolarityType;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.datamodel.impl.BuildingMobilityScan;
+import io.github.mzmine.datamodel.impl.ImsMsMsInfoImpl;
+import io.github.mzmine.datamodel.impl.SimpleFrame;
+import io.github.mzmine.datamodel.impl.SimpleScan;
+import io.github.mzmine.datamodel.impl.masslist.SimpleMassList;
+import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.modules.io.projectload.ScansFileEntry;
+import io.github.mzmine.modules.io.projectload.version_3_0.RawDataFileOpenHandler_3_0;
+import io.github.mzmine.project.impl.IMSRawDataFileImpl;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+import io.github.mzmine.util.MemoryMapStorage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Saves raw data files in the binary scans file and opens them again.
+ */
+public class RawDataFileSaveHandlerTest {
+
+  private static final String SCANS_ENTRY = "test.scans";
+
+  private final Random rnd = new Random(42);
+  private final MemoryMapStorage storage = MemoryMapStorage.create();
+
+  @BeforeAll
+  public static void loadMZmineCore() {
+    MZmineCore.main(new String[]{});
+  }
+
+  @Test
+  public void testRawDataFile() throws Exception {
+    final RawDataFileImpl rawDataFile = new RawDataFileImpl("test file", null, Color.WHITE);
+
+    final SimpleScan ms1 = new SimpleScan(rawDataFile, 1, 1, 0.5f, 0d, 0, randomValues(20, 2000d),
+        randomValues(20, 1E6), MassSpectrumType.PROFILE, PolarityType.POSITIVE, "ms1",
+        Range.closed(100d, 2000d));
+    ms1.addMassList(new SimpleMassList(storage, randomValues(5, 2000d), randomValues(5, 1E6)));
+    rawDataFile.addScan(ms1);
+
+    final SimpleScan ms2 = new SimpleScan(rawDataFile, 2, 2, 0.6f, 512.3, 2, randomValues(7, 600d),
+        randomValues(7, 1E4), MassSpectrumType.CENTROIDED, PolarityType.NEGATIVE, "ms2",
+        Range.closed(50d, 600d));
+    rawDataFile.addScan(ms2);
+
+    final SimpleScan empty = new SimpleScan(rawDataFile, 3, 1, 0.7f, 0d, 0, new double[0],
+        new double[0], MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "empty",
+        Range.closed(100d, 2000d));
+    empty.addMassList(new SimpleMassList(storage, new double[0], new double[0]));
+    rawDataFile.addScan(empty);
+
+    final RawDataFile opened = saveAndOpen(rawDataFile, false);
+
+    assertScansEqual(rawDataFile.getScans(), opened.getScans());
+  }
+
+  @Test
+  public void testIMSRawDataFile() throws Exception {
+    final IMSRawDataFileImpl rawDataFile = new IMSRawDataFileImpl("test ims file", null,
+        Color.WHITE);
+
+    final SimpleFrame ms1 = new SimpleFrame(rawDataFile, 1, 1, 0.5f, 0d, 0,
+        randomValues(30, 2000d), randomValues(30, 1E6), MassSpectrumType.CENTROIDED,
+        PolarityType.POSITIVE, "ms1", Range.closed(100d, 2000d), MobilityType.TIMS, null);
+    ms1.setMobilities(new double[]{1.2, 1.1, 1.0, 0.9, 0.8});
+    ms1.setMobilityScans(makeMobilityScans(5));
+    ms1.addMassList(new SimpleMassList(storage, randomValues(10, 2000d), randomValues(10, 1E6)));
+    for (int i = 0; i < ms1.getNumberOfMobilityScans(); i += 2) {
+      ms1.getMobilityScan(i)
+          .setMassList(new SimpleMassList(storage, randomValues(3, 2000d), randomValues(3, 1E6)));
+    }
+    rawDataFile.addScan(ms1);
+
+    final SimpleFrame ms2 = new SimpleFrame(rawDataFile, 2, 2, 0.6f, 0d, 0, randomValues(12, 800d),
+        randomValues(12, 1E4), MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "ms2",
+        Range.closed(50d, 800d), MobilityType.TIMS, null);
+    ms2.setMobilities(new double[]{1.2, 1.1, 1.0});
+    ms2.setMobilityScans(makeMobilityScans(3));
+    ms2.setPrecursorInfos(
+        Set.of(new ImsMsMsInfoImpl(712.4, Range.closed(0, 2), 35f, 1, ms1, ms2)));
+    rawDataFile.addScan(ms2);
+
+    final RawDataFile opened = saveAndOpen(rawDataFile, true);
+
+    assertScansEqual(rawDataFile.getScans(), opened.getScans());
+    for (int i = 0; i < rawDataFile.getNumOfScans(); i++) {
+      assertFramesEqual((Frame) rawDataFile.getScans().get(i), (Frame) opened.getScans().get(i));
+    }
+
+    final ImsMsMsInfo info = ((Frame) opened.getScans().get(1)).getImsMsMsInfos().iterator()
+        .next();
+    Assertions.assertSame(opened.getScans().get(0), info.getParentFrameNumber());
+    Assertions.assertSame(opened.getScans().get(1), info.getFrameNumber());
+  }
+
+  @Test
+  public void testChangedProjectFile() throws Exception {
+    final RawDataFileImpl rawDataFile = new RawDataFileImpl("test file", null, Color.WHITE);
+    rawDataFile.addScan(new SimpleScan(rawDataFile, 1, 1, 0.5f, 0d, 0, randomValues(20, 2000d),
+        randomValues(20, 1E6), MassSpectrumType.PROFILE, PolarityType.POSITIVE, "ms1",
+        Range.closed(100d, 2000d)));
+
+    final File projectFile = saveProject(rawDataFile, new ByteArrayOutputStream());
+    final ZipEntry entry;
+    try (ZipFile zipFile = new ZipFile(projectFile)) {
+      entry = zipFile.getEntry(SCANS_ENTRY);
+    }
+
+    final ScansFileEntry changedCrc = new ScansFileEntry(projectFile, SCANS_ENTRY,
+        entry.getSize(), entry.getCrc() ^ 1);
+    Assertions.assertThrows(IOException.class,
+        () -> changedCrc.getMappedFile().mapDoubles(entry.getSize() - Double.BYTES, 1));
+
+    final ScansFileEntry changedSize = new ScansFileEntry(projectFile, SCANS_ENTRY,
+        entry.getSize() + 1, entry.getCrc());
+    Assertions.assertThrows(IOException.class,
+        () -> changedSize.getMappedFile().mapDoubles(entry.getSize() - Double.BYTES, 1));
+
+    final ScansFileEntry unchanged = new ScansFileEntry(projectFile, SCANS_ENTRY,
+        entry.getSize(), entry.getCrc());
+    Assertions.assertEquals(1,
+        unchanged.getMappedFile().mapDoubles(entry.getSize() - Double.BYTES, 1).capacity());
+    unchanged.getMappedFile().close();
+    Assertions.assertThrows(IOException.class,
+        () -> unchanged.getMappedFile().mapDoubles(entry.getSize() - Double.BYTES, 1));
+  }
+
+  private File saveProject(RawDataFileImpl rawDataFile, ByteArrayOutputStream description)
+      throws Exception {
+    final File projectFile = File.createTempFile("mzmine", ".mzmine");
+    projectFile.deleteOnExit();
+    final File scansFile = File.createTempFile("mzmine", ".scans");
+    scansFile.deleteOnExit();
+
+    final RawDataFileSaveHandler handler = new RawDataFileSaveHandler();
+    final ZipEntry scansEntry = handler.writeScans(rawDataFile, SCANS_ENTRY, scansFile);
+    handler.writeDescription(rawDataFile, description);
+    try (ZipOutputStream zipStream = new ZipOutputStream(new FileOutputStream(projectFile))) {
+      zipStream.putNextEntry(scansEntry);
+      Files.copy(scansFile.toPath(), zipStream);
+      zipStream.closeEntry();
+    }
+    return projectFile;
+  }
+
+  private RawDataFile saveAndOpen(RawDataFileImpl rawDataFile, boolean isIMSRawDataFile)
+      throws Exception {
+    final ByteArrayOutputStream description = new ByteArrayOutputStream();
+    final File projectFile = saveProject(rawDataFile, description);
+
+    final ZipEntry entry;
+    try (ZipFile zipFile = new ZipFile(projectFile)) {
+      entry = zipFile.getEntry(SCANS_ENTRY);
+      Assertions.assertEquals(ZipEntry.STORED, entry.getMethod());
+    }
+
+    return new RawDataFileOpenHandler_3_0().readRawDataFile(
+        new ByteArrayInputStream(description.toByteArray()),
+        new ScansFileEntry(projectFile, SCANS_ENTRY, entry.getSize(), entry.getCrc()),
+        isIMSRawDataFile, false);
+  }
+
+  private List<BuildingMobilityScan> makeMobilityScans(int numScans) {
+    final List<BuildingMobilityScan> scans = new ArrayList<>();
+    for (int i = 0; i < numScans; i++) {
+      final int numDataPoints = rnd.nextInt(6);
+      scans.add(new BuildingMobilityScan(i, randomValues(numDataPoints, 2000d),
+          randomValues(numDataPoints, 1E5)));
+    }
+    return scans;
+  }
+
+  private double[] randomValues(int numValues, double max) {
+    return rnd.doubles(numValues, 0d, max).sorted().toArray();
+  }
+
+  private static void assertScansEqual(List<Scan> expected, List<Scan> actual) {
+    Assertions.assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      final Scan expectedScan = expected.get(i);
+      final Scan actualScan = actual.get(i);
+      Assertions.assertEquals(expectedScan.getScanNumber(), actualScan.getScanNumber());
+      Assertions.assertEquals(expectedScan.getMSLevel(), actualScan.getMSLevel());
+      Assertions.assertEquals(expectedScan.getRetentionTime(), actualScan.getRetentionTime());
+      Assertions.assertEquals(expectedScan.getPrecursorMZ(), actualScan.getPrecursorMZ());
+      Assertions.assertEquals(expectedScan.getPrecursorCharge(), actualScan.getPrecursorCharge());
+      Assertions.assertEquals(expectedScan.getSpectrumType(), actualScan.getSpectrumType());
+      Assertions.assertEquals(expectedScan.getPolarity(), actualScan.getPolarity());
+      Assertions.assertEquals(expectedScan.getScanDefinition(), actualScan.getScanDefinition());
+      Assertions.assertEquals(expectedScan.getScanningMZRange(), actualScan.getScanningMZRange());
+      assertSpectraEqual(expectedScan, actualScan);
+      assertSpectraEqual(expectedScan.getMassList(), actualScan.getMassList());
+    }
+  }
+
+  private static void assertFramesEqual(Frame expected, Frame actual) {
+    Assertions.assertEquals(expected.getMobilityType(), actual.getMobilityType());
+    Assertions.assertEquals(expected.getMobilityRange(), actual.getMobilityRange());
+    Assertions.assertEquals(expected.getNumberOfMobilityScans(),
+        actual.getNumberOfMobilityScans());
+    for (int i = 0; i < expected.getNumberOfMobilityScans(); i++) {
+      final MobilityScan expectedScan = expected.getMobilityScan(i);
+      final MobilityScan actualScan = actual.getMobilityScan(i);
+      Assertions.assertEquals(expectedScan.getMobilityScanNumber(),
+          actualScan.getMobilityScanNumber());
+      Assertions.assertEquals(expectedScan.getMobility(), actualScan.getMobility());
+      Assertions.assertSame(actual, actualScan.getFrame());
+      assertSpectraEqual(expectedScan, actualScan);
+      assertSpectraEqual(expectedScan.getMassList(), actualScan.getMassList());
+    }
+
+    Assertions.assertEquals(expected.getImsMsMsInfos().size(), actual.getImsMsMsInfos().size());
+    for (ImsMsMsInfo expectedInfo : expected.getImsMsMsInfos()) {
+      final ImsMsMsInfo actualInfo = actual.getImsMsMsInfos().iterator().next();
+      Assertions.assertEquals(expectedInfo.getLargestPeakMz(), actualInfo.getLargestPeakMz());
+      Assertions.assertEquals(expectedInfo.getSpectrumNumberRange(),
+          actualInfo.getSpectrumNumberRange());
+      Assertions.assertEquals(expectedInfo.getCollisionEnergy(), actualInfo.getCollisionEnergy());
+      Assertions.assertEquals(expectedInfo.getPrecursorCharge(), actualInfo.getPrecursorCharge());
+    }
+  }
+
+  private static void assertSpectraEqual(MassSpectrum expected, MassSpectrum actual) {
+    if (expected == null) {
+      Assertions.assertNull(actual);
+      return;
+    }
+    Assertions.assertNotNull(actual);
+    Assertions.assertEquals(expected.getNumberOfDataPoints(), actual.getNumberOfDataPoints());
+    Assertions.assertArrayEquals(expected.getMzValues(new double[expected.getNumberOfDataPoints()]),
+        actual.getMzValues(new double[actual.getNumberOfDataPoints()]));
+    Assertions.assertArrayEquals(
+        expected.getIntensityValues(new double[expected.getNumberOfDataPoints()]),
+        actual.getIntensityValues(new double[actual.getNumberOfDataPoints()]));
+    Assertions.assertEquals(expected.getDataPointMZRange(), actual.getDataPointMZRange());
+    Assertions.assertEquals(expected.getBasePeakIndex(), actual.getBasePeakIndex());
+    Assertions.assertEquals(expected.getTIC(), actual.getTIC());
+  }
+}
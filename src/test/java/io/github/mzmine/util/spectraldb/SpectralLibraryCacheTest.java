@@ -0,0 +1,139 @@
+package io.github.mzmine.util.spectraldb;
+
+import io.github.mzmine.taskcontrol.AbstractTask;
+import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.spectraldb.parser.UnsupportedFormatException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Requests libraries from several tasks at once. A library file is only parsed once, requests of
+ * other files are not blocked by the parsing.
+ */
+public class SpectralLibraryCacheTest {
+
+  private static final int THREADS = 8;
+
+  private static class TestTask extends AbstractTask {
+
+    private TestTask() {
+      super(null);
+    }
+
+    @Override
+    public String getTaskDescription() {
+      return "Test";
+    }
+
+    @Override
+    public double getFinishedPercentage() {
+      return 0;
+    }
+
+    @Override
+    public void run() {
+    }
+  }
+
+  private static File writeLibrary(int entries) throws IOException {
+    final File file = Files.createTempFile("library", ".mgf").toFile();
+    file.deleteOnExit();
+    try (PrintWriter writer = new PrintWriter(file)) {
+      for (int i = 0; i < entries; i++) {
+        writer.println("BEGIN IONS");
+        writer.println("PEPMASS=" + (100 + i * 0.5));
+        writer.println("NAME=Compound " + i);
+        writer.println("SCANS=" + (i + 1));
+        writer.println((50 + i * 0.1) + "\t100");
+        writer.println((60 + i * 0.1) + "\t200");
+        writer.println("END IONS");
+      }
+    }
+    return file;
+  }
+
+  @AfterEach
+  public void clearCache() {
+    SpectralLibraryCache.clear();
+  }
+
+  @Test
+  public void testParsedOnce() throws Exception {
+    final File first = writeLibrary(5000);
+    final File second = writeLibrary(10);
+
+    final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Future<SpectralLibraryIndex>> futures = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      final File file = t % 2 == 0 ? first : second;
+      futures.add(executor.submit(() -> {
+        start.await();
+        return SpectralLibraryCache.getLibrary(new TestTask(), file);
+      }));
+    }
+    start.countDown();
+
+    // all tasks of the same file get the same instance
+    final SpectralLibraryIndex firstLibrary = futures.get(0).get();
+    final SpectralLibraryIndex secondLibrary = futures.get(1).get();
+    Assertions.assertEquals(5000, firstLibrary.size());
+    Assertions.assertEquals(10, secondLibrary.size());
+    for (int t = 0; t < THREADS; t++) {
+      Assertions.assertSame(t % 2 == 0 ? firstLibrary : secondLibrary, futures.get(t).get());
+    }
+    executor.shutdown();
+
+    Assertions.assertSame(firstLibrary, SpectralLibraryCache.getLibrary(new TestTask(), first));
+  }
+
+  @Test
+  public void testModifiedFileIsParsedAgain() throws Exception {
+    final File file = writeLibrary(10);
+    final SpectralLibraryIndex library = SpectralLibraryCache.getLibrary(new TestTask(), file);
+    Assertions.assertEquals(10, library.size());
+
+    try (PrintWriter writer = new PrintWriter(file)) {
+      writer.println("BEGIN IONS");
+      writer.println("PEPMASS=100");
+      writer.println("NAME=Compound");
+      writer.println("SCANS=1");
+      writer.println("50\t100");
+      writer.println("60\t200");
+      writer.println("END IONS");
+    }
+    Assertions.assertEquals(1, SpectralLibraryCache.getLibrary(new TestTask(), file).size());
+  }
+
+  @Test
+  public void testCanceledTask() throws Exception {
+    final File file = writeLibrary(10);
+    final TestTask canceled = new TestTask();
+    canceled.setStatus(TaskStatus.CANCELED);
+    Assertions.assertNull(SpectralLibraryCache.getLibrary(canceled, file));
+
+    // the canceled request is not cached
+    Assertions.assertEquals(10, SpectralLibraryCache.getLibrary(new TestTask(), file).size());
+  }
+
+  @Test
+  public void testUnsupportedFormat() throws IOException {
+    final File file = Files.createTempFile("library", ".txt").toFile();
+    file.deleteOnExit();
+    for (int i = 0; i < 2; i++) {
+      Assertions.assertThrows(UnsupportedFormatException.class,
+          () -> SpectralLibraryCache.getLibrary(new TestTask(), file));
+    }
+  }
+}
@@ -0,0 +1,171 @@
+package io.github.mzmine.util.spectraldb;
+
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.util.spectraldb.entry.DBEntryField;
+import io.github.mzmine.util.spectraldb.entry.SpectralDBEntry;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Logger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compares the precursor m/z candidates of the index with a linear scan over all entries and logs
+ * the searched rows per second for growing library sizes.
+ */
+public class SpectralLibraryIndexTest {
+
+  private static final Logger logger = Logger.getLogger(SpectralLibraryIndexTest.class.getName());
+
+  private static final MZTolerance PRECURSOR_TOLERANCE = new MZTolerance(0.005, 10);
+  private static final MZTolerance FRAGMENT_TOLERANCE = new MZTolerance(0.005, 10);
+
+  private static List<SpectralDBEntry> randomLibrary(Random random, int size) {
+    final List<SpectralDBEntry> entries = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      final Map<DBEntryField, Object> fields = new EnumMap<>(DBEntryField.class);
+      // every 50th entry has no precursor m/z
+      if (i % 50 != 0) {
+        fields.put(DBEntryField.MZ, 100 + random.nextDouble() * 900);
+      }
+      entries.add(new SpectralDBEntry(fields, randomSpectrum(random)));
+    }
+    return entries;
+  }
+
+  private static DataPoint[] randomSpectrum(Random random) {
+    final DataPoint[] dataPoints = new DataPoint[20];
+    double mz = 50;
+    for (int i = 0; i < dataPoints.length; i++) {
+      // coarse m/z values, so that some fragments of the rows and entries match
+      mz += 1 + random.nextInt(40) * 0.5;
+      dataPoints[i] = new SimpleDataPoint(mz, 1 + random.nextDouble() * 1E4);
+    }
+    return dataPoints;
+  }
+
+  /**
+   * The work of a spectral match: the number of fragments within the tolerance.
+   */
+  private static int matchFragments(DataPoint[] query, DataPoint[] library) {
+    int matches = 0;
+    for (int q = 0, l = 0; q < query.length && l < library.length; ) {
+      final double mz = query[q].getMZ();
+      if (FRAGMENT_TOLERANCE.checkWithinTolerance(mz, library[l].getMZ())) {
+        matches++;
+        q++;
+        l++;
+      } else if (mz < library[l].getMZ()) {
+        q++;
+      } else {
+        l++;
+      }
+    }
+    return matches;
+  }
+
+  /**
+   * @return the number of candidates with a matching precursor and their matched fragments
+   */
+  private static long[] search(List<SpectralDBEntry> candidates, double precursorMz,
+      DataPoint[] query) {
+    final long[] result = new long[2];
+    for (SpectralDBEntry entry : candidates) {
+      final Double entryMz = entry.getPrecursorMZ();
+      if (entryMz != null && PRECURSOR_TOLERANCE.checkWithinTolerance(entryMz, precursorMz)) {
+        result[0]++;
+        result[1] += matchFragments(query, entry.getDataPoints());
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void testCandidatesMatchLinearScan() {
+    final Random random = new Random(5);
+    final List<SpectralDBEntry> entries = randomLibrary(random, 20_000);
+    final SpectralLibraryIndex index = new SpectralLibraryIndex(entries);
+    Assertions.assertEquals(entries.size(), index.size());
+    Assertions.assertEquals(entries, index.getEntries());
+
+    long found = 0;
+    for (int i = 0; i < 2000; i++) {
+      // half of the queries hit the precursor of an entry exactly
+      final Double entryMz = entries.get(random.nextInt(entries.size())).getPrecursorMZ();
+      final double precursorMz =
+          i % 2 == 0 && entryMz != null ? entryMz : 90 + random.nextDouble() * 920;
+      final DataPoint[] query = randomSpectrum(random);
+
+      final long[] expected = search(entries, precursorMz, query);
+      final long[] actual = search(index.getCandidates(precursorMz, PRECURSOR_TOLERANCE),
+          precursorMz, query);
+      Assertions.assertArrayEquals(expected, actual, "Precursor m/z " + precursorMz);
+      found += expected[0];
+    }
+    Assertions.assertTrue(found > 1000);
+  }
+
+  @Test
+  public void testEntriesOnBounds() {
+    final List<SpectralDBEntry> entries = new ArrayList<>();
+    final Random random = new Random(1);
+    for (double mz : new double[]{200, 100, 300, 200}) {
+      final Map<DBEntryField, Object> fields = new EnumMap<>(DBEntryField.class);
+      fields.put(DBEntryField.MZ, mz);
+      entries.add(new SpectralDBEntry(fields, randomSpectrum(random)));
+    }
+    final SpectralLibraryIndex index = new SpectralLibraryIndex(entries);
+    Assertions.assertEquals(2, index.getEntries(200, 200).size());
+    Assertions.assertEquals(4, index.getEntries(100, 300).size());
+    Assertions.assertEquals(0, index.getEntries(100.1, 199.9).size());
+    Assertions.assertEquals(1, index.getEntries(300, 1000).size());
+  }
+
+  /**
+   * Logs the searched rows per second of the index and of a linear scan over the library for
+   * growing library sizes. Not a strict benchmark, the linear scan grows with the library size,
+   * the index with the number of candidates.
+   */
+  @Test
+  public void benchmarkLibrarySize() {
+    final Random random = new Random(3);
+    final int rows = 1000;
+    final double[] precursorMzs = new double[rows];
+    final DataPoint[][] queries = new DataPoint[rows][];
+    for (int i = 0; i < rows; i++) {
+      precursorMzs[i] = 100 + random.nextDouble() * 900;
+      queries[i] = randomSpectrum(random);
+    }
+
+    for (int size : new int[]{1_000, 10_000, 100_000}) {
+      final List<SpectralDBEntry> entries = randomLibrary(random, size);
+      final SpectralLibraryIndex index = new SpectralLibraryIndex(entries);
+
+      long linearMatches = 0;
+      final long linearStart = System.nanoTime();
+      for (int i = 0; i < rows; i++) {
+        linearMatches += search(entries, precursorMzs[i], queries[i])[1];
+      }
+      final double linearSeconds = (System.nanoTime() - linearStart) / 1E9;
+
+      long indexMatches = 0;
+      final long indexStart = System.nanoTime();
+      for (int i = 0; i < rows; i++) {
+        indexMatches += search(index.getCandidates(precursorMzs[i], PRECURSOR_TOLERANCE),
+            precursorMzs[i], queries[i])[1];
+      }
+      final double indexSeconds = (System.nanoTime() - indexStart) / 1E9;
+
+      logger.info(String.format(
+          "Library of %d entries: index %.0f rows/s, linear scan %.0f rows/s (%d fragment matches)",
+          size, rows / Math.max(indexSeconds, 1E-9), rows / Math.max(linearSeconds, 1E-9),
+          indexMatches));
+      Assertions.assertEquals(linearMatches, indexMatches);
+    }
+  }
+}
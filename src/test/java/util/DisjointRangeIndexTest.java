@@ -0,0 +1,146 @@
+package util;
+
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.common.collect.TreeRangeSet;
+import io.github.mzmine.util.DisjointRangeIndex;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Logger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compares the {@link DisjointRangeIndex} with the TreeRangeSet based binning that the ADAP
+ * chromatogram builder used before.
+ */
+public class DisjointRangeIndexTest {
+
+  private static final Logger logger = Logger.getLogger(DisjointRangeIndexTest.class.getName());
+
+  /**
+   * Bins the values in the given order like the previous ADAP chromatogram builder.
+   *
+   * @return the ranges with the indices of their values or null, if a new range would have enclosed
+   * existing ranges. TreeRangeSet coalesces those ranges, the index clips the new range instead.
+   */
+  private static Map<Range<Double>, List<Integer>> binWithRangeSet(double[] values,
+      double tolerance) {
+    final RangeSet<Double> rangeSet = TreeRangeSet.create();
+    final Map<Range<Double>, List<Integer>> rangeToValues = new HashMap<>();
+    for (int i = 0; i < values.length; i++) {
+      final double value = values[i];
+      final Range<Double> containing = rangeSet.rangeContaining(value);
+      if (containing != null) {
+        rangeToValues.get(containing).add(i);
+        continue;
+      }
+      final Range<Double> plusRange = rangeSet.rangeContaining(value + tolerance);
+      final Range<Double> minusRange = rangeSet.rangeContaining(value - tolerance);
+      final double lower = minusRange == null ? value - tolerance : minusRange.upperEndpoint();
+      final double upper = plusRange == null ? value + tolerance : plusRange.lowerEndpoint();
+      if (lower < upper) {
+        final Range<Double> newRange = Range.open(lower, upper);
+        if (!rangeSet.subRangeSet(newRange).isEmpty()) {
+          return null;
+        }
+        rangeSet.add(newRange);
+        final List<Integer> list = new ArrayList<>();
+        list.add(i);
+        rangeToValues.put(newRange, list);
+      } else if (lower == upper && plusRange != null) {
+        rangeToValues.get(plusRange).add(i);
+      } else {
+        throw new IllegalStateException();
+      }
+    }
+    Assertions.assertEquals(rangeToValues.size(), rangeSet.asRanges().size());
+    return rangeToValues;
+  }
+
+  @Test
+  public void testSameRangesAsTreeRangeSet() {
+    final Random random = new Random(7);
+    int compared = 0;
+    for (int trial = 0; trial < 500; trial++) {
+      final int n = 1 + random.nextInt(2000);
+      final double tolerance = 0.001 + random.nextDouble() * 0.05;
+      final double width = 1 + random.nextInt(50);
+      final double[] values = new double[n];
+      for (int i = 0; i < n; i++) {
+        // coarse values produce points exactly on range bounds as well
+        values[i] = random.nextBoolean() ? 100 + random.nextDouble() * width
+            : 100 + random.nextInt(1000) * width / 1000;
+      }
+
+      final Map<Range<Double>, List<Integer>> expected = binWithRangeSet(values, tolerance);
+      if (expected == null) {
+        continue;
+      }
+      compared++;
+
+      final DisjointRangeIndex index = new DisjointRangeIndex();
+      final List<List<Integer>> valuesOfRange = new ArrayList<>();
+      for (int i = 0; i < n; i++) {
+        int id = index.find(values[i]);
+        if (id == -1) {
+          id = index.addAround(values[i], tolerance);
+        }
+        if (id == valuesOfRange.size()) {
+          valuesOfRange.add(new ArrayList<>());
+        }
+        valuesOfRange.get(id).add(i);
+      }
+
+      Assertions.assertEquals(expected.size(), index.size());
+      for (int id : index.getIdsInAscendingOrder()) {
+        final Range<Double> range = Range.open(index.getLower(id), index.getUpper(id));
+        Assertions.assertEquals(expected.get(range), valuesOfRange.get(id), range::toString);
+      }
+    }
+    logger.info(compared + " of 500 random inputs compared");
+    Assertions.assertTrue(compared > 250);
+  }
+
+  @Test
+  public void testValuesOnRangeBounds() {
+    final DisjointRangeIndex index = new DisjointRangeIndex();
+    final int first = index.addAround(100, 1);
+    Assertions.assertEquals(99d, index.getLower(first));
+    Assertions.assertEquals(101d, index.getUpper(first));
+
+    // the ranges are open, values on the bounds are not contained
+    Assertions.assertEquals(-1, index.find(99));
+    Assertions.assertEquals(-1, index.find(101));
+    Assertions.assertEquals(first, index.findIncludingLowerBound(99));
+    Assertions.assertEquals(-1, index.findIncludingLowerBound(101));
+
+    // a value on the upper bound starts a new range, like in the TreeRangeSet binning
+    final int above = index.addAround(101, 1);
+    Assertions.assertNotEquals(first, above);
+    Assertions.assertEquals(101d, index.getLower(above));
+    Assertions.assertEquals(102d, index.getUpper(above));
+    Assertions.assertEquals(above, index.findIncludingLowerBound(101));
+
+    // a value between two adjacent ranges belongs to the upper one, like in the TreeRangeSet
+    // binning
+    Assertions.assertEquals(above, index.addAround(101, 0.5));
+    Assertions.assertEquals(2, index.size());
+
+    // a value on the lower bound of a range belongs to that range. The TreeRangeSet binning added
+    // the range (98, 99) instead, which does not contain the value.
+    Assertions.assertEquals(first, index.addAround(99, 1));
+    Assertions.assertEquals(2, index.size());
+
+    // the next value below is binned into a range up to the lower bound
+    final int below = index.addAround(98.5, 1);
+    Assertions.assertEquals(97.5d, index.getLower(below));
+    Assertions.assertEquals(99d, index.getUpper(below));
+    Assertions.assertEquals(below, index.find(98.5));
+    Assertions.assertEquals(first, index.findIncludingLowerBound(99));
+    Assertions.assertArrayEquals(new int[]{below, first, above}, index.getIdsInAscendingOrder());
+  }
+}
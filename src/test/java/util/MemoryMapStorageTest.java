@@ -0,0 +1,129 @@
+package util;
+
+import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.util.MemoryMapStorage;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sun.misc.Unsafe;
+
+/**
+ * Stores arrays from several threads at once. Overlapping regions of the arenas or the directly
+ * reserved large arrays would overwrite the data of other threads, so all arrays are read back after
+ * all threads have finished.
+ */
+public class MemoryMapStorageTest {
+
+  private static final int THREADS = 8;
+  private static final int ARRAYS_PER_THREAD = 2000;
+  // larger than a quarter of an arena, reserved directly in the segment
+  private static final int LARGE_LENGTH = 600_000;
+
+  private static double value(int thread, int array, int index) {
+    return thread * 1E9 + array * 1E4 + index;
+  }
+
+  @Test
+  public void testConcurrentStoreData() throws Exception {
+    final MemoryMapStorage storage = MemoryMapStorage.create();
+    storage.retain();
+
+    final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Future<List<DoubleBuffer>>> futures = new ArrayList<>();
+    final long[] expectedBytes = new long[THREADS];
+    for (int t = 0; t < THREADS; t++) {
+      final int thread = t;
+      futures.add(executor.submit(() -> {
+        final Random random = new Random(thread);
+        final List<DoubleBuffer> buffers = new ArrayList<>();
+        start.await();
+        for (int a = 0; a < ARRAYS_PER_THREAD; a++) {
+          final int length = a % 500 == 0 ? LARGE_LENGTH : random.nextInt(2000);
+          final double[] data = new double[length];
+          for (int i = 0; i < length; i++) {
+            data[i] = value(thread, a, i);
+          }
+          buffers.add(storage.storeData(data));
+          expectedBytes[thread] += (long) length * Double.BYTES;
+        }
+        return buffers;
+      }));
+    }
+    start.countDown();
+
+    long totalBytes = 0;
+    for (int t = 0; t < THREADS; t++) {
+      final List<DoubleBuffer> buffers = futures.get(t).get();
+      Assertions.assertEquals(ARRAYS_PER_THREAD, buffers.size());
+      for (int a = 0; a < buffers.size(); a++) {
+        final DoubleBuffer buffer = buffers.get(a);
+        Assertions.assertTrue(buffer.isReadOnly());
+        for (int i = 0; i < buffer.capacity(); i++) {
+          if (buffer.get(i) != value(t, a, i)) {
+            Assertions.fail("Thread " + t + ", array " + a + ", index " + i + " was overwritten: "
+                + buffer.get(i));
+          }
+        }
+      }
+      totalBytes += expectedBytes[t];
+    }
+    executor.shutdown();
+
+    Assertions.assertEquals(totalBytes, storage.getBytesLive());
+    Assertions.assertTrue(storage.getBytesReserved() >= totalBytes);
+    Assertions.assertTrue(storage.getBytesMapped() >= storage.getBytesReserved());
+    storage.release();
+  }
+
+  @Test
+  public void testReleaseDiscardsStorage() throws IOException {
+    final MemoryMapStorage storage = MemoryMapStorage.create();
+    storage.retain();
+    storage.retain();
+    final IntBuffer buffer = storage.storeData(new int[]{1, 2, 3});
+
+    // still owned by the second owner
+    storage.release();
+    Assertions.assertTrue(MZmineCore.getStorageList().contains(storage));
+    Assertions.assertEquals(6, storage.storeData(new int[]{4, 5, 6}).get(2));
+
+    storage.release();
+    Assertions.assertFalse(MZmineCore.getStorageList().contains(storage));
+    Assertions.assertThrows(IOException.class, () -> storage.storeData(new int[]{7}));
+    // buffers handed out before stay readable until they are unreachable
+    Assertions.assertEquals(2, buffer.get(1));
+  }
+
+  @Test
+  public void testDiscardReleasesBudget() throws Exception {
+    final MemoryMapStorage storage = MemoryMapStorage.create();
+    storage.storeData(new double[1000]);
+    storage.storeData(new double[LARGE_LENGTH]);
+    final long reserved = storage.getBytesReserved();
+    final long charged = MemoryMapStorage.getTotalBytesCharged();
+    Assertions.assertTrue(reserved > (LARGE_LENGTH + 1000L) * Double.BYTES);
+
+    // the segment files are deleted and their budget released right away. Other storages may
+    // release their budget at the same time, so the total can only be lower.
+    storage.discard(getUnsafe());
+    Assertions.assertTrue(MemoryMapStorage.getTotalBytesCharged() <= charged - reserved);
+    Assertions.assertEquals(0, storage.getBytesReserved());
+  }
+
+  private static Unsafe getUnsafe() throws ReflectiveOperationException {
+    final Field field = Unsafe.class.getDeclaredField("theUnsafe");
+    field.setAccessible(true);
+    return (Unsafe) field.get(null);
+  }
+}
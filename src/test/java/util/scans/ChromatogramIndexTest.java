@@ -0,0 +1,99 @@
+package util.scans;
+
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.MassSpectrumType;
+import io.github.mzmine.datamodel.PolarityType;
+import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.datamodel.impl.SimpleScan;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+import io.github.mzmine.util.scans.ChromatogramIndex;
+import io.github.mzmine.util.scans.ScanUtils;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compares the base peaks and TICs of the {@link ChromatogramIndex} with {@link
+ * ScanUtils#findBasePeak(Scan, Range)} and {@link ScanUtils#calculateTIC(Scan, Range)} on random
+ * m/z windows.
+ */
+public class ChromatogramIndexTest {
+
+  private static List<Scan> randomScans(Random random) throws Exception {
+    final RawDataFileImpl rawDataFile = new RawDataFileImpl("test file", null, Color.WHITE);
+    final List<Scan> scans = new ArrayList<>();
+    // sizes around the block sizes of the pyramid levels
+    final int[] sizes = {0, 1, 2, 63, 64, 65, 127, 128, 4095, 4096, 4097, 20_000};
+    for (int s = 0; s < sizes.length; s++) {
+      final int n = sizes[s];
+      final double[] mzs = new double[n];
+      final double[] intensities = new double[n];
+      for (int i = 0; i < n; i++) {
+        // coarse values give duplicate m/z values and ties of the intensity
+        mzs[i] = 100 + random.nextInt(n * 4 + 1) * 0.25;
+        intensities[i] = random.nextInt(10) == 0 ? 0d : random.nextInt(1000);
+      }
+      Arrays.sort(mzs);
+      final SimpleScan scan = new SimpleScan(rawDataFile, s + 1, 1, s, 0d, 0, mzs, intensities,
+          MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "", Range.closed(100d, 100d + n));
+      rawDataFile.addScan(scan);
+      scans.add(scan);
+    }
+    return scans;
+  }
+
+  private static Range<Double> randomRange(Random random, Scan scan) {
+    final double upperLimit = 100 + scan.getNumberOfDataPoints() + 1;
+    final double a = 99 + random.nextInt((int) (upperLimit - 99) * 4 + 1) * 0.25;
+    final double b = 99 + random.nextInt((int) (upperLimit - 99) * 4 + 1) * 0.25;
+    final double lower = Math.min(a, b);
+    final double upper = Math.max(a, b);
+    return switch (random.nextInt(6)) {
+      case 0 -> Range.closed(lower, upper);
+      case 1 -> lower < upper ? Range.open(lower, upper) : Range.closed(lower, upper);
+      case 2 -> Range.closedOpen(lower, upper);
+      case 3 -> Range.openClosed(lower, upper);
+      case 4 -> Range.atLeast(lower);
+      default -> Range.atMost(upper);
+    };
+  }
+
+  @Test
+  public void testRandomWindows() throws Exception {
+    final Random random = new Random(13);
+    final List<Scan> scans = randomScans(random);
+    final ChromatogramIndex index = new ChromatogramIndex();
+    for (int query = 0; query < 20_000; query++) {
+      final Scan scan = scans.get(random.nextInt(scans.size()));
+      final Range<Double> mzRange = randomRange(random, scan);
+
+      final DataPoint expected = ScanUtils.findBasePeak(scan, mzRange);
+      final DataPoint actual = index.findBasePeak(scan, mzRange);
+      Assertions.assertEquals(expected.getMZ(), actual.getMZ(), mzRange::toString);
+      Assertions.assertEquals(expected.getIntensity(), actual.getIntensity(), mzRange::toString);
+
+      final double tic = ScanUtils.calculateTIC(scan, mzRange);
+      Assertions.assertEquals(tic, index.calculateTIC(scan, mzRange), Math.max(1E-9, tic * 1E-12),
+          mzRange::toString);
+    }
+    Assertions.assertEquals(0d, index.calculateTIC(scans.get(0), Range.all()));
+  }
+
+  @Test
+  public void testClear() throws Exception {
+    final Random random = new Random(17);
+    final List<Scan> scans = randomScans(random);
+    final ChromatogramIndex index = new ChromatogramIndex();
+    final Scan scan = scans.get(scans.size() - 1);
+    final double tic = index.calculateTIC(scan, Range.all());
+    index.clear();
+    // the pyramid is built again
+    Assertions.assertEquals(tic, index.calculateTIC(scan, Range.all()));
+    Assertions.assertEquals(ScanUtils.calculateTIC(scan, Range.all()), tic, tic * 1E-12);
+  }
+}
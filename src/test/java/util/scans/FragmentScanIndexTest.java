@@ -0,0 +1,180 @@
+package util.scans;
+
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.MassSpectrumType;
+import io.github.mzmine.datamodel.PolarityType;
+import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.datamodel.impl.SimpleScan;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+import io.github.mzmine.util.scans.FragmentScanIndex;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compares the lookups of the {@link FragmentScanIndex} with the linear filters it replaced in
+ * ScanUtils.findBestFragmentScan and ScanUtils.findAllMS2FragmentScans.
+ */
+public class FragmentScanIndexTest {
+
+  private static RawDataFileImpl randomFile(Random random, int numScans) throws Exception {
+    final RawDataFileImpl rawDataFile = new RawDataFileImpl("test file", null, Color.WHITE);
+    for (int s = 0; s < numScans; s++) {
+      rawDataFile.addScan(randomScan(random, rawDataFile, s + 1));
+    }
+    return rawDataFile;
+  }
+
+  private static Scan randomScan(Random random, RawDataFileImpl rawDataFile, int scanNumber) {
+    final int msLevel = 1 + random.nextInt(3);
+    // coarse values give equal precursor m/z values, retention times and base peak intensities
+    final double precursorMz = switch (random.nextInt(20)) {
+      case 0 -> Double.NaN;
+      case 1 -> 0d;
+      default -> 100 + random.nextInt(40) * 0.5;
+    };
+    final float rt = random.nextInt(20) * 0.5f;
+    final int numDataPoints = random.nextInt(5);
+    final double[] mzs = new double[numDataPoints];
+    final double[] intensities = new double[numDataPoints];
+    for (int i = 0; i < numDataPoints; i++) {
+      mzs[i] = 50 + i;
+      intensities[i] = 1 + random.nextInt(4);
+    }
+    return new SimpleScan(rawDataFile, scanNumber, msLevel, rt, precursorMz, 1, mzs, intensities,
+        MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "", Range.closed(50d, 60d));
+  }
+
+  private static Range<Double> randomMzRange(Random random) {
+    // bounds on the precursor m/z values of the scans
+    final double a = 99 + random.nextInt(46) * 0.5;
+    final double b = 99 + random.nextInt(46) * 0.5;
+    final double lower = Math.min(a, b);
+    final double upper = Math.max(a, b);
+    return switch (random.nextInt(8)) {
+      case 0 -> Range.closed(lower, upper);
+      case 1 -> lower < upper ? Range.open(lower, upper) : Range.closed(lower, upper);
+      case 2 -> Range.closedOpen(lower, upper);
+      case 3 -> Range.openClosed(lower, upper);
+      case 4 -> Range.atLeast(lower);
+      case 5 -> Range.greaterThan(lower);
+      case 6 -> Range.atMost(upper);
+      default -> Range.all();
+    };
+  }
+
+  private static Range<Float> randomRtRange(Random random) {
+    final float a = random.nextInt(22) * 0.5f - 0.5f;
+    final float b = random.nextInt(22) * 0.5f - 0.5f;
+    return random.nextBoolean() ? Range.closed(Math.min(a, b), Math.max(a, b)) : Range.all();
+  }
+
+  /**
+   * The filter of ScanUtils.findAllMS2FragmentScans before the index.
+   */
+  private static List<Scan> linearScans(List<Scan> scans, int msLevel, Range<Float> rtRange,
+      Range<Double> mzRange) {
+    return scans.stream()
+        .filter(s -> s.getMSLevel() == msLevel && rtRange.contains(s.getRetentionTime())
+            && mzRange.contains(s.getPrecursorMZ())).collect(Collectors.toList());
+  }
+
+  /**
+   * The filter of ScanUtils.findBestFragmentScan before the index.
+   */
+  private static Scan linearBestScan(List<Scan> scans, int msLevel, Range<Float> rtRange,
+      Range<Double> mzRange) {
+    return scans.stream()
+        .filter(s -> s.getMSLevel() == msLevel && s.getBasePeakIntensity() != null
+            && rtRange.contains(s.getRetentionTime()) && mzRange.contains(s.getPrecursorMZ()))
+        .max(Comparator.comparingDouble(s -> s.getBasePeakIntensity())).orElse(null);
+  }
+
+  @Test
+  public void testRandomRanges() throws Exception {
+    final Random random = new Random(20);
+    for (int numScans : new int[]{0, 1, 2, 10, 500}) {
+      final List<Scan> scans = randomFile(random, numScans).getScans();
+      final FragmentScanIndex index = new FragmentScanIndex(scans);
+      for (int query = 0; query < 2000; query++) {
+        // the index only contains fragment scans
+        final int msLevel = 2 + random.nextInt(2);
+        final Range<Float> rtRange = randomRtRange(random);
+        final Range<Double> mzRange = randomMzRange(random);
+        final String message = msLevel + " " + rtRange + " " + mzRange;
+
+        final List<Scan> expected = linearScans(scans, msLevel, rtRange, mzRange);
+        final List<Scan> actual = index.getScans(msLevel, rtRange, mzRange);
+        Assertions.assertEquals(expected.size(), actual.size(), message);
+        for (int i = 0; i < expected.size(); i++) {
+          Assertions.assertSame(expected.get(i), actual.get(i), message);
+        }
+        Assertions.assertSame(linearBestScan(scans, msLevel, rtRange, mzRange),
+            index.getBestScan(msLevel, rtRange, mzRange), message);
+      }
+    }
+  }
+
+  @Test
+  public void testNaNPrecursors() throws Exception {
+    final RawDataFileImpl rawDataFile = new RawDataFileImpl("test file", null, Color.WHITE);
+    final Scan nan = new SimpleScan(rawDataFile, 1, 2, 1f, Double.NaN, 1, new double[]{50d},
+        new double[]{10d}, MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "",
+        Range.closed(50d, 60d));
+    final Scan scan = new SimpleScan(rawDataFile, 2, 2, 1f, 200d, 1, new double[]{50d},
+        new double[]{5d}, MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "",
+        Range.closed(50d, 60d));
+    final FragmentScanIndex index = new FragmentScanIndex(List.of(nan, scan));
+
+    // Range.contains compares with Double.compareTo, which sorts NaN after all values
+    Assertions.assertEquals(List.of(scan), index.getScans(2, Range.all(), Range.closed(0d, 1E6)));
+    Assertions.assertEquals(List.of(scan),
+        index.getScans(2, Range.all(), Range.atMost(Double.POSITIVE_INFINITY)));
+    Assertions.assertEquals(List.of(nan, scan), index.getScans(2, Range.all(), Range.atLeast(0d)));
+    Assertions.assertEquals(List.of(nan, scan), index.getScans(2, Range.all(), Range.all()));
+    Assertions.assertSame(nan, index.getBestScan(2, Range.all(), Range.all()));
+  }
+
+  @Test
+  public void testBestScanTies() throws Exception {
+    final RawDataFileImpl rawDataFile = new RawDataFileImpl("test file", null, Color.WHITE);
+    // equal base peak intensities, the later scan in the file has the lower precursor m/z
+    final Scan first = new SimpleScan(rawDataFile, 1, 2, 1f, 300d, 1, new double[]{50d},
+        new double[]{10d}, MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "",
+        Range.closed(50d, 60d));
+    final Scan second = new SimpleScan(rawDataFile, 2, 2, 1f, 200d, 1, new double[]{50d},
+        new double[]{10d}, MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "",
+        Range.closed(50d, 60d));
+    final List<Scan> scans = List.of(first, second);
+    final FragmentScanIndex index = new FragmentScanIndex(scans);
+
+    // Stream.max keeps the first of equal elements
+    Assertions.assertSame(first, linearBestScan(scans, 2, Range.all(), Range.all()));
+    Assertions.assertSame(first, index.getBestScan(2, Range.all(), Range.all()));
+    Assertions.assertEquals(scans, index.getScans(2, Range.all(), Range.all()));
+  }
+
+  @Test
+  public void testAddScan() throws Exception {
+    final Random random = new Random(7);
+    final RawDataFileImpl rawDataFile = randomFile(random, 100);
+    final FragmentScanIndex index = rawDataFile.getFragmentScanIndex();
+    Assertions.assertSame(index, rawDataFile.getFragmentScanIndex());
+
+    final Scan added = new SimpleScan(rawDataFile, 101, 2, 1f, 500d, 1, new double[]{50d},
+        new double[]{1E6}, MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "",
+        Range.closed(50d, 60d));
+    rawDataFile.addScan(added);
+
+    final FragmentScanIndex newIndex = rawDataFile.getFragmentScanIndex();
+    Assertions.assertNotSame(index, newIndex);
+    Assertions.assertTrue(index.getScans(2, Range.all(), Range.singleton(500d)).isEmpty());
+    Assertions.assertEquals(List.of(added), newIndex.getScans(2, Range.all(),
+        Range.singleton(500d)));
+    Assertions.assertSame(added, newIndex.getBestScan(2, Range.all(), Range.all()));
+  }
+}
@@ -0,0 +1,70 @@
+package util.scans;
+
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.util.maths.similarity.Similarity;
+import io.github.mzmine.util.scans.ScanAlignment;
+import io.github.mzmine.util.scans.similarity.SpectralPeakAlignment;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class SpectralPeakAlignmentTest {
+
+  /**
+   * The primitive alignment must produce the same matches and scores as the data point based
+   * {@link ScanAlignment}.
+   */
+  @Test
+  public void testEqualToScanAlignment() {
+    final Random random = new Random(42);
+    final MZTolerance mzTol = new MZTolerance(0.005, 10);
+
+    for (int test = 0; test < 500; test++) {
+      final DataPoint[] library = randomSpectrum(random, 1 + random.nextInt(60));
+      final DataPoint[] query = randomSpectrum(random, 1 + random.nextInt(60));
+      // share some signals, shifted within the tolerance
+      for (int i = 0; i < Math.min(library.length, query.length) / 2; i++) {
+        query[i] = new SimpleDataPoint(library[i].getMZ() + (random.nextDouble() - 0.5) * 0.008,
+            random.nextInt(5) == 0 ? library[i].getIntensity() : random.nextDouble() * 1E5);
+      }
+
+      final SpectralPeakAlignment alignment = SpectralPeakAlignment.align(mzTol, library, query);
+      // ScanAlignment sorts the first array
+      final List<DataPoint[]> aligned =
+          ScanAlignment.align(mzTol, Arrays.copyOf(library, library.length), query);
+
+      for (boolean removeUnmatched : new boolean[]{false, true}) {
+        final List<DataPoint[]> expected =
+            removeUnmatched ? ScanAlignment.removeUnaligned(aligned) : aligned;
+        final List<DataPoint[]> actual =
+            alignment.toAlignedDataPoints(library, query, removeUnmatched);
+        Assertions.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+          Assertions.assertArrayEquals(expected.get(i), actual.get(i));
+        }
+
+        for (double[] weights : new double[][]{{1, 0}, {0.6, 3}}) {
+          final double expectedCosine = Similarity.COSINE.calc(
+              ScanAlignment.toIntensityMatrixWeighted(expected, weights[0], weights[1]));
+          Assertions.assertEquals(expectedCosine,
+              alignment.weightedCosine(weights[0], weights[1], removeUnmatched));
+        }
+      }
+      Assertions.assertEquals(ScanAlignment.removeUnaligned(aligned).size(),
+          alignment.getOverlap());
+    }
+  }
+
+  private static DataPoint[] randomSpectrum(Random random, int size) {
+    final DataPoint[] dataPoints = new DataPoint[size];
+    for (int i = 0; i < size; i++) {
+      dataPoints[i] = new SimpleDataPoint(50 + random.nextDouble() * 500,
+          random.nextInt(10) == 0 ? 1000 : random.nextDouble() * 1E5);
+    }
+    return dataPoints;
+  }
+}